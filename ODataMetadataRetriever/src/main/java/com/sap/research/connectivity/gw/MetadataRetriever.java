@@ -16,8 +16,27 @@
 
 package com.sap.research.connectivity.gw;
 
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -29,20 +48,52 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
-import org.odata4j.consumer.behaviors.OClientBehaviors;
 import org.odata4j.edm.EdmAssociationEnd;
 import org.odata4j.edm.EdmDataServices;
 import org.odata4j.edm.EdmEntitySet;
 import org.odata4j.edm.EdmNavigationProperty;
 import org.odata4j.edm.EdmProperty;
-import org.odata4j.jersey.consumer.ODataJerseyConsumer;
+import org.odata4j.format.xml.EdmxFormatParser;
+import org.odata4j.internal.InternalUtil;
+import org.odata4j.repack.org.apache.commons.codec.binary.Base64;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 public class MetadataRetriever {
 	
-	public static void main(String[] args) {
+	/*
+	 * System properties selecting the output of main(): -Dgw.metadata.format=stream|dom|edmx and -Dgw.metadata.file=<path>.
+	 * The "edmx" format is the $metadata document exactly as returned by the server.
+	 */
+	public static final String OUTPUT_FORMAT_PROPERTY = "gw.metadata.format";
+	public static final String OUTPUT_FILE_PROPERTY = "gw.metadata.file";
+	public static final String OUTPUT_FORMAT_STREAM = "stream";
+	public static final String OUTPUT_FORMAT_DOM = "dom";
+	public static final String OUTPUT_FORMAT_EDMX = "edmx";
+	
+	/*
+	 * -Dgw.metadata.timings=true makes main() print the duration of its phases to stderr
+	 */
+	public static final String TIMINGS_PROPERTY = "gw.metadata.timings";
+	
+	/*
+	 * Keys of the map returned by retrieveMetadataIfModified()
+	 */
+	public static final String RESULT_STATUS = "status";
+	public static final String RESULT_CONTENT = "content";
+	public static final String RESULT_ETAG = "etag";
+	public static final String RESULT_LAST_MODIFIED = "lastModified";
+	public static final String RESULT_TIMINGS = "timings";
+	public static final String STATUS_MODIFIED = "modified";
+	public static final String STATUS_NOT_MODIFIED = "notModified";
+	
+	public static void main(String[] args) throws IOException {
+		
+		if (args.length == 1 && args[0].equals(MetadataRetrieverDaemon.DAEMON_ARGUMENT)) {
+			MetadataRetrieverDaemon.main(args);
+			return;
+		}
 		
 		String url = args[0];
 		String user = args[1];
@@ -61,15 +112,351 @@ public class MetadataRetriever {
 			http_proxy_port = args[4];			
 		}
 		
-		System.setProperty("https.proxyHost", http_proxy_host);
-		System.setProperty("https.proxyPort", http_proxy_port);			
+		try {
+			String format = System.getProperty(OUTPUT_FORMAT_PROPERTY, OUTPUT_FORMAT_STREAM);
+			boolean raw = format.equals(OUTPUT_FORMAT_EDMX);
+			PhaseTimings timings = new PhaseTimings();
+			MetadataResponse response = downloadMetadata(url, user, pass, http_proxy_host, http_proxy_port, null, null, raw, timings);
+			long written;
+			if (raw)
+				written = writeRawMetadata(response.edmx, System.getProperty(OUTPUT_FILE_PROPERTY));
+			else
+				written = writeMetadata(response.metadata, format, System.getProperty(OUTPUT_FILE_PROPERTY));
+			timings.end("write", written);
+			printTimings(timings.toString());
+		} catch (Exception e) {
+			e.printStackTrace(System.out);
+		}
+	}
+
+	/*
+	 * Writes the metadata either to stdout or to the given file. The default "stream" format emits every entity as soon as
+	 * it is visited, the "dom" format builds the whole document in memory first (the behavior of older versions).
+	 * Returns the number of bytes written.
+	 */
+	private static long writeMetadata(EdmDataServices metad, String format, String outputFile) throws Exception {
+		Writer out;
+		CountingOutputStream stdout = null;
+		FileChannel channel = null;
+		if (outputFile == null || outputFile.isEmpty()) {
+			stdout = new CountingOutputStream(System.out);
+			out = new BufferedWriter(new OutputStreamWriter(stdout, "UTF-8"));
+		}
+		else {
+			channel = new FileOutputStream(outputFile).getChannel();
+			out = Channels.newWriter(channel, "UTF-8");
+		}
 		
-	    ODataJerseyConsumer ODataConsumer = ODataJerseyConsumer.newBuilder(url).setClientBehaviors(OClientBehaviors.basicAuth(user,pass)).build();
-	    
-		  try {
-			    
-			    EdmDataServices metad = ODataConsumer.getMetadata();
-			    
+		try {
+			if (format.equals(OUTPUT_FORMAT_DOM))
+				out.write(serializeDocument(buildMetadataDocument(metad)));
+			else
+				new MetadataStreamWriter(out).write(metad);
+			out.flush();
+			return channel != null ? channel.size() : stdout.getCount();
+		} finally {
+			if (outputFile != null && !outputFile.isEmpty())
+				out.close();
+		}
+	}
+
+	private static void printTimings(String timings) {
+		if (Boolean.getBoolean(TIMINGS_PROPERTY))
+			System.err.println("timings: " + timings);
+	}
+	
+	/*
+	 * Returns the number of bytes written
+	 */
+	private static long writeRawMetadata(String edmx, String outputFile) throws IOException {
+		boolean toFile = outputFile != null && !outputFile.isEmpty();
+		CountingOutputStream counting = new CountingOutputStream(toFile ? new FileOutputStream(outputFile) : System.out);
+		Writer out = new BufferedWriter(new OutputStreamWriter(counting, "UTF-8"));
+		
+		try {
+			out.write(edmx);
+			out.flush();
+			return counting.getCount();
+		} finally {
+			if (outputFile != null && !outputFile.isEmpty())
+				out.close();
+		}
+	}
+	
+	/*
+	 * Library entry point, used by the Roo addon to retrieve the metadata inside its own JVM (the jar is loaded once in a 
+	 * separate class loader and reused across commands). Returns the same XML document that main() prints on stdout.
+	 * The proxy is only set on the connection of the call, as the caller's JVM is shared with other components.
+	 */
+	public static String retrieveMetadata(String url, String user, String pass, String proxyHost, String proxyPort) throws Exception {
+		EdmDataServices metad = fetchMetadata(url, user, pass, proxyHost, proxyPort);
+		
+		StringWriter out = new StringWriter();
+		new MetadataStreamWriter(out).write(metad);
+		return out.toString();
+	}
+	
+	/*
+	 * Library entry point for refreshing already stored metadata. The $metadata document is requested with the validators 
+	 * (ETag / Last-Modified) of the previous download; if the server answers "304 Not Modified", nothing is downloaded or 
+	 * parsed and the returned status is STATUS_NOT_MODIFIED. Otherwise the returned map contains the metadata (same 
+	 * format as retrieveMetadata()) and the new validators, if the server sent any. RESULT_TIMINGS holds the duration and 
+	 * size of the phases of the request (see PhaseTimings).
+	 * Only java.lang / java.util types are used, so that the result can be read from another class loader.
+	 */
+	public static Map<String, String> retrieveMetadataIfModified(String url, String user, String pass, String proxyHost, String proxyPort, 
+			String etag, String lastModified) throws Exception {
+		return requestMetadata(url, user, pass, proxyHost, proxyPort, etag, lastModified, false);
+	}
+	
+	/*
+	 * Library entry point returning the $metadata document (EDMX) exactly as the server sent it, without building the 
+	 * odata4j model. The Roo addon parses the EDMX itself, which keeps the facets, annotations and complex types that 
+	 * the reduced document drops.
+	 */
+	public static String retrieveRawMetadata(String url, String user, String pass, String proxyHost, String proxyPort) throws Exception {
+		return requestMetadata(url, user, pass, proxyHost, proxyPort, null, null, true).get(RESULT_CONTENT);
+	}
+	
+	/*
+	 * Conditional variant of retrieveRawMetadata(), with the same result map as retrieveMetadataIfModified()
+	 */
+	public static Map<String, String> retrieveRawMetadataIfModified(String url, String user, String pass, String proxyHost, String proxyPort, 
+			String etag, String lastModified) throws Exception {
+		return requestMetadata(url, user, pass, proxyHost, proxyPort, etag, lastModified, true);
+	}
+	
+	private static Map<String, String> requestMetadata(String url, String user, String pass, String proxyHost, String proxyPort, 
+			String etag, String lastModified, boolean raw) throws Exception {
+		
+		PhaseTimings timings = new PhaseTimings();
+		MetadataResponse response = downloadMetadata(url, user, pass, proxyHost, proxyPort, etag, lastModified, raw, timings);
+		
+		Map<String, String> result = new HashMap<String, String>();
+		if (response.notModified) {
+			result.put(RESULT_STATUS, STATUS_NOT_MODIFIED);
+		}
+		else {
+			String content = response.edmx;
+			if (!raw) {
+				StringWriter out = new StringWriter();
+				new MetadataStreamWriter(out).write(response.metadata);
+				content = out.toString();
+				timings.end("write", PhaseTimings.utf8Length(content));
+			}
+			result.put(RESULT_STATUS, STATUS_MODIFIED);
+			result.put(RESULT_CONTENT, content);
+		}
+		result.put(RESULT_ETAG, response.etag);
+		result.put(RESULT_LAST_MODIFIED, response.lastModified);
+		result.put(RESULT_TIMINGS, timings.toString());
+		return result;
+	}
+	
+	/*
+	 * The answer to one $metadata request: "not modified", the EDMX as sent by the server (raw) or its odata4j model
+	 */
+	private static class MetadataResponse {
+		boolean notModified;
+		String edmx;
+		EdmDataServices metadata;
+		String etag;
+		String lastModified;
+	}
+	
+	/*
+	 * Requests the $metadata document and reads it, adding the connect, response, download and (unless raw) parse 
+	 * phases to the given timings
+	 */
+	private static MetadataResponse downloadMetadata(String url, String user, String pass, String proxyHost, String proxyPort, 
+			String etag, String lastModified, boolean raw, PhaseTimings timings) throws Exception {
+		
+		String metadataUrl = (url.endsWith("/") ? url : url + "/") + "$metadata";
+		HttpURLConnection connection = openConnection(metadataUrl, proxyHost, proxyPort);
+		
+		String userPassword = user + ":" + pass;
+		String encoded = Base64.encodeBase64String(userPassword.getBytes()).replaceAll("\r\n?", "");
+		connection.setRequestProperty("Authorization", "Basic " + encoded);
+		connection.setRequestProperty("Accept", "application/xml");
+		if (etag != null && !etag.isEmpty())
+			connection.setRequestProperty("If-None-Match", etag);
+		if (lastModified != null && !lastModified.isEmpty())
+			connection.setRequestProperty("If-Modified-Since", lastModified);
+		
+		MetadataResponse response = new MetadataResponse();
+		try {
+			// TCP connection and, for https, the TLS handshake
+			connection.connect();
+			timings.end("connect", 0);
+			
+			// Sending the request and waiting for the response headers, i.e. mostly the time the server needs
+			int responseCode = connection.getResponseCode();
+			timings.end("response", 0);
+			
+			if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				response.notModified = true;
+				response.etag = etag;
+				response.lastModified = lastModified;
+				return response;
+			}
+			if (responseCode != HttpURLConnection.HTTP_OK)
+				throw new IOException("The Gateway Service returned HTTP status " + responseCode + " for " + metadataUrl);
+			
+			/*
+			 * The body is parsed (or, for the raw EDMX, decoded) while it is read, without a copy of the whole document. 
+			 * The download ends with the last bytes read, the parsing with the last event, i.e. "parse" is the time the 
+			 * parser needs after the document has arrived.
+			 */
+			CountingInputStream body = new CountingInputStream(connection.getInputStream());
+			try {
+				Reader in = new InputStreamReader(body, getCharset(connection));
+				if (raw) {
+					response.edmx = readFully(in);
+					timings.end("download", body.getLastReadNanos(), body.getCount());
+				}
+				else {
+					response.metadata = new EdmxFormatParser().parseMetadata(InternalUtil.newXMLEventReader(in));
+					timings.end("download", body.getLastReadNanos(), body.getCount());
+					timings.end("parse", 0);
+				}
+			} finally {
+				body.close();
+			}
+			
+			response.etag = connection.getHeaderField("ETag");
+			response.lastModified = connection.getHeaderField("Last-Modified");
+			return response;
+		} finally {
+			connection.disconnect();
+		}
+	}
+	
+	private static String readFully(Reader in) throws IOException {
+		StringBuilder content = new StringBuilder(64 * 1024);
+		char[] buffer = new char[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			content.append(buffer, 0, read);
+		}
+		return content.toString();
+	}
+	
+	/*
+	 * Counts the bytes read from the response and remembers when the last ones arrived
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		
+		private long count;
+		private long lastReadNanos = System.nanoTime();
+		
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1)
+				counted(1);
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0)
+				counted(read);
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			if (skipped > 0)
+				counted(skipped);
+			return skipped;
+		}
+		
+		private void counted(long bytes) {
+			count += bytes;
+			lastReadNanos = System.nanoTime();
+		}
+		
+		long getCount() {
+			return count;
+		}
+		
+		long getLastReadNanos() {
+			return lastReadNanos;
+		}
+	}
+	
+	/*
+	 * Counts the bytes written to the output
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		
+		private long count;
+		
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+		
+		long getCount() {
+			return count;
+		}
+	}
+	
+	/*
+	 * The charset of the Content-Type header, UTF-8 (the default of XML documents) if there is none
+	 */
+	private static String getCharset(HttpURLConnection connection) {
+		String contentType = connection.getContentType();
+		if (contentType != null) {
+			for (String parameter : contentType.split(";")) {
+				parameter = parameter.trim();
+				if (parameter.toLowerCase().startsWith("charset="))
+					return parameter.substring("charset=".length()).replace("\"", "").trim();
+			}
+		}
+		return "UTF-8";
+	}
+	
+	/*
+	 * Opens a connection using the given proxy (if any) for https URLs, as the https.proxyHost / https.proxyPort properties 
+	 * would, but without changing the properties of the whole JVM.
+	 */
+	private static HttpURLConnection openConnection(String metadataUrl, String proxyHost, String proxyPort) throws IOException {
+		URL target = new URL(metadataUrl);
+		if (proxyHost != null && !proxyHost.isEmpty() && proxyPort != null && !proxyPort.isEmpty() 
+				&& target.getProtocol().equalsIgnoreCase("https")) {
+			Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost, Integer.parseInt(proxyPort)));
+			return (HttpURLConnection) target.openConnection(proxy);
+		}
+		return (HttpURLConnection) target.openConnection();
+	}
+	
+	/*
+	 * Requests and parses the $metadata document of the given service. Calls can run concurrently, the proxy (used for 
+	 * https URLs only) is set on the connection.
+	 */
+	public static EdmDataServices fetchMetadata(String url, String user, String pass, String proxyHost, String proxyPort) throws Exception {
+		return downloadMetadata(url, user, pass, proxyHost, proxyPort, null, null, false, new PhaseTimings()).metadata;
+	}
+	
+	public static Document buildMetadataDocument(EdmDataServices metad) throws ParserConfigurationException {
 			    
 				DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
 				DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
@@ -114,6 +501,13 @@ public class MetadataRetriever {
 		    			}
 		    			key.appendChild(doc.createTextNode(text));
 		    			entityField.appendChild(key);		
+
+		    			Element nullable = doc.createElement("nullable");
+		    			nullable.appendChild(doc.createTextNode(isNullable(ep) ? "true" : "false"));
+		    			entityField.appendChild(nullable);
+		    			appendFacet(doc, entityField, "maxlength", ep.getMaxLength());
+		    			appendFacet(doc, entityField, "precision", ep.getPrecision());
+		    			appendFacet(doc, entityField, "scale", ep.getScale());
 		    		}					
 					
 		    		for (EdmNavigationProperty navProp : es.getType().getNavigationProperties()) {
@@ -147,24 +541,33 @@ public class MetadataRetriever {
 						toNode.setAttributeNode(multiplicity2);	
 		    		}
 				}
-				
 
+				return doc;
+	}
+
+	/*
+	 * odata4j 0.6 reads the Nullable attribute inverted: EdmProperty.isNullable() is true only for Nullable="false"
+	 */
+	static boolean isNullable(EdmProperty ep) {
+		return !ep.isNullable();
+	}
+
+	private static void appendFacet(Document doc, Element entityField, String elementName, Integer value) {
+		if (value == null)
+			return;
+		Element facet = doc.createElement(elementName);
+		facet.appendChild(doc.createTextNode(value.toString()));
+		entityField.appendChild(facet);
+	}
+
+	public static String serializeDocument(Document doc) throws TransformerException {
 				StringWriter out = new StringWriter();				
 				Transformer transformer = TransformerFactory.newInstance().newTransformer();
 				
 				transformer.setOutputProperty(OutputKeys.INDENT, "yes");
 			    transformer.transform(new DOMSource(doc), new StreamResult(out));	
 			    
-				System.out.print(out.toString());
-				System.out.flush();
-		 
-			  } catch (ParserConfigurationException pce) {
-				  pce.printStackTrace(System.out);
-			  } catch (TransformerException tfe) {
-				  tfe.printStackTrace(System.out);				
-			  }	catch (Exception e) {
-				  e.printStackTrace(System.out);
-			  }
+				return out.toString();
 	}
 
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+
+/*
+ * Long-lived mode of the retriever ("java -jar <retriever jar> --daemon"), started once by the Roo addon when the
+ * retriever cannot be used in-process. Requests are read from stdin and answered on stdout, one at a time, until stdin
+ * is closed or a shutdown request is received.
+ *
+ * Every message is a frame of strings: an int with the number of strings, then for each string an int with the length
+ * of its UTF-8 bytes (-1 for null) followed by the bytes. Requests start with the operation, responses with OK or ERROR:
+ *
+ *   ping                                                          -> OK operation...
+ *   retrieve url user pass proxyHost proxyPort                    -> OK content
+ *   retrieveIfModified url user pass proxyHost proxyPort etag lastModified
+ *                                                                 -> OK status content etag lastModified timings
+ *   retrieveRaw, retrieveRawIfModified                            -> same, with the EDMX as sent by the server
+ *   shutdown                                                      -> OK
+ *
+ * The ping response lists the supported operations, so that the addon can tell which ones an older daemon lacks.
+ *
+ * Failures of a request are answered with ERROR message; the daemon keeps running.
+ */
+public class MetadataRetrieverDaemon {
+
+	public static final String DAEMON_ARGUMENT = "--daemon";
+
+	public static final String OP_PING = "ping";
+	public static final String OP_RETRIEVE = "retrieve";
+	public static final String OP_RETRIEVE_IF_MODIFIED = "retrieveIfModified";
+	public static final String OP_RETRIEVE_RAW = "retrieveRaw";
+	public static final String OP_RETRIEVE_RAW_IF_MODIFIED = "retrieveRawIfModified";
+	public static final String OP_SHUTDOWN = "shutdown";
+
+	public static final String REPLY_OK = "OK";
+	public static final String REPLY_ERROR = "ERROR";
+
+	private final DataInputStream in;
+	private final DataOutputStream out;
+
+	public MetadataRetrieverDaemon(InputStream in, OutputStream out) {
+		this.in = new DataInputStream(new BufferedInputStream(in));
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+	}
+
+	public static void main(String[] args) throws IOException {
+		// stdout carries the frames only, anything printed by the libraries goes to stderr
+		PrintStream stdout = System.out;
+		System.setOut(System.err);
+		new MetadataRetrieverDaemon(System.in, stdout).run();
+	}
+
+	public void run() throws IOException {
+		while (true) {
+			String[] request;
+			try {
+				request = readFrame(in);
+			} catch (EOFException e) {
+				// The addon closed the pipe (e.g. the Roo shell exited)
+				return;
+			}
+
+			if (request.length == 0) {
+				writeFrame(out, REPLY_ERROR, "Empty request");
+				continue;
+			}
+
+			String operation = request[0];
+			if (OP_SHUTDOWN.equals(operation)) {
+				writeFrame(out, REPLY_OK);
+				return;
+			}
+
+			try {
+				writeFrame(out, handle(operation, request));
+			} catch (Exception e) {
+				writeFrame(out, REPLY_ERROR, e.getMessage() != null ? e.getMessage() : e.toString());
+			}
+		}
+	}
+
+	private String[] handle(String operation, String[] request) throws Exception {
+		if (OP_PING.equals(operation)) {
+			return new String[] {REPLY_OK, OP_RETRIEVE, OP_RETRIEVE_IF_MODIFIED, OP_RETRIEVE_RAW, OP_RETRIEVE_RAW_IF_MODIFIED};
+		}
+		else if (OP_RETRIEVE.equals(operation)) {
+			checkArguments(request, 6);
+			return new String[] {REPLY_OK, MetadataRetriever.retrieveMetadata(request[1], request[2], request[3], request[4], request[5])};
+		}
+		else if (OP_RETRIEVE_RAW.equals(operation)) {
+			checkArguments(request, 6);
+			return new String[] {REPLY_OK, MetadataRetriever.retrieveRawMetadata(request[1], request[2], request[3], request[4], request[5])};
+		}
+		else if (OP_RETRIEVE_IF_MODIFIED.equals(operation) || OP_RETRIEVE_RAW_IF_MODIFIED.equals(operation)) {
+			checkArguments(request, 8);
+			Map<String, String> result;
+			if (OP_RETRIEVE_RAW_IF_MODIFIED.equals(operation))
+				result = MetadataRetriever.retrieveRawMetadataIfModified(request[1], request[2], request[3], request[4], request[5],
+						request[6], request[7]);
+			else
+				result = MetadataRetriever.retrieveMetadataIfModified(request[1], request[2], request[3], request[4], request[5],
+						request[6], request[7]);
+			return new String[] {REPLY_OK, result.get(MetadataRetriever.RESULT_STATUS), result.get(MetadataRetriever.RESULT_CONTENT),
+					result.get(MetadataRetriever.RESULT_ETAG), result.get(MetadataRetriever.RESULT_LAST_MODIFIED),
+					result.get(MetadataRetriever.RESULT_TIMINGS)};
+		}
+		throw new IllegalArgumentException("Unknown operation " + operation);
+	}
+
+	private static void checkArguments(String[] request, int length) {
+		if (request.length != length)
+			throw new IllegalArgumentException("Operation " + request[0] + " expects " + (length - 1) + " arguments, got " + (request.length - 1));
+	}
+
+	public static String[] readFrame(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		if (count < 0)
+			throw new IOException("Invalid frame");
+
+		String[] frame = new String[count];
+		for (int i = 0; i < count; i++) {
+			int length = in.readInt();
+			if (length < 0) {
+				frame[i] = null;
+				continue;
+			}
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			frame[i] = new String(bytes, "UTF-8");
+		}
+		return frame;
+	}
+
+	public static void writeFrame(DataOutputStream out, String... frame) throws IOException {
+		out.writeInt(frame.length);
+		for (String value : frame) {
+			if (value == null) {
+				out.writeInt(-1);
+				continue;
+			}
+			byte[] bytes = value.getBytes("UTF-8");
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		out.flush();
+	}
+}
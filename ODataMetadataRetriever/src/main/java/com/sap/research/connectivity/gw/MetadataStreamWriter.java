@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import java.io.Writer;
+import java.util.List;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.odata4j.edm.EdmAssociationEnd;
+import org.odata4j.edm.EdmDataServices;
+import org.odata4j.edm.EdmEntitySet;
+import org.odata4j.edm.EdmNavigationProperty;
+import org.odata4j.edm.EdmProperty;
+
+/*
+ * Writes the reduced metadata document (same structure as MetadataRetriever.buildMetadataDocument) with a StAX
+ * XMLStreamWriter. Each <entity> element is written and flushed as soon as its entity set is visited, so neither a DOM
+ * of the whole service nor a copy of the serialized document is kept in memory.
+ */
+public class MetadataStreamWriter {
+
+	private static final String NEW_LINE = "\n";
+	private static final String INDENT = "  ";
+
+	private final Writer out;
+	private final XMLStreamWriter xml;
+
+	public MetadataStreamWriter(Writer out) throws XMLStreamException {
+		this.out = out;
+		this.xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+	}
+
+	public void write(EdmDataServices metad) throws Exception {
+		xml.writeStartDocument("UTF-8", "1.0");
+		xml.writeCharacters(NEW_LINE);
+		xml.writeStartElement("entities");
+
+		for (EdmEntitySet es : metad.getEntitySets()) {
+			writeEntity(es);
+			xml.flush();
+			out.flush();
+		}
+
+		newLine(0);
+		xml.writeEndElement();
+		xml.writeCharacters(NEW_LINE);
+		xml.writeEndDocument();
+		xml.flush();
+		out.flush();
+	}
+
+	private void writeEntity(EdmEntitySet es) throws XMLStreamException {
+		newLine(1);
+		xml.writeStartElement("entity");
+		xml.writeAttribute("name", es.getName());
+
+		List<String> keys = es.getType().getKeys();
+
+		for (EdmProperty ep : es.getType().getProperties()) {
+			newLine(2);
+			xml.writeStartElement("entityfield");
+
+			String remoteFieldType = ep.getType().getFullyQualifiedTypeName();
+			remoteFieldType = (remoteFieldType.toLowerCase().startsWith("edm.")) ? remoteFieldType.substring(4) : remoteFieldType;
+
+			writeTextElement(3, "fieldname", ep.getName());
+			writeTextElement(3, "fieldtype", remoteFieldType);
+			writeTextElement(3, "key", keys.contains(ep.getName()) ? "true" : "false");
+			writeTextElement(3, "nullable", MetadataRetriever.isNullable(ep) ? "true" : "false");
+			writeFacet(3, "maxlength", ep.getMaxLength());
+			writeFacet(3, "precision", ep.getPrecision());
+			writeFacet(3, "scale", ep.getScale());
+
+			newLine(2);
+			xml.writeEndElement();
+		}
+
+		for (EdmNavigationProperty navProp : es.getType().getNavigationProperties()) {
+			newLine(2);
+			xml.writeStartElement("navproperty");
+
+			EdmAssociationEnd end1 = navProp.getRelationship().getEnd1();
+			EdmAssociationEnd end2 = navProp.getRelationship().getEnd2();
+
+			writeTextElement(3, "relationship_id", navProp.getRelationship().getName());
+			writeTextElement(3, "navpath", navProp.getName());
+			writeAssociationEnd(3, "end1", end1);
+			writeAssociationEnd(3, "end2", end2);
+
+			newLine(2);
+			xml.writeEndElement();
+		}
+
+		newLine(1);
+		xml.writeEndElement();
+	}
+
+	private void writeAssociationEnd(int level, String elementName, EdmAssociationEnd end) throws XMLStreamException {
+		newLine(level);
+		xml.writeStartElement(elementName);
+		xml.writeAttribute("multiplicity", end.getMultiplicity().getSymbolString());
+		xml.writeCharacters(end.getType().getName());
+		xml.writeEndElement();
+	}
+
+	private void writeFacet(int level, String elementName, Integer value) throws XMLStreamException {
+		if (value != null)
+			writeTextElement(level, elementName, value.toString());
+	}
+
+	private void writeTextElement(int level, String elementName, String text) throws XMLStreamException {
+		newLine(level);
+		xml.writeStartElement(elementName);
+		xml.writeCharacters(text);
+		xml.writeEndElement();
+	}
+
+	private void newLine(int level) throws XMLStreamException {
+		xml.writeCharacters(NEW_LINE);
+		for (int i = 0; i < level; i++) {
+			xml.writeCharacters(INDENT);
+		}
+	}
+}
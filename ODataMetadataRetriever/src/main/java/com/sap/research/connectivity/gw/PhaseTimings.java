@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+/*
+ * Duration and byte count of the phases of one metadata retrieval (connect, response, download, parse, write).
+ * The phases are handed to the Roo addon as a plain string, "name=millis:bytes" separated by ";", as the addon reads
+ * the result from another class loader or process.
+ */
+public class PhaseTimings {
+
+	private final StringBuilder phases = new StringBuilder();
+	private long phaseStart = System.nanoTime();
+
+	/*
+	 * Ends the current phase and starts the next one
+	 */
+	public void end(String phase, long bytes) {
+		end(phase, System.nanoTime(), bytes);
+	}
+
+	/*
+	 * Ends the current phase at the given System.nanoTime() and starts the next one there, for phases which are only
+	 * known to have ended afterwards (e.g. the download of a document parsed while it is read)
+	 */
+	public void end(String phase, long endNanos, long bytes) {
+		if (phases.length() > 0)
+			phases.append(';');
+		phases.append(phase).append('=').append((endNanos - phaseStart) / 1000000).append(':').append(bytes);
+		phaseStart = endNanos;
+	}
+
+	/*
+	 * The number of bytes of the UTF-8 encoding of the given text, without encoding it
+	 */
+	public static long utf8Length(String text) {
+		long length = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				length++;
+			}
+			else if (c < 0x800) {
+				length += 2;
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+				length += 4;
+				i++;
+			}
+			else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	@Override
+	public String toString() {
+		return phases.toString();
+	}
+}
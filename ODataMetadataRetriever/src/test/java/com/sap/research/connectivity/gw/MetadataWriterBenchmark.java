@@ -0,0 +1,161 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import org.odata4j.edm.EdmDataServices;
+import org.odata4j.format.xml.EdmxFormatParser;
+import org.odata4j.internal.InternalUtil;
+
+/*
+ * Compares the DOM output path of MetadataRetriever with the streaming one (time, peak heap and time to first byte).
+ *
+ * Usage (after mvn test-compile): java -cp target/test-classes:<retriever jar> com.sap.research.connectivity.gw.MetadataWriterBenchmark
+ *                 [entitySets] [propertiesPerEntity] [navPropertiesPerEntity] [iterations]
+ *
+ * It is part of the test sources, so that it is not shipped with the retriever jar.
+ *
+ * The metadata is a synthetic service with the given dimensions, so the benchmark can run without a Gateway system.
+ */
+public class MetadataWriterBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int entitySets = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int properties = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+		int navProperties = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+		EdmDataServices metad = new EdmxFormatParser().parseMetadata(
+				InternalUtil.newXMLEventReader(new StringReader(buildSyntheticEdmx(entitySets, properties, navProperties))));
+
+		System.out.println("Entity sets: " + entitySets + ", properties: " + properties + ", navigation properties: " + navProperties);
+
+		// Warm up both paths once before measuring
+		runDom(metad);
+		runStream(metad);
+
+		for (int i = 0; i < iterations; i++) {
+			report("dom   ", runDom(metad));
+			report("stream", runStream(metad));
+		}
+	}
+
+	private static long[] runDom(EdmDataServices metad) throws Exception {
+		CountingWriter out = new CountingWriter();
+		startMeasurement();
+		long start = System.nanoTime();
+		out.write(MetadataRetriever.serializeDocument(MetadataRetriever.buildMetadataDocument(metad)));
+		out.flush();
+		return new long[] {System.nanoTime() - start, out.firstByteNanos - start, peakHeapUsage(), out.count};
+	}
+
+	private static long[] runStream(EdmDataServices metad) throws Exception {
+		CountingWriter out = new CountingWriter();
+		startMeasurement();
+		long start = System.nanoTime();
+		new MetadataStreamWriter(out).write(metad);
+		return new long[] {System.nanoTime() - start, out.firstByteNanos - start, peakHeapUsage(), out.count};
+	}
+
+	private static void report(String mode, long[] result) {
+		System.out.println(mode + ": total " + (result[0] / 1000000) + " ms, first byte after " + (result[1] / 1000000) + " ms, peak heap "
+				+ (result[2] / (1024 * 1024)) + " MB, " + result[3] + " chars");
+	}
+
+	private static void startMeasurement() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+
+	private static long peakHeapUsage() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	private static String buildSyntheticEdmx(int entitySets, int properties, int navProperties) {
+		StringBuilder edmx = new StringBuilder();
+		edmx.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>")
+			.append("<edmx:Edmx Version=\"1.0\" xmlns:edmx=\"http://schemas.microsoft.com/ado/2007/06/edmx\">")
+			.append("<edmx:DataServices m:DataServiceVersion=\"2.0\" xmlns:m=\"http://schemas.microsoft.com/ado/2007/08/dataservices/metadata\">")
+			.append("<Schema Namespace=\"BENCH\" xmlns=\"http://schemas.microsoft.com/ado/2008/09/edm\">");
+
+		for (int e = 0; e < entitySets; e++) {
+			edmx.append("<EntityType Name=\"Entity").append(e).append("\"><Key><PropertyRef Name=\"Id\"/></Key>")
+				.append("<Property Name=\"Id\" Type=\"Edm.String\" Nullable=\"false\"/>");
+			for (int p = 0; p < properties; p++) {
+				edmx.append("<Property Name=\"Property").append(p).append("\" Type=\"").append(p % 3 == 0 ? "Edm.DateTime" : "Edm.String")
+					.append("\"/>");
+			}
+			for (int n = 0; n < navProperties; n++) {
+				edmx.append("<NavigationProperty Name=\"Nav").append(n).append("\" Relationship=\"BENCH.Assoc").append(e).append('_').append(n)
+					.append("\" FromRole=\"From\" ToRole=\"To\"/>");
+			}
+			edmx.append("</EntityType>");
+		}
+
+		for (int e = 0; e < entitySets; e++) {
+			for (int n = 0; n < navProperties; n++) {
+				edmx.append("<Association Name=\"Assoc").append(e).append('_').append(n).append("\">")
+					.append("<End Type=\"BENCH.Entity").append(e).append("\" Multiplicity=\"1\" Role=\"From\"/>")
+					.append("<End Type=\"BENCH.Entity").append((e + n + 1) % entitySets).append("\" Multiplicity=\"*\" Role=\"To\"/>")
+					.append("</Association>");
+			}
+		}
+
+		edmx.append("<EntityContainer Name=\"BENCH_Entities\" m:IsDefaultEntityContainer=\"true\">");
+		for (int e = 0; e < entitySets; e++) {
+			edmx.append("<EntitySet Name=\"Entity").append(e).append("Collection\" EntityType=\"BENCH.Entity").append(e).append("\"/>");
+		}
+		edmx.append("</EntityContainer></Schema></edmx:DataServices></edmx:Edmx>");
+		return edmx.toString();
+	}
+
+	/*
+	 * Discards the output, only keeping the number of characters and the time of the first write.
+	 */
+	private static class CountingWriter extends Writer {
+		long count;
+		long firstByteNanos;
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			if (count == 0 && len > 0)
+				firstByteNanos = System.nanoTime();
+			count += len;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.standin;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/*
+ * Reads an Atom entry sent with POST, PUT or MERGE: the property values (m:properties) and the links to other
+ * entities (<link rel=".../related/Nav" href="Set(key)"/>). Inline content (deep insert) and complex properties are
+ * not supported and skipped.
+ */
+public class AtomEntryReader {
+
+	private static final XMLInputFactory FACTORY = createFactory();
+
+	private final Map<String, String> values = new LinkedHashMap<String, String>();
+	private final Map<String, List<String>> bindings = new LinkedHashMap<String, List<String>>();
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		return factory;
+	}
+
+	public static AtomEntryReader read(String entry) throws ODataException {
+		AtomEntryReader reader = new AtomEntryReader();
+		XMLStreamReader xml = null;
+		try {
+			synchronized (FACTORY) {
+				xml = FACTORY.createXMLStreamReader(new StringReader(entry));
+			}
+			reader.readEntry(xml);
+		} catch (XMLStreamException e) {
+			throw ODataException.badRequest("The entry could not be parsed: " + e.getMessage());
+		} finally {
+			if (xml != null) {
+				try {
+					xml.close();
+				} catch (XMLStreamException e) {
+					// Only read from a string
+				}
+			}
+		}
+		return reader;
+	}
+
+	/*
+	 * The property values in their Atom text form, null for m:null="true"
+	 */
+	public Map<String, String> getValues() {
+		return values;
+	}
+
+	/*
+	 * The hrefs of the linked entities, by navigation property
+	 */
+	public Map<String, List<String>> getBindings() {
+		return bindings;
+	}
+
+	private void readEntry(XMLStreamReader xml) throws XMLStreamException, ODataException {
+		while (xml.hasNext() && xml.next() != XMLStreamConstants.START_ELEMENT) {
+			// Prolog
+		}
+		if (!xml.isStartElement() || !"entry".equals(xml.getLocalName()))
+			throw ODataException.badRequest("The request body is not an Atom entry.");
+
+		int depth = 1;
+		while (depth > 0 && xml.hasNext()) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+			else if (event == XMLStreamConstants.START_ELEMENT) {
+				String element = xml.getLocalName();
+				if ("properties".equals(element) && EdmxWriter.METADATA_NS.equals(xml.getNamespaceURI())) {
+					readProperties(xml);
+				}
+				else if ("link".equals(element) && depth == 1) {
+					String rel = xml.getAttributeValue(null, "rel");
+					String href = xml.getAttributeValue(null, "href");
+					if (rel != null && rel.startsWith(AtomWriter.RELATED_PREFIX) && href != null) {
+						String navigation = rel.substring(AtomWriter.RELATED_PREFIX.length());
+						if (!bindings.containsKey(navigation))
+							bindings.put(navigation, new ArrayList<String>());
+						bindings.get(navigation).add(href);
+					}
+					skipElement(xml);
+				}
+				else if ("content".equals(element)) {
+					depth++;
+				}
+				else {
+					skipElement(xml);
+				}
+			}
+		}
+	}
+
+	private void readProperties(XMLStreamReader xml) throws XMLStreamException {
+		while (xml.hasNext()) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.END_ELEMENT)
+				return;
+			if (event != XMLStreamConstants.START_ELEMENT)
+				continue;
+
+			String name = xml.getLocalName();
+			boolean isNull = "true".equals(xml.getAttributeValue(EdmxWriter.METADATA_NS, "null"));
+			StringBuilder text = new StringBuilder();
+			boolean complex = false;
+			int depth = 1;
+			while (depth > 0 && xml.hasNext()) {
+				event = xml.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					complex = true;
+					depth++;
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				}
+				else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+					text.append(xml.getText());
+				}
+			}
+			if (!complex)
+				values.put(name, isNull ? null : text.toString());
+		}
+	}
+
+	private static void skipElement(XMLStreamReader xml) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0 && xml.hasNext()) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+		}
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.standin;
+
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/*
+ * Writes the Atom documents of the stand-in service: feeds, entries, the service document and OData error documents.
+ *
+ * Navigation properties listed in $expand are written inline (m:inline); the other ones only as links. Expanded
+ * feeds are not paged.
+ */
+public class AtomWriter {
+
+	static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+	static final String APP_NS = "http://www.w3.org/2007/app";
+	static final String DATA_NS = "http://schemas.microsoft.com/ado/2007/08/dataservices";
+	static final String RELATED_PREFIX = DATA_NS + "/related/";
+	static final String SCHEME = DATA_NS + "/scheme";
+
+	private final String serviceUrl;
+	private final EntityStore store;
+	private final String updated;
+	private XMLStreamWriter xml;
+
+	/*
+	 * The service URL is the base of all ids and links and ends with "/"
+	 */
+	public AtomWriter(String serviceUrl, EntityStore store) {
+		this.serviceUrl = serviceUrl;
+		this.store = store;
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		this.updated = format.format(new Date());
+	}
+
+	/*
+	 * Writes a feed. The count is written if not negative, the next link if not null (relative to the service URL).
+	 */
+	public String writeFeed(ServiceModel.EntitySet entitySet, String feedPath, List<EntityStore.Entity> entities, long count, String nextLink,
+			List<String> expand) throws XMLStreamException {
+		StringWriter out = new StringWriter();
+		xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+		xml.writeStartDocument("utf-8", "1.0");
+		writeFeedElement(entitySet, feedPath, entities, count, nextLink, expand, true);
+		xml.writeEndDocument();
+		xml.close();
+		return out.toString();
+	}
+
+	public String writeEntry(EntityStore.Entity entity, List<String> expand) throws XMLStreamException {
+		StringWriter out = new StringWriter();
+		xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+		xml.writeStartDocument("utf-8", "1.0");
+		writeEntryElement(entity, expand, true);
+		xml.writeEndDocument();
+		xml.close();
+		return out.toString();
+	}
+
+	public String writeServiceDocument(ServiceModel model) throws XMLStreamException {
+		StringWriter out = new StringWriter();
+		xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+		xml.writeStartDocument("utf-8", "1.0");
+		xml.writeStartElement("app", "service", APP_NS);
+		xml.writeNamespace("app", APP_NS);
+		xml.writeNamespace("atom", ATOM_NS);
+		xml.writeAttribute("xml:base", serviceUrl);
+		xml.writeStartElement("app", "workspace", APP_NS);
+		writeTextElement("atom", "title", ATOM_NS, "Data");
+		for (ServiceModel.EntitySet entitySet : model.getEntitySets()) {
+			xml.writeStartElement("app", "collection", APP_NS);
+			xml.writeAttribute("href", entitySet.getName());
+			writeTextElement("atom", "title", ATOM_NS, entitySet.getName());
+			xml.writeEndElement();
+		}
+		xml.writeEndElement();
+		xml.writeEndElement();
+		xml.writeEndDocument();
+		xml.close();
+		return out.toString();
+	}
+
+	public static String writeError(String code, String message) {
+		try {
+			StringWriter out = new StringWriter();
+			XMLStreamWriter error = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+			error.writeStartDocument("utf-8", "1.0");
+			error.writeStartElement("error");
+			error.writeDefaultNamespace(EdmxWriter.METADATA_NS);
+			error.writeStartElement("code");
+			error.writeCharacters(code);
+			error.writeEndElement();
+			error.writeStartElement("message");
+			error.writeAttribute("xml:lang", "en");
+			error.writeCharacters(message == null ? "" : message);
+			error.writeEndElement();
+			error.writeEndElement();
+			error.writeEndDocument();
+			error.close();
+			return out.toString();
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void writeFeedElement(ServiceModel.EntitySet entitySet, String feedPath, List<EntityStore.Entity> entities, long count,
+			String nextLink, List<String> expand, boolean root) throws XMLStreamException {
+		xml.writeStartElement("feed");
+		if (root)
+			writeNamespaces();
+		writeTextElement(null, "id", null, serviceUrl + feedPath);
+		xml.writeStartElement("title");
+		xml.writeAttribute("type", "text");
+		xml.writeCharacters(entitySet.getName());
+		xml.writeEndElement();
+		writeTextElement(null, "updated", null, updated);
+		xml.writeStartElement("author");
+		xml.writeEmptyElement("name");
+		xml.writeEndElement();
+		writeLink(feedPath, "self", entitySet.getName(), null);
+		if (count >= 0)
+			writeTextElement("m", "count", EdmxWriter.METADATA_NS, String.valueOf(count));
+
+		for (EntityStore.Entity entity : entities) {
+			writeEntryElement(entity, expand, false);
+		}
+
+		if (nextLink != null)
+			writeLink(nextLink, "next", null, null);
+		xml.writeEndElement();
+	}
+
+	private void writeEntryElement(EntityStore.Entity entity, List<String> expand, boolean root) throws XMLStreamException {
+		ServiceModel.EntitySet entitySet = entity.getEntitySet();
+		String path = entitySet.getName() + "(" + entity.getKey() + ")";
+
+		xml.writeStartElement("entry");
+		if (root)
+			writeNamespaces();
+		writeTextElement(null, "id", null, serviceUrl + path);
+		xml.writeStartElement("title");
+		xml.writeAttribute("type", "text");
+		xml.writeCharacters(path);
+		xml.writeEndElement();
+		writeTextElement(null, "updated", null, updated);
+		xml.writeStartElement("category");
+		xml.writeAttribute("term", entitySet.getQualifiedEntityTypeName());
+		xml.writeAttribute("scheme", SCHEME);
+		xml.writeEndElement();
+		writeLink(path, "edit", entitySet.getEntityTypeName(), null);
+
+		for (ServiceModel.Navigation navigation : entitySet.getNavigations()) {
+			String type = navigation.isToMany() ? "application/atom+xml;type=feed" : "application/atom+xml;type=entry";
+			List<String> subExpand = expandedPaths(expand, navigation.getName());
+			if (subExpand == null) {
+				writeLink(path + "/" + navigation.getName(), RELATED_PREFIX + navigation.getName(), navigation.getName(), type);
+				continue;
+			}
+
+			xml.writeStartElement("link");
+			xml.writeAttribute("href", path + "/" + navigation.getName());
+			xml.writeAttribute("rel", RELATED_PREFIX + navigation.getName());
+			xml.writeAttribute("type", type);
+			xml.writeAttribute("title", navigation.getName());
+			xml.writeStartElement("m", "inline", EdmxWriter.METADATA_NS);
+			List<EntityStore.Entity> related = store.getRelated(entity, navigation);
+			if (navigation.isToMany())
+				writeFeedElement(navigation.getTarget(), path + "/" + navigation.getName(), related, -1, null, subExpand, false);
+			else if (!related.isEmpty())
+				writeEntryElement(related.get(0), subExpand, false);
+			xml.writeEndElement();
+			xml.writeEndElement();
+		}
+
+		xml.writeStartElement("content");
+		xml.writeAttribute("type", "application/xml");
+		xml.writeStartElement("m", "properties", EdmxWriter.METADATA_NS);
+		for (ServiceModel.Property property : entitySet.getProperties()) {
+			String value = entity.getValue(property.getName());
+			xml.writeStartElement("d", property.getName(), DATA_NS);
+			if (!"Edm.String".equals(property.getType()))
+				xml.writeAttribute("m", EdmxWriter.METADATA_NS, "type", property.getType());
+			if (value == null)
+				xml.writeAttribute("m", EdmxWriter.METADATA_NS, "null", "true");
+			else
+				xml.writeCharacters(value);
+			xml.writeEndElement();
+		}
+		xml.writeEndElement();
+		xml.writeEndElement();
+
+		xml.writeEndElement();
+	}
+
+	/*
+	 * Returns the $expand paths below the given navigation property, or null if it is not expanded
+	 */
+	private static List<String> expandedPaths(List<String> expand, String navigation) {
+		List<String> subPaths = null;
+		for (String path : expand) {
+			if (path.equals(navigation) || path.startsWith(navigation + "/")) {
+				if (subPaths == null)
+					subPaths = new ArrayList<String>();
+				if (path.length() > navigation.length())
+					subPaths.add(path.substring(navigation.length() + 1));
+			}
+		}
+		return subPaths;
+	}
+
+	private void writeNamespaces() throws XMLStreamException {
+		xml.writeDefaultNamespace(ATOM_NS);
+		xml.writeNamespace("d", DATA_NS);
+		xml.writeNamespace("m", EdmxWriter.METADATA_NS);
+		xml.writeAttribute("xml:base", serviceUrl);
+	}
+
+	private void writeLink(String href, String rel, String title, String type) throws XMLStreamException {
+		xml.writeEmptyElement("link");
+		xml.writeAttribute("href", href);
+		xml.writeAttribute("rel", rel);
+		if (type != null)
+			xml.writeAttribute("type", type);
+		if (title != null)
+			xml.writeAttribute("title", title);
+	}
+
+	private void writeTextElement(String prefix, String localName, String namespace, String text) throws XMLStreamException {
+		if (prefix == null)
+			xml.writeStartElement(localName);
+		else
+			xml.writeStartElement(prefix, localName, namespace);
+		xml.writeCharacters(text);
+		xml.writeEndElement();
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.standin;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Processes an OData V2 $batch request (multipart/mixed). Query operations are answered one by one; the operations
+ * of a change set are applied together: if one of them fails, the changes of the others are undone and the change set
+ * is answered with the error response alone.
+ *
+ * Within a change set, "$<Content-ID>" at the start of a URL or a link refers to the entity created by the operation
+ * with that Content-ID.
+ */
+public class BatchProcessor {
+
+	private static final String CRLF = "\r\n";
+	private static final Pattern BOUNDARY = Pattern.compile("boundary=\"?([^\";]+)\"?", Pattern.CASE_INSENSITIVE);
+
+	private final ODataRequestHandler handler;
+
+	BatchProcessor(ODataRequestHandler handler) {
+		this.handler = handler;
+	}
+
+	public ODataResponse process(ODataRequest request) throws ODataException {
+		String boundary = getBoundary(request.getHeader("Content-Type"));
+		String responseBoundary = "batchresponse_" + UUID.randomUUID();
+		StringBuilder response = new StringBuilder();
+
+		for (Part part : parseMultipart(request.getBody(), boundary)) {
+			response.append("--").append(responseBoundary).append(CRLF);
+			String changesetBoundary = part.getContentType() != null && part.getContentType().startsWith("multipart/mixed")
+					? getBoundary(part.getContentType()) : null;
+			if (changesetBoundary == null) {
+				ODataRequest operation = parseOperation(part, null);
+				if (!"GET".equals(operation.getMethod()))
+					throw ODataException.badRequest("Only GET requests are allowed outside of a change set.");
+				appendOperationResponse(response, handler.handle(operation), null);
+			}
+			else {
+				appendChangeset(response, parseMultipart(part.body, changesetBoundary));
+			}
+		}
+		response.append("--").append(responseBoundary).append("--").append(CRLF);
+
+		return new ODataResponse(202, "multipart/mixed; boundary=" + responseBoundary, response.toString());
+	}
+
+	private void appendChangeset(StringBuilder response, List<Part> operations) throws ODataException {
+		String changesetBoundary = "changesetresponse_" + UUID.randomUUID();
+		StringBuilder changeset = new StringBuilder();
+		EntityStore store = handler.getStore();
+		Map<String, String> contentIds = new HashMap<String, String>();
+
+		// The caller holds the lock of the store, no other request sees the intermediate state
+		store.beginChangeset();
+		try {
+			for (Part part : operations) {
+				ODataRequest operation = parseOperation(part, contentIds);
+				if ("GET".equals(operation.getMethod()))
+					throw ODataException.badRequest("GET requests are not allowed in a change set.");
+				ODataResponse operationResponse = handler.handle(operation);
+				if (operationResponse.getStatus() >= 400) {
+					store.rollbackChangeset();
+					appendOperationResponse(response, operationResponse, null);
+					return;
+				}
+				String contentId = part.getHeader("Content-ID");
+				if (contentId != null && operationResponse.getHeader("Location") != null)
+					contentIds.put(contentId.trim(), operationResponse.getHeader("Location"));
+
+				changeset.append("--").append(changesetBoundary).append(CRLF);
+				appendOperationResponse(changeset, operationResponse, contentId);
+			}
+			store.commitChangeset();
+		} finally {
+			// Does nothing if the change set has been committed
+			store.rollbackChangeset();
+		}
+
+		changeset.append("--").append(changesetBoundary).append("--").append(CRLF);
+		response.append("Content-Type: multipart/mixed; boundary=").append(changesetBoundary).append(CRLF);
+		response.append("Content-Length: ").append(utf8Length(changeset.toString())).append(CRLF);
+		response.append(CRLF);
+		response.append(changeset).append(CRLF);
+	}
+
+	private static void appendOperationResponse(StringBuilder out, ODataResponse operationResponse, String contentId) {
+		StringBuilder http = new StringBuilder();
+		http.append("HTTP/1.1 ").append(operationResponse.getStatus()).append(' ')
+			.append(ODataResponse.getReasonPhrase(operationResponse.getStatus())).append(CRLF);
+		for (Map.Entry<String, String> header : operationResponse.getHeaders().entrySet()) {
+			http.append(header.getKey()).append(": ").append(header.getValue()).append(CRLF);
+		}
+		String body = operationResponse.getBody();
+		http.append("Content-Length: ").append(body == null ? 0 : utf8Length(body)).append(CRLF);
+		http.append(CRLF);
+		if (body != null)
+			http.append(body);
+
+		out.append("Content-Type: application/http").append(CRLF);
+		out.append("Content-Transfer-Encoding: binary").append(CRLF);
+		if (contentId != null)
+			out.append("Content-ID: ").append(contentId.trim()).append(CRLF);
+		out.append(CRLF);
+		out.append(http).append(CRLF);
+	}
+
+	/*
+	 * Reads the HTTP request contained in a part ("POST Products HTTP/1.1", headers, body)
+	 */
+	private ODataRequest parseOperation(Part part, Map<String, String> contentIds) throws ODataException {
+		if (part.getContentType() == null || !part.getContentType().startsWith("application/http"))
+			throw ODataException.badRequest("The batch part has the content type " + part.getContentType() + " instead of application/http.");
+
+		Part http = Part.parse(part.body, true);
+		String[] requestLine = http.firstLine.trim().split(" ");
+		if (requestLine.length < 2)
+			throw ODataException.badRequest("The batch operation " + http.firstLine + " is malformed.");
+
+		String url = resolveContentIds(requestLine[1], contentIds);
+		String body = http.body;
+		if (contentIds != null) {
+			for (Map.Entry<String, String> contentId : contentIds.entrySet()) {
+				body = body.replace("\"$" + contentId.getKey() + "\"", "\"" + contentId.getValue() + "\"");
+			}
+		}
+
+		int question = url.indexOf('?');
+		String path = question < 0 ? url : url.substring(0, question);
+		String query = question < 0 ? null : url.substring(question + 1);
+		ODataRequest operation = new ODataRequest(requestLine[0], handler.toResourcePath(path), query, body);
+		for (Map.Entry<String, String> header : http.headers.entrySet()) {
+			operation.setHeader(header.getKey(), header.getValue());
+		}
+		return operation;
+	}
+
+	private static String resolveContentIds(String url, Map<String, String> contentIds) {
+		if (contentIds == null || !url.startsWith("$"))
+			return url;
+		int end = url.indexOf('/');
+		String location = contentIds.get(url.substring(1, end < 0 ? url.length() : end));
+		if (location == null)
+			return url;
+		return end < 0 ? location : location + url.substring(end);
+	}
+
+	private static String getBoundary(String contentType) throws ODataException {
+		Matcher matcher = BOUNDARY.matcher(contentType == null ? "" : contentType);
+		if (contentType == null || !contentType.startsWith("multipart/mixed") || !matcher.find())
+			throw ODataException.badRequest("A $batch request must have the content type multipart/mixed with a boundary.");
+		return matcher.group(1);
+	}
+
+	/*
+	 * Splits a multipart body into its parts. The line break before a delimiter belongs to the delimiter.
+	 */
+	private static List<Part> parseMultipart(String body, String boundary) throws ODataException {
+		List<Part> parts = new ArrayList<Part>();
+		Matcher delimiters = Pattern.compile("(?m)^--" + Pattern.quote(boundary) + "(--)?[ \\t]*(\\r\\n|\\n|$)").matcher(body == null ? "" : body);
+		int start = -1;
+		while (delimiters.find()) {
+			if (start >= 0) {
+				String content = body.substring(start, delimiters.start());
+				if (content.endsWith("\n"))
+					content = content.substring(0, content.length() - (content.endsWith("\r\n") ? 2 : 1));
+				parts.add(Part.parse(content, false));
+			}
+			if (delimiters.group(1) != null)
+				return parts;
+			start = delimiters.end();
+		}
+		throw ODataException.badRequest("The multipart body is not terminated by --" + boundary + "--.");
+	}
+
+	private static int utf8Length(String value) {
+		try {
+			return value.getBytes("UTF-8").length;
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/*
+	 * A MIME part or an HTTP message: an optional first line, headers and a body
+	 */
+	private static class Part {
+		String firstLine;
+		final Map<String, String> headers = new LinkedHashMap<String, String>();
+		String body = "";
+
+		static Part parse(String content, boolean withFirstLine) {
+			Part part = new Part();
+			String[] lines = content.split("\r?\n", -1);
+			int i = 0;
+			if (withFirstLine) {
+				while (i < lines.length && lines[i].trim().isEmpty()) {
+					i++;
+				}
+				part.firstLine = i < lines.length ? lines[i++] : "";
+			}
+			for (; i < lines.length && !lines[i].isEmpty(); i++) {
+				int colon = lines[i].indexOf(':');
+				if (colon > 0)
+					part.headers.put(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+			}
+			StringBuilder body = new StringBuilder();
+			for (i++; i < lines.length; i++) {
+				body.append(lines[i]);
+				if (i < lines.length - 1)
+					body.append(CRLF);
+			}
+			part.body = body.toString();
+			return part;
+		}
+
+		String getHeader(String name) {
+			for (Map.Entry<String, String> header : headers.entrySet()) {
+				if (header.getKey().equalsIgnoreCase(name))
+					return header.getValue();
+			}
+			return null;
+		}
+
+		String getContentType() {
+			return getHeader("Content-Type");
+		}
+	}
+}
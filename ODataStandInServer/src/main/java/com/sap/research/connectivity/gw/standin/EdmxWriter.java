@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.standin;
+
+import java.io.StringWriter;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/*
+ * Writes the OData V2 $metadata (EDMX) document of a ServiceModel, in the form returned by SAP NetWeaver Gateway.
+ */
+public class EdmxWriter {
+
+	static final String EDMX_NS = "http://schemas.microsoft.com/ado/2007/06/edmx";
+	static final String EDM_NS = "http://schemas.microsoft.com/ado/2008/09/edm";
+	static final String METADATA_NS = "http://schemas.microsoft.com/ado/2007/08/dataservices/metadata";
+
+	private final ServiceModel model;
+	private XMLStreamWriter xml;
+
+	public EdmxWriter(ServiceModel model) {
+		this.model = model;
+	}
+
+	public String write() throws XMLStreamException {
+		StringWriter out = new StringWriter();
+		xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+
+		xml.writeStartDocument("utf-8", "1.0");
+		xml.writeStartElement("edmx", "Edmx", EDMX_NS);
+		xml.writeNamespace("edmx", EDMX_NS);
+		xml.writeAttribute("Version", "1.0");
+		xml.writeStartElement("edmx", "DataServices", EDMX_NS);
+		xml.writeNamespace("m", METADATA_NS);
+		xml.writeAttribute("m", METADATA_NS, "DataServiceVersion", "2.0");
+		xml.writeStartElement("Schema");
+		xml.writeDefaultNamespace(EDM_NS);
+		xml.writeAttribute("Namespace", model.getNamespace());
+		xml.writeAttribute("xml:lang", "en");
+
+		for (ServiceModel.EntitySet entitySet : model.getEntitySets()) {
+			writeEntityType(entitySet);
+		}
+		for (ServiceModel.Association association : model.getAssociations()) {
+			writeAssociation(association);
+		}
+		writeEntityContainer();
+
+		xml.writeEndElement();
+		xml.writeEndElement();
+		xml.writeEndElement();
+		xml.writeEndDocument();
+		xml.close();
+		return out.toString();
+	}
+
+	private void writeEntityType(ServiceModel.EntitySet entitySet) throws XMLStreamException {
+		xml.writeStartElement("EntityType");
+		xml.writeAttribute("Name", entitySet.getEntityTypeName());
+
+		xml.writeStartElement("Key");
+		for (ServiceModel.Property key : entitySet.getKeys()) {
+			xml.writeEmptyElement("PropertyRef");
+			xml.writeAttribute("Name", key.getName());
+		}
+		xml.writeEndElement();
+
+		for (ServiceModel.Property property : entitySet.getProperties()) {
+			xml.writeEmptyElement("Property");
+			xml.writeAttribute("Name", property.getName());
+			xml.writeAttribute("Type", property.getType());
+			xml.writeAttribute("Nullable", String.valueOf(property.isNullable()));
+			if (property.getMaxLength() > 0)
+				xml.writeAttribute("MaxLength", String.valueOf(property.getMaxLength()));
+			if ("Edm.Decimal".equals(property.getType())) {
+				xml.writeAttribute("Precision", "16");
+				xml.writeAttribute("Scale", "3");
+			}
+		}
+
+		for (ServiceModel.Navigation navigation : entitySet.getNavigations()) {
+			xml.writeEmptyElement("NavigationProperty");
+			xml.writeAttribute("Name", navigation.getName());
+			xml.writeAttribute("Relationship", navigation.getAssociation().getQualifiedName());
+			xml.writeAttribute("FromRole", navigation.getFromRole());
+			xml.writeAttribute("ToRole", navigation.getToRole());
+		}
+
+		xml.writeEndElement();
+	}
+
+	private void writeAssociation(ServiceModel.Association association) throws XMLStreamException {
+		xml.writeStartElement("Association");
+		xml.writeAttribute("Name", association.getName());
+		xml.writeEmptyElement("End");
+		xml.writeAttribute("Type", association.getFrom().getQualifiedEntityTypeName());
+		xml.writeAttribute("Multiplicity", association.getFromMultiplicity());
+		xml.writeAttribute("Role", association.getFromRole());
+		xml.writeEmptyElement("End");
+		xml.writeAttribute("Type", association.getTo().getQualifiedEntityTypeName());
+		xml.writeAttribute("Multiplicity", association.getToMultiplicity());
+		xml.writeAttribute("Role", association.getToRole());
+		xml.writeEndElement();
+	}
+
+	private void writeEntityContainer() throws XMLStreamException {
+		xml.writeStartElement("EntityContainer");
+		xml.writeAttribute("Name", model.getContainerName());
+		xml.writeAttribute("m", METADATA_NS, "IsDefaultEntityContainer", "true");
+
+		for (ServiceModel.EntitySet entitySet : model.getEntitySets()) {
+			xml.writeEmptyElement("EntitySet");
+			xml.writeAttribute("Name", entitySet.getName());
+			xml.writeAttribute("EntityType", entitySet.getQualifiedEntityTypeName());
+		}
+
+		for (ServiceModel.Association association : model.getAssociations()) {
+			xml.writeStartElement("AssociationSet");
+			xml.writeAttribute("Name", association.getName() + "Set");
+			xml.writeAttribute("Association", association.getQualifiedName());
+			xml.writeEmptyElement("End");
+			xml.writeAttribute("EntitySet", association.getFrom().getName());
+			xml.writeAttribute("Role", association.getFromRole());
+			xml.writeEmptyElement("End");
+			xml.writeAttribute("EntitySet", association.getTo().getName());
+			xml.writeAttribute("Role", association.getToRole());
+			xml.writeEndElement();
+		}
+
+		xml.writeEndElement();
+	}
+}
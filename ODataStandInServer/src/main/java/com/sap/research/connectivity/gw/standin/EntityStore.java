@@ -0,0 +1,554 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.standin;
+
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+
+/*
+ * The entities of the stand-in service, kept in memory. Each entity set is filled with the given number of synthetic
+ * rows when the store is created; the values are derived from the row number, so that two stores of the same model
+ * hold the same data. Associations link the rows of both ends round-robin.
+ *
+ * Property values are kept in their Atom text form (e.g. "2012-01-01T00:00:00" for an Edm.DateTime), null for a null
+ * value. Keys are identified by their canonical key predicate, e.g. "'0000000001'" or "SalesOrderID=1,ItemPosition=2".
+ *
+ * The store is changed by one request at a time. Between beginChangeset() and commitChangeset() or
+ * rollbackChangeset() (a $batch change set), the previous state of every entity set and association touched is kept,
+ * so that the change set can be undone as a whole.
+ */
+public class EntityStore {
+
+	private static final long BASE_DATE = 1325376000000L; // 2012-01-01T00:00:00Z
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	private final ServiceModel model;
+	private final Map<String, Map<String, Entity>> entities = new HashMap<String, Map<String, Entity>>();
+	private final Map<String, Links> links = new HashMap<String, Links>();
+
+	private Map<String, Map<String, Entity>> savedEntities;
+	private Map<String, Links> savedLinks;
+
+	public EntityStore(ServiceModel model, int rowsPerEntitySet) {
+		this.model = model;
+		for (ServiceModel.EntitySet entitySet : model.getEntitySets()) {
+			Map<String, Entity> rows = new LinkedHashMap<String, Entity>();
+			for (int row = 0; row < rowsPerEntitySet; row++) {
+				Entity entity = new Entity(entitySet, syntheticValues(entitySet, row));
+				rows.put(entity.getKey(), entity);
+			}
+			entities.put(entitySet.getName(), rows);
+		}
+		for (ServiceModel.Association association : model.getAssociations()) {
+			links.put(association.getName(), syntheticLinks(association));
+		}
+	}
+
+	public ServiceModel getModel() {
+		return model;
+	}
+
+	private static Map<String, String> syntheticValues(ServiceModel.EntitySet entitySet, int row) {
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		List<ServiceModel.Property> keys = entitySet.getKeys();
+		for (ServiceModel.Property property : entitySet.getProperties()) {
+			int keyIndex = keys.indexOf(property);
+			if (keyIndex >= 0) {
+				// Only the last key property varies, the other ones of a composite key are the same for all rows
+				values.put(property.getName(), syntheticKeyValue(property, keyIndex == keys.size() - 1 ? row + 1 : 1));
+			}
+			else {
+				values.put(property.getName(), syntheticValue(entitySet, property, row));
+			}
+		}
+		return values;
+	}
+
+	private static String syntheticKeyValue(ServiceModel.Property property, int number) {
+		String type = property.getType();
+		if ("Edm.String".equals(type)) {
+			int width = property.getMaxLength() > 0 ? Math.min(property.getMaxLength(), 10) : 10;
+			String value = String.valueOf(number);
+			StringBuilder padded = new StringBuilder();
+			for (int i = value.length(); i < width; i++) {
+				padded.append('0');
+			}
+			return padded.append(value).toString();
+		}
+		if ("Edm.Guid".equals(type))
+			return UUID.nameUUIDFromBytes(String.valueOf(number).getBytes()).toString();
+		if ("Edm.DateTime".equals(type) || "Edm.DateTimeOffset".equals(type))
+			return formatDate(BASE_DATE + number * DAY, type);
+		return String.valueOf(number);
+	}
+
+	private static String syntheticValue(ServiceModel.EntitySet entitySet, ServiceModel.Property property, int row) {
+		String type = property.getType();
+		if ("Edm.Boolean".equals(type))
+			return String.valueOf(row % 2 == 0);
+		if ("Edm.Byte".equals(type) || "Edm.SByte".equals(type))
+			return String.valueOf(row % 100);
+		if ("Edm.Int16".equals(type) || "Edm.Int32".equals(type) || "Edm.Int64".equals(type))
+			return String.valueOf((row * 7) % 1000);
+		if ("Edm.Decimal".equals(type) || "Edm.Double".equals(type) || "Edm.Single".equals(type))
+			return ((row * 13) % 10000) + ".50";
+		if ("Edm.DateTime".equals(type) || "Edm.DateTimeOffset".equals(type))
+			return formatDate(BASE_DATE + row * DAY, type);
+		if ("Edm.Time".equals(type))
+			return "PT" + (row % 24) + "H00M00S";
+		if ("Edm.Guid".equals(type))
+			return UUID.nameUUIDFromBytes((entitySet.getName() + row).getBytes()).toString();
+		if ("Edm.Binary".equals(type))
+			return "AAECAw==";
+
+		String value = property.getName() + " " + (row + 1);
+		if (property.getMaxLength() > 0 && value.length() > property.getMaxLength())
+			value = value.substring(value.length() - property.getMaxLength());
+		return value;
+	}
+
+	private static String formatDate(long millis, String type) {
+		SimpleDateFormat format = new SimpleDateFormat("Edm.DateTimeOffset".equals(type) ? "yyyy-MM-dd'T'HH:mm:ss'Z'" : "yyyy-MM-dd'T'HH:mm:ss");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(millis);
+	}
+
+	/*
+	 * Links every row of a "many" end to one row of the other end, round-robin. For one-to-one associations, rows with
+	 * the same number are linked.
+	 */
+	private Links syntheticLinks(ServiceModel.Association association) {
+		Links result = new Links();
+		List<Entity> from = new ArrayList<Entity>(entities.get(association.getFrom().getName()).values());
+		List<Entity> to = new ArrayList<Entity>(entities.get(association.getTo().getName()).values());
+		if (from.isEmpty() || to.isEmpty())
+			return result;
+
+		if ("*".equals(association.getToMultiplicity())) {
+			for (int i = 0; i < to.size(); i++) {
+				result.add(from.get(i % from.size()).getKey(), to.get(i).getKey());
+			}
+		}
+		else if ("*".equals(association.getFromMultiplicity())) {
+			for (int i = 0; i < from.size(); i++) {
+				result.add(from.get(i).getKey(), to.get(i % to.size()).getKey());
+			}
+		}
+		else {
+			for (int i = 0; i < Math.min(from.size(), to.size()); i++) {
+				result.add(from.get(i).getKey(), to.get(i).getKey());
+			}
+		}
+		return result;
+	}
+
+	public synchronized List<Entity> getEntities(ServiceModel.EntitySet entitySet) {
+		return new ArrayList<Entity>(entities.get(entitySet.getName()).values());
+	}
+
+	/*
+	 * Returns the entity with the given key predicate (as written in the URL), or null if there is none
+	 */
+	public synchronized Entity getEntity(ServiceModel.EntitySet entitySet, String keyPredicate) throws ODataException {
+		return entities.get(entitySet.getName()).get(canonicalKey(entitySet, keyPredicate));
+	}
+
+	public synchronized List<Entity> getRelated(Entity source, ServiceModel.Navigation navigation) {
+		List<Entity> related = new ArrayList<Entity>();
+		Map<String, Entity> targets = entities.get(navigation.getTarget().getName());
+		for (String key : links.get(navigation.getAssociation().getName()).get(source.getKey(), navigation.isForward())) {
+			Entity target = targets.get(key);
+			if (target != null)
+				related.add(target);
+		}
+		return related;
+	}
+
+	/*
+	 * Creates an entity from the given property values. Missing numeric keys are filled with the next free number.
+	 * The bindings are the entities the new one is linked to, by navigation property.
+	 */
+	public synchronized Entity create(ServiceModel.EntitySet entitySet, Map<String, String> values, Map<ServiceModel.Navigation, List<Entity>> bindings)
+			throws ODataException {
+		Map<String, String> newValues = new LinkedHashMap<String, String>();
+		for (ServiceModel.Property property : entitySet.getProperties()) {
+			newValues.put(property.getName(), values.get(property.getName()));
+		}
+		for (ServiceModel.Property key : entitySet.getKeys()) {
+			String value = newValues.get(key.getName());
+			if (value == null || value.isEmpty()) {
+				if (!isInteger(key.getType()))
+					throw ODataException.badRequest("The key property " + key.getName() + " is missing.");
+				newValues.put(key.getName(), String.valueOf(nextNumber(entitySet, key)));
+			}
+			else {
+				newValues.put(key.getName(), normalize(key.getType(), value));
+			}
+		}
+
+		Entity entity = new Entity(entitySet, newValues);
+		if (entities.get(entitySet.getName()).containsKey(entity.getKey()))
+			throw new ODataException(409, "Conflict", "An entity with the key (" + entity.getKey() + ") already exists in " + entitySet.getName() + ".");
+
+		modifiedEntitySet(entitySet);
+		entities.get(entitySet.getName()).put(entity.getKey(), entity);
+		if (bindings != null) {
+			for (Map.Entry<ServiceModel.Navigation, List<Entity>> binding : bindings.entrySet()) {
+				for (Entity target : binding.getValue()) {
+					link(entity, binding.getKey(), target);
+				}
+			}
+		}
+		return entity;
+	}
+
+	private long nextNumber(ServiceModel.EntitySet entitySet, ServiceModel.Property key) {
+		long max = 0;
+		for (Entity entity : entities.get(entitySet.getName()).values()) {
+			try {
+				max = Math.max(max, Long.parseLong(entity.getValue(key.getName())));
+			} catch (NumberFormatException e) {
+				// Not created by the store
+			}
+		}
+		return max + 1;
+	}
+
+	/*
+	 * Replaces (PUT) or merges (MERGE / PATCH) the property values of an entity. The key cannot be changed.
+	 */
+	public synchronized Entity update(ServiceModel.EntitySet entitySet, String keyPredicate, Map<String, String> values, boolean merge)
+			throws ODataException {
+		Entity existing = getExisting(entitySet, keyPredicate);
+		Map<String, String> newValues = new LinkedHashMap<String, String>();
+		for (ServiceModel.Property property : entitySet.getProperties()) {
+			String name = property.getName();
+			if (entitySet.getKeys().contains(property) || (merge && !values.containsKey(name)))
+				newValues.put(name, existing.getValue(name));
+			else
+				newValues.put(name, values.get(name));
+		}
+
+		modifiedEntitySet(entitySet);
+		Entity entity = new Entity(entitySet, newValues);
+		entities.get(entitySet.getName()).put(entity.getKey(), entity);
+		return entity;
+	}
+
+	public synchronized void delete(ServiceModel.EntitySet entitySet, String keyPredicate) throws ODataException {
+		Entity existing = getExisting(entitySet, keyPredicate);
+		modifiedEntitySet(entitySet);
+		entities.get(entitySet.getName()).remove(existing.getKey());
+		for (ServiceModel.Association association : model.getAssociations()) {
+			if (association.getFrom() == entitySet || association.getTo() == entitySet)
+				modifiedAssociation(association);
+			if (association.getFrom() == entitySet)
+				links.get(association.getName()).removeAll(existing.getKey(), true);
+			if (association.getTo() == entitySet)
+				links.get(association.getName()).removeAll(existing.getKey(), false);
+		}
+	}
+
+	/*
+	 * Links two entities. For a navigation to a single entity, the previous link of the source is replaced.
+	 */
+	public synchronized void link(Entity source, ServiceModel.Navigation navigation, Entity target) {
+		modifiedAssociation(navigation.getAssociation());
+		Links associationLinks = links.get(navigation.getAssociation().getName());
+		if (!navigation.isToMany())
+			associationLinks.removeAll(source.getKey(), navigation.isForward());
+		if (navigation.isForward())
+			associationLinks.add(source.getKey(), target.getKey());
+		else
+			associationLinks.add(target.getKey(), source.getKey());
+	}
+
+	private Entity getExisting(ServiceModel.EntitySet entitySet, String keyPredicate) throws ODataException {
+		Entity existing = getEntity(entitySet, keyPredicate);
+		if (existing == null)
+			throw ODataException.notFound("The entity " + entitySet.getName() + "(" + keyPredicate + ") does not exist.");
+		return existing;
+	}
+
+	public synchronized void beginChangeset() {
+		savedEntities = new HashMap<String, Map<String, Entity>>();
+		savedLinks = new HashMap<String, Links>();
+	}
+
+	public synchronized void commitChangeset() {
+		savedEntities = null;
+		savedLinks = null;
+	}
+
+	public synchronized void rollbackChangeset() {
+		if (savedEntities == null)
+			return;
+		entities.putAll(savedEntities);
+		links.putAll(savedLinks);
+		commitChangeset();
+	}
+
+	private void modifiedEntitySet(ServiceModel.EntitySet entitySet) {
+		// Entities are never changed in place, a copy of the map is enough to restore the entity set
+		if (savedEntities != null && !savedEntities.containsKey(entitySet.getName())) {
+			Map<String, Entity> rows = entities.get(entitySet.getName());
+			savedEntities.put(entitySet.getName(), rows);
+			entities.put(entitySet.getName(), new LinkedHashMap<String, Entity>(rows));
+		}
+	}
+
+	private void modifiedAssociation(ServiceModel.Association association) {
+		if (savedLinks != null && !savedLinks.containsKey(association.getName())) {
+			Links associationLinks = links.get(association.getName());
+			savedLinks.put(association.getName(), associationLinks);
+			links.put(association.getName(), associationLinks.copy());
+		}
+	}
+
+	/*
+	 * Returns the canonical form of a key predicate as written in the URL: "'A1'" or "Id='A1'" for a single key,
+	 * "SalesOrderID=1,ItemPosition=2L" for a composite one.
+	 */
+	public static String canonicalKey(ServiceModel.EntitySet entitySet, String keyPredicate) throws ODataException {
+		List<String> parts = splitOutsideQuotes(keyPredicate, ',');
+		List<ServiceModel.Property> keys = entitySet.getKeys();
+		if (parts.size() != keys.size())
+			throw ODataException.badRequest("The key predicate (" + keyPredicate + ") does not match the key of " + entitySet.getName() + ".");
+
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		for (String part : parts) {
+			int equals = indexOutsideQuotes(part, '=');
+			if (equals < 0 && keys.size() == 1) {
+				values.put(keys.get(0).getName(), parseLiteral(part.trim()));
+			}
+			else if (equals > 0) {
+				String name = part.substring(0, equals).trim();
+				if (entitySet.getProperty(name) == null || !keys.contains(entitySet.getProperty(name)))
+					throw ODataException.badRequest(name + " is not a key property of " + entitySet.getName() + ".");
+				values.put(name, parseLiteral(part.substring(equals + 1).trim()));
+			}
+			else {
+				throw ODataException.badRequest("The key predicate (" + keyPredicate + ") is malformed.");
+			}
+		}
+		for (ServiceModel.Property key : keys) {
+			if (!values.containsKey(key.getName()))
+				throw ODataException.badRequest("The key property " + key.getName() + " is missing in (" + keyPredicate + ").");
+			values.put(key.getName(), normalize(key.getType(), values.get(key.getName())));
+		}
+		return formatKey(entitySet, values);
+	}
+
+	static String formatKey(ServiceModel.EntitySet entitySet, Map<String, String> values) {
+		List<ServiceModel.Property> keys = entitySet.getKeys();
+		if (keys.size() == 1)
+			return formatLiteral(keys.get(0).getType(), values.get(keys.get(0).getName()));
+
+		StringBuilder key = new StringBuilder();
+		for (ServiceModel.Property property : keys) {
+			if (key.length() > 0)
+				key.append(',');
+			key.append(property.getName()).append('=').append(formatLiteral(property.getType(), values.get(property.getName())));
+		}
+		return key.toString();
+	}
+
+	/*
+	 * Converts a URL literal (e.g. 'A''B', 12L, datetime'2012-01-01T00:00') to its Atom text form
+	 */
+	static String parseLiteral(String literal) throws ODataException {
+		int quote = literal.indexOf('\'');
+		if (quote < 0) {
+			if (literal.length() > 1 && "LlMmDdFf".indexOf(literal.charAt(literal.length() - 1)) >= 0
+					&& Character.isDigit(literal.charAt(literal.length() - 2)))
+				return literal.substring(0, literal.length() - 1);
+			return literal;
+		}
+		if (!literal.endsWith("'") || literal.length() < quote + 2)
+			throw ODataException.badRequest("The literal " + literal + " is malformed.");
+		return literal.substring(quote + 1, literal.length() - 1).replace("''", "'");
+	}
+
+	static String formatLiteral(String type, String value) {
+		if ("Edm.String".equals(type))
+			return "'" + value.replace("'", "''") + "'";
+		if ("Edm.Int64".equals(type))
+			return value + "L";
+		if ("Edm.Decimal".equals(type))
+			return value + "M";
+		if ("Edm.Double".equals(type))
+			return value + "d";
+		if ("Edm.Single".equals(type))
+			return value + "f";
+		if ("Edm.Guid".equals(type))
+			return "guid'" + value + "'";
+		if ("Edm.DateTime".equals(type))
+			return "datetime'" + value + "'";
+		if ("Edm.DateTimeOffset".equals(type))
+			return "datetimeoffset'" + value + "'";
+		if ("Edm.Time".equals(type))
+			return "time'" + value + "'";
+		return value;
+	}
+
+	/*
+	 * Brings key values to one form, so that e.g. 1 and 01, or 2012-01-01T00:00 and 2012-01-01T00:00:00 find the same
+	 * entity.
+	 */
+	private static String normalize(String type, String value) throws ODataException {
+		try {
+			if (isInteger(type))
+				return String.valueOf(Long.parseLong(value.trim()));
+			if ("Edm.Decimal".equals(type))
+				return new BigDecimal(value.trim()).toPlainString();
+		} catch (NumberFormatException e) {
+			throw ODataException.badRequest("The value " + value + " is not a valid " + type + ".");
+		}
+		if (("Edm.DateTime".equals(type)) && value.length() == 16)
+			return value + ":00";
+		return value;
+	}
+
+	private static boolean isInteger(String type) {
+		return "Edm.Int16".equals(type) || "Edm.Int32".equals(type) || "Edm.Int64".equals(type) || "Edm.Byte".equals(type)
+				|| "Edm.SByte".equals(type);
+	}
+
+	static List<String> splitOutsideQuotes(String value, char separator) {
+		List<String> parts = new ArrayList<String>();
+		boolean quoted = false;
+		int start = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\'')
+				quoted = !quoted;
+			else if (c == separator && !quoted) {
+				parts.add(value.substring(start, i));
+				start = i + 1;
+			}
+		}
+		parts.add(value.substring(start));
+		return parts;
+	}
+
+	private static int indexOutsideQuotes(String value, char c) {
+		boolean quoted = false;
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) == '\'')
+				quoted = !quoted;
+			else if (value.charAt(i) == c && !quoted)
+				return i;
+		}
+		return -1;
+	}
+
+	/*
+	 * An entity with its property values. Entities are not changed once created; an update replaces the entity.
+	 */
+	public static class Entity {
+
+		private final ServiceModel.EntitySet entitySet;
+		private final Map<String, String> values;
+		private final String key;
+
+		Entity(ServiceModel.EntitySet entitySet, Map<String, String> values) {
+			this.entitySet = entitySet;
+			this.values = Collections.unmodifiableMap(values);
+			this.key = formatKey(entitySet, values);
+		}
+
+		public ServiceModel.EntitySet getEntitySet() {
+			return entitySet;
+		}
+
+		/*
+		 * The canonical key predicate, without parentheses
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		public String getValue(String propertyName) {
+			return values.get(propertyName);
+		}
+
+		public Map<String, String> getValues() {
+			return values;
+		}
+	}
+
+	/*
+	 * The links of one association, indexed by the keys of both ends
+	 */
+	private static class Links {
+
+		private final Map<String, List<String>> byFrom = new HashMap<String, List<String>>();
+		private final Map<String, List<String>> byTo = new HashMap<String, List<String>>();
+
+		void add(String fromKey, String toKey) {
+			List<String> targets = listOf(byFrom, fromKey);
+			if (!targets.contains(toKey)) {
+				targets.add(toKey);
+				listOf(byTo, toKey).add(fromKey);
+			}
+		}
+
+		List<String> get(String key, boolean forward) {
+			List<String> keys = (forward ? byFrom : byTo).get(key);
+			return keys == null ? Collections.<String> emptyList() : keys;
+		}
+
+		void removeAll(String key, boolean forward) {
+			List<String> others = (forward ? byFrom : byTo).remove(key);
+			if (others == null)
+				return;
+			for (String other : others) {
+				List<String> back = (forward ? byTo : byFrom).get(other);
+				if (back != null)
+					back.remove(key);
+			}
+		}
+
+		Links copy() {
+			Links copy = new Links();
+			for (Map.Entry<String, List<String>> entry : byFrom.entrySet()) {
+				copy.byFrom.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+			}
+			for (Map.Entry<String, List<String>> entry : byTo.entrySet()) {
+				copy.byTo.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+			}
+			return copy;
+		}
+
+		private static List<String> listOf(Map<String, List<String>> index, String key) {
+			List<String> list = index.get(key);
+			if (list == null) {
+				list = new ArrayList<String>();
+				index.put(key, list);
+			}
+			return list;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.standin;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/*
+ * Latency and errors injected into the requests matching a method and a resource path pattern, e.g.
+ *
+ *   server.addFault(FaultRule.forRequests(null, ".*").delay(200, 50));              // every request takes 150 - 250 ms
+ *   server.addFault(FaultRule.forRequests("POST", "Products").fail(503).rate(0.1));  // 10 % of the creations fail
+ *   server.addFault(FaultRule.forRequests("GET", "\\$metadata").fail(500).times(2)); // the first two fail
+ *
+ * The pattern has to match the whole resource path (relative to the service root, without the query string).
+ */
+public class FaultRule {
+
+	private final String method;
+	private final Pattern path;
+	private int delayMillis;
+	private int jitterMillis;
+	private int status;
+	private String message = "Injected error";
+	private double rate = 1.0;
+	private int remaining = -1;
+
+	private FaultRule(String method, String pathPattern) {
+		this.method = method;
+		this.path = Pattern.compile(pathPattern);
+	}
+
+	/*
+	 * A rule for the requests with the given method (null for all) and resource path
+	 */
+	public static FaultRule forRequests(String method, String pathPattern) {
+		return new FaultRule(method, pathPattern);
+	}
+
+	/*
+	 * Delays the matching requests by the given time, plus or minus a random time up to the jitter
+	 */
+	public FaultRule delay(int millis, int jitterMillis) {
+		this.delayMillis = millis;
+		this.jitterMillis = jitterMillis;
+		return this;
+	}
+
+	/*
+	 * Answers the matching requests with the given HTTP status and an OData error document
+	 */
+	public FaultRule fail(int status) {
+		this.status = status;
+		return this;
+	}
+
+	public FaultRule fail(int status, String message) {
+		this.status = status;
+		this.message = message;
+		return this;
+	}
+
+	/*
+	 * The probability of a matching request to fail, between 0 and 1
+	 */
+	public FaultRule rate(double rate) {
+		this.rate = rate;
+		return this;
+	}
+
+	/*
+	 * Only the given number of matching requests fail, the following ones succeed
+	 */
+	public FaultRule times(int count) {
+		this.remaining = count;
+		return this;
+	}
+
+	public boolean matches(String requestMethod, String resourcePath) {
+		return (method == null || method.equalsIgnoreCase(requestMethod)) && path.matcher(resourcePath).matches();
+	}
+
+	long nextDelay(Random random) {
+		if (delayMillis <= 0 && jitterMillis <= 0)
+			return 0;
+		long delay = delayMillis;
+		if (jitterMillis > 0)
+			delay += random.nextInt(2 * jitterMillis + 1) - jitterMillis;
+		return Math.max(delay, 0);
+	}
+
+	/*
+	 * Returns the status of the error to answer the current request with, or 0 if it is not to fail
+	 */
+	synchronized int nextFailure(Random random) {
+		if (status == 0 || remaining == 0 || (rate < 1.0 && random.nextDouble() >= rate))
+			return 0;
+		if (remaining > 0)
+			remaining--;
+		return status;
+	}
+
+	String getMessage() {
+		return message;
+	}
+}
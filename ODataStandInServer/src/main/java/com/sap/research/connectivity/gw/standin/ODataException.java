@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.standin;
+
+/*
+ * A request which cannot be served, answered with the given HTTP status and an OData error document
+ */
+public class ODataException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int status;
+	private final String code;
+
+	public ODataException(int status, String code, String message) {
+		super(message);
+		this.status = status;
+		this.code = code;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public String getCode() {
+		return code;
+	}
+
+	public static ODataException badRequest(String message) {
+		return new ODataException(400, "BadRequest", message);
+	}
+
+	public static ODataException notFound(String message) {
+		return new ODataException(404, "ResourceNotFound", message);
+	}
+
+	public static ODataException notImplemented(String message) {
+		return new ODataException(501, "NotImplemented", message);
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.standin;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+ * One request to the service, either received over HTTP or contained in a $batch request. The resource path is
+ * relative to the service root, e.g. "Products('0000000001')/ToSupplier".
+ */
+public class ODataRequest {
+
+	private final String method;
+	private final String resourcePath;
+	private final Map<String, String> query;
+	private final Map<String, String> headers = new LinkedHashMap<String, String>();
+	private final String body;
+
+	/*
+	 * The path and query string are passed URL-encoded, as received
+	 */
+	public ODataRequest(String method, String rawResourcePath, String rawQuery, String body) {
+		this.method = method.toUpperCase(Locale.ENGLISH);
+		this.resourcePath = decode(rawResourcePath);
+		this.query = parseQuery(rawQuery);
+		this.body = body;
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) {
+		Map<String, String> query = new LinkedHashMap<String, String>();
+		if (rawQuery == null || rawQuery.isEmpty())
+			return query;
+		for (String parameter : rawQuery.split("&")) {
+			int equals = parameter.indexOf('=');
+			if (equals < 0)
+				query.put(decode(parameter), "");
+			else
+				query.put(decode(parameter.substring(0, equals)), decode(parameter.substring(equals + 1)));
+		}
+		return query;
+	}
+
+	static String decode(String value) {
+		try {
+			// A "+" is kept as is, it is not used for spaces in OData URLs
+			return URLDecoder.decode(value.replace("+", "%2B"), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		} catch (IllegalArgumentException e) {
+			return value;
+		}
+	}
+
+	/*
+	 * The method, after applying an X-HTTP-Method header sent with a POST request
+	 */
+	public String getMethod() {
+		String tunneled = getHeader("X-HTTP-Method");
+		if ("POST".equals(method) && tunneled != null && !tunneled.isEmpty())
+			return tunneled.toUpperCase(Locale.ENGLISH);
+		return method;
+	}
+
+	public String getResourcePath() {
+		return resourcePath;
+	}
+
+	public Map<String, String> getQuery() {
+		return query;
+	}
+
+	public String getQueryOption(String name) {
+		return query.get(name);
+	}
+
+	public void setHeader(String name, String value) {
+		headers.put(name.toLowerCase(Locale.ENGLISH), value);
+	}
+
+	public String getHeader(String name) {
+		return headers.get(name.toLowerCase(Locale.ENGLISH));
+	}
+
+	public String getBody() {
+		return body;
+	}
+}
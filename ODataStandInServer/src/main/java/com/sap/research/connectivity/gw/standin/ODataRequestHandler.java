@@ -0,0 +1,442 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.standin;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+/*
+ * Answers the requests to the stand-in service, independently of how they were received (HTTP or $batch):
+ *
+ *   /                                  service document
+ *   /$metadata                         EDMX document
+ *   /$batch                            batch request, see BatchProcessor
+ *   /Set                               GET (feed), POST (create)
+ *   /Set/$count                        GET
+ *   /Set(key)                          GET, PUT, MERGE / PATCH, DELETE
+ *   /Set(key)/Nav[(key)][/Nav...]      GET, POST (create and link) for navigations to many, $count
+ *
+ * Feeds support $top, $skip, $orderby, $inlinecount, $expand and server-side paging ($skiptoken). $select is ignored,
+ * i.e. all properties are returned; $filter is answered with 501 Not Implemented.
+ */
+public class ODataRequestHandler {
+
+	private static final String FEED = "application/atom+xml;type=feed;charset=utf-8";
+	private static final String ENTRY = "application/atom+xml;type=entry;charset=utf-8";
+
+	private final ServiceModel model;
+	private final EntityStore store;
+	private final String serviceUrl;
+	private final String servicePath;
+	private final BatchProcessor batchProcessor = new BatchProcessor(this);
+
+	private volatile String metadataDocument;
+	private volatile int pageSize;
+
+	/*
+	 * The service URL ends with "/", the service path is its path (e.g. "/sap/opu/odata/sap/STANDIN_SRV/")
+	 */
+	public ODataRequestHandler(ServiceModel model, EntityStore store, String serviceUrl, String servicePath) {
+		this.model = model;
+		this.store = store;
+		this.serviceUrl = serviceUrl;
+		this.servicePath = servicePath;
+	}
+
+	/*
+	 * The maximum number of entries in a feed; further entries are fetched by following the next link. 0 for no limit.
+	 */
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	/*
+	 * Replaces the EDMX document generated from the model, e.g. with one captured from a real service. The entity sets
+	 * served are still the ones of the model.
+	 */
+	public void setMetadataDocument(String metadataDocument) {
+		this.metadataDocument = metadataDocument;
+	}
+
+	public EntityStore getStore() {
+		return store;
+	}
+
+	public String getMetadataDocument() throws XMLStreamException {
+		String document = metadataDocument;
+		if (document == null) {
+			document = new EdmxWriter(model).write();
+			metadataDocument = document;
+		}
+		return document;
+	}
+
+	public ODataResponse handle(ODataRequest request) {
+		try {
+			String method = request.getMethod();
+			if ("GET".equals(method) || "HEAD".equals(method))
+				return read(request);
+			// A request changes the store as a whole, or not at all
+			synchronized (store) {
+				return modify(request, method);
+			}
+		} catch (ODataException e) {
+			return ODataResponse.error(e);
+		} catch (XMLStreamException e) {
+			return ODataResponse.error(new ODataException(500, "InternalError", e.getMessage()));
+		}
+	}
+
+	private ODataResponse read(ODataRequest request) throws ODataException, XMLStreamException {
+		String path = request.getResourcePath();
+		if (path.isEmpty() || "/".equals(path))
+			return new ODataResponse(200, "application/atomsvc+xml;charset=utf-8", new AtomWriter(serviceUrl, store).writeServiceDocument(model));
+		if ("$metadata".equals(path))
+			return new ODataResponse(200, "application/xml;charset=utf-8", getMetadataDocument());
+		if ("$batch".equals(path))
+			throw new ODataException(405, "MethodNotAllowed", "$batch requests must be sent with POST.");
+
+		Resource resource = resolve(path);
+		List<String> expand = parseExpand(request.getQueryOption("$expand"), resource.entitySet);
+
+		if (resource.count) {
+			List<EntityStore.Entity> entities = applyTopSkip(request, resource.collection);
+			return new ODataResponse(200, "text/plain;charset=utf-8", String.valueOf(entities.size()));
+		}
+		if (resource.collection == null) {
+			if (resource.entity == null)
+				return ODataResponse.noContent();
+			return new ODataResponse(200, ENTRY, new AtomWriter(serviceUrl, store).writeEntry(resource.entity, expand));
+		}
+		return readFeed(request, resource, expand);
+	}
+
+	private ODataResponse readFeed(ODataRequest request, Resource resource, List<String> expand) throws ODataException, XMLStreamException {
+		if (request.getQueryOption("$filter") != null)
+			throw ODataException.notImplemented("$filter is not supported by the stand-in server.");
+
+		List<EntityStore.Entity> entities = resource.collection;
+		String orderBy = request.getQueryOption("$orderby");
+		if (orderBy != null && !orderBy.trim().isEmpty())
+			sort(entities, resource.entitySet, orderBy);
+
+		long count = -1;
+		String inlineCount = request.getQueryOption("$inlinecount");
+		if ("allpages".equals(inlineCount))
+			count = entities.size();
+		else if (inlineCount != null && !"none".equals(inlineCount))
+			throw ODataException.badRequest("The value " + inlineCount + " of $inlinecount is not valid.");
+
+		entities = applyTopSkip(request, entities);
+
+		int offset = parseNumber(request, "$skiptoken", 0);
+		String nextLink = null;
+		if (pageSize > 0 && entities.size() - offset > pageSize) {
+			nextLink = nextLink(request, offset + pageSize);
+			entities = entities.subList(Math.min(offset, entities.size()), offset + pageSize);
+		}
+		else {
+			entities = entities.subList(Math.min(offset, entities.size()), entities.size());
+		}
+
+		String feed = new AtomWriter(serviceUrl, store).writeFeed(resource.entitySet, request.getResourcePath(), entities, count, nextLink, expand);
+		return new ODataResponse(200, FEED, feed);
+	}
+
+	private List<EntityStore.Entity> applyTopSkip(ODataRequest request, List<EntityStore.Entity> entities) throws ODataException {
+		int skip = Math.min(parseNumber(request, "$skip", 0), entities.size());
+		int top = parseNumber(request, "$top", Integer.MAX_VALUE);
+		return entities.subList(skip, (int) Math.min((long) skip + top, entities.size()));
+	}
+
+	private static int parseNumber(ODataRequest request, String option, int defaultValue) throws ODataException {
+		String value = request.getQueryOption(option);
+		if (value == null || value.isEmpty())
+			return defaultValue;
+		try {
+			int number = Integer.parseInt(value.trim());
+			if (number >= 0)
+				return number;
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+		throw ODataException.badRequest("The value " + value + " of " + option + " is not valid.");
+	}
+
+	/*
+	 * The link to the next page: the same request, with the position of the next entry as $skiptoken
+	 */
+	private static String nextLink(ODataRequest request, int offset) {
+		StringBuilder link = new StringBuilder(request.getResourcePath()).append('?');
+		for (Map.Entry<String, String> option : request.getQuery().entrySet()) {
+			if (!"$skiptoken".equals(option.getKey()))
+				link.append(encode(option.getKey())).append('=').append(encode(option.getValue())).append('&');
+		}
+		return link.append("$skiptoken=").append(offset).toString();
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8").replace("+", "%20").replace("%24", "$").replace("%2F", "/").replace("%2C", ",");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/*
+	 * Sorts by a comma separated list of "Property [asc|desc]". Numbers are compared by their value.
+	 */
+	private static void sort(List<EntityStore.Entity> entities, ServiceModel.EntitySet entitySet, String orderBy) throws ODataException {
+		final List<String> properties = new ArrayList<String>();
+		final List<Boolean> descending = new ArrayList<Boolean>();
+		for (String criterion : orderBy.split(",")) {
+			String[] parts = criterion.trim().split("\\s+");
+			if (entitySet.getProperty(parts[0]) == null || parts.length > 2 || (parts.length == 2 && !parts[1].matches("asc|desc")))
+				throw ODataException.badRequest("The $orderby criterion " + criterion.trim() + " is not supported.");
+			properties.add(parts[0]);
+			descending.add(parts.length == 2 && "desc".equals(parts[1]));
+		}
+
+		Collections.sort(entities, new Comparator<EntityStore.Entity>() {
+			@Override
+			public int compare(EntityStore.Entity first, EntityStore.Entity second) {
+				for (int i = 0; i < properties.size(); i++) {
+					int result = compareValues(first.getValue(properties.get(i)), second.getValue(properties.get(i)));
+					if (result != 0)
+						return descending.get(i) ? -result : result;
+				}
+				return 0;
+			}
+		});
+	}
+
+	private static int compareValues(String first, String second) {
+		if (first == null || second == null)
+			return first == null ? (second == null ? 0 : -1) : 1;
+		try {
+			return new BigDecimal(first).compareTo(new BigDecimal(second));
+		} catch (NumberFormatException e) {
+			return first.compareTo(second);
+		}
+	}
+
+	private static List<String> parseExpand(String expand, ServiceModel.EntitySet entitySet) throws ODataException {
+		List<String> paths = new ArrayList<String>();
+		if (expand == null || expand.trim().isEmpty())
+			return paths;
+		for (String path : expand.split(",")) {
+			path = path.trim();
+			ServiceModel.EntitySet current = entitySet;
+			for (String navigationName : path.split("/")) {
+				ServiceModel.Navigation navigation = current.getNavigation(navigationName);
+				if (navigation == null)
+					throw ODataException.badRequest("The navigation property " + navigationName + " of $expand is not defined for " + current.getName() + ".");
+				current = navigation.getTarget();
+			}
+			paths.add(path);
+		}
+		return paths;
+	}
+
+	private ODataResponse modify(ODataRequest request, String method) throws ODataException, XMLStreamException {
+		String path = request.getResourcePath();
+		if ("$batch".equals(path)) {
+			if (!"POST".equals(method))
+				throw new ODataException(405, "MethodNotAllowed", "$batch requests must be sent with POST.");
+			return batchProcessor.process(request);
+		}
+
+		Resource resource = resolve(path);
+		if (resource.count)
+			throw new ODataException(405, "MethodNotAllowed", method + " is not allowed for $count.");
+
+		if ("POST".equals(method)) {
+			if (resource.collection == null)
+				throw new ODataException(405, "MethodNotAllowed", "Entities can only be created in an entity set or a navigation to many entities.");
+			AtomEntryReader entry = readEntry(request);
+			EntityStore.Entity created = store.create(resource.entitySet, entry.getValues(), resolveBindings(resource.entitySet, entry.getBindings()));
+			if (resource.parent != null)
+				store.link(resource.parent, resource.navigation, created);
+			String location = serviceUrl + resource.entitySet.getName() + "(" + created.getKey() + ")";
+			return new ODataResponse(201, ENTRY, new AtomWriter(serviceUrl, store).writeEntry(created, Collections.<String> emptyList()))
+					.header("Location", location);
+		}
+
+		if (resource.collection != null || resource.entity == null)
+			throw new ODataException(405, "MethodNotAllowed", method + " is only allowed for a single entity.");
+
+		if ("PUT".equals(method) || "MERGE".equals(method) || "PATCH".equals(method)) {
+			AtomEntryReader entry = readEntry(request);
+			EntityStore.Entity updated = store.update(resource.entitySet, resource.entity.getKey(), entry.getValues(), !"PUT".equals(method));
+			for (Map.Entry<ServiceModel.Navigation, List<EntityStore.Entity>> binding : resolveBindings(resource.entitySet, entry.getBindings())
+					.entrySet()) {
+				for (EntityStore.Entity target : binding.getValue()) {
+					store.link(updated, binding.getKey(), target);
+				}
+			}
+			return ODataResponse.noContent();
+		}
+		if ("DELETE".equals(method)) {
+			store.delete(resource.entitySet, resource.entity.getKey());
+			return ODataResponse.noContent();
+		}
+		throw new ODataException(405, "MethodNotAllowed", "The method " + method + " is not supported.");
+	}
+
+	private static AtomEntryReader readEntry(ODataRequest request) throws ODataException {
+		String contentType = request.getHeader("Content-Type");
+		if (contentType != null && !contentType.contains("xml"))
+			throw new ODataException(415, "UnsupportedMediaType", "Only Atom entries are supported, not " + contentType + ".");
+		if (request.getBody() == null || request.getBody().trim().isEmpty())
+			throw ODataException.badRequest("The request has no entry.");
+		return AtomEntryReader.read(request.getBody());
+	}
+
+	/*
+	 * Resolves the hrefs of the links in an entry (absolute, or relative to the service URL) to entities
+	 */
+	private Map<ServiceModel.Navigation, List<EntityStore.Entity>> resolveBindings(ServiceModel.EntitySet entitySet, Map<String, List<String>> bindings)
+			throws ODataException {
+		Map<ServiceModel.Navigation, List<EntityStore.Entity>> resolved = new LinkedHashMap<ServiceModel.Navigation, List<EntityStore.Entity>>();
+		for (Map.Entry<String, List<String>> binding : bindings.entrySet()) {
+			ServiceModel.Navigation navigation = entitySet.getNavigation(binding.getKey());
+			if (navigation == null)
+				throw ODataException.badRequest("The navigation property " + binding.getKey() + " is not defined for " + entitySet.getName() + ".");
+			List<EntityStore.Entity> targets = new ArrayList<EntityStore.Entity>();
+			for (String href : binding.getValue()) {
+				Resource target = resolve(ODataRequest.decode(toResourcePath(href)));
+				if (target.entity == null)
+					throw ODataException.badRequest("The link " + href + " does not point to an entity.");
+				targets.add(target.entity);
+			}
+			resolved.put(navigation, targets);
+		}
+		return resolved;
+	}
+
+	/*
+	 * Returns the (still URL-encoded) resource path of a URL, which is either absolute or relative to the service URL
+	 */
+	String toResourcePath(String href) {
+		String path = href;
+		if (path.startsWith(serviceUrl))
+			path = path.substring(serviceUrl.length());
+		else if (path.contains("://") || path.startsWith("/")) {
+			int root = path.indexOf(servicePath);
+			if (root >= 0)
+				path = path.substring(root + servicePath.length());
+		}
+		return path;
+	}
+
+	private Resource resolve(String path) throws ODataException {
+		List<String> segments = EntityStore.splitOutsideQuotes(path, '/');
+		Resource resource = new Resource();
+
+		for (int i = 0; i < segments.size(); i++) {
+			String segment = segments.get(i);
+			if (segment.isEmpty() && i == segments.size() - 1 && i > 0)
+				break;
+
+			if ("$count".equals(segment)) {
+				if (resource.collection == null || i != segments.size() - 1)
+					throw ODataException.badRequest("$count can only be applied to a collection of entities.");
+				resource.count = true;
+				continue;
+			}
+			if (segment.startsWith("$"))
+				throw ODataException.notImplemented("The segment " + segment + " is not supported by the stand-in server.");
+
+			String name = segment;
+			String keyPredicate = null;
+			int open = segment.indexOf('(');
+			if (open >= 0) {
+				if (!segment.endsWith(")"))
+					throw ODataException.badRequest("The segment " + segment + " is malformed.");
+				name = segment.substring(0, open);
+				keyPredicate = segment.substring(open + 1, segment.length() - 1);
+			}
+
+			if (i == 0) {
+				ServiceModel.EntitySet entitySet = model.getEntitySet(name);
+				if (entitySet == null)
+					throw ODataException.notFound("The entity set " + name + " does not exist.");
+				resource.entitySet = entitySet;
+				if (keyPredicate == null) {
+					resource.collection = store.getEntities(entitySet);
+				}
+				else {
+					resource.entity = store.getEntity(entitySet, keyPredicate);
+					if (resource.entity == null)
+						throw ODataException.notFound("The resource " + segment + " does not exist.");
+				}
+				continue;
+			}
+
+			if (resource.collection != null || resource.entity == null)
+				throw ODataException.notFound("The resource " + path + " does not exist.");
+			ServiceModel.Navigation navigation = resource.entitySet.getNavigation(name);
+			if (navigation == null)
+				throw ODataException.notFound("The navigation property " + name + " is not defined for " + resource.entitySet.getName() + ".");
+
+			List<EntityStore.Entity> related = store.getRelated(resource.entity, navigation);
+			resource.parent = resource.entity;
+			resource.navigation = navigation;
+			resource.entitySet = navigation.getTarget();
+			resource.entity = null;
+			if (keyPredicate != null)
+				resource.entity = findEntity(navigation.getTarget(), related, keyPredicate, segment);
+			else if (navigation.isToMany())
+				resource.collection = related;
+			else if (!related.isEmpty())
+				resource.entity = related.get(0);
+		}
+		return resource;
+	}
+
+	private static EntityStore.Entity findEntity(ServiceModel.EntitySet entitySet, List<EntityStore.Entity> candidates, String keyPredicate, String segment)
+			throws ODataException {
+		String key = EntityStore.canonicalKey(entitySet, keyPredicate);
+		for (EntityStore.Entity candidate : candidates) {
+			if (candidate.getKey().equals(key))
+				return candidate;
+		}
+		throw ODataException.notFound("The resource " + segment + " does not exist.");
+	}
+
+	/*
+	 * What a resource path points to: a collection of entities, or a single entity (null for a navigation to a single
+	 * entity which is not linked)
+	 */
+	private static class Resource {
+		ServiceModel.EntitySet entitySet;
+		List<EntityStore.Entity> collection;
+		EntityStore.Entity entity;
+		EntityStore.Entity parent;
+		ServiceModel.Navigation navigation;
+		boolean count;
+	}
+}
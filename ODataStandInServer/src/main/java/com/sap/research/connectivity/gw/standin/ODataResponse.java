@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.standin;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * The status, headers and body of the answer to one ODataRequest
+ */
+public class ODataResponse {
+
+	private final int status;
+	private final Map<String, String> headers = new LinkedHashMap<String, String>();
+	private final String body;
+
+	public ODataResponse(int status, String contentType, String body) {
+		this.status = status;
+		this.body = body;
+		if (contentType != null)
+			headers.put("Content-Type", contentType);
+	}
+
+	public static ODataResponse error(ODataException e) {
+		return new ODataResponse(e.getStatus(), "application/xml", AtomWriter.writeError(e.getCode(), e.getMessage()));
+	}
+
+	public static ODataResponse noContent() {
+		return new ODataResponse(204, null, null);
+	}
+
+	public ODataResponse header(String name, String value) {
+		headers.put(name, value);
+		return this;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public String getHeader(String name) {
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			if (header.getKey().equalsIgnoreCase(name))
+				return header.getValue();
+		}
+		return null;
+	}
+
+	/*
+	 * null if the response has no body
+	 */
+	public String getBody() {
+		return body;
+	}
+
+	public static String getReasonPhrase(int status) {
+		switch (status) {
+		case 200: return "OK";
+		case 201: return "Created";
+		case 202: return "Accepted";
+		case 204: return "No Content";
+		case 304: return "Not Modified";
+		case 400: return "Bad Request";
+		case 401: return "Unauthorized";
+		case 403: return "Forbidden";
+		case 404: return "Not Found";
+		case 405: return "Method Not Allowed";
+		case 409: return "Conflict";
+		case 412: return "Precondition Failed";
+		case 415: return "Unsupported Media Type";
+		case 500: return "Internal Server Error";
+		case 501: return "Not Implemented";
+		case 502: return "Bad Gateway";
+		case 503: return "Service Unavailable";
+		case 504: return "Gateway Timeout";
+		default: return "Status " + status;
+		}
+	}
+}
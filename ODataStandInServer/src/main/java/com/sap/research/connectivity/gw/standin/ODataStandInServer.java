@@ -0,0 +1,466 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.standin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * An OData V2 service running inside the JVM, which stands in for a SAP NetWeaver Gateway service when testing or
+ * benchmarking the code generated by the addon. It serves the $metadata document and the synthetic data of a
+ * ServiceModel, and behaves like Gateway where the generated code depends on it: Basic authentication, the CSRF token
+ * handshake (X-CSRF-Token: Fetch, sap-XSRF cookie) and server-side paging.
+ *
+ *   ODataStandInServer server = new ODataStandInServer(ServiceModel.synthetic(50, 20, 2), 100);
+ *   server.setCredentials("user", "secret");
+ *   server.addFault(FaultRule.forRequests(null, ".*").delay(100, 20));
+ *   server.start(0);
+ *   ... ODataJerseyConsumer.newBuilder(server.getServiceUrl()) ...
+ *   server.stop();
+ *
+ * It can also be started on its own, see main().
+ */
+public class ODataStandInServer {
+
+	public static final String DEFAULT_SERVICE_PATH = "/sap/opu/odata/sap/STANDIN_SRV";
+
+	// The CSRF modes, named like the CSRF_MODE option of "gateway define odata_endpoint"
+	public static final String CSRF_STANDARD = "standard";
+	public static final String CSRF_COMPATIBILITY = "compatibility";
+	public static final String CSRF_NONE = "none";
+
+	static final String CSRF_COOKIE = "sap-XSRF_STANDIN_100";
+
+	private final ServiceModel model;
+	private final EntityStore store;
+	private final String servicePath;
+	private final List<FaultRule> faults = new CopyOnWriteArrayList<FaultRule>();
+	private final Map<String, String> csrfTokens = new ConcurrentHashMap<String, String>();
+	private final AtomicLong requestCount = new AtomicLong();
+	private Random random = new Random();
+
+	private String user;
+	private String password;
+	private String csrfMode = CSRF_STANDARD;
+	private int pageSize;
+	private String metadataDocument;
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private ODataRequestHandler handler;
+
+	public ODataStandInServer(ServiceModel model, int rowsPerEntitySet) {
+		this(model, rowsPerEntitySet, DEFAULT_SERVICE_PATH);
+	}
+
+	public ODataStandInServer(ServiceModel model, int rowsPerEntitySet, String servicePath) {
+		this.model = model;
+		this.store = new EntityStore(model, rowsPerEntitySet);
+		this.servicePath = servicePath.endsWith("/") ? servicePath.substring(0, servicePath.length() - 1) : servicePath;
+	}
+
+	/*
+	 * Requires Basic authentication with the given user and password; without, any request is accepted
+	 */
+	public void setCredentials(String user, String password) {
+		this.user = user;
+		this.password = password;
+	}
+
+	public void setCsrfMode(String csrfMode) {
+		if (!CSRF_STANDARD.equals(csrfMode) && !CSRF_COMPATIBILITY.equals(csrfMode) && !CSRF_NONE.equals(csrfMode))
+			throw new IllegalArgumentException("Unknown CSRF mode " + csrfMode + ", expected " + CSRF_STANDARD + ", " + CSRF_COMPATIBILITY + " or "
+					+ CSRF_NONE + ".");
+		this.csrfMode = csrfMode;
+	}
+
+	/*
+	 * See ODataRequestHandler.setPageSize()
+	 */
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+		if (handler != null)
+			handler.setPageSize(pageSize);
+	}
+
+	/*
+	 * See ODataRequestHandler.setMetadataDocument()
+	 */
+	public void setMetadataDocument(String metadataDocument) {
+		this.metadataDocument = metadataDocument;
+		if (handler != null)
+			handler.setMetadataDocument(metadataDocument);
+	}
+
+	public void addFault(FaultRule fault) {
+		faults.add(fault);
+	}
+
+	public void clearFaults() {
+		faults.clear();
+	}
+
+	/*
+	 * Makes the injected latency and errors reproducible
+	 */
+	public void setRandomSeed(long seed) {
+		random = new Random(seed);
+	}
+
+	public EntityStore getStore() {
+		return store;
+	}
+
+	public ServiceModel getModel() {
+		return model;
+	}
+
+	/*
+	 * The number of HTTP requests received since the server was created ($batch requests count once)
+	 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/*
+	 * Starts the server on the loopback interface; with port 0, a free port is chosen
+	 */
+	public synchronized void start(int port) throws IOException {
+		if (server != null)
+			throw new IllegalStateException("The stand-in server is already running.");
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 0);
+		handler = new ODataRequestHandler(model, store, getServiceUrl(), servicePath + "/");
+		handler.setPageSize(pageSize);
+		if (metadataDocument != null)
+			handler.setMetadataDocument(metadataDocument);
+
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "odata-standin");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.createContext(servicePath, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					serve(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	public synchronized void stop() {
+		if (server == null)
+			return;
+		server.stop(0);
+		executor.shutdownNow();
+		server = null;
+		executor = null;
+	}
+
+	public synchronized int getPort() {
+		if (server == null)
+			throw new IllegalStateException("The stand-in server is not running.");
+		return server.getAddress().getPort();
+	}
+
+	/*
+	 * The URL of the service root, ending with "/"
+	 */
+	public String getServiceUrl() {
+		return "http://127.0.0.1:" + getPort() + servicePath + "/";
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		requestCount.incrementAndGet();
+		String rawPath = exchange.getRequestURI().getRawPath();
+		String resourcePath = rawPath.length() > servicePath.length() ? rawPath.substring(servicePath.length() + 1) : "";
+		ODataRequest request = new ODataRequest(exchange.getRequestMethod(), resourcePath, exchange.getRequestURI().getRawQuery(), readBody(exchange));
+		for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+			if (!header.getValue().isEmpty())
+				request.setHeader(header.getKey(), header.getValue().get(0));
+		}
+
+		ODataResponse response = applyFaults(request);
+		if (response == null)
+			response = authenticate(request);
+		if (response == null)
+			response = checkCsrf(request);
+		if (response == null)
+			response = handler.handle(request);
+		answerCsrfFetch(request, response);
+
+		response.header("DataServiceVersion", "2.0");
+		for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+			exchange.getResponseHeaders().add(header.getKey(), header.getValue());
+		}
+		byte[] body = response.getBody() == null ? null : response.getBody().getBytes("UTF-8");
+		if (body == null || "HEAD".equals(request.getMethod())) {
+			exchange.sendResponseHeaders(response.getStatus(), -1);
+			return;
+		}
+		exchange.sendResponseHeaders(response.getStatus(), body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.flush();
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException {
+		return readFully(exchange.getRequestBody());
+	}
+
+	private static String readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			content.write(buffer, 0, read);
+		}
+		return content.toString("UTF-8");
+	}
+
+	private static String encodeBase64(String value) {
+		final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		byte[] bytes;
+		try {
+			bytes = value.getBytes("UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		StringBuilder encoded = new StringBuilder();
+		for (int i = 0; i < bytes.length; i += 3) {
+			int chunk = (bytes[i] & 0xff) << 16 | (i + 1 < bytes.length ? (bytes[i + 1] & 0xff) << 8 : 0) | (i + 2 < bytes.length ? bytes[i + 2] & 0xff : 0);
+			encoded.append(alphabet.charAt(chunk >> 18 & 0x3f)).append(alphabet.charAt(chunk >> 12 & 0x3f));
+			encoded.append(i + 1 < bytes.length ? alphabet.charAt(chunk >> 6 & 0x3f) : '=');
+			encoded.append(i + 2 < bytes.length ? alphabet.charAt(chunk & 0x3f) : '=');
+		}
+		return encoded.toString();
+	}
+
+	/*
+	 * Waits for the latency of the matching rules, and returns the error of the first failing one (or null)
+	 */
+	private ODataResponse applyFaults(ODataRequest request) {
+		long delay = 0;
+		ODataResponse error = null;
+		for (FaultRule fault : faults) {
+			if (!fault.matches(request.getMethod(), request.getResourcePath()))
+				continue;
+			delay += fault.nextDelay(random);
+			int status = fault.nextFailure(random);
+			if (error == null && status != 0)
+				error = ODataResponse.error(new ODataException(status, "InjectedError", fault.getMessage()));
+		}
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return error;
+	}
+
+	private ODataResponse authenticate(ODataRequest request) {
+		if (user == null)
+			return null;
+		String authorization = request.getHeader("Authorization");
+		if (authorization != null && authorization.trim().equals("Basic " + encodeBase64(user + ":" + password)))
+			return null;
+		return ODataResponse.error(new ODataException(401, "Unauthorized", "Logon failed.")).header("WWW-Authenticate",
+				"Basic realm=\"SAP NetWeaver Gateway Stand-In\"");
+	}
+
+	/*
+	 * Modifying requests need the token issued for the session cookie (standard mode) or the X-Requested-With header
+	 * (compatibility mode), as with Gateway.
+	 */
+	private ODataResponse checkCsrf(ODataRequest request) {
+		String method = request.getMethod();
+		if (CSRF_NONE.equals(csrfMode) || "GET".equals(method) || "HEAD".equals(method))
+			return null;
+
+		if (CSRF_COMPATIBILITY.equals(csrfMode)) {
+			if ("XMLHttpRequest".equals(request.getHeader("X-Requested-With")))
+				return null;
+			return ODataResponse.error(new ODataException(403, "Forbidden", "The request needs the header X-Requested-With: XMLHttpRequest."));
+		}
+
+		String token = request.getHeader("X-CSRF-Token");
+		String session = getCsrfCookie(request);
+		if (token != null && session != null && token.equals(csrfTokens.get(session)))
+			return null;
+		return ODataResponse.error(new ODataException(403, "Forbidden", "CSRF token validation failed")).header("X-CSRF-Token", "Required");
+	}
+
+	/*
+	 * Issues the CSRF token on "X-CSRF-Token: Fetch". The token of the session is also returned with the answers to
+	 * requests which sent it, as the generated code takes the token from every response.
+	 */
+	private void answerCsrfFetch(ODataRequest request, ODataResponse response) {
+		if (!CSRF_STANDARD.equals(csrfMode) || response.getStatus() == 401 || response.getHeader("X-CSRF-Token") != null)
+			return;
+		String requested = request.getHeader("X-CSRF-Token");
+		if (requested == null)
+			return;
+
+		String session = getCsrfCookie(request);
+		String token = session == null ? null : csrfTokens.get(session);
+		if ("Fetch".equalsIgnoreCase(requested) && token == null) {
+			session = UUID.randomUUID().toString().replace("-", "");
+			token = encodeBase64(UUID.randomUUID().toString()).substring(0, 24);
+			csrfTokens.put(session, token);
+			response.header("Set-Cookie", CSRF_COOKIE + "=" + session + "; path=/");
+		}
+		if (token != null && ("Fetch".equalsIgnoreCase(requested) || requested.equals(token)))
+			response.header("X-CSRF-Token", token);
+	}
+
+	private static String getCsrfCookie(ODataRequest request) {
+		String cookies = request.getHeader("Cookie");
+		if (cookies == null)
+			return null;
+		for (String cookie : cookies.split(";")) {
+			int equals = cookie.indexOf('=');
+			if (equals > 0 && CSRF_COOKIE.equals(cookie.substring(0, equals).trim()))
+				return cookie.substring(equals + 1).trim();
+		}
+		return null;
+	}
+
+	/*
+	 * Usage: java -jar <stand-in server jar> [--port 8080] [--path /sap/opu/odata/sap/STANDIN_SRV]
+	 *                 [--sample | --sets 10 --properties 20 --navs 2] [--rows 100] [--metadata <EDMX file>]
+	 *                 [--user <user> --password <password>] [--csrf standard|compatibility|none]
+	 *                 [--pageSize 0] [--latency <ms>] [--jitter <ms>] [--errorRate 0.0] [--errorStatus 503]
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = 8080;
+		String path = DEFAULT_SERVICE_PATH;
+		boolean sample = false;
+		int sets = 10;
+		int properties = 20;
+		int navs = 2;
+		int rows = 100;
+		String metadataFile = null;
+		String user = null;
+		String password = null;
+		String csrf = CSRF_STANDARD;
+		int pageSize = 0;
+		int latency = 0;
+		int jitter = 0;
+		double errorRate = 0;
+		int errorStatus = 503;
+
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if ("--sample".equals(option)) {
+				sample = true;
+				continue;
+			}
+			if (i + 1 >= args.length)
+				throw new IllegalArgumentException("The option " + option + " needs a value.");
+			String value = args[++i];
+			if ("--port".equals(option))
+				port = Integer.parseInt(value);
+			else if ("--path".equals(option))
+				path = value;
+			else if ("--sets".equals(option))
+				sets = Integer.parseInt(value);
+			else if ("--properties".equals(option))
+				properties = Integer.parseInt(value);
+			else if ("--navs".equals(option))
+				navs = Integer.parseInt(value);
+			else if ("--rows".equals(option))
+				rows = Integer.parseInt(value);
+			else if ("--metadata".equals(option))
+				metadataFile = value;
+			else if ("--user".equals(option))
+				user = value;
+			else if ("--password".equals(option))
+				password = value;
+			else if ("--csrf".equals(option))
+				csrf = value;
+			else if ("--pageSize".equals(option))
+				pageSize = Integer.parseInt(value);
+			else if ("--latency".equals(option))
+				latency = Integer.parseInt(value);
+			else if ("--jitter".equals(option))
+				jitter = Integer.parseInt(value);
+			else if ("--errorRate".equals(option))
+				errorRate = Double.parseDouble(value);
+			else if ("--errorStatus".equals(option))
+				errorStatus = Integer.parseInt(value);
+			else
+				throw new IllegalArgumentException("Unknown option " + option);
+		}
+
+		ODataStandInServer server = new ODataStandInServer(sample ? ServiceModel.sample() : ServiceModel.synthetic(sets, properties, navs), rows, path);
+		if (user != null)
+			server.setCredentials(user, password == null ? "" : password);
+		server.setCsrfMode(csrf);
+		server.setPageSize(pageSize);
+		if (metadataFile != null)
+			server.setMetadataDocument(readFile(new File(metadataFile)));
+		if (latency > 0 || jitter > 0)
+			server.addFault(FaultRule.forRequests(null, ".*").delay(latency, jitter));
+		if (errorRate > 0)
+			server.addFault(FaultRule.forRequests(null, ".*").fail(errorStatus).rate(errorRate));
+
+		server.start(port);
+		System.out.println("OData stand-in service running at " + server.getServiceUrl());
+		// The server threads are daemons, keep the JVM running until it is killed
+		Thread.sleep(Long.MAX_VALUE);
+	}
+
+	private static String readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return readFully(in);
+		} finally {
+			in.close();
+		}
+	}
+}
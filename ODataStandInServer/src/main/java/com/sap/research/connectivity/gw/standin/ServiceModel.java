@@ -0,0 +1,364 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.standin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The entity sets, properties and associations served by the stand-in server. One entity type is defined per entity
+ * set. The model is used to write the $metadata document and to generate the synthetic data, so both always match.
+ *
+ *   ServiceModel model = new ServiceModel("ZSTANDIN");
+ *   model.addEntitySet("Suppliers", "Supplier").key("SupplierId", "Edm.Int32").property("Name", "Edm.String", 40);
+ *   model.addEntitySet("Products", "Product").key("ProductId", "Edm.String").property("Price", "Edm.Decimal");
+ *   model.addAssociation("Supplier_Products", "Suppliers", "ToProducts", "1", "Products", "ToSupplier", "*");
+ */
+public class ServiceModel {
+
+	private final String namespace;
+	private final Map<String, EntitySet> entitySets = new LinkedHashMap<String, EntitySet>();
+	private final List<Association> associations = new ArrayList<Association>();
+
+	public ServiceModel(String namespace) {
+		this.namespace = namespace;
+	}
+
+	public String getNamespace() {
+		return namespace;
+	}
+
+	public String getContainerName() {
+		return namespace + "_Entities";
+	}
+
+	public EntitySet addEntitySet(String name, String entityTypeName) {
+		if (entitySets.containsKey(name))
+			throw new IllegalArgumentException("The entity set " + name + " is already defined.");
+		EntitySet entitySet = new EntitySet(name, entityTypeName);
+		entitySets.put(name, entitySet);
+		return entitySet;
+	}
+
+	/*
+	 * Defines an association between two entity sets, with the navigation property of each side (null for none) and the
+	 * multiplicity of each end ("1", "0..1" or "*").
+	 */
+	public Association addAssociation(String name, String fromSet, String fromNavigation, String fromMultiplicity, String toSet,
+			String toNavigation, String toMultiplicity) {
+		Association association = new Association(name, getEntitySetOrFail(fromSet), fromMultiplicity, getEntitySetOrFail(toSet), toMultiplicity);
+		if (fromNavigation != null)
+			association.from.navigations.add(new Navigation(fromNavigation, association, true));
+		if (toNavigation != null)
+			association.to.navigations.add(new Navigation(toNavigation, association, false));
+		associations.add(association);
+		return association;
+	}
+
+	private EntitySet getEntitySetOrFail(String name) {
+		EntitySet entitySet = entitySets.get(name);
+		if (entitySet == null)
+			throw new IllegalArgumentException("The entity set " + name + " is not defined.");
+		return entitySet;
+	}
+
+	public EntitySet getEntitySet(String name) {
+		return entitySets.get(name);
+	}
+
+	public List<EntitySet> getEntitySets() {
+		return new ArrayList<EntitySet>(entitySets.values());
+	}
+
+	public List<Association> getAssociations() {
+		return Collections.unmodifiableList(associations);
+	}
+
+	/*
+	 * A small service resembling a typical Gateway sales service: business partners, their products and sales orders
+	 * with items.
+	 */
+	public static ServiceModel sample() {
+		ServiceModel model = new ServiceModel("ZSTANDIN");
+		model.addEntitySet("BusinessPartners", "BusinessPartner")
+			.key("BusinessPartnerID", "Edm.String", 10)
+			.property("CompanyName", "Edm.String", 80)
+			.property("EmailAddress", "Edm.String", 255)
+			.property("CreatedAt", "Edm.DateTime");
+		model.addEntitySet("Products", "Product")
+			.key("ProductID", "Edm.String", 10)
+			.property("Name", "Edm.String", 255)
+			.property("Price", "Edm.Decimal")
+			.property("Quantity", "Edm.Int32")
+			.property("Available", "Edm.Boolean")
+			.property("ChangedAt", "Edm.DateTime");
+		model.addEntitySet("SalesOrders", "SalesOrder")
+			.key("SalesOrderID", "Edm.Int32")
+			.property("Note", "Edm.String", 255)
+			.property("GrossAmount", "Edm.Decimal")
+			.property("CreatedAt", "Edm.DateTime");
+		model.addEntitySet("SalesOrderItems", "SalesOrderItem")
+			.key("SalesOrderID", "Edm.Int32")
+			.key("ItemPosition", "Edm.Int32")
+			.property("ProductID", "Edm.String", 10)
+			.property("Quantity", "Edm.Int32");
+		model.addAssociation("BusinessPartner_Products", "BusinessPartners", "ToProducts", "1", "Products", "ToSupplier", "*");
+		model.addAssociation("BusinessPartner_SalesOrders", "BusinessPartners", "ToSalesOrders", "1", "SalesOrders", "ToBusinessPartner", "*");
+		model.addAssociation("SalesOrder_Items", "SalesOrders", "ToItems", "1", "SalesOrderItems", "ToHeader", "*");
+		model.addAssociation("Item_Product", "SalesOrderItems", "ToProduct", "*", "Products", null, "0..1");
+		return model;
+	}
+
+	/*
+	 * A service of the given size, with the same shape as the one of MetadataWriterBenchmark in the retriever
+	 * application: entity set i has an "Id" key, the given number of String / DateTime properties and navigation
+	 * properties to the following entity sets.
+	 */
+	public static ServiceModel synthetic(int entitySetCount, int propertyCount, int navigationCount) {
+		ServiceModel model = new ServiceModel("BENCH");
+		for (int e = 0; e < entitySetCount; e++) {
+			EntitySet entitySet = model.addEntitySet("Entity" + e + "Collection", "Entity" + e).key("Id", "Edm.String", 20);
+			for (int p = 0; p < propertyCount; p++) {
+				if (p % 3 == 0)
+					entitySet.property("Property" + p, "Edm.DateTime");
+				else
+					entitySet.property("Property" + p, "Edm.String", 40);
+			}
+		}
+		for (int e = 0; e < entitySetCount; e++) {
+			for (int n = 0; n < navigationCount; n++) {
+				model.addAssociation("Assoc" + e + "_" + n, "Entity" + e + "Collection", "Nav" + n, "1",
+						"Entity" + ((e + n + 1) % entitySetCount) + "Collection", null, "*");
+			}
+		}
+		return model;
+	}
+
+	public class EntitySet {
+
+		private final String name;
+		private final String entityTypeName;
+		private final List<Property> keys = new ArrayList<Property>();
+		private final List<Property> properties = new ArrayList<Property>();
+		private final List<Navigation> navigations = new ArrayList<Navigation>();
+
+		EntitySet(String name, String entityTypeName) {
+			this.name = name;
+			this.entityTypeName = entityTypeName;
+		}
+
+		public EntitySet key(String propertyName, String edmType) {
+			return key(propertyName, edmType, 0);
+		}
+
+		public EntitySet key(String propertyName, String edmType, int maxLength) {
+			Property key = new Property(propertyName, edmType, false, maxLength);
+			keys.add(key);
+			properties.add(key);
+			return this;
+		}
+
+		public EntitySet property(String propertyName, String edmType) {
+			return property(propertyName, edmType, 0);
+		}
+
+		public EntitySet property(String propertyName, String edmType, int maxLength) {
+			properties.add(new Property(propertyName, edmType, true, maxLength));
+			return this;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getEntityTypeName() {
+			return entityTypeName;
+		}
+
+		public String getQualifiedEntityTypeName() {
+			return namespace + "." + entityTypeName;
+		}
+
+		public List<Property> getKeys() {
+			return keys;
+		}
+
+		public List<Property> getProperties() {
+			return properties;
+		}
+
+		public Property getProperty(String propertyName) {
+			for (Property property : properties) {
+				if (property.getName().equals(propertyName))
+					return property;
+			}
+			return null;
+		}
+
+		public List<Navigation> getNavigations() {
+			return navigations;
+		}
+
+		public Navigation getNavigation(String navigationName) {
+			for (Navigation navigation : navigations) {
+				if (navigation.getName().equals(navigationName))
+					return navigation;
+			}
+			return null;
+		}
+	}
+
+	public static class Property {
+
+		private final String name;
+		private final String type;
+		private final boolean nullable;
+		private final int maxLength;
+
+		Property(String name, String type, boolean nullable, int maxLength) {
+			this.name = name;
+			this.type = type;
+			this.nullable = nullable;
+			this.maxLength = maxLength;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public boolean isNullable() {
+			return nullable;
+		}
+
+		/*
+		 * 0 if not limited
+		 */
+		public int getMaxLength() {
+			return maxLength;
+		}
+	}
+
+	public class Association {
+
+		private final String name;
+		private final EntitySet from;
+		private final String fromMultiplicity;
+		private final EntitySet to;
+		private final String toMultiplicity;
+
+		Association(String name, EntitySet from, String fromMultiplicity, EntitySet to, String toMultiplicity) {
+			this.name = name;
+			this.from = from;
+			this.fromMultiplicity = fromMultiplicity;
+			this.to = to;
+			this.toMultiplicity = toMultiplicity;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getQualifiedName() {
+			return namespace + "." + name;
+		}
+
+		public EntitySet getFrom() {
+			return from;
+		}
+
+		public String getFromMultiplicity() {
+			return fromMultiplicity;
+		}
+
+		public EntitySet getTo() {
+			return to;
+		}
+
+		public String getToMultiplicity() {
+			return toMultiplicity;
+		}
+
+		/*
+		 * Role names as written to the $metadata document
+		 */
+		public String getFromRole() {
+			return "FromRole_" + name;
+		}
+
+		public String getToRole() {
+			return "ToRole_" + name;
+		}
+	}
+
+	/*
+	 * A navigation property, going from one end of an association to the other
+	 */
+	public static class Navigation {
+
+		private final String name;
+		private final Association association;
+		private final boolean forward;
+
+		Navigation(String name, Association association, boolean forward) {
+			this.name = name;
+			this.association = association;
+			this.forward = forward;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Association getAssociation() {
+			return association;
+		}
+
+		/*
+		 * True if the navigation goes from the "from" end to the "to" end of the association
+		 */
+		public boolean isForward() {
+			return forward;
+		}
+
+		public EntitySet getSource() {
+			return forward ? association.getFrom() : association.getTo();
+		}
+
+		public EntitySet getTarget() {
+			return forward ? association.getTo() : association.getFrom();
+		}
+
+		public boolean isToMany() {
+			return "*".equals(forward ? association.getToMultiplicity() : association.getFromMultiplicity());
+		}
+
+		public String getFromRole() {
+			return forward ? association.getFromRole() : association.getToRole();
+		}
+
+		public String getToRole() {
+			return forward ? association.getToRole() : association.getFromRole();
+		}
+	}
+}
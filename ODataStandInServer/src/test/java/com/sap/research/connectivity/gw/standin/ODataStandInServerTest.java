@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.standin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Starts the stand-in server on a free port and sends it the requests the generated code relies on
+ */
+public class ODataStandInServerTest {
+
+	private static final int ROWS = 25;
+	private static final Pattern ENTRY_ID = Pattern.compile("<entry[^>]*>\\s*<id>([^<]+)</id>");
+
+	private ODataStandInServer server;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new ODataStandInServer(ServiceModel.sample(), ROWS);
+		server.start(0);
+	}
+
+	@After
+	public void stopServer() {
+		server.stop();
+	}
+
+	@Test
+	public void metadataDescribesTheModel() throws IOException {
+		HttpURLConnection connection = open("$metadata", "GET");
+		assertEquals(200, connection.getResponseCode());
+		String metadata = read(connection);
+
+		assertTrue(metadata.contains("edmx:Edmx"));
+		for (String entitySet : new String[] {"BusinessPartners", "Products", "SalesOrders", "SalesOrderItems"}) {
+			assertTrue(entitySet, metadata.contains("EntitySet Name=\"" + entitySet + "\""));
+		}
+		assertTrue(metadata.contains("NavigationProperty Name=\"ToSalesOrders\""));
+	}
+
+	@Test
+	public void modifyingRequestsNeedTheFetchedCsrfToken() throws IOException {
+		HttpURLConnection withoutToken = open("$batch", "POST");
+		send(withoutToken, "multipart/mixed; boundary=batch_1", "--batch_1--\r\n");
+		assertEquals(403, withoutToken.getResponseCode());
+		assertEquals("Required", withoutToken.getHeaderField("X-CSRF-Token"));
+
+		HttpURLConnection fetch = open("", "GET");
+		fetch.setRequestProperty("X-CSRF-Token", "Fetch");
+		assertEquals(200, fetch.getResponseCode());
+		String token = fetch.getHeaderField("X-CSRF-Token");
+		String cookie = fetch.getHeaderField("Set-Cookie");
+		assertNotNull(token);
+		assertTrue(cookie, cookie.startsWith(ODataStandInServer.CSRF_COOKIE + "="));
+
+		HttpURLConnection withToken = open("$batch", "POST");
+		withToken.setRequestProperty("X-CSRF-Token", token);
+		withToken.setRequestProperty("Cookie", cookie.substring(0, cookie.indexOf(';')));
+		send(withToken, "multipart/mixed; boundary=batch_1", "--batch_1--\r\n");
+		assertEquals(202, withToken.getResponseCode());
+	}
+
+	@Test
+	public void feedsArePagedWithTopAndSkip() throws IOException {
+		List<String> all = entryIds(get("Products"));
+		assertEquals(ROWS, all.size());
+
+		assertEquals(all.subList(10, 15), entryIds(get("Products?$skip=10&$top=5")));
+		assertEquals(all.subList(0, 3), entryIds(get("Products?$top=3")));
+		assertEquals(all.subList(ROWS - 2, ROWS), entryIds(get("Products?$skip=" + (ROWS - 2) + "&$top=5")));
+		assertTrue(entryIds(get("Products?$skip=" + ROWS)).isEmpty());
+	}
+
+	@Test
+	public void serverSidePagingLinksTheNextPage() throws IOException {
+		server.setPageSize(10);
+		String firstPage = get("Products");
+		assertEquals(10, entryIds(firstPage).size());
+		assertTrue(firstPage.contains("$skiptoken=10"));
+	}
+
+	@Test
+	public void batchAnswersEveryQueryOperation() throws IOException {
+		server.setCsrfMode(ODataStandInServer.CSRF_NONE);
+		String batch = "--batch_1\r\n"
+				+ "Content-Type: application/http\r\n"
+				+ "Content-Transfer-Encoding: binary\r\n"
+				+ "\r\n"
+				+ "GET Products?$top=2 HTTP/1.1\r\n"
+				+ "\r\n"
+				+ "\r\n"
+				+ "--batch_1\r\n"
+				+ "Content-Type: application/http\r\n"
+				+ "Content-Transfer-Encoding: binary\r\n"
+				+ "\r\n"
+				+ "GET SalesOrders/$count HTTP/1.1\r\n"
+				+ "\r\n"
+				+ "\r\n"
+				+ "--batch_1--\r\n";
+
+		HttpURLConnection connection = open("$batch", "POST");
+		send(connection, "multipart/mixed; boundary=batch_1", batch);
+		assertEquals(202, connection.getResponseCode());
+		assertTrue(connection.getContentType(), connection.getContentType().startsWith("multipart/mixed; boundary=batchresponse_"));
+
+		String response = read(connection);
+		assertEquals(2, count(response, "HTTP/1.1 200 OK"));
+		assertEquals(2, entryIds(response).size());
+		assertTrue(response, response.contains("\r\n\r\n" + ROWS + "\r\n"));
+	}
+
+	private HttpURLConnection open(String resourcePath, String method) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(server.getServiceUrl() + resourcePath).openConnection();
+		connection.setRequestMethod(method);
+		return connection;
+	}
+
+	private String get(String resourcePath) throws IOException {
+		HttpURLConnection connection = open(resourcePath, "GET");
+		assertEquals(200, connection.getResponseCode());
+		return read(connection);
+	}
+
+	private static void send(HttpURLConnection connection, String contentType, String body) throws IOException {
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", contentType);
+		OutputStream out = connection.getOutputStream();
+		try {
+			out.write(body.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String read(HttpURLConnection connection) throws IOException {
+		InputStream in = connection.getResponseCode() >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				content.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		return content.toString("UTF-8");
+	}
+
+	private static List<String> entryIds(String feed) {
+		List<String> ids = new ArrayList<String>();
+		Matcher matcher = ENTRY_ID.matcher(feed);
+		while (matcher.find()) {
+			ids.add(matcher.group(1));
+		}
+		return ids;
+	}
+
+	private static int count(String text, String part) {
+		int count = 0;
+		for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + part.length())) {
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import java.util.List;
+
+/**
+ * Answers the completions of the gateway shell converters from an index of the project: the entity sets of each
+ * namespace with their remote fields, and the domain classes connected to a namespace with the fields they already
+ * contain. The index is built in the background when the shell starts and is updated for every changed metadata or
+ * domain class file, so that pressing TAB does not parse Java classes or metadata files.
+ */
+public interface CompletionIndexService {
+
+	/**
+	 * Returns the entity sets of the given namespace starting with the prefix
+	 *
+	 * @throws IllegalStateException if the namespace does not exist or its metadata cannot be read
+	 */
+	List<String> getEntityNames(String namespace, String prefix) throws IllegalStateException;
+
+	/**
+	 * Returns the domain classes connected to a Gateway namespace starting with the prefix
+	 */
+	List<String> getConnectedClasses(String prefix);
+
+	/**
+	 * Returns the namespace the given domain class is connected to, or null if it does not exist or is not connected
+	 */
+	String getNamespace(String className);
+
+	/**
+	 * Returns the remote fields of the entity set of a connected domain class starting with the prefix, without the
+	 * fields the class already contains
+	 *
+	 * @throws IllegalStateException if the class is not connected or the metadata of its namespace cannot be read
+	 */
+	List<String> getImportableFields(String className, String prefix) throws IllegalStateException;
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import japa.parser.ParseException;
+import japa.parser.ast.CompilationUnit;
+import japa.parser.ast.body.BodyDeclaration;
+import japa.parser.ast.body.FieldDeclaration;
+import japa.parser.ast.body.TypeDeclaration;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Service;
+import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.file.monitor.event.FileEvent;
+import org.springframework.roo.file.monitor.event.FileEventListener;
+
+import com.sap.research.connectivity.gw.parsers.JavaSourceField;
+import com.sap.research.connectivity.gw.parsers.JavaSourceParserUtils;
+import com.sap.research.connectivity.gw.parsers.MetadataIndex;
+import com.sap.research.connectivity.gw.parsers.MetadataXMLParser;
+import com.sap.research.connectivity.gw.parsers.RemoteField;
+import com.sap.research.connectivity.gw.parsers.RemoteFields;
+
+/**
+ * Default {@link CompletionIndexService}. Domain classes are read with the Java parser only when they change (on a
+ * file event, or when a lookup finds a newer file than the indexed one); metadata is taken from the
+ * {@link MetadataModelService}. All indexing done on file events and at start runs in a single background thread.
+ * As the FileManager and the project operations are not thread safe, the paths are resolved by the caller and the
+ * background thread reads the files with java.io.
+ */
+@Component
+@Service
+public class CompletionIndexServiceImpl extends GWOperationsUtils implements CompletionIndexService, FileEventListener {
+
+	private static final String JAVA_FILE_SUFFIX = ".java";
+
+	private static final String METADATA_FILE_SUFFIX = "_metadata.xml";
+
+	/*
+	 * Domain classes by simple class name, the connected ones are also in the trie
+	 */
+	private final Map<String, ClassEntry> classes = new ConcurrentHashMap<String, ClassEntry>();
+	private final PrefixTrie connectedClasses = new PrefixTrie();
+
+	/*
+	 * Entity sets by namespace, and remote fields by namespace and entity set ("<ns>/<entity set>")
+	 */
+	private final Map<String, NamesEntry> entitySets = new ConcurrentHashMap<String, NamesEntry>();
+	private final Map<String, FieldsEntry> entityFields = new ConcurrentHashMap<String, FieldsEntry>();
+
+	private ExecutorService executor;
+
+	protected void activate(ComponentContext context) {
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "gw-completion-index");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		if (!projectOperations.isFocusedProjectAvailable())
+			return;
+		final File domainFolder = new File(getSubPackagePath(domain));
+		final File metadataFolder = new File(getSubPackagePath(oDataFolder));
+		executor.execute(new Runnable() {
+			public void run() {
+				warm(domainFolder, metadataFolder);
+			}
+		});
+	}
+
+	protected void deactivate(ComponentContext context) {
+		executor.shutdownNow();
+		classes.clear();
+		entitySets.clear();
+		entityFields.clear();
+	}
+
+	public List<String> getEntityNames(String namespace, String prefix) throws IllegalStateException {
+		return getEntitySets(namespace, new File(getMetadataFile(namespace))).names.getWords(prefix);
+	}
+
+	public List<String> getConnectedClasses(String prefix) {
+		List<String> classNames = new ArrayList<String>();
+		for (String className : connectedClasses.getWords(prefix)) {
+			// The class may have changed since it has been indexed
+			if (getNamespace(className) != null)
+				classNames.add(className);
+		}
+		return classNames;
+	}
+
+	public String getNamespace(String className) {
+		ClassEntry entry = getClassEntry(className);
+		return entry == null || entry.namespace.isEmpty() ? null : entry.namespace;
+	}
+
+	public List<String> getImportableFields(String className, String prefix) throws IllegalStateException {
+		ClassEntry classEntry = getClassEntry(className);
+		if (classEntry == null || classEntry.namespace.isEmpty())
+			throw new IllegalStateException("The class \"" + className + "\" is not connected to a Gateway namespace.");
+
+		FieldsEntry fieldsEntry = getEntityFields(classEntry.namespace, className, new File(getMetadataFile(classEntry.namespace)));
+		List<String> importableFields = new ArrayList<String>();
+		for (String remoteName : fieldsEntry.names.getWords(prefix)) {
+			if (!classEntry.fieldNames.contains(fieldsEntry.fields.get(remoteName).getLocalName()))
+				importableFields.add(remoteName);
+		}
+		return importableFields;
+	}
+
+	/*
+	 * Queues the files changed in the project for indexing. At start Roo reports every file of the project, so that the
+	 * index is also built if the project was not available yet when this component was activated.
+	 */
+	public void onFileEvent(FileEvent fileEvent) {
+		handleChangedFile(fileEvent.getFileDetails().getFile());
+		if (fileEvent.getPreviousName() != null)
+			handleChangedFile(new File(fileEvent.getPreviousName()));
+	}
+
+	private void handleChangedFile(final File file) {
+		String name = file.getName();
+		if (name.endsWith(METADATA_FILE_SUFFIX) || name.endsWith(MetadataIndex.INDEX_FILE_SUFFIX)) {
+			String suffix = name.endsWith(METADATA_FILE_SUFFIX) ? METADATA_FILE_SUFFIX : MetadataIndex.INDEX_FILE_SUFFIX;
+			final String namespace = name.substring(0, name.length() - suffix.length());
+			final File metadataFile = new File(file.getParentFile(), namespace + METADATA_FILE_SUFFIX);
+			entitySets.remove(namespace);
+			removeEntityFields(namespace);
+			submit(new Runnable() {
+				public void run() {
+					warmNamespace(namespace, metadataFile);
+				}
+			});
+		}
+		else if (name.endsWith(JAVA_FILE_SUFFIX) && isDomainClass(file)) {
+			submit(new Runnable() {
+				public void run() {
+					indexClass(file);
+				}
+			});
+		}
+	}
+
+	private void submit(Runnable task) {
+		ExecutorService currentExecutor = executor;
+		if (currentExecutor != null && !currentExecutor.isShutdown())
+			currentExecutor.execute(task);
+	}
+
+	/*
+	 * Indexes the domain classes and the entity sets of all namespaces, and the remote fields of the connected classes
+	 */
+	private void warm(File domainFolder, File metadataFolder) {
+		try {
+			for (File file : listFiles(domainFolder, JAVA_FILE_SUFFIX)) {
+				indexClass(file);
+			}
+			for (File file : listFiles(metadataFolder, METADATA_FILE_SUFFIX)) {
+				String name = file.getName();
+				warmNamespace(name.substring(0, name.length() - METADATA_FILE_SUFFIX.length()), file);
+			}
+		} catch (RuntimeException e) {
+			// Nothing is lost, the lookups index what they need themselves
+			log.fine("The completion index could not be built: " + e.getMessage());
+		}
+	}
+
+	private static File[] listFiles(File folder, final String suffix) {
+		File[] files = folder.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(suffix);
+			}
+		});
+		return files == null ? new File[0] : files;
+	}
+
+	private void warmNamespace(String namespace, File metadataFile) {
+		try {
+			getEntitySets(namespace, metadataFile);
+			for (Map.Entry<String, ClassEntry> classEntry : classes.entrySet()) {
+				if (classEntry.getValue().namespace.equals(namespace))
+					getEntityFields(namespace, classEntry.getKey(), metadataFile);
+			}
+		} catch (RuntimeException e) {
+			// A deleted or broken metadata file, reported to the user when completing
+		}
+	}
+
+	private NamesEntry getEntitySets(String namespace, File metadataFile) throws IllegalStateException {
+		NamesEntry entry = entitySets.get(namespace);
+		if (entry != null && entry.isCurrent(metadataFile))
+			return entry;
+
+		if (!metadataFile.isFile())
+			throw new IllegalStateException("Namespace \"" + namespace + "\" does not exist.");
+		entry = new NamesEntry(metadataFile);
+		for (String entityName : metadataModelService.getEntityNames(metadataFile.getPath())) {
+			entry.names.add(entityName);
+		}
+		entitySets.put(namespace, entry);
+		return entry;
+	}
+
+	private FieldsEntry getEntityFields(String namespace, String entitySet, File metadataFile) throws IllegalStateException {
+		String key = namespace + "/" + entitySet;
+		FieldsEntry entry = entityFields.get(key);
+		if (entry != null && entry.isCurrent(metadataFile))
+			return entry;
+
+		MetadataXMLParser xmlParser = new MetadataXMLParser(metadataModelService.getEntities(metadataFile.getPath()), entitySet);
+		try {
+			xmlParser.parse();
+		} catch (Exception e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+		entry = new FieldsEntry(metadataFile, xmlParser.getFields());
+		entityFields.put(key, entry);
+		return entry;
+	}
+
+	private void removeEntityFields(String namespace) {
+		for (Iterator<String> keys = entityFields.keySet().iterator(); keys.hasNext(); ) {
+			if (keys.next().startsWith(namespace + "/"))
+				keys.remove();
+		}
+	}
+
+	private ClassEntry getClassEntry(String className) {
+		File file = new File(getSubPackagePath(domain) + SEPARATOR + className + JAVA_FILE_SUFFIX);
+		ClassEntry entry = classes.get(className);
+		if (entry == null || entry.lastModified != file.lastModified())
+			entry = indexClass(file);
+		return entry;
+	}
+
+	/*
+	 * (Re)reads the fields of a domain class, removes it from the index if the file does not exist anymore
+	 */
+	private synchronized ClassEntry indexClass(File file) {
+		String className = file.getName().substring(0, file.getName().length() - JAVA_FILE_SUFFIX.length());
+		if (!file.isFile()) {
+			classes.remove(className);
+			connectedClasses.remove(className);
+			return null;
+		}
+
+		long lastModified = file.lastModified();
+		ClassEntry entry = classes.get(className);
+		if (entry != null && entry.lastModified == lastModified)
+			return entry;
+
+		List<JavaSourceField> fields = new ArrayList<JavaSourceField>();
+		String annotationNamespace = "";
+		InputStream inputStream = null;
+		try {
+			inputStream = new FileInputStream(file);
+			CompilationUnit compilationUnit = JavaSourceParserUtils.parse(inputStream, "UTF-8");
+			if (compilationUnit.getTypes() != null) {
+				for (TypeDeclaration type : compilationUnit.getTypes()) {
+					if (type.getAnnotations() != null && annotationNamespace.isEmpty())
+						annotationNamespace = GwUtils.getNamespaceFromAnnotations(type.getAnnotations().toString());
+					if (type.getMembers() == null)
+						continue;
+					for (BodyDeclaration member : type.getMembers()) {
+						if (member instanceof FieldDeclaration)
+							fields.add(new JavaSourceField((FieldDeclaration) member));
+					}
+				}
+			}
+		} catch (ParseException e) {
+			// The class is being edited, keep what has been indexed before until it can be parsed again
+			if (entry != null) {
+				entry = new ClassEntry(lastModified, entry.namespace, entry.fieldNames);
+				classes.put(className, entry);
+			}
+			return entry;
+		} catch (IOException e) {
+			// Deleted meanwhile, the file event removes it from the index
+			return entry;
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
+
+		Set<String> fieldNames = new HashSet<String>();
+		for (JavaSourceField field : fields) {
+			fieldNames.add(field.getFieldName());
+		}
+		// The classes whose persistence methods are in a Roo_Gateway ITD are connected through their annotation
+		String namespace = GwUtils.getNamespaceFromFields(fields);
+		entry = new ClassEntry(lastModified, namespace.isEmpty() ? annotationNamespace : namespace, fieldNames);
+		classes.put(className, entry);
+		if (entry.namespace.isEmpty())
+			connectedClasses.remove(className);
+		else
+			connectedClasses.add(className);
+		return entry;
+	}
+
+	private boolean isDomainClass(File file) {
+		if (!projectOperations.isFocusedProjectAvailable() || file.getParentFile() == null)
+			return false;
+		try {
+			return file.getParentFile().getCanonicalFile().equals(new File(getSubPackagePath(domain)).getCanonicalFile());
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static class ClassEntry {
+		final long lastModified;
+		final String namespace;
+		final Set<String> fieldNames;
+
+		ClassEntry(long lastModified, String namespace, Set<String> fieldNames) {
+			this.lastModified = lastModified;
+			this.namespace = namespace;
+			this.fieldNames = Collections.unmodifiableSet(fieldNames);
+		}
+	}
+
+	/*
+	 * An index built from a metadata file, valid as long as the file is not modified
+	 */
+	private static class MetadataEntry {
+		final long lastModified;
+		final long length;
+
+		MetadataEntry(File metadataFile) {
+			this.lastModified = metadataFile.lastModified();
+			this.length = metadataFile.length();
+		}
+
+		boolean isCurrent(File metadataFile) {
+			return lastModified == metadataFile.lastModified() && length == metadataFile.length();
+		}
+	}
+
+	private static class NamesEntry extends MetadataEntry {
+		final PrefixTrie names = new PrefixTrie();
+
+		NamesEntry(File metadataFile) {
+			super(metadataFile);
+		}
+	}
+
+	private static class FieldsEntry extends MetadataEntry {
+		final RemoteFields fields;
+		final PrefixTrie names = new PrefixTrie();
+
+		FieldsEntry(File metadataFile, RemoteFields fields) {
+			super(metadataFile);
+			this.fields = fields;
+			for (RemoteField field : fields) {
+				names.add(field.getRemoteName());
+			}
+		}
+	}
+}
@@ -21,14 +21,18 @@ import static org.springframework.roo.model.RooJavaType.ROO_JPA_ACTIVE_RECORD;
 import static org.springframework.roo.model.RooJavaType.ROO_TO_STRING;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -63,12 +67,18 @@ import org.springframework.roo.support.util.XmlUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import com.sap.research.connectivity.gw.parsers.AssociationGraph;
+import com.sap.research.connectivity.gw.parsers.JavaCodeEmitter;
 import com.sap.research.connectivity.gw.parsers.JavaSourceField;
 import com.sap.research.connectivity.gw.parsers.JavaSourceFieldBuilder;
 import com.sap.research.connectivity.gw.parsers.JavaSourceFileEditor;
 import com.sap.research.connectivity.gw.parsers.JavaSourceMethod;
 import com.sap.research.connectivity.gw.parsers.JavaSourceMethodBuilder;
+import com.sap.research.connectivity.gw.parsers.MetadataIndex;
 import com.sap.research.connectivity.gw.parsers.MetadataXMLParser;
+import com.sap.research.connectivity.gw.parsers.MethodBodyAnchors;
+import com.sap.research.connectivity.gw.parsers.RemoteField;
+import com.sap.research.connectivity.gw.parsers.RemoteFields;
 
 @Component
 public class GWOperationsUtils {
@@ -79,6 +89,16 @@ public class GWOperationsUtils {
     protected Logger log = Logger.getLogger(getClass().getName());
     
 	protected static final char SEPARATOR = GwUtils.SEPARATOR;
+	
+	/*
+	 * Metadata the existing gateway entities of a namespace were generated from, kept until "gateway refresh" ran
+	 */
+	protected static final String PREVIOUS_METADATA_SUFFIX = "_metadata.previous.xml";
+	
+	/*
+	 * The EDMX document as sent by the Gateway service, stored if requested with RAW_EDMX
+	 */
+	protected static final String EDMX_FILE_SUFFIX = "_metadata.edmx";
 
     /**
      * Get a reference to the FileManager from the underlying OSGi container. Make sure you
@@ -104,6 +124,10 @@ public class GWOperationsUtils {
     
     @Reference protected TypeManagementService typeManagementService;    
     
+    @Reference protected MetadataRetrieverClient metadataRetrieverClient;
+    
+    @Reference protected MetadataModelService metadataModelService;
+    
     
     /* ------------------------------------------------------------------------------------------------------------------
      * SAP RESEARCH OWN CODE
@@ -147,7 +171,7 @@ public class GWOperationsUtils {
 
 	public void addOdataConnectivityClass() {
 		Map<String, String> replacements = new HashMap<String, String>();
-		replacements.put("<<PACKAGE>>", "package " + getTopLevelPackageName() + "." + oDataFolder + ";\n");
+		replacements.put("PACKAGE", "package " + getTopLevelPackageName() + "." + oDataFolder + ";\n");
 		
 		GwUtils.createClassFileFromTemplate(getTopLevelPackageName(), getSubPackagePath(oDataFolder), "ODataConnectivity_template.java", 
 				"ODataConnectivity.java", replacements, fileManager, getClass());
@@ -155,14 +179,99 @@ public class GWOperationsUtils {
 
 	/*
 	 * This method should dump all the metadata existing at the specified url.
-	 * It calls an external standalone java app, which should be present in user home (regardless of OS)
+	 * It uses the standalone java app, which should be present in user home (regardless of OS). The app is called in-process
+	 * if possible, otherwise in a long-lived worker process, and only for older versions of the app (without daemon mode) 
+	 * in a new external process per call.
+	 * With raw set, the EDMX document is requested as sent by the server; retriever versions which cannot do this return 
+	 * the reduced document instead, so callers have to check what they got (see EdmxStreamParser.isEdmx()).
+	 * The duration of the retrieval is added to the given timings, if any.
 	 */
-	public String getMetadataString(String url, String user, String pass, String host, String port, int timeOut) throws Exception {
+	public String getMetadataString(String url, String user, String pass, String host, String port, int timeOut, boolean raw, 
+			MetadataTimings timings) throws Exception {
+		long start = System.nanoTime();
+		if (metadataRetrieverClient.isInProcessAvailable()) {
+			try {
+				return timeRetrieval(timings, "in-process", start, metadataRetrieverClient.retrieveMetadata(url, user, pass, host, port, timeOut, 
+						raw && metadataRetrieverClient.isRawRetrievalAvailable()));
+			} catch (IllegalStateException e) {
+				log.warning("In-process metadata retrieval failed, retrying in an external process.");
+			}
+		}
+		if (metadataRetrieverClient.isWorkerAvailable()) {
+			try {
+				return timeRetrieval(timings, "worker", start, metadataRetrieverClient.retrieveMetadataFromWorker(url, user, pass, host, port, timeOut, 
+						raw && metadataRetrieverClient.isRawWorkerRetrievalAvailable()));
+			} catch (IllegalStateException e) {
+				// The worker has been disabled, see below
+			}
+		}
+		// Includes starting the JVM
+		return timeRetrieval(timings, "process", start, getMetadataStringFromProcess(url, user, pass, host, port, timeOut, raw));
+	}
+	
+	private static String timeRetrieval(MetadataTimings timings, String mode, long start, String metadata) {
+		if (timings != null) {
+			timings.setMode(mode);
+			timings.end("retrieve", start, MetadataTimings.utf8Length(metadata));
+		}
+		return metadata;
+	}
+	
+	/*
+	 * Retrieves the metadata of an already defined endpoint only if it changed since it was last stored. The cache holds the 
+	 * validators (ETag / Last-Modified) of the previous download and is updated with the new ones. Returns null if the 
+	 * server reported the metadata as not modified. Retriever versions without conditional support download the metadata again.
+	 * The phases measured by the retriever and the duration of the retrieval are added to the given timings, if any.
+	 */
+	public String getMetadataStringIfModified(String url, String user, String pass, String host, String port, int timeOut, 
+			MetadataCache cache, boolean raw, MetadataTimings timings) throws Exception {
+		Map<String, String> result = null;
+		String mode = null;
+		long start = System.nanoTime();
+		if (metadataRetrieverClient.isConditionalRetrievalAvailable()) {
+			mode = "in-process";
+			try {
+				result = metadataRetrieverClient.retrieveMetadataIfModified(url, user, pass, host, port, 
+						cache.getEtag(url), cache.getLastModified(url), timeOut, raw && metadataRetrieverClient.isRawRetrievalAvailable());
+			} catch (IllegalStateException e) {
+				log.warning("In-process metadata retrieval failed, retrying in an external process.");
+			}
+		}
+		else if (!metadataRetrieverClient.isInProcessAvailable() && metadataRetrieverClient.isWorkerAvailable()) {
+			mode = "worker";
+			try {
+				result = metadataRetrieverClient.retrieveMetadataIfModifiedFromWorker(url, user, pass, host, port, 
+						cache.getEtag(url), cache.getLastModified(url), timeOut, raw && metadataRetrieverClient.isRawWorkerRetrievalAvailable());
+			} catch (IllegalStateException e) {
+				// The worker has been disabled, the metadata is retrieved unconditionally below
+			}
+		}
+		
+		if (result != null) {
+			if (timings != null) {
+				timings.addRetrieverPhases(result.get(MetadataRetrieverClient.RESULT_TIMINGS));
+				timeRetrieval(timings, mode, start, result.get(MetadataRetrieverClient.RESULT_CONTENT));
+			}
+			cache.setValidators(url, result.get(MetadataRetrieverClient.RESULT_ETAG), result.get(MetadataRetrieverClient.RESULT_LAST_MODIFIED));
+			if (MetadataRetrieverClient.STATUS_NOT_MODIFIED.equals(result.get(MetadataRetrieverClient.RESULT_STATUS)))
+				return null;
+			return result.get(MetadataRetrieverClient.RESULT_CONTENT);
+		}
+		
+		cache.setValidators(url, null, null);
+		return getMetadataString(url, user, pass, host, port, timeOut, raw, timings);
+	}
+	
+	/*
+	 * Last fallback: calls the standalone java app in a new JVM and reads the metadata from its standard output.
+	 */
+	private String getMetadataStringFromProcess(String url, String user, String pass, String host, String port, int timeOut, boolean raw) throws Exception {
 	      String returnString = "";
 	 
 	      try {
-	    	  String execArgs[] = new String[] {"java", "-jar", 
-	    			  System.getProperty("user.home") + SEPARATOR + "appToRetrieveOdataMetadata.jar",
+	    	  // Older versions of the app ignore the format property and print the reduced document
+	    	  String execArgs[] = new String[] {"java", "-Dgw.metadata.format=" + (raw ? "edmx" : "stream"), "-jar", 
+	    			  GwUtils.getMetadataRetrieverJarPath(),
 	    			  url, user, pass, host, port}; 
 	    	  
 	    	  final Process theProcess = Runtime.getRuntime().exec(execArgs);
@@ -171,7 +280,7 @@ public class GWOperationsUtils {
                 public String call() throws Exception {
                 	String returnString = "";
                 	try {
-                		BufferedReader inStream = new BufferedReader(new InputStreamReader( theProcess.getInputStream() ));
+                		BufferedReader inStream = new BufferedReader(new InputStreamReader(theProcess.getInputStream(), "UTF-8"));
             			returnString = IOUtils.toString(inStream);
             			IOUtils.closeQuietly(inStream);
             			//if (theProcess.exitValue() != 0)
@@ -242,64 +351,179 @@ public class GWOperationsUtils {
 	}
 
 
-	public Map<String[], String> getFieldsOfRemoteEntity(String entityClassName, String nameSpace) {
-		Map<String[], String> fields = new HashMap<String[], String>();
-		String metaDataPath = getSubPackagePath(oDataFolder);
-    	String metaDataFile = metaDataPath + SEPARATOR + nameSpace +"_metadata.xml";    
-    	
-    	InputStream metaDataIs = fileManager.getInputStream(metaDataFile);
-    	
-    	Document doc;
-    	MetadataXMLParser xmlParser;
-    	
+	public RemoteFields getFieldsOfRemoteEntity(String entityClassName, String nameSpace) {
+		MetadataXMLParser xmlParser = getMetadataParser(nameSpace, entityClassName);
+		
 		try {
-			doc = XmlUtils.getDocumentBuilder().parse(metaDataIs);
-			xmlParser = new MetadataXMLParser(doc, entityClassName);
 			xmlParser.parse();
 		} catch (Exception ex) {
 			  throw new IllegalStateException(ex);
 		}     	
 		
-		fields = xmlParser.getFields();
-		return fields;
+		return xmlParser.getFields();
+	}
+	
+	/*
+	 * Returns the index of the metadata of a namespace, or null if there is none or if it does not match the XML anymore
+	 */
+	public MetadataIndex getMetadataIndex(String nameSpace) {
+		return metadataModelService.getIndex(getMetadataFile(nameSpace));
+	}
+	
+	public String getMetadataFile(String nameSpace) {
+		return getSubPackagePath(oDataFolder) + SEPARATOR + nameSpace + "_metadata.xml";
+	}
+	
+	/*
+	 * Returns a parser for the given remote entity, reading the metadata index if it is up to date and only the element of 
+	 * the entity in the (mapped) XML file otherwise
+	 */
+	public MetadataXMLParser getMetadataParser(String nameSpace, String remoteEntity) throws IllegalStateException {
+		return new MetadataXMLParser(metadataModelService.getEntities(getMetadataFile(nameSpace)), remoteEntity);
 	}
 	
-	public void addRemoteFieldInPersistenceMethods(JavaSourceFileEditor entityClassFile, Map.Entry<String[], String> fieldObj) {
+	/*
+	 * (Re)writes the index of the metadata of a namespace, unless the existing one is still up to date. The index is 
+	 * bound to the content hash of the stored cache file, so the cache has to be stored first; without a content hash 
+	 * no index is written.
+	 */
+	public void updateMetadataIndex(String nameSpace) {
+		if (getMetadataIndex(nameSpace) != null)
+			return;
+		
+		String contentHash = MetadataCache.load(fileManager, getSubPackagePath(oDataFolder) + SEPARATOR + nameSpace 
+				+ MetadataCache.CACHE_FILE_SUFFIX).getContentHash();
+		if (contentHash == null)
+			return;
+		
+		String metaDataFile = getMetadataFile(nameSpace);
+		String indexFile = getSubPackagePath(oDataFolder) + SEPARATOR + nameSpace + MetadataIndex.INDEX_FILE_SUFFIX;
+		File metaData = new File(metaDataFile);
+		
+		OutputStream indexOs = null;
+		try {
+			byte[] index = MetadataIndex.build(metadataModelService.getEntities(metaDataFile), metaData.lastModified(), metaData.length(), 
+					contentHash);
+			MutableFile mutableFile = fileManager.exists(indexFile) ? fileManager.updateFile(indexFile) : fileManager.createFile(indexFile);
+			indexOs = mutableFile.getOutputStream();
+			indexOs.write(index);
+		} catch (IOException ex) {
+			throw new IllegalStateException(ex);
+		} finally {
+			IOUtils.closeQuietly(indexOs);
+			metadataModelService.invalidate(metaDataFile);
+		}
+	}
+	
+	public void addRemoteFieldInPersistenceMethods(JavaSourceFileEditor entityClassFile, RemoteField fieldObj) {
+		RemoteFields fields = new RemoteFields();
+		fields.add(fieldObj);
+		addRemoteFieldsInPersistenceMethods(entityClassFile, fields);
+	}
+	
+	/*
+	 * Inserts the code of all given fields into the persistence methods, with one insertion per method; the code of the 
+	 * fields follows the order of the given fields, as if they had been added one by one
+	 */
+	public void addRemoteFieldsInPersistenceMethods(JavaSourceFileEditor entityClassFile, RemoteFields fields) {
+		if (fields.isEmpty())
+			return;
+		
 		ArrayList<JavaSourceMethod> globalMethodList = entityClassFile.getGlobalMethodList();
 		String pluralRemoteEntity = GwUtils.getInflectorPlural(entityClassFile.CLASS_NAME, Locale.ENGLISH);
 		String smallRemoteEntity = StringUtils.uncapitalize(entityClassFile.CLASS_NAME);
 		
+		JavaCodeEmitter persistCode = new JavaCodeEmitter(0, fields.size() * 96);
+		JavaCodeEmitter listCode = new JavaCodeEmitter(0, fields.size() * 192);
+		JavaCodeEmitter findCode = new JavaCodeEmitter(0, fields.size() * 192);
+		for (RemoteField fieldObj : fields) {
+			makeGWPersistFieldCode(persistCode, fieldObj);
+			makeGWShowFieldCode(listCode, smallRemoteEntity + "Instance", smallRemoteEntity + "Item", fieldObj);
+			makeGWShowFieldCode(findCode, "virtual" + entityClassFile.CLASS_NAME, smallRemoteEntity, fieldObj);
+		}
+		
 		for (JavaSourceMethod method : globalMethodList) {
 			String methodName = method.getMethodName();
 			/*
-			 * We insert the new field in the persist and merge methods
+			 * We insert the new fields in the persist and merge methods, as properties of the executed request
 			 */
 			if (methodName.endsWith("persist") || methodName.endsWith("merge")) {
 				StringBuffer methodBody = new StringBuffer(method.getMethodBody());
-				methodBody.insert(methodBody.lastIndexOf(".execute()"), makeGWPersistFieldCode("", fieldObj));
+				String requestVariable = methodName.endsWith("persist") ? "newEntityRequest" : "modifyEntityRequest";
+				int executeCall = MethodBodyAnchors.parse(method.getMethodBody()).getExecuteCallOffset(requestVariable);
+				methodBody.insert(checkAnchor(executeCall, method, requestVariable + ".execute()"), persistCode.toString());
 				method.setMethodBody(methodBody.toString());
 			}
 			/*
-			 * We insert the new field in the findAll and find<Entity>Entries methods
+			 * We insert the new fields in the findAll and find<Entity>Entries methods
 			 */
 			else if (methodName.endsWith("findAll" + pluralRemoteEntity) || methodName.endsWith("find" + entityClassFile.CLASS_NAME + "Entries")) {
 				StringBuffer methodBody = new StringBuffer(method.getMethodBody());
-				methodBody.insert(methodBody.indexOf("virtual" + entityClassFile.CLASS_NAME + "List.add"), 
-						makeGWShowFieldCode("", smallRemoteEntity + "Instance", smallRemoteEntity + "Item", fieldObj));
+				String listVariable = "virtual" + entityClassFile.CLASS_NAME + "List";
+				int addStatement = MethodBodyAnchors.parse(method.getMethodBody()).getAddStatementOffset(listVariable);
+				methodBody.insert(checkAnchor(addStatement, method, listVariable + ".add(...)"), listCode.toString());
 				method.setMethodBody(methodBody.toString());
 			}
 			/*
-			 * We insert the new field in the find<Entity> method
+			 * We insert the new fields in the find<Entity> method
 			 */
 			else if (methodName.endsWith("find" + entityClassFile.CLASS_NAME)) {
 				StringBuffer methodBody = new StringBuffer(method.getMethodBody());
-				methodBody.insert(methodBody.indexOf("return "), 
-						makeGWShowFieldCode("", "virtual" + entityClassFile.CLASS_NAME, smallRemoteEntity, fieldObj));
+				int returnStatement = MethodBodyAnchors.parse(method.getMethodBody()).getReturnStatementOffset();
+				methodBody.insert(checkAnchor(returnStatement, method, "the return statement"), findCode.toString());
 				method.setMethodBody(methodBody.toString());
 			}
 		}
 	}
 	
+	/*
+	 * Returns the offset of an insertion point found by MethodBodyAnchors, fails if the generated code it is located by 
+	 * has been removed from the method
+	 */
+	private int checkAnchor(int offset, JavaSourceMethod method, String anchor) {
+		if (offset < 0)
+			throw new IllegalStateException("Cannot find " + anchor + " in method " + method.getMethodName() + 
+					", the generated code of the method has been changed");
+		return offset;
+	}
+	
+	/*
+	 * Removes the declaration, getter and setter of a remote field, returns false if the class does not contain the field
+	 */
+	public boolean removeRemoteFieldInGWJavaFile(JavaSourceFileEditor entityClassFile, RemoteField fieldObj) {
+		String localFieldName = fieldObj.getLocalName();
+		if (!entityClassFile.removeGlobalField(localFieldName))
+			return false;
+		
+		entityClassFile.removeMethod("get" + StringUtils.capitalize(localFieldName));
+		entityClassFile.removeMethod("set" + StringUtils.capitalize(localFieldName));
+		return true;
+	}
+	
+	/*
+	 * Removes the code generated by addRemoteFieldsInPersistenceMethods for the given field: the .properties(...) calls of 
+	 * the create/update requests and the statements reading the remote property, including the temporary variables used 
+	 * for date fields. The statements are located through the AST of the bodies, see MethodBodyAnchors.
+	 */
+	public void removeRemoteFieldInPersistenceMethods(JavaSourceFileEditor entityClassFile, RemoteField fieldObj) {
+		for (JavaSourceMethod method : entityClassFile.getGlobalMethodList()) {
+			String methodName = method.getMethodName();
+			if (!(methodName.endsWith("persist") || methodName.endsWith("merge") || methodName.startsWith("find")))
+				continue;
+			
+			List<int[]> ranges = MethodBodyAnchors.parse(method.getMethodBody())
+					.getFieldCodeRanges(fieldObj.getRemoteName(), fieldObj.getLocalName());
+			if (ranges.isEmpty())
+				continue;
+			
+			StringBuffer methodBody = new StringBuffer(method.getMethodBody());
+			for (int i = ranges.size() - 1; i >= 0; i--) {
+				methodBody.delete(ranges.get(i)[0], ranges.get(i)[1]);
+			}
+			method.setMethodBody(methodBody.toString());
+		}
+	}
+	
 	public void addLocalFieldInPersistenceMethods(JavaSourceFileEditor entityClassFile, String fieldName, String fieldType) {
 		ArrayList<JavaSourceMethod> globalMethodList = entityClassFile.getGlobalMethodList();
 		String pluralRemoteEntity = GwUtils.getInflectorPlural(entityClassFile.CLASS_NAME, Locale.ENGLISH);
@@ -313,8 +537,10 @@ public class GWOperationsUtils {
 			 */
 			if (methodName.endsWith("findAll" + pluralRemoteEntity) || methodName.endsWith("find" + entityClassFile.CLASS_NAME + "Entries")) {
 				StringBuffer methodBody = new StringBuffer(method.getMethodBody());
-				methodBody.insert(methodBody.indexOf("virtual" + entityClassFile.CLASS_NAME + "List.add"), 
-						makeLocalShowFieldCode("\t\t", smallRemoteEntity + "Instance", entityClassFile.CLASS_NAME, fieldName));
+				String listVariable = "virtual" + entityClassFile.CLASS_NAME + "List";
+				int addStatement = MethodBodyAnchors.parse(method.getMethodBody()).getAddStatementOffset(listVariable);
+				methodBody.insert(checkAnchor(addStatement, method, listVariable + ".add(...)"), 
+						makeLocalShowFieldCode(2, smallRemoteEntity + "Instance", entityClassFile.CLASS_NAME, fieldName));
 				method.setMethodBody(methodBody.toString());
 			}
 			
@@ -324,14 +550,14 @@ public class GWOperationsUtils {
 			else if (methodName.endsWith("find" + entityClassFile.CLASS_NAME)) {
 				StringBuffer methodBody = new StringBuffer(method.getMethodBody());
 				methodBody.insert(methodBody.indexOf("return "), 
-						makeLocalShowFieldCode("\t", "virtual" + entityClassFile.CLASS_NAME, entityClassFile.CLASS_NAME, fieldName));
+						makeLocalShowFieldCode(1, "virtual" + entityClassFile.CLASS_NAME, entityClassFile.CLASS_NAME, fieldName));
 				method.setMethodBody(methodBody.toString());
 			}*/
 		}
 	}
 
 	
-	public void addPersistenceMethods(Map<String[], String> fields, JavaSourceFileEditor entityClassFile, String remoteEntity, Map<String[], String> keys) {
+	public void addPersistenceMethods(RemoteFields fields, JavaSourceFileEditor entityClassFile, String remoteEntity, RemoteFields keys) {
 	
 	    //  Persist
 		JavaSourceMethod persistMethod = new JavaSourceMethodBuilder()
@@ -451,138 +677,126 @@ public class GWOperationsUtils {
 
 	}
    
-	private String getRemoteEntityMethodBody(String remoteEntity) {
-
-		String returnString =  "\t\tOEntityKey " + ODATA_KEY + " = OEntityKey.parse( " + GwUtils.GW_CONNECTION_FIELD_NAME + ".getDecodedRemoteKey(Id));\n" +
-				"\t\treturn " + GwUtils.GW_CONNECTION_FIELD_NAME + ".rooODataConsumer.getEntity(\"" + remoteEntity + "\", " + ODATA_KEY + ").execute();\n";
-		
-		return returnString;
+	/*
+	 * Package-private, it is only needed by the ITD of the same package (GwEntityMetadata)
+	 */
+	String getRemoteEntityMethodBody(String remoteEntity) {
+		return new JavaCodeEmitter(2)
+				.line("OEntityKey ", ODATA_KEY, " = OEntityKey.parse( ", GwUtils.GW_CONNECTION_FIELD_NAME, ".getDecodedRemoteKey(Id));")
+				.line("return ", GwUtils.GW_CONNECTION_FIELD_NAME, ".rooODataConsumer.getEntity(\"", remoteEntity, "\", ", ODATA_KEY, ").execute();")
+				.toString();
 	}
 
 	public String getRemoveMethodBody(String remoteEntity) {
-		
-		String returnString = "\t\tOEntityKey " + ODATA_KEY + " = OEntityKey.parse(" + GwUtils.GW_CONNECTION_FIELD_NAME + ".getDecodedRemoteKey(Id));\n";
-		
-		returnString += "\t\t" + GwUtils.GW_CONNECTION_FIELD_NAME + ".rooODataConsumer.deleteEntity(\"" + remoteEntity +	"\", ODataKey).execute();\n" +
-				"\t\tlocalRemove();\n";		
-
-		return returnString;
+		return new JavaCodeEmitter(2)
+				.line("OEntityKey ", ODATA_KEY, " = OEntityKey.parse(", GwUtils.GW_CONNECTION_FIELD_NAME, ".getDecodedRemoteKey(Id));")
+				.line(GwUtils.GW_CONNECTION_FIELD_NAME, ".rooODataConsumer.deleteEntity(\"", remoteEntity, "\", ODataKey).execute();")
+				.line("localRemove();")
+				.toString();
 	}
 	
 	public String getLocalRemoveMethodBody(String remoteEntity) {
-		
-		String returnString = "\t\tif (this.entityManager == null) this.entityManager = entityManager();\n" +
-				"\t\tif (this.entityManager.contains(this)) {\n" +
-				"\t\t\tthis.entityManager.remove(this);\n" +
-				"\t\t} else {\n" +
-				"\t\t\t" + remoteEntity + " local" + remoteEntity + " = entityManager().find(" + remoteEntity + ".class, Id);\n" +
-				"\t\t\tthis.entityManager.remove(local" + remoteEntity + ");\n" +
-				"\t\t}\n";		
-
-		return returnString;
+		return new JavaCodeEmitter(2)
+				.line("if (this.entityManager == null) this.entityManager = entityManager();")
+				.beginIf("this.entityManager.contains(this)")
+					.line("this.entityManager.remove(this);")
+				.beginElse()
+					.line(remoteEntity, " local", remoteEntity, " = entityManager().find(", remoteEntity, ".class, Id);")
+					.line("this.entityManager.remove(local", remoteEntity, ");")
+				.endBlock()
+				.toString();
 	}
 
-	public String getMergeMethodBody(Map<String[], String> fields, String remoteEntity, Map<String[], String> keys) {
-		
-		String returnString = "\t\tOEntity remote" + remoteEntity + " = getRemote" + remoteEntity + "(Id);\n";
-		
-		returnString += "\t\tOModifyRequest<OEntity> modifyEntityRequest = " + GwUtils.GW_CONNECTION_FIELD_NAME + 
-				".rooODataConsumer.updateEntity(remote" + remoteEntity +");\n";
-		returnString += "\t\tboolean modifyRequest = modifyEntityRequest\n";
-		
-		for (Map.Entry<String[], String> field: fields.entrySet()){
+	public String getMergeMethodBody(RemoteFields fields, String remoteEntity, RemoteFields keys) {
+		JavaCodeEmitter code = new JavaCodeEmitter(2, 512 + fields.size() * 128);
+		code.line("OEntity remote", remoteEntity, " = getRemote", remoteEntity, "(Id);");
+		code.line("OModifyRequest<OEntity> modifyEntityRequest = ", GwUtils.GW_CONNECTION_FIELD_NAME, 
+				".rooODataConsumer.updateEntity(remote", remoteEntity, ");");
+		code.line("boolean modifyRequest = modifyEntityRequest");
+		
+		code.indent();
+		for (RemoteField field: fields){
 			/*
 			 * We do not update the key fields
 			 */
-			if (!keys.containsKey(field.getKey())) {
-				returnString += makeGWPersistFieldCode("\t\t\t", field);
+			if (!keys.contains(field.getRemoteName())) {
+				makeGWPersistFieldCode(code, field);
 			}
 		}
-		
-		returnString += "\t\t\t.execute();\n";
-
-		returnString += "\t\t" + remoteEntity + " localMerged = localMerge();\n";
+		code.line(".execute();");
+		code.outdent();
 
-		returnString += "\n";
-		returnString += "\t\treturn localMerged;\n";
+		code.line(remoteEntity, " localMerged = localMerge();");
+		code.blankLine();
+		code.line("return localMerged;");
 
-		return returnString;
+		return code.toString();
 	}
 	
 	public String getLocalMergeMethodBody(String remoteEntity) {
-		
-		String returnString = "\t\tif (this.entityManager == null) this.entityManager = entityManager();\n" +
-				"\t\t" + remoteEntity + " merged = this.entityManager.merge(this);\n" +
-				"\t\tthis.entityManager.flush();\n" +
-				"\t\treturn merged;\n";	
-
-		return returnString;
+		return new JavaCodeEmitter(2)
+				.line("if (this.entityManager == null) this.entityManager = entityManager();")
+				.line(remoteEntity, " merged = this.entityManager.merge(this);")
+				.line("this.entityManager.flush();")
+				.line("return merged;")
+				.toString();
 	}
 
 	public String getCountMethodBody(String remoteEntity) {
-		
 		String smallRemoteEntity = StringUtils.uncapitalize(remoteEntity);
 		
-		String returnString = "\t\tOQueryRequest<OEntity> " + smallRemoteEntity + "List = " + GwUtils.GW_CONNECTION_FIELD_NAME + ".rooODataConsumer.getEntities(\"" + remoteEntity + "\");\n";
-		returnString += "\t\tint i = 0;\n";
-		
-		returnString += "\t\tfor (OEntity " + smallRemoteEntity + "Item : " + smallRemoteEntity + "List) {\n";
-		returnString += "\t\t\ti++;\n";
-		returnString += "\t\t}\n";
-		
-		returnString += "\t\treturn i;\n";
-	
-		return returnString;
+		return new JavaCodeEmitter(2)
+				.line("OQueryRequest<OEntity> ", smallRemoteEntity, "List = ", GwUtils.GW_CONNECTION_FIELD_NAME, ".rooODataConsumer.getEntities(\"", 
+						remoteEntity, "\");")
+				.line("int i = 0;")
+				.beginFor("OEntity ", smallRemoteEntity, "Item : ", smallRemoteEntity, "List")
+					.line("i++;")
+				.endBlock()
+				.line("return i;")
+				.toString();
 	}
 
-	public String getFindMethodBody(Map<String[], String> fields, String remoteEntity) {
-		
+	public String getFindMethodBody(RemoteFields fields, String remoteEntity) {
 		String smallRemoteEntity = StringUtils.uncapitalize(remoteEntity);
 		
-		String returnString = "\t\tOEntity " + smallRemoteEntity + " = getRemote" + remoteEntity + "(Id);\n";
-
-		returnString += "\t\t" + remoteEntity + " virtual" + remoteEntity + " = entityManager().find(" + remoteEntity + ".class, " + 
-				GwUtils.GW_CONNECTION_FIELD_NAME + ".getDecodedRemoteKey(Id));\n";
-						
-		returnString += "\t\tif (virtual" + remoteEntity + " == null)\n" +
-						"\t\t\tvirtual" + remoteEntity + " = new " + remoteEntity + "();\n";
+		JavaCodeEmitter code = new JavaCodeEmitter(2, 768 + fields.size() * 192);
+		code.line("OEntity ", smallRemoteEntity, " = getRemote", remoteEntity, "(Id);");
+		code.line(remoteEntity, " virtual", remoteEntity, " = entityManager().find(", remoteEntity, ".class, ", 
+				GwUtils.GW_CONNECTION_FIELD_NAME, ".getDecodedRemoteKey(Id));");
+		code.line("if (virtual", remoteEntity, " == null)");
+		code.indent().line("virtual", remoteEntity, " = new ", remoteEntity, "();").outdent();
 		
-		returnString += "\t\tDateTimeFormatter DTformatter = ISODateTimeFormat.dateHourMinuteSecondFraction();\n";
-		returnString += "\t\tDateTimeFormatter DTOformatter = ISODateTimeFormat.dateTime();\n";		
+		code.line("DateTimeFormatter DTformatter = ISODateTimeFormat.dateHourMinuteSecondFraction();");
+		code.line("DateTimeFormatter DTOformatter = ISODateTimeFormat.dateTime();");
 		
-		for (Map.Entry<String[], String> field: fields.entrySet()){
-			returnString += makeGWShowFieldCode("\t\t", "virtual" + remoteEntity, smallRemoteEntity, field);
+		for (RemoteField field: fields){
+			makeGWShowFieldCode(code, "virtual" + remoteEntity, smallRemoteEntity, field);
 		}
 		
-		//returnString += "\t\t" + "virtual" + remoteEntity + ".setId(" + DECODED_KEY + ");\n";
-		//returnString += "\t\t" + remoteEntity + " local" + remoteEntity + " = entityManager().find(" + remoteEntity + ".class, " + DECODED_KEY + ");\n";
-
-		returnString += "\t\ttry {\n" +
-				"\t\t\t\n" +
-				"\t\t} catch (Exception relationshipsException) {\n" +
-				"\t\t\trelationshipsException.printStackTrace();\n" +
-				"\t\t};\n";
-		returnString += "\t\treturn " + "virtual" + remoteEntity + ";\n";
-		
-		return returnString;
+		code.beginTry();
+		code.line();
+		code.beginCatch("Exception relationshipsException");
+		code.line("relationshipsException.printStackTrace();");
+		code.endBlock(";");
+		code.line("return virtual", remoteEntity, ";");
+		
+		return code.toString();
 	}
 	
 	public String getControllerShowMethodBody(String remoteEntity) {
-		
 		String smallRemoteEntity = StringUtils.lowerCase(remoteEntity);
 		String pluralRemoteEntity = GwUtils.getInflectorPlural(remoteEntity, Locale.ENGLISH);
 		
-		String returnString = "";
-		
+		JavaCodeEmitter code = new JavaCodeEmitter(2);
 		if (existsDateFieldInController(remoteEntity)) {
-			returnString += "\t\taddDateTimeFormatPatterns(uiModel);\n";
+			code.line("addDateTimeFormatPatterns(uiModel);");
 		}
-		returnString += "\t\tuiModel.addAttribute(\"" + smallRemoteEntity + "\", " + remoteEntity + ".find" + remoteEntity + "(Id));\n";
-		returnString += generateURLEncodingCode("Id", "\t\t");
-		returnString += "\t\tuiModel.addAttribute(\"itemId\", " + ENCODED_KEY + ");\n";
-		returnString += "\t\treturn \"" + StringUtils.lowerCase(pluralRemoteEntity) + "/show\";\n";
+		code.line("uiModel.addAttribute(\"", smallRemoteEntity, "\", ", remoteEntity, ".find", remoteEntity, "(Id));");
+		generateURLEncodingCode(code, "Id");
+		code.line("uiModel.addAttribute(\"itemId\", ", ENCODED_KEY, ");");
+		code.line("return \"", StringUtils.lowerCase(pluralRemoteEntity), "/show\";");
 		
-		return returnString;
+		return code.toString();
 	}
 
 	public ArrayList<String> getFindMethodParameters() {
@@ -608,202 +822,175 @@ public class GWOperationsUtils {
 		return parameters;
 	}
 
-	public String getfindAllMethodBody(Map<String[], String> fields, Map<String[], String> keys, String remoteEntity) {
-		
+	public String getfindAllMethodBody(RemoteFields fields, RemoteFields keys, String remoteEntity) {
 		String smallRemoteEntity = StringUtils.uncapitalize(remoteEntity);
+		String instance = smallRemoteEntity + "Instance";
 		
-		String returnString = "\t\tOQueryRequest<OEntity> " + smallRemoteEntity + "List = " + GwUtils.GW_CONNECTION_FIELD_NAME + ".rooODataConsumer.getEntities(\"" + remoteEntity + "\");\n";	
-
-		returnString += "\t\tList<" + remoteEntity + "> virtual" + remoteEntity + "List = " + "new ArrayList<" + remoteEntity + ">();\n";	
-		
-		returnString += "\t\tfor (OEntity " + smallRemoteEntity + "Item : " + smallRemoteEntity + "List) {\n";
-		returnString += "\t\t\t" + remoteEntity + " " + smallRemoteEntity + "Instance = new " + remoteEntity + "();\n";
+		JavaCodeEmitter code = new JavaCodeEmitter(2, 1536 + fields.size() * 192);
+		code.line("OQueryRequest<OEntity> ", smallRemoteEntity, "List = ", GwUtils.GW_CONNECTION_FIELD_NAME, ".rooODataConsumer.getEntities(\"", 
+				remoteEntity, "\");");
+		code.line("List<", remoteEntity, "> virtual", remoteEntity, "List = new ArrayList<", remoteEntity, ">();");
 		
-		returnString += "\t\t\tDateTimeFormatter DTformatter = ISODateTimeFormat.dateHourMinuteSecondFraction();\n";
-		returnString += "\t\t\tDateTimeFormatter DTOformatter = ISODateTimeFormat.dateTime();\n";
+		code.beginFor("OEntity ", smallRemoteEntity, "Item : ", smallRemoteEntity, "List");
+		code.line(remoteEntity, " ", instance, " = new ", remoteEntity, "();");
+		code.line("DateTimeFormatter DTformatter = ISODateTimeFormat.dateHourMinuteSecondFraction();");
+		code.line("DateTimeFormatter DTOformatter = ISODateTimeFormat.dateTime();");
 		
-		for (Map.Entry<String[], String> field: fields.entrySet()) {
-				returnString += makeGWShowFieldCode("\t\t\t", smallRemoteEntity + "Instance", smallRemoteEntity + "Item", field);
+		for (RemoteField field: fields) {
+			makeGWShowFieldCode(code, instance, smallRemoteEntity + "Item", field);
 		}
 		
-		String instance = smallRemoteEntity + "Instance";
-		returnString += generateEncodedKey(keys, 3, instance);
-		returnString += "\t\t\tString " + DECODED_KEY + " = " + GwUtils.GW_CONNECTION_FIELD_NAME + ".getDecodedRemoteKey(" + ODATA_KEY + ".toKeyString());\n";
+		generateEncodedKey(code, keys, instance);
+		code.line("String ", DECODED_KEY, " = ", GwUtils.GW_CONNECTION_FIELD_NAME, ".getDecodedRemoteKey(", ODATA_KEY, ".toKeyString());");
 		
 		/*
 		 * Here we deal with the local part (e.g. fields, if any)
 		 * (the idea is that if we browse through a remote list of entities, then we might encounter some that have not been created using 
 		 * the generated backend. So then we must first persist them (at least the id's)
 		 */
-		returnString += "\t\t\t" + remoteEntity + " local" + remoteEntity + " = entityManager().find(" + remoteEntity + ".class, " + DECODED_KEY + ");\n";
-		returnString += "\t\t\tif (local" + remoteEntity + " == null) {\n" +
-				"\t\t\t\t" + remoteEntity + " tempLocal" + remoteEntity + " = new " + remoteEntity + "();\n" +
-				"\t\t\t\ttempLocal" + remoteEntity + ".entityManager = entityManager();\n" +
-				"\t\t\t\ttempLocal" + remoteEntity + ".setId("+ DECODED_KEY +");\n" +
-				"\t\t\t\ttempLocal" + remoteEntity + ".localPersist();\n" +
-				"\t\t\t\tlocal" + remoteEntity + " = entityManager().find(" + remoteEntity + ".class, " + DECODED_KEY + ");\n" +
-				"\t\t\t}\n";
-				
-		returnString += "\t\t\ttry {\n" +
-				"\t\t\t\t\n" +
-				"\t\t\t} catch (Exception relationshipsException) {\n" +
-				"\t\t\t\trelationshipsException.printStackTrace();\n" +
-				"\t\t\t};\n";
-		
-		returnString += "\t\t\tvirtual" + remoteEntity + "List.add(" + smallRemoteEntity + "Instance);\n";
-		returnString += "\t\t}\n";
-		returnString += "\n";
-		
-		returnString += "\t\treturn " + "virtual" + remoteEntity + "List;\n";
-		
-		return returnString;
+		code.line(remoteEntity, " local", remoteEntity, " = entityManager().find(", remoteEntity, ".class, ", DECODED_KEY, ");");
+		code.beginIf("local", remoteEntity, " == null");
+		code.line(remoteEntity, " tempLocal", remoteEntity, " = new ", remoteEntity, "();");
+		code.line("tempLocal", remoteEntity, ".entityManager = entityManager();");
+		code.line("tempLocal", remoteEntity, ".setId(", DECODED_KEY, ");");
+		code.line("tempLocal", remoteEntity, ".localPersist();");
+		code.line("local", remoteEntity, " = entityManager().find(", remoteEntity, ".class, ", DECODED_KEY, ");");
+		code.endBlock();
+		
+		code.beginTry();
+		code.line();
+		code.beginCatch("Exception relationshipsException");
+		code.line("relationshipsException.printStackTrace();");
+		code.endBlock(";");
+		
+		code.line("virtual", remoteEntity, "List.add(", instance, ");");
+		code.endBlock();
+		code.blankLine();
+		
+		code.line("return virtual", remoteEntity, "List;");
+		
+		return code.toString();
 	}
 
-   public String getPersistMethodBody(Map<String[], String> fields, Map<String[], String> keys, String remoteEntity) {
-	   
-		String returnString = "\t\tOEntity newEntity;\n";
-		returnString += "\n";
-		returnString += "\t\tOCreateRequest<OEntity> newEntityRequest = " + GwUtils.GW_CONNECTION_FIELD_NAME + ".rooODataConsumer.createEntity(\"" + 
-							remoteEntity +"\");\n";
-		returnString += "\n";
-		returnString += "\t\tnewEntity = newEntityRequest\n";
-		
-		for (Map.Entry<String[], String> field: fields.entrySet()){
-			returnString += makeGWPersistFieldCode("\t\t\t", field);
+	public String getPersistMethodBody(RemoteFields fields, RemoteFields keys, String remoteEntity) {
+		JavaCodeEmitter code = new JavaCodeEmitter(2, 512 + (fields.size() + keys.size()) * 128);
+		code.line("OEntity newEntity;");
+		code.blankLine();
+		code.line("OCreateRequest<OEntity> newEntityRequest = ", GwUtils.GW_CONNECTION_FIELD_NAME, ".rooODataConsumer.createEntity(\"", 
+				remoteEntity, "\");");
+		code.blankLine();
+		code.line("newEntity = newEntityRequest");
+		
+		code.indent();
+		for (RemoteField field: fields){
+			makeGWPersistFieldCode(code, field);
 		}
-		
-		returnString += "\t\t\t.execute();\n";
+		code.line(".execute();");
+		code.outdent();
 		
 		/*
-		 * Commented, as when writing to the local persistence db we don't need urlencoding
+		 * No URL encoding of the key (generateEncodedKey), as when writing to the local persistence db we don't need it
 		 */
-		//returnString += generateEncodedKey(keys, 2, "");
-		
-		for (Map.Entry<String[], String> keyField: keys.entrySet()){
-			returnString += makeGWShowFieldCode("\t\t","this", "newEntity", keyField);
+		for (RemoteField keyField: keys){
+			makeGWShowFieldCode(code, "this", "newEntity", keyField);
 		}
 		
-		returnString += generateDBKeyFromODataKeys(keys, "\t\t", "");
-		returnString += "\t\tsetId(" + ODATA_KEY + ".toKeyString());\n";
-		returnString += "\t\tlocalPersist();\n";
-		return returnString;
-   }
-   
-   public String getLocalPersistMethodBody() {
-	    String returnString = "\t\tif (this.entityManager == null) this.entityManager = entityManager();\n" +
-				"\t\tthis.entityManager.persist(this);\n";
-		return returnString;
-  }
-   
-   public String generateEncodedKey(Map<String[], String> keys, int numberOfTabs, String instance) {
-	   
-	   String returnString = "\n";
-	   String tabs = "";
-	   String instanceMethod = "";
-	   
-	   
-	   for(int i=0; i < numberOfTabs; i++){
-		   tabs = tabs + "\t";
-	   }
-	   
-	   if(!instance.equals(""))
-		   instanceMethod = instance + ".";
-	   
-	   returnString += generateDBKeyFromODataKeys(keys, tabs, instanceMethod);
-	   
-	   returnString += tabs + instanceMethod + "setId(" + GwUtils.GW_CONNECTION_FIELD_NAME + ".getEncodedRemoteKey(" + ODATA_KEY +".toKeyString()));\n";
-	   
-	   return returnString;
-   }
-
-   public String generateURLEncodingCode(String variableToEncode, String tabs) {
-	   String returnString = tabs + "String " + ENCODED_KEY + " = null;\n";
-	   returnString += tabs + "try {\n";
-	   returnString += tabs + "\t" + ENCODED_KEY + " = URLEncoder.encode(" + variableToEncode + ",\"UTF-8\");\n";
-	   returnString += tabs + "} catch (UnsupportedEncodingException e) {\n";
-	   returnString += tabs + "\te.printStackTrace();\n";
-	   returnString += tabs + "}\n";
-	   return returnString;
-   }
-   
- 
-   private String generateDBKeyFromODataKeys(Map<String[], String> keys, String tabs, String instanceMethod) {
-	String returnString;
-	String keyBuilderString = "";
-	String separator = "";
-	for(Map.Entry<String[], String> key: keys.entrySet()){
-		String remoteFieldName = key.getKey()[0];
-		String localFieldName = key.getKey()[1];
-		keyBuilderString += separator + "\"" + remoteFieldName + "\", ";
-		keyBuilderString += instanceMethod + "get" + StringUtils.capitalize(localFieldName) + "()";
-		separator = ",";
+		generateDBKeyFromODataKeys(code, keys, "");
+		code.line("setId(", ODATA_KEY, ".toKeyString());");
+		code.line("localPersist();");
+		return code.toString();
+	}
+	
+	public String getLocalPersistMethodBody() {
+		return new JavaCodeEmitter(2)
+				.line("if (this.entityManager == null) this.entityManager = entityManager();")
+				.line("this.entityManager.persist(this);")
+				.toString();
+	}
+	
+	/*
+	 * Writes the OData key of the instance, and sets its id to the encoded key
+	 */
+	public void generateEncodedKey(JavaCodeEmitter code, RemoteFields keys, String instance) {
+		String instanceMethod = instance.equals("") ? "" : instance + ".";
+		
+		code.blankLine();
+		generateDBKeyFromODataKeys(code, keys, instanceMethod);
+		code.line(instanceMethod, "setId(", GwUtils.GW_CONNECTION_FIELD_NAME, ".getEncodedRemoteKey(", ODATA_KEY, ".toKeyString()));");
 	}
-   
-	returnString = tabs + "OEntityKey " + ODATA_KEY + " = OEntityKey.create(" + keyBuilderString +");\n";
-	return returnString;
-   }
-   
-   public String generateDecodedKey(int numberOfTabs, String keyNameToDecode) {
-	   
-	   String returnString = "\n";
-	   String tabs = "";
-   	   for(int i=0; i < numberOfTabs; i++){
-		   tabs = tabs + "\t";
-	   }
-	   
-	   returnString += tabs + "String " + DECODED_KEY + " = \"\";\n";
-	   returnString += tabs + "try{\n";
-	   returnString += tabs + "\t" + DECODED_KEY + " = URLDecoder.decode(" + keyNameToDecode + ",\"UTF-8\");\n";
-	   returnString += tabs + "}catch(UnsupportedEncodingException e){\n";
-	   returnString += tabs + "}\n";
-	   
-	   return returnString;
-   }   
 
-   private String makeGWShowFieldCode(String tabLevels, String entityName, String remoteEntity, Map.Entry<String[], String> field) {
-		String startCast = "", endCast = "", returnString = "";
-		String remoteFieldName = field.getKey()[0];
-		String localFieldName = field.getKey()[1];
-		
-		if (field.getValue().equals("DateTime")) {
-			returnString = tabLevels + "DateTime " + localFieldName.toLowerCase() + "DT = DTformatter.parseDateTime(" + remoteEntity + 
-					".getProperty(\"" + remoteFieldName  + "\").getValue().toString());\n";	
-			returnString += tabLevels + "Date " + localFieldName.toLowerCase() + "ConvertedDate = " +  localFieldName.toLowerCase() + "DT.toDate();\n";
-			returnString += tabLevels + entityName + ".set" + StringUtils.capitalize(localFieldName) + "(" + localFieldName.toLowerCase() + "ConvertedDate);\n";			
+	public void generateURLEncodingCode(JavaCodeEmitter code, String variableToEncode) {
+		code.line("String ", ENCODED_KEY, " = null;");
+		code.beginTry();
+		code.line(ENCODED_KEY, " = URLEncoder.encode(", variableToEncode, ",\"UTF-8\");");
+		code.beginCatch("UnsupportedEncodingException e");
+		code.line("e.printStackTrace();");
+		code.endBlock();
+	}
+	
+	private void generateDBKeyFromODataKeys(JavaCodeEmitter code, RemoteFields keys, String instanceMethod) {
+		code.append("OEntityKey ", ODATA_KEY, " = OEntityKey.create(");
+		String separator = "";
+		for (RemoteField key: keys){
+			code.append(separator, "\"", key.getRemoteName(), "\", ", instanceMethod, "get", StringUtils.capitalize(key.getLocalName()), "()");
+			separator = ",";
+		}
+		code.line(");");
+	}
+	
+	public void generateDecodedKey(JavaCodeEmitter code, String keyNameToDecode) {
+		code.blankLine();
+		code.line("String ", DECODED_KEY, " = \"\";");
+		code.beginTry();
+		code.line(DECODED_KEY, " = URLDecoder.decode(", keyNameToDecode, ",\"UTF-8\");");
+		code.beginCatch("UnsupportedEncodingException e");
+		code.endBlock();
+	}
 
-		} else if(field.getValue().equals("DateTimeOffset")) {
-			returnString = tabLevels + "DateTime " + localFieldName.toLowerCase() + "DT = DTOformatter.parseDateTime(" + remoteEntity + 
-					".getProperty(\"" + remoteFieldName  + "\").getValue().toString());\n";	
-			returnString += tabLevels + "Date " + localFieldName.toLowerCase() + "ConvertedDate = " +  localFieldName.toLowerCase() + "DT.toDate();\n";
-			returnString += tabLevels + entityName + ".set" + StringUtils.capitalize(localFieldName) + "(" + localFieldName.toLowerCase() + "ConvertedDate);\n";
-			
+	private void makeGWShowFieldCode(JavaCodeEmitter code, String entityName, String remoteEntity, RemoteField field) {
+		String remoteFieldName = field.getRemoteName();
+		String localFieldName = field.getLocalName();
+		String setter = entityName + ".set" + StringUtils.capitalize(localFieldName);
+		
+		if (field.getType().equals("DateTime") || field.getType().equals("DateTimeOffset")) {
+			String formatter = field.getType().equals("DateTime") ? "DTformatter" : "DTOformatter";
+			String dateVariable = localFieldName.toLowerCase();
+			code.line("DateTime ", dateVariable, "DT = ", formatter, ".parseDateTime(", remoteEntity, 
+					".getProperty(\"", remoteFieldName, "\").getValue().toString());");
+			code.line("Date ", dateVariable, "ConvertedDate = ", dateVariable, "DT.toDate();");
+			code.line(setter, "(", dateVariable, "ConvertedDate);");
 		} else {
-			String javaType = GwUtils.odataToJavaType(field.getValue());			
-			startCast = GwUtils.generateCast(javaType);
-			if (!startCast.isEmpty())
-				endCast = ")";
-			
-			returnString =  tabLevels + entityName + ".set" + StringUtils.capitalize(localFieldName) + "(" + startCast + remoteEntity + ".getProperty(\""
-				+ remoteFieldName + "\").getValue().toString()" + endCast + ");\n";
+			String startCast = GwUtils.generateCast(GwUtils.odataToJavaType(field.getType()));
+			String endCast = startCast.isEmpty() ? "" : ")";
+			code.line(setter, "(", startCast, remoteEntity, ".getProperty(\"", remoteFieldName, "\").getValue().toString()", endCast, ");");
 		}
-		
-		return returnString;
 	}
 
-   private String makeLocalShowFieldCode(String tabLevels, String entityName, String remoteEntity, String fieldName) {
-
-		String returnString =  entityName + ".set" + StringUtils.capitalize(fieldName) + "(local" + remoteEntity + "== null ? null : local" + remoteEntity 
-				+ ".get" + StringUtils.capitalize(fieldName) + "());\n" + tabLevels;
-		
-		return returnString;
-   }	
+	/*
+	 * Code inserted in front of the statement at the given level which adds the instance to the list
+	 */
+	private String makeLocalShowFieldCode(int level, String entityName, String remoteEntity, String fieldName) {
+		return JavaCodeEmitter.continuingLine(level)
+				.line(entityName, ".set", StringUtils.capitalize(fieldName), "(local", remoteEntity, "== null ? null : local", remoteEntity, 
+						".get", StringUtils.capitalize(fieldName), "());")
+				.indentation()
+				.toString();
+	}
    
    public void addImports(JavaSourceFileEditor entityClassFile, String namespace){
+	   addImports(entityClassFile, namespace, getTopLevelPackageName());
+   }
+   
+   /*
+    * As addImports(entityClassFile, namespace), with the top level package looked up beforehand, for callers which must 
+    * not use the Roo services (e.g. when several entities are generated concurrently)
+    */
+   public void addImports(JavaSourceFileEditor entityClassFile, String namespace, String topLevelPackageName){
 
 	   ArrayList<String> connectivityImports = new ArrayList<String>();
 
-	   connectivityImports.add(getTopLevelPackageName() + ".connectivity." + namespace);
-	   connectivityImports.add(getTopLevelPackageName() + ".connectivity.ODataConnectivity");
+	   connectivityImports.add(topLevelPackageName + ".connectivity." + namespace);
+	   connectivityImports.add(topLevelPackageName + ".connectivity.ODataConnectivity");
 	   
 	   connectivityImports.add("org.odata4j.core.OEntity");
 	   connectivityImports.add("org.odata4j.core.OProperties");
@@ -854,28 +1041,28 @@ public class GWOperationsUtils {
 	   entityClassFile.addImports(connectivityImports);	   
    }
 
-	public void addGatewayFields(Map<String[], String> keys, Map<String[], String> fields, JavaSourceFileEditor entityClassFile) throws Exception{
+	public void addGatewayFields(RemoteFields keys, RemoteFields fields, JavaSourceFileEditor entityClassFile) throws Exception{
 
 		// Add Keys 
-        for (Map.Entry<String[], String> key: keys.entrySet()) {
+        for (RemoteField key: keys) {
             addKeyInGWJavaFile(keys, entityClassFile, key);		
         }		
  		 
         // Add Fields
         if (!fields.isEmpty()) {
-	        for (Map.Entry<String[], String> field: fields.entrySet()) {
+	        for (RemoteField field: fields) {
 	        	 addRemoteFieldInGWJavaFile(entityClassFile, field);	
-	     	     addRemoteFieldInPersistenceMethods(entityClassFile, field);
 	          }
+	        addRemoteFieldsInPersistenceMethods(entityClassFile, fields);
         }
 	}
 
-	public void addKeyInGWJavaFile(Map<String[], String> keys, JavaSourceFileEditor entityClassFile, Map.Entry<String[], String> key) {
+	public void addKeyInGWJavaFile(RemoteFields keys, JavaSourceFileEditor entityClassFile, RemoteField key) {
 		//Map ODataFieldTypes to JavaTypes 
-		String oDataType = key.getValue();
+		String oDataType = key.getType();
 		String javaType = GwUtils.odataToJavaType(oDataType);
 		
-		String localFieldName = key.getKey()[1];
+		String localFieldName = key.getLocalName();
 		JavaSourceFieldBuilder fieldBuilder = new JavaSourceFieldBuilder()
 													.fieldPrefix("private")
 													.fieldType(javaType)
@@ -886,7 +1073,7 @@ public class GWOperationsUtils {
 			fieldBuilder = fieldBuilder.fieldAnnotations("@Id\n\t@Column(name = \"id\")");
 		// \t@GeneratedValue(strategy = GenerationType.AUTO)\n
 		
-		if (key.getValue().equals("DateTime"))
+		if (key.getType().equals("DateTime"))
 			fieldBuilder = fieldBuilder.fieldAnnotations("@Temporal(TemporalType.TIMESTAMP)\n\t@DateTimeFormat(style=\"M-\")");		
 		
 		JavaSourceField fieldDeclaration = fieldBuilder.build();		
@@ -898,7 +1085,7 @@ public class GWOperationsUtils {
 												.methodName("get"+StringUtils.capitalize(localFieldName))
 												.methodPrefix("public")
 												.returnType(javaType)
-												.methodBody("\t\t" + "return" + " " + "this." + localFieldName + ";\n")
+												.methodBody(new JavaCodeEmitter(2).line("return this.", localFieldName, ";").toString())
 												.build(); 
 			entityClassFile.addMethod(getMethod);
 			
@@ -910,18 +1097,18 @@ public class GWOperationsUtils {
 												.methodPrefix("public")
 												.returnType("void")
 											    .parameters(parameters)												
-												.methodBody("\t\t" + "this." + localFieldName + " = " + localFieldName + ";\n")
+												.methodBody(new JavaCodeEmitter(2).line("this.", localFieldName, " = ", localFieldName, ";").toString())
 												.build(); 
 			
 			entityClassFile.addMethod(setMethod);
 		}
 	}
 	
-	public void addRemoteFieldInGWJavaFile(JavaSourceFileEditor entityClassFile, Map.Entry<String[], String> field) throws Exception{
+	public void addRemoteFieldInGWJavaFile(JavaSourceFileEditor entityClassFile, RemoteField field) throws Exception{
 		
-		String fieldName = field.getKey()[1];
+		String fieldName = field.getLocalName();
 		//Map ODataFieldTypes to JavaTypes 
-		String oDataType = field.getValue();
+		String oDataType = field.getType();
 		String javaType = GwUtils.odataToJavaType(oDataType);
 		
 		addFieldInGWJavaFile(entityClassFile, fieldName, javaType);
@@ -954,7 +1141,7 @@ public class GWOperationsUtils {
 											.methodName("get"+StringUtils.capitalize(fieldName))
 											.methodPrefix("public")
 											.returnType(javaType)
-											.methodBody("\t\t" + "return" + " " + "this." + fieldName + ";\n")
+											.methodBody(new JavaCodeEmitter(2).line("return this.", fieldName, ";").toString())
 											.build(); 
 		entityClassFile.addMethod(getMethod);
 		
@@ -966,41 +1153,34 @@ public class GWOperationsUtils {
 											.methodPrefix("public")
 											.returnType("void")
 										    .parameters(parameters)												
-											.methodBody("\t\t" + "this." + fieldName + " = " + fieldName + ";\n")
+											.methodBody(new JavaCodeEmitter(2).line("this.", fieldName, " = ", fieldName, ";").toString())
 											.build(); 
 		
 		entityClassFile.addMethod(setMethod);
 	}
 
-	private String makeGWPersistFieldCode(String tabLevels, Map.Entry<String[], String> fieldObj) {
+	private void makeGWPersistFieldCode(JavaCodeEmitter code, RemoteField fieldObj) {
 		String reversedCast = "", dateTimeOffsetCastStart = "", dateTimeOffsetCastEnd = "";
-		String remoteFieldName = fieldObj.getKey()[0];
-		String localFieldName = fieldObj.getKey()[1];
-		if (fieldObj.getValue().equals("DateTimeOffset")) {
+		String remoteFieldName = fieldObj.getRemoteName();
+		String localFieldName = fieldObj.getLocalName();
+		if (fieldObj.getType().equals("DateTimeOffset")) {
 			reversedCast = "datetimeOffset";
 			dateTimeOffsetCastStart = "new DateTime(";
 			dateTimeOffsetCastEnd = ")";
 		}
 		else {
-			reversedCast = GwUtils.generateReversedCast(GwUtils.odataToJavaType(fieldObj.getValue()));
+			reversedCast = GwUtils.generateReversedCast(GwUtils.odataToJavaType(fieldObj.getType()));
 		}
 		
-		return tabLevels + ".properties(OProperties." + reversedCast + "(\"" + remoteFieldName + "\", " + dateTimeOffsetCastStart + "get" 
-				+ StringUtils.capitalize(localFieldName) + "()" + dateTimeOffsetCastEnd + "))\n";
+		code.line(".properties(OProperties.", reversedCast, "(\"", remoteFieldName, "\", ", dateTimeOffsetCastStart, "get", 
+				StringUtils.capitalize(localFieldName), "()", dateTimeOffsetCastEnd, "))");
 	}
 	
-	public Map.Entry<String[], String> getValidatedField(String localClassName, String fieldName, JavaSourceFileEditor entityClassFile) throws Exception {
-		Map.Entry<String[], String> fieldObj = null;
+	public RemoteField getValidatedField(String localClassName, String fieldName, JavaSourceFileEditor entityClassFile) throws Exception {
+		RemoteField fieldObj = null;
 		if (!entityClassFile.fieldExists(fieldName)) {
     	   String nameSpace = GwUtils.getNamespaceFromClass(entityClassFile);
-    	   Map<String[], String> fields = getFieldsOfRemoteEntity(localClassName, nameSpace);
-		
-    	   for(Map.Entry<String[], String> field : fields.entrySet()){
-    		   if (field.getKey()[0].equals(fieldName)) {
-    			   fieldObj = field;
-    			   break;
-    		   }
-    	   }
+    	   fieldObj = getFieldsOfRemoteEntity(localClassName, nameSpace).get(fieldName);
        }
        else {
     	   throw new Exception("Field \"" + fieldName + "\" already exists in java class file " + localClassName);
@@ -1013,7 +1193,7 @@ public class GWOperationsUtils {
 		for (FileDetails file : files) {
 			InputStream inputStream = fileManager.getInputStream(file.getCanonicalPath());
 			try {
-				if (IOUtils.toString(inputStream).contains(remoteEntity + "Controller.addDateTimeFormatPatterns(")) {
+				if (IOUtils.toString(inputStream, "UTF-8").contains(remoteEntity + "Controller.addDateTimeFormatPatterns(")) {
 					IOUtils.closeQuietly(inputStream);
 					return true;
 				}
@@ -1027,6 +1207,27 @@ public class GWOperationsUtils {
 	}
 	
 	public void addRelationships(Map<String, String[]> relationships, String remoteEntityName, JavaSourceFileEditor entityClassFile) throws Exception {
+		addRelationships(relationships, remoteEntityName, entityClassFile, getExistingDomainClasses(relationships, remoteEntityName));
+	}
+	
+	/*
+	 * Returns the associated entities of the given relationships whose domain classes exist
+	 */
+	public Set<String> getExistingDomainClasses(Map<String, String[]> relationships, String remoteEntityName) {
+		Set<String> existingClasses = new HashSet<String>();
+		for (String[] relationship : relationships.values()) {
+			String associatedEntity = AssociationGraph.getAssociatedEntity(remoteEntityName, relationship);
+			if (fileManager.exists(getSubPackagePath(domain) + SEPARATOR + associatedEntity + ".java"))
+				existingClasses.add(associatedEntity);
+		}
+		return existingClasses;
+	}
+	
+	/*
+	 * Adds the relationships to the entities whose classes are among the given existing classes; the others are skipped
+	 */
+	public void addRelationships(Map<String, String[]> relationships, String remoteEntityName, JavaSourceFileEditor entityClassFile, 
+			Set<String> existingClasses) throws Exception {
 		//TODO: still to add many to many relationships in persistence methods !!!!!!!!!!!!!!!!!!!!!!!!!!!!!
 		if (relationships.isEmpty())
 			return;
@@ -1042,7 +1243,7 @@ public class GWOperationsUtils {
 			String fieldValue = "";
 			String javaType = relation.getValue()[2 - currentEntityIndex];
 			
-			if (getJavaFileEditor(domain, javaType, false) != null) {
+			if (existingClasses.contains(javaType)) {
 			/*
 			 * We process the types of association (many to many, many to one, one to one, one to many)
 			 */
@@ -1080,14 +1281,16 @@ public class GWOperationsUtils {
 			 */
 			if (methodName.endsWith("persist")) {
 				StringBuffer methodBody = new StringBuffer(method.getMethodBody());
-				methodBody.insert(methodBody.lastIndexOf("newEntity = newEntityRequest"), 
-						makeGWPersistRelationshipCode(nav, javaType, associationType, "\t\t"));
+				int executeStatement = MethodBodyAnchors.parse(method.getMethodBody()).getExecuteStatementOffset("newEntityRequest");
+				methodBody.insert(checkAnchor(executeStatement, method, "the execution of newEntityRequest"), 
+						makeGWPersistRelationshipCode(nav, javaType, associationType, 2));
 				method.setMethodBody(methodBody.toString());
 			}
 			else if (methodName.endsWith("merge")) {
 				StringBuffer methodBody = new StringBuffer(method.getMethodBody());
-				methodBody.insert(methodBody.lastIndexOf("boolean modifyRequest = modifyEntityRequest"), 
-						makeGWMergeRelationshipCode(nav, javaType, associationType, "\t\t"));
+				int executeStatement = MethodBodyAnchors.parse(method.getMethodBody()).getExecuteStatementOffset("modifyEntityRequest");
+				methodBody.insert(checkAnchor(executeStatement, method, "the execution of modifyEntityRequest"), 
+						makeGWMergeRelationshipCode(nav, javaType, associationType, 2));
 				method.setMethodBody(methodBody.toString());
 			}
 			
@@ -1096,18 +1299,17 @@ public class GWOperationsUtils {
 			 */
 			else if (methodName.endsWith("findAll" + pluralRemoteEntity) || methodName.endsWith("find" + entityClassFile.CLASS_NAME + "Entries")) {
 				StringBuffer methodBody = new StringBuffer(method.getMethodBody());
-				int insertPosition = methodBody.indexOf("} catch (Exception relationshipsException)");
-				boolean isFirstManyToMany = true;
-				if ("OneToMany ManyToMany".contains(associationType)) {
-					String manyToManyInsertReferenceString = StringUtils.uncapitalize(entityClassFile.CLASS_NAME) + "Link.isCollection()) {";
-					if (methodBody.indexOf(manyToManyInsertReferenceString) > -1) {
-						insertPosition = methodBody.indexOf(manyToManyInsertReferenceString);
-						isFirstManyToMany = false;
-					}
-				}
+				MethodBodyAnchors anchors = MethodBodyAnchors.parse(method.getMethodBody());
+				int insertPosition = -1;
+				// Further collections are appended to the block over the links of the first one
+				if ("OneToMany ManyToMany".contains(associationType))
+					insertPosition = anchors.getCollectionBlockEndOffset(smallRemoteEntity + "Link");
+				boolean isFirstManyToMany = insertPosition < 0;
+				if (isFirstManyToMany)
+					insertPosition = checkAnchor(anchors.getTryBlockEndOffset("relationshipsException"), method, "the try block of the relationships");
 				methodBody.insert(insertPosition, 
 						makeGWShowRelationshipCode(entityClassFile.CLASS_NAME, smallRemoteEntity + "Instance", smallRemoteEntity + "Item", ODATA_KEY, 
-								nav, javaType, associationType, "\t\t", isFirstManyToMany));
+								nav, javaType, associationType, 2, isFirstManyToMany));
 				method.setMethodBody(methodBody.toString());
 			}
 			/*
@@ -1115,86 +1317,102 @@ public class GWOperationsUtils {
 			 */
 			else if (methodName.endsWith("find" + entityClassFile.CLASS_NAME)) {
 				StringBuffer methodBody = new StringBuffer(method.getMethodBody());
-				int insertPosition = methodBody.indexOf("} catch (Exception relationshipsException)");
-				boolean isFirstManyToMany = true;
-				if ("OneToMany ManyToMany".contains(associationType)) {
-					String manyToManyInsertReferenceString = StringUtils.uncapitalize(entityClassFile.CLASS_NAME) + "Link.isCollection()) {";
-					if (methodBody.indexOf(manyToManyInsertReferenceString) > -1) {
-						insertPosition = methodBody.indexOf(manyToManyInsertReferenceString);
-						isFirstManyToMany = false;
-					}
-				}
+				MethodBodyAnchors anchors = MethodBodyAnchors.parse(method.getMethodBody());
+				int insertPosition = -1;
+				// Further collections are appended to the block over the links of the first one
+				if ("OneToMany ManyToMany".contains(associationType))
+					insertPosition = anchors.getCollectionBlockEndOffset(smallRemoteEntity + "Link");
+				boolean isFirstManyToMany = insertPosition < 0;
+				if (isFirstManyToMany)
+					insertPosition = checkAnchor(anchors.getTryBlockEndOffset("relationshipsException"), method, "the try block of the relationships");
 				methodBody.insert(insertPosition, 
 						makeGWShowRelationshipCode(entityClassFile.CLASS_NAME, "virtual" + entityClassFile.CLASS_NAME, smallRemoteEntity,
 								"OEntityKey.parse(" + GwUtils.GW_CONNECTION_FIELD_NAME + ".getDecodedRemoteKey(Id))", 
-								nav, javaType, associationType, "\t\t\t", isFirstManyToMany));
+								nav, javaType, associationType, 3, isFirstManyToMany));
 				method.setMethodBody(methodBody.toString());
 			}
 		}
 	}
 
-	private String makeGWMergeRelationshipCode(String nav, String javaType, String associationType, String tabs) {
-		String returnString = "";
+	/*
+	 * Code inserted in front of the statement at the given level which executes the modify request
+	 */
+	private String makeGWMergeRelationshipCode(String nav, String javaType, String associationType, int level) {
+		JavaCodeEmitter code = JavaCodeEmitter.continuingLine(level);
 		if ("ManyToOne OneToOne".contains(associationType)) {
-			returnString += "OEntity linked" + javaType + " = " + GwUtils.GW_CONNECTION_FIELD_NAME + ".rooODataConsumer.getEntity(\"" + 
-						javaType + "\", " + javaType + ".getRemote" + javaType + "(" + nav + ".getId())).execute();\n";
-			returnString += tabs + "modifyEntityRequest = modifyEntityRequest.link(\"" + nav + "\", linked" + javaType + ");\n" + tabs;
+			code.line("OEntity linked", javaType, " = ", GwUtils.GW_CONNECTION_FIELD_NAME, ".rooODataConsumer.getEntity(\"", 
+					javaType, "\", ", javaType, ".getRemote", javaType, "(", nav, ".getId())).execute();");
+			code.line("modifyEntityRequest = modifyEntityRequest.link(\"", nav, "\", linked", javaType, ");");
+			code.indentation();
 		}
 		
-		return returnString;
+		return code.toString();
 	}
 	
-	private String makeGWPersistRelationshipCode(String nav, String javaType, String associationType, String tabs) {
-		String returnString = "";
+	/*
+	 * Code inserted in front of the statement at the given level which executes the create request
+	 */
+	private String makeGWPersistRelationshipCode(String nav, String javaType, String associationType, int level) {
+		JavaCodeEmitter code = JavaCodeEmitter.continuingLine(level);
 		if ("ManyToOne OneToOne".contains(associationType)) {
-			returnString += "OEntity linked" + javaType + " = " + GwUtils.GW_CONNECTION_FIELD_NAME + ".rooODataConsumer.getEntity(\"" + 
-						javaType + "\", " + javaType + ".getRemote" + javaType + "(" + nav + ".getId())).execute();\n";
-			returnString += tabs + "newEntityRequest = newEntityRequest.link(\"" + nav + "\", linked" + javaType + ");\n" + tabs;
+			code.line("OEntity linked", javaType, " = ", GwUtils.GW_CONNECTION_FIELD_NAME, ".rooODataConsumer.getEntity(\"", 
+					javaType, "\", ", javaType, ".getRemote", javaType, "(", nav, ".getId())).execute();");
+			code.line("newEntityRequest = newEntityRequest.link(\"", nav, "\", linked", javaType, ");");
+			code.indentation();
 		}
 		
-		return returnString;
+		return code.toString();
 	}
 
+	/*
+	 * Code inserted at the end of the try block of the relationships, in front of its closing brace at the given level; 
+	 * further collections are inserted at the start of the line closing the collection block written with the first one.
+	 */
 	private String makeGWShowRelationshipCode(String className, String virtualLocalEntityInstance, String remoteEntity, String remoteId, String nav, String javaType, 
-			String associationType, String tabs, boolean isFirstManyToMany) {
+			String associationType, int level, boolean isFirstManyToMany) {
 		String smallClassName = StringUtils.uncapitalize(className);
 		String capitalNav = StringUtils.capitalize(nav);
-		String returnString = "";
 		if ("ManyToOne OneToOne".contains(associationType)) {
-			returnString += "OEntity remote" + javaType + " = " + GwUtils.GW_CONNECTION_FIELD_NAME + ".rooODataConsumer.getEntity(\"" +
-						className + "\", " + remoteId + ").nav(\"" + nav + 
-						"\").execute();\n";
-			returnString += tabs + javaType + " virtual" + javaType + " = " + javaType + ".find" + javaType + "(remote" + javaType + 
-						".getEntityKey().toKeyString());\n" ;
-			returnString += tabs + virtualLocalEntityInstance + ".set" + javaType + "(virtual" + javaType + ");\n" + tabs;
-		} else {
-			String extraReturn = "";
-			if (isFirstManyToMany) {
-				returnString += "List<OLink> " + smallClassName + "Links = " + remoteEntity + ".getLinks();\n" +
-						tabs + "\tfor(OLink " + smallClassName + "Link : " + smallClassName + "Links) {\n" +
-						tabs + "\t\tif (" + smallClassName + "Link.isCollection()) {\n";
-				extraReturn = "\n";
-			}
-				
-			returnString +=	extraReturn + tabs + "\t\t\tif (" + smallClassName + "Link.getTitle().equals(\"" + nav + "\")) {\n" +
-					tabs + "\t\t\t\tSet<" + javaType + "> virtual" + javaType + "List = new HashSet<" + javaType + ">();\n" +
-					tabs + "\t\t\t\tList<OEntity> remote" + javaType + "List = " + GwUtils.GW_CONNECTION_FIELD_NAME + ".rooODataConsumer.getEntities(" +
-							"OLinks.relatedEntities(" + smallClassName + "Link.getRelation(), " + smallClassName + "Link.getTitle(), " + 
-							smallClassName + "Link.getHref()))\n" +
-					tabs + "\t\t\t\t.execute().toList();\n" +
-					tabs + "\t\t\t\tfor (OEntity remote" + javaType + " : remote" + javaType + "List) {\n" +
-					tabs + "\t\t\t\t\t" + javaType + " virtual" + javaType + " = " + javaType + ".find" + javaType + "(remote" + javaType + 
-							".getEntityKey().toKeyString());\n" +
-					tabs + "\t\t\t\t\tvirtual" + javaType + "List.add(virtual" + javaType + ");\n" +
-					tabs + "\t\t\t\t}\n" +
-					tabs + "\t\t\t\t" + virtualLocalEntityInstance + ".set" + capitalNav + "(virtual" + javaType + "List);\n" +
-					tabs + "\t\t\t}\n";
-			
-			if (isFirstManyToMany)				
-				returnString += tabs + "\t\t}\n" +
-					tabs + "}\n" + tabs;
+			return JavaCodeEmitter.continuingLine(level)
+					.line("OEntity remote", javaType, " = ", GwUtils.GW_CONNECTION_FIELD_NAME, ".rooODataConsumer.getEntity(\"", 
+							className, "\", ", remoteId, ").nav(\"", nav, "\").execute();")
+					.line(javaType, " virtual", javaType, " = ", javaType, ".find", javaType, "(remote", javaType, ".getEntityKey().toKeyString());")
+					.line(virtualLocalEntityInstance, ".set", javaType, "(virtual", javaType, ");")
+					.indentation()
+					.toString();
+		}
+		
+		JavaCodeEmitter code;
+		if (isFirstManyToMany) {
+			code = JavaCodeEmitter.continuingLine(level);
+			code.line("List<OLink> ", smallClassName, "Links = ", remoteEntity, ".getLinks();");
+			code.indent();
+			code.beginFor("OLink ", smallClassName, "Link : ", smallClassName, "Links");
+			code.beginIf(smallClassName, "Link.isCollection()");
+			code.blankLine();
+		}
+		else {
+			code = new JavaCodeEmitter(level + 3);
+		}
+		
+		code.beginIf(smallClassName, "Link.getTitle().equals(\"", nav, "\")");
+		code.line("Set<", javaType, "> virtual", javaType, "List = new HashSet<", javaType, ">();");
+		code.line("List<OEntity> remote", javaType, "List = ", GwUtils.GW_CONNECTION_FIELD_NAME, ".rooODataConsumer.getEntities(", 
+				"OLinks.relatedEntities(", smallClassName, "Link.getRelation(), ", smallClassName, "Link.getTitle(), ", smallClassName, "Link.getHref()))");
+		code.line(".execute().toList();");
+		code.beginFor("OEntity remote", javaType, " : remote", javaType, "List");
+		code.line(javaType, " virtual", javaType, " = ", javaType, ".find", javaType, "(remote", javaType, ".getEntityKey().toKeyString());");
+		code.line("virtual", javaType, "List.add(virtual", javaType, ");");
+		code.endBlock();
+		code.line(virtualLocalEntityInstance, ".set", capitalNav, "(virtual", javaType, "List);");
+		code.endBlock();
+		
+		if (isFirstManyToMany) {
+			code.endBlock();
+			code.endBlock();
+			code.outdent().indentation();
 		}
 		
-		return returnString;
+		return code.toString();
 	}
 }
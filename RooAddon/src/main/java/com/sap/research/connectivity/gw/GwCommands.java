@@ -18,6 +18,9 @@ package com.sap.research.connectivity.gw;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import org.apache.felix.scr.annotations.Component;
@@ -97,7 +100,7 @@ public class GwCommands implements CommandMarker { // All command types must imp
     /**
      * Check if defining an odata endpoint command is available
      */
-    @CliAvailabilityIndicator("gateway define odata_endpoint") 
+    @CliAvailabilityIndicator({"gateway define odata_endpoint", "gateway define odata_endpoints"}) 
     public boolean isAddODataEndpointCommandAvailable() {
     	//Check that project is created and Persistence is set up
         return operations.isCommandODataEndpointAvailable();
@@ -106,7 +109,7 @@ public class GwCommands implements CommandMarker { // All command types must imp
     /**
      * Check if gateway entity command is available
      */
-    @CliAvailabilityIndicator("gateway entity") 
+    @CliAvailabilityIndicator({"gateway entity", "gateway entities", "gateway refresh"}) 
     public boolean isAddGwEntityCommandAvailable() {
     	//Check that project is created and Persistence is set up
         return operations.isCommandGWEntityAvailable();
@@ -166,26 +169,74 @@ public class GwCommands implements CommandMarker { // All command types must imp
     		@CliOption(key = "HTTP_PROXYHOST", mandatory = false, help = "http.proxyhost", unspecifiedDefaultValue = "") String http_proxyhost,
     		@CliOption(key = "HTTP_PROXYPORT", mandatory = false, help = "http.proxyport", unspecifiedDefaultValue = "") String http_proxyport,
     		@CliOption(key = "TIMEOUT_CALL", mandatory = false, unspecifiedDefaultValue = "30", specifiedDefaultValue = "30", 
-    		help = "The timeout for retrieving the metadata in seconds. Default is 30.") int timeout
+    		help = "The timeout for retrieving the metadata in seconds. Default is 30.") int timeout,
+    		@CliOption(key = "RAW_EDMX", mandatory = false, unspecifiedDefaultValue = "false", specifiedDefaultValue = "true", 
+    		help = "Also store the EDMX document as sent by the service and derive the metadata XML from it. Default is false.") boolean rawEdmx
     		) {
  
     	//Prerequisite validation: Check if the metadata jar is placed at the right location.
-    	String metadataExtractorPath = System.getProperty("user.home") + File.separatorChar + "appToRetrieveOdataMetadata.jar";
-    	File metadataExtractorJar = new File(metadataExtractorPath);
-    	if(!metadataExtractorJar.exists()){
-    		log.severe("The metadata extractor JAR is missing in the user-home directory");
+    	if (!isMetadataExtractorJarAvailable())
     		return;
+    	
+    	try {
+    		if (operations.addNamespace(nsName, url, user, pass, csrfMode, http_proxyhost, http_proxyport, timeout, rawEdmx)) {
+    			log.info("An XML file containing metadata retrieved from the Gateway service has been generated.");
+    			log.info("Please check the " + nsName + "_metadata.xml file from the connectivity package for available entities and fields.");
+    		}
+    		else {
+    			log.info("The metadata of the Gateway service is unchanged, " + nsName + "_metadata.xml has not been modified.");
+    		}
+    	} catch (Exception e) {
+    		log.severe(e.getMessage());
     	}
+    }
+    
+    /**
+     * Define several connectivity namespaces at once
+     */
+    @CliCommand(value = "gateway define odata_endpoints", help="Define the namespaces listed in a CSV file, retrieving their metadata in parallel.")
+    public void addGWNamespaces(
+    		@CliOption(key = "file", mandatory = true, help = "CSV file with one endpoint per line: Name,URL,USER,PASSWORD[,CSRF_MODE[,HTTP_PROXYHOST,HTTP_PROXYPORT[,TIMEOUT_CALL[,RAW_EDMX]]]]") final File endpointsFile,
+    		@CliOption(key = "threads", mandatory = false, unspecifiedDefaultValue = "4", specifiedDefaultValue = "4", 
+    		help = "The maximum number of metadata documents retrieved at the same time. Default is 4.") final int threads
+    		) {
+    	
+    	//Prerequisite validation: Check if the metadata jar is placed at the right location.
+    	if (!isMetadataExtractorJarAvailable())
+    		return;
     	
     	try {
-    		operations.addNamespace(nsName, url, user, pass, csrfMode, http_proxyhost, http_proxyport, timeout);
-    		log.info("An XML file containing metadata retrieved from the Gateway service has been generated.");
-        	log.info("Please check the " + nsName + "_metadata.xml file from the connectivity package for available entities and fields.");
+    		Map<String, String> results = operations.addNamespaces(endpointsFile.getAbsolutePath(), threads);
+    		if (results.isEmpty()) {
+    			log.warning("The file " + endpointsFile.getPath() + " does not contain any endpoint definitions.");
+    			return;
+    		}
+    		
+    		int failed = 0;
+    		for (Map.Entry<String, String> result : results.entrySet()) {
+    			if (result.getValue().startsWith(GwOperations.ENDPOINT_FAILED_PREFIX)) {
+    				log.severe(result.getKey() + ": " + result.getValue());
+    				failed++;
+    			}
+    			else {
+    				log.info(result.getKey() + ": " + result.getValue());
+    			}
+    		}
+    		log.info((results.size() - failed) + " of " + results.size() + " endpoints have been defined.");
     	} catch (Exception e) {
     		log.severe(e.getMessage());
     	}
     }
     
+    private boolean isMetadataExtractorJarAvailable() {
+    	File metadataExtractorJar = new File(GwUtils.getMetadataRetrieverJarPath());
+    	if(!metadataExtractorJar.exists()){
+    		log.severe("The metadata extractor JAR is missing in the user-home directory");
+    		return false;
+    	}
+    	return true;
+    }
+    
     /**
      * Create a gw connected entity
      */
@@ -197,11 +248,21 @@ public class GwCommands implements CommandMarker { // All command types must imp
     				help = "Whether to import all fields from the remote entity") final boolean importAll,
     	    @CliOption(key = "import_associations", mandatory = false, unspecifiedDefaultValue = "false", specifiedDefaultValue = "true", 
     				help = "Whether to import associations of the remote entity. Please note that the associated entities must be created beforehand!") 
-    				final boolean importAssociations    				
+    				final boolean importAssociations,
+    	    @CliOption(key = "itd", mandatory = false, unspecifiedDefaultValue = "false", specifiedDefaultValue = "true", 
+    				help = "Whether to generate the persistence methods into an ITD which follows the metadata of the namespace") 
+    				final boolean itd
     		) {
     	
-    	// Create a class with JPA specific annotations
     	try {
+    		if (itd) {
+    			// Create a class with the fields only; Roo generates the persistence methods into <class>_Roo_Gateway.aj
+    			if (importAssociations)
+    				log.warning("Associations are not imported for classes with the persistence methods in an ITD.");
+    			operations.createGatewayEntity(endPointName.getName(), remoteEntitySet.getName(), importAll);
+    			return;
+    		}
+    		// Create a class with JPA specific annotations
 			operations.createEntity(endPointName.getName(), remoteEntitySet.getName());
 	    	// Add fields, getter/setters and persistence methods
 	     	operations.addFieldsMethodsAndRelations(endPointName.getName(), remoteEntitySet.getName(), importAll, importAssociations);
@@ -210,16 +271,108 @@ public class GwCommands implements CommandMarker { // All command types must imp
 		}
     }
     
+    /**
+     * Create the gw connected entities of all (or the matching) entity sets of a namespace
+     */
+    @CliCommand(value = "gateway entities", help="Creates the local classes of all entity sets of the specified OData Service Provider, with their associations.")
+    public void addClassesGwConnectivity(
+    		@CliOption(key = "namespace", optionContext = "connectivity", mandatory = true, help = "OData Endpoint Name") final GwEndpoint endPointName,
+    		@CliOption(key = "include", mandatory = false, help = "Only the entity sets whose names match this pattern, where * stands for any characters and ? for one character") 
+    				final String includePattern,
+    		@CliOption(key = "import_all", mandatory = false, unspecifiedDefaultValue = "true", specifiedDefaultValue = "true", 
+    				help = "Whether to import all fields from the remote entities") final boolean importAll,
+    	    @CliOption(key = "import_associations", mandatory = false, unspecifiedDefaultValue = "true", specifiedDefaultValue = "true", 
+    				help = "Whether to import the associations between the entities. Default is true.") final boolean importAssociations,
+    		@CliOption(key = "threads", mandatory = false, unspecifiedDefaultValue = "4", specifiedDefaultValue = "4", 
+    				help = "The maximum number of classes generated at the same time. Default is 4.") final int threads
+    		) {
+    	
+    	try {
+    		Map<String, String> results = operations.createEntities(endPointName.getName(), includePattern, importAll, importAssociations, threads);
+    		if (results.isEmpty()) {
+    			log.warning("The namespace " + endPointName.getName() + " does not contain any " + 
+    					(includePattern != null ? "matching " : "") + "entity sets.");
+    			return;
+    		}
+    		
+    		int failed = 0;
+    		for (Map.Entry<String, String> result : results.entrySet()) {
+    			if (result.getValue().startsWith(GwOperations.ENDPOINT_FAILED_PREFIX)) {
+    				log.severe(result.getKey() + ": " + result.getValue());
+    				failed++;
+    			}
+    			else {
+    				log.info(result.getKey() + ": " + result.getValue());
+    			}
+    		}
+    		if (failed > 0)
+    			log.severe(failed + " of " + results.size() + " entity sets could not be generated.");
+    	} catch (Exception e) {
+    		log.severe(e.getMessage());
+    	}
+    }
+    
+    /**
+     * Apply metadata changes to the gw connected entities of a namespace
+     */
+    @CliCommand(value = "gateway refresh", help="Updates the entities of a namespace to the metadata retrieved by the last \"gateway define odata_endpoint\" command.")
+    public void refreshGwNamespace(
+    		@CliOption(key = "namespace", optionContext = "connectivity", mandatory = true, help = "OData Endpoint Name") final GwEndpoint endPointName
+    		) {
+    	
+    	try {
+    		Map<String, String> results = operations.refreshNamespace(endPointName.getName());
+    		if (results.isEmpty()) {
+    			log.info("The entities of " + endPointName.getName() + " are up to date.");
+    			return;
+    		}
+    		
+    		for (Map.Entry<String, String> result : results.entrySet()) {
+    			if (result.getValue().startsWith(GwOperations.ENDPOINT_FAILED_PREFIX))
+    				log.severe(result.getKey() + ": " + result.getValue());
+    			else
+    				log.info(result.getKey() + ": " + result.getValue());
+    		}
+    	} catch (Exception e) {
+    		log.severe(e.getMessage());
+    	}
+    }
+    
     /**
      * Import a remote field from a gateway connected entity
      */
-    @CliCommand(value = "gateway field", help="Imports a specific field from the specified remote gateway entity.")
+    @CliCommand(value = "gateway field", help="Imports one or several fields from the specified remote gateway entity, with a single write of the class.")
     public void addGwField(
     		@CliOption(key = "entityClass", mandatory = true, help = "Name of the linked entity", optionContext = "domain") final GwEntityClass localClassName,
-    		@CliOption(key = "fieldName", mandatory = false, help = "Field to be imported") final GwField fieldName
+    		@CliOption(key = "fieldName", mandatory = false, help = "Field to be imported") final GwField fieldName,
+    		@CliOption(key = "fieldNames", mandatory = false, help = "Comma separated list of the fields to be imported") final String fieldNames,
+    		@CliOption(key = "all-remaining", mandatory = false, unspecifiedDefaultValue = "false", specifiedDefaultValue = "true", 
+    				help = "Whether to import all the remote fields which are not in the class yet") final boolean allRemaining
     		) {
+    	if ((fieldName != null ? 1 : 0) + (fieldNames != null ? 1 : 0) + (allRemaining ? 1 : 0) != 1) {
+    		log.severe("Please specify exactly one of the options \"--fieldName\", \"--fieldNames\" and \"--all-remaining\".");
+    		return;
+    	}
+    	
     	try { 
-    		operations.addRemoteFieldInGWClass(localClassName.getName(), fieldName.getName());
+    		if (fieldName != null) {
+    			operations.addRemoteFieldInGWClass(localClassName.getName(), fieldName.getName());
+    			return;
+    		}
+    		
+    		List<String> names = new ArrayList<String>();
+    		if (fieldNames != null) {
+    			for (String name : fieldNames.split(",")) {
+    				if (!name.trim().isEmpty())
+    					names.add(name.trim());
+    			}
+    		}
+    		
+    		List<String> importedFields = operations.addRemoteFieldsInGWClass(localClassName.getName(), names, allRemaining);
+    		if (importedFields.isEmpty())
+    			log.info("There are no fields to be imported into " + localClassName.getName() + ".");
+    		else
+    			log.info(importedFields.size() + " field(s) imported into " + localClassName.getName() + ": " + importedFields);
     	} catch (Exception e) {
     		log.severe(e.getMessage());
     		e.printStackTrace();
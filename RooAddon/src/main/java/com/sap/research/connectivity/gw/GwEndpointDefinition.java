@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The settings of an OData endpoint, as given to the "gateway define odata_endpoint" command or as one line of the
+ * file given to "gateway define odata_endpoints":
+ *
+ * Name,URL,USER,PASSWORD[,CSRF_MODE[,HTTP_PROXYHOST,HTTP_PROXYPORT[,TIMEOUT_CALL[,RAW_EDMX]]]]
+ *
+ * Values containing commas can be put in double quotes.
+ */
+public class GwEndpointDefinition {
+
+	public static final String DEFAULT_CSRF_MODE = "standard";
+	public static final int DEFAULT_TIMEOUT = 30;
+
+	private final String name;
+	private final String url;
+	private final String user;
+	private final String password;
+	private final String csrfMode;
+	private final String proxyHost;
+	private final String proxyPort;
+	private final int timeout;
+	private final boolean rawEdmx;
+
+	public GwEndpointDefinition(String name, String url, String user, String password, String csrfMode, String proxyHost,
+			String proxyPort, int timeout, boolean rawEdmx) {
+		this.name = name;
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.csrfMode = csrfMode;
+		this.proxyHost = proxyHost;
+		this.proxyPort = proxyPort;
+		this.timeout = timeout;
+		this.rawEdmx = rawEdmx;
+	}
+
+	public static GwEndpointDefinition fromCsvLine(String line) {
+		List<String> values = splitCsvLine(line);
+		if (values.size() < 4)
+			throw new IllegalArgumentException("Expected at least Name,URL,USER,PASSWORD but found \"" + line + "\"");
+
+		String csrfMode = values.size() > 4 && !values.get(4).isEmpty() ? values.get(4) : DEFAULT_CSRF_MODE;
+		String proxyHost = values.size() > 5 ? values.get(5) : "";
+		String proxyPort = values.size() > 6 ? values.get(6) : "";
+		int timeout = DEFAULT_TIMEOUT;
+		if (values.size() > 7 && !values.get(7).isEmpty()) {
+			try {
+				timeout = Integer.parseInt(values.get(7));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid TIMEOUT_CALL value \"" + values.get(7) + "\"");
+			}
+		}
+		boolean rawEdmx = false;
+		if (values.size() > 8 && !values.get(8).isEmpty()) {
+			if (!values.get(8).equalsIgnoreCase("true") && !values.get(8).equalsIgnoreCase("false"))
+				throw new IllegalArgumentException("Invalid RAW_EDMX value \"" + values.get(8) + "\"");
+			rawEdmx = Boolean.parseBoolean(values.get(8));
+		}
+
+		return new GwEndpointDefinition(values.get(0), values.get(1), values.get(2), values.get(3), csrfMode, proxyHost, proxyPort, timeout,
+				rawEdmx);
+	}
+
+	private static List<String> splitCsvLine(String line) {
+		List<String> values = new ArrayList<String>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					value.append('"');
+					i++;
+				}
+				else {
+					quoted = !quoted;
+				}
+			}
+			else if (c == ',' && !quoted) {
+				values.add(value.toString().trim());
+				value.setLength(0);
+			}
+			else {
+				value.append(c);
+			}
+		}
+		values.add(value.toString().trim());
+		return values;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public String getCsrfMode() {
+		return csrfMode;
+	}
+
+	public String getProxyHost() {
+		return proxyHost;
+	}
+
+	public String getProxyPort() {
+		return proxyPort;
+	}
+
+	public int getTimeout() {
+		return timeout;
+	}
+
+	/*
+	 * True if the EDMX document is to be stored as sent by the server (<ns>_metadata.edmx), next to the reduced XML
+	 */
+	public boolean isRawEdmx() {
+		return rawEdmx;
+	}
+}
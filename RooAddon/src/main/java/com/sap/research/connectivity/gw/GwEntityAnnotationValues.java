@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.sap.research.connectivity.gw;
+
+import org.springframework.roo.classpath.PhysicalTypeMetadata;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
+import org.springframework.roo.classpath.details.annotations.populator.AbstractAnnotationValues;
+import org.springframework.roo.classpath.details.annotations.populator.AutoPopulate;
+import org.springframework.roo.classpath.details.annotations.populator.AutoPopulationUtils;
+import org.springframework.roo.model.JavaType;
+
+/**
+ * The values of the @RooGatewayEntity annotation of a class (see the annotations artifact of the addon)
+ */
+public class GwEntityAnnotationValues extends AbstractAnnotationValues {
+
+	public static final JavaType ROO_GATEWAY_ENTITY = new JavaType("com.sap.research.connectivity.gw.annotations.RooGatewayEntity");
+
+	@AutoPopulate private String namespace = "";
+	@AutoPopulate private String remoteEntitySet = "";
+
+	public GwEntityAnnotationValues(PhysicalTypeMetadata governorPhysicalTypeMetadata) {
+		super(governorPhysicalTypeMetadata, ROO_GATEWAY_ENTITY);
+		AutoPopulationUtils.populate(this, annotationMetadata);
+	}
+
+	public GwEntityAnnotationValues(ClassOrInterfaceTypeDetails governorDetails) {
+		super(governorDetails, ROO_GATEWAY_ENTITY);
+		AutoPopulationUtils.populate(this, annotationMetadata);
+	}
+
+	public String getNamespace() {
+		return namespace;
+	}
+
+	public String getRemoteEntitySet() {
+		return remoteEntitySet;
+	}
+}
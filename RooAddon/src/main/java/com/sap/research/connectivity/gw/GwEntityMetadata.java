@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.sap.research.connectivity.gw;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.classpath.PhysicalTypeIdentifierNamingUtils;
+import org.springframework.roo.classpath.PhysicalTypeMetadata;
+import org.springframework.roo.classpath.details.FieldMetadata;
+import org.springframework.roo.classpath.details.FieldMetadataBuilder;
+import org.springframework.roo.classpath.details.ImportRegistrationResolver;
+import org.springframework.roo.classpath.details.MethodMetadata;
+import org.springframework.roo.classpath.details.MethodMetadataBuilder;
+import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
+import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
+import org.springframework.roo.classpath.itd.AbstractItdTypeDetailsProvidingMetadataItem;
+import org.springframework.roo.classpath.itd.InvocableMemberBodyBuilder;
+import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.model.DataType;
+import org.springframework.roo.model.JavaSymbolName;
+import org.springframework.roo.model.JavaType;
+import org.springframework.roo.project.LogicalPath;
+
+import com.sap.research.connectivity.gw.parsers.RemoteField;
+import com.sap.research.connectivity.gw.parsers.RemoteFields;
+
+/**
+ * The ITD of a class annotated with @RooGatewayEntity: the OData connectivity field and the persistence methods
+ * the "gateway entity" command writes into the class otherwise (persist, merge, remove, the finders and count, with
+ * their local variants). Methods and fields the class declares itself are left out. The methods read and write the
+ * keys of the remote entity set and those of its remote fields the class declares, so importing a field into the
+ * class updates the ITD.
+ */
+public class GwEntityMetadata extends AbstractItdTypeDetailsProvidingMetadataItem {
+
+	private static final String PROVIDES_TYPE_STRING = GwEntityMetadata.class.getName();
+	private static final String PROVIDES_TYPE = MetadataIdentificationUtils.create(PROVIDES_TYPE_STRING);
+
+	private static final JavaType TRANSACTIONAL = new JavaType("org.springframework.transaction.annotation.Transactional");
+	private static final JavaType OENTITY = new JavaType("org.odata4j.core.OEntity");
+
+	/*
+	 * The types the method bodies refer to by their simple names
+	 */
+	private static final String[] BODY_IMPORTS = {"java.util.ArrayList", "java.util.Date", "java.util.List", 
+			"org.odata4j.core.OEntity", "org.odata4j.core.OEntityKey", "org.odata4j.core.OProperties", "org.odata4j.core.OQueryRequest", 
+			"org.odata4j.core.OCreateRequest", "org.odata4j.core.OModifyRequest", "org.joda.time.DateTime", 
+			"org.joda.time.format.DateTimeFormatter", "org.joda.time.format.ISODateTimeFormat"};
+
+	private final Set<String> governorMembers = new HashSet<String>();
+
+	public GwEntityMetadata(String identifier, JavaType aspectName, PhysicalTypeMetadata governorPhysicalTypeMetadata, 
+			GwEntityAnnotationValues annotationValues, RemoteFields keys, RemoteFields remoteFields, String connectivityPackage, 
+			GWOperationsUtils methodBodies) {
+		super(identifier, aspectName, governorPhysicalTypeMetadata);
+		Validate.isTrue(isValid(identifier), "Metadata identification string '" + identifier + "' is not a gateway entity identifier");
+
+		if (!isValid())
+			return;
+
+		for (FieldMetadata field : governorTypeDetails.getDeclaredFields()) {
+			governorMembers.add(field.getFieldName().getSymbolName());
+		}
+		for (MethodMetadata method : governorTypeDetails.getDeclaredMethods()) {
+			governorMembers.add(method.getMethodName().getSymbolName() + "()");
+		}
+
+		String entity = annotationValues.getRemoteEntitySet();
+		String pluralEntity = GwUtils.getInflectorPlural(entity, Locale.ENGLISH);
+		JavaType entityType = governorTypeDetails.getName();
+		JavaType entityListType = new JavaType("java.util.List", 0, DataType.TYPE, null, Arrays.asList(entityType));
+
+		// The keys, and the remote fields which have been imported into the class
+		RemoteFields fields = new RemoteFields();
+		fields.addAll(keys);
+		for (RemoteField field : remoteFields) {
+			if (governorMembers.contains(field.getLocalName()) && !keys.contains(field.getRemoteName()))
+				fields.add(field);
+		}
+
+		ImportRegistrationResolver imports = builder.getImportRegistrationResolver();
+		for (String bodyImport : BODY_IMPORTS) {
+			imports.addImport(new JavaType(bodyImport));
+		}
+		imports.addImport(new JavaType(connectivityPackage + "." + annotationValues.getNamespace()));
+
+		if (!governorMembers.contains(GwUtils.GW_CONNECTION_FIELD_NAME)) {
+			builder.addField(new FieldMetadataBuilder(getId(), Modifier.PRIVATE | Modifier.STATIC | Modifier.FINAL, 
+					new JavaSymbolName(GwUtils.GW_CONNECTION_FIELD_NAME), new JavaType(connectivityPackage + ".ODataConnectivity"), 
+					"new " + annotationValues.getNamespace() + "()").build());
+		}
+
+		addMethod("persist", Modifier.PUBLIC, JavaType.VOID_PRIMITIVE, true, methodBodies.getPersistMethodBody(fields, keys, entity));
+		addMethod("localPersist", Modifier.PRIVATE, JavaType.VOID_PRIMITIVE, true, methodBodies.getLocalPersistMethodBody());
+		addMethod("findAll" + pluralEntity, Modifier.PUBLIC | Modifier.STATIC, entityListType, false, 
+				methodBodies.getfindAllMethodBody(fields, keys, entity));
+		addMethod("find" + entity + "Entries", Modifier.PUBLIC | Modifier.STATIC, entityListType, false, 
+				methodBodies.getfindAllMethodBody(fields, keys, entity), "int firstResult", "int maxResults");
+		addMethod("find" + entity, Modifier.PUBLIC | Modifier.STATIC, entityType, false, methodBodies.getFindMethodBody(fields, entity), 
+				"String Id");
+		addMethod("count" + pluralEntity, Modifier.PUBLIC | Modifier.STATIC, JavaType.LONG_PRIMITIVE, false, 
+				methodBodies.getCountMethodBody(entity));
+		addMethod("merge", Modifier.PUBLIC, entityType, true, methodBodies.getMergeMethodBody(fields, entity, keys));
+		addMethod("localMerge", Modifier.PRIVATE, entityType, true, methodBodies.getLocalMergeMethodBody(entity));
+		addMethod("remove", Modifier.PUBLIC, JavaType.VOID_PRIMITIVE, true, methodBodies.getRemoveMethodBody(entity));
+		addMethod("localRemove", Modifier.PUBLIC, JavaType.VOID_PRIMITIVE, true, methodBodies.getLocalRemoveMethodBody(entity));
+		addMethod("getRemote" + entity, Modifier.PUBLIC | Modifier.STATIC, OENTITY, false, methodBodies.getRemoteEntityMethodBody(entity), 
+				"String Id");
+
+		itdTypeDetails = builder.build();
+	}
+
+	/*
+	 * Adds a method unless the class declares a method of that name; parameters are given as "<type> <name>", the types
+	 * being int or String
+	 */
+	private void addMethod(String methodName, int modifier, JavaType returnType, boolean transactional, String methodBody, 
+			String... parameters) {
+		if (governorMembers.contains(methodName + "()"))
+			return;
+
+		List<AnnotatedJavaType> parameterTypes = new ArrayList<AnnotatedJavaType>();
+		List<JavaSymbolName> parameterNames = new ArrayList<JavaSymbolName>();
+		for (String parameter : parameters) {
+			String[] typeAndName = parameter.split(" ");
+			parameterTypes.add(new AnnotatedJavaType(typeAndName[0].equals("int") ? JavaType.INT_PRIMITIVE : new JavaType("java.lang.String")));
+			parameterNames.add(new JavaSymbolName(typeAndName[1]));
+		}
+
+		MethodMetadataBuilder methodBuilder = new MethodMetadataBuilder(getId(), modifier, new JavaSymbolName(methodName), returnType, 
+				parameterTypes, parameterNames, getBodyBuilder(methodBody));
+		if (transactional)
+			methodBuilder.addAnnotation(new AnnotationMetadataBuilder(TRANSACTIONAL));
+		builder.addMethod(methodBuilder.build());
+	}
+
+	/*
+	 * The generated bodies are indented for a method of a class; the ITD indents them itself
+	 */
+	private static InvocableMemberBodyBuilder getBodyBuilder(String methodBody) {
+		InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+		for (String line : StringUtils.removeEnd(methodBody, "\n").split("\n", -1)) {
+			bodyBuilder.appendFormalLine(line.startsWith("\t\t") ? line.substring(2) : line);
+		}
+		return bodyBuilder;
+	}
+
+	public static String getMetadataIdentiferType() {
+		return PROVIDES_TYPE;
+	}
+
+	public static String createIdentifier(JavaType javaType, LogicalPath path) {
+		return PhysicalTypeIdentifierNamingUtils.createIdentifier(PROVIDES_TYPE_STRING, javaType, path);
+	}
+
+	public static JavaType getJavaType(String metadataIdentificationString) {
+		return PhysicalTypeIdentifierNamingUtils.getJavaType(PROVIDES_TYPE_STRING, metadataIdentificationString);
+	}
+
+	public static LogicalPath getPath(String metadataIdentificationString) {
+		return PhysicalTypeIdentifierNamingUtils.getPath(PROVIDES_TYPE_STRING, metadataIdentificationString);
+	}
+
+	public static boolean isValid(String metadataIdentificationString) {
+		return PhysicalTypeIdentifierNamingUtils.isValid(PROVIDES_TYPE_STRING, metadataIdentificationString);
+	}
+}
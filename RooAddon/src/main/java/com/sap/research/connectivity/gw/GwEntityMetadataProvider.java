@@ -0,0 +1,169 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.sap.research.connectivity.gw;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.classpath.PhysicalTypeIdentifier;
+import org.springframework.roo.classpath.PhysicalTypeMetadata;
+import org.springframework.roo.classpath.itd.AbstractItdMetadataProvider;
+import org.springframework.roo.classpath.itd.ItdTypeDetailsProvidingMetadataItem;
+import org.springframework.roo.file.monitor.event.FileEvent;
+import org.springframework.roo.file.monitor.event.FileEventListener;
+import org.springframework.roo.model.JavaType;
+import org.springframework.roo.project.LogicalPath;
+import org.springframework.roo.project.Path;
+
+import com.sap.research.connectivity.gw.parsers.MetadataXMLParser;
+
+/**
+ * Provides the {@link GwEntityMetadata} of the classes annotated with @RooGatewayEntity, which Roo writes into
+ * the &lt;class&gt;_Roo_Gateway.aj ITDs. Roo asks for the metadata again whenever the class changes; a change of the
+ * metadata file of a namespace (e.g. by "gateway refresh") regenerates the ITDs of the classes connected to it. The
+ * class itself is never rewritten.
+ */
+@Component(immediate = true)
+@Service
+public class GwEntityMetadataProvider extends AbstractItdMetadataProvider implements FileEventListener {
+
+	private static final String METADATA_FILE_SUFFIX = "_metadata.xml";
+
+	private Logger log = Logger.getLogger(getClass().getName());
+
+	@Reference private MetadataModelService metadataModelService;
+
+	/*
+	 * The generators of the method bodies, from the GwOperations component (which is also registered under its base
+	 * class), so that the same bound instance generates the bodies of the ITDs and of the classes
+	 */
+	@Reference private GWOperationsUtils methodBodies;
+
+	/*
+	 * The metadata identifiers of the connected classes by namespace
+	 */
+	private final Map<String, Set<String>> metadataIdsByNamespace = new ConcurrentHashMap<String, Set<String>>();
+
+	protected void activate(ComponentContext context) {
+		metadataDependencyRegistry.registerDependency(PhysicalTypeIdentifier.getMetadataIdentiferType(), getProvidesType());
+		addMetadataTrigger(GwEntityAnnotationValues.ROO_GATEWAY_ENTITY);
+	}
+
+	protected void deactivate(ComponentContext context) {
+		metadataDependencyRegistry.deregisterDependency(PhysicalTypeIdentifier.getMetadataIdentiferType(), getProvidesType());
+		removeMetadataTrigger(GwEntityAnnotationValues.ROO_GATEWAY_ENTITY);
+		metadataIdsByNamespace.clear();
+	}
+
+	protected ItdTypeDetailsProvidingMetadataItem getMetadata(String metadataIdentificationString, JavaType aspectName, 
+			PhysicalTypeMetadata governorPhysicalTypeMetadata, String itdFilename) {
+		for (Set<String> metadataIds : metadataIdsByNamespace.values()) {
+			metadataIds.remove(metadataIdentificationString);
+		}
+
+		GwEntityAnnotationValues annotationValues = new GwEntityAnnotationValues(governorPhysicalTypeMetadata);
+		String namespace = annotationValues.getNamespace();
+		String remoteEntitySet = annotationValues.getRemoteEntitySet();
+		if (!annotationValues.isAnnotationFound() || namespace.isEmpty() || remoteEntitySet.isEmpty())
+			return null;
+
+		// Regenerated when the metadata of the namespace changes, also if it does not exist yet
+		Set<String> metadataIds = metadataIdsByNamespace.get(namespace);
+		if (metadataIds == null) {
+			metadataIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			metadataIdsByNamespace.put(namespace, metadataIds);
+		}
+		metadataIds.add(metadataIdentificationString);
+
+		String className = GwEntityMetadata.getJavaType(metadataIdentificationString).getSimpleTypeName();
+		if (!className.equals(remoteEntitySet)) {
+			log.warning("The class " + className + " must have the name of its remote entity set " + remoteEntitySet + ".");
+			return null;
+		}
+
+		String metadataFile = getConnectivityPath() + File.separatorChar + namespace + METADATA_FILE_SUFFIX;
+		if (!fileManager.exists(metadataFile)) {
+			log.warning("Namespace \"" + namespace + "\" of class " + className + " does not exist or is corrupted.");
+			return null;
+		}
+
+		MetadataXMLParser xmlParser;
+		try {
+			xmlParser = new MetadataXMLParser(metadataModelService.getEntities(metadataFile), remoteEntitySet);
+			xmlParser.parse();
+		} catch (Exception e) {
+			log.warning("The remote entity set " + remoteEntitySet + " of class " + className + " cannot be read: " + e.getMessage());
+			return null;
+		}
+
+		return new GwEntityMetadata(metadataIdentificationString, aspectName, governorPhysicalTypeMetadata, annotationValues, 
+				xmlParser.getKeys(), xmlParser.getFields(), getConnectivityPackage(), methodBodies);
+	}
+
+	/*
+	 * Regenerates the ITDs of the classes connected to a namespace whose metadata file changed
+	 */
+	public void onFileEvent(FileEvent fileEvent) {
+		String fileName = fileEvent.getFileDetails().getFile().getName();
+		if (!fileName.endsWith(METADATA_FILE_SUFFIX))
+			return;
+
+		Set<String> metadataIds = metadataIdsByNamespace.get(fileName.substring(0, fileName.length() - METADATA_FILE_SUFFIX.length()));
+		if (metadataIds == null)
+			return;
+		for (String metadataId : new ArrayList<String>(metadataIds)) {
+			metadataService.evictAndGet(metadataId);
+		}
+	}
+
+	private String getConnectivityPackage() {
+		return projectOperations.getFocusedTopLevelPackage().getFullyQualifiedPackageName() + "." + GWOperationsUtils.oDataFolder;
+	}
+
+	private String getConnectivityPath() {
+		return projectOperations.getPathResolver().getFocusedIdentifier(Path.SRC_MAIN_JAVA, 
+				getConnectivityPackage().replace('.', File.separatorChar));
+	}
+
+	public String getItdUniquenessFilenameSuffix() {
+		return "Gateway";
+	}
+
+	protected String getGovernorPhysicalTypeIdentifier(String metadataIdentificationString) {
+		JavaType javaType = GwEntityMetadata.getJavaType(metadataIdentificationString);
+		LogicalPath path = GwEntityMetadata.getPath(metadataIdentificationString);
+		return PhysicalTypeIdentifier.createIdentifier(javaType, path);
+	}
+
+	protected String createLocalIdentifier(JavaType javaType, LogicalPath path) {
+		return GwEntityMetadata.createIdentifier(javaType, path);
+	}
+
+	public String getProvidesType() {
+		return GwEntityMetadata.getMetadataIdentiferType();
+	}
+}
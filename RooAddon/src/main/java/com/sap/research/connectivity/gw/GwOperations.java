@@ -17,6 +17,8 @@
 package com.sap.research.connectivity.gw;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 
 import org.springframework.roo.model.JavaType;
 
@@ -27,6 +29,12 @@ import org.springframework.roo.model.JavaType;
  */
 public interface GwOperations {
 
+	/**
+	 * Prefix of the result messages returned by {@link #addNamespaces(String, int)} and {@link #refreshNamespace(String)} 
+	 * for endpoints or entities that could not be processed
+	 */
+	String ENDPOINT_FAILED_PREFIX = "Failed: ";
+
 	boolean isCommandGWSetupAvailable();
 
 	boolean isCommandODataEndpointAvailable();
@@ -39,15 +47,44 @@ public interface GwOperations {
 	
 	void addODataConnectivity();
 
-	void addNamespace(String nsName, String url, String user, String pass, String csrfMode, String host, String port, int timeout) throws Exception;
+	boolean addNamespace(String nsName, String url, String user, String pass, String csrfMode, String host, String port, int timeout, boolean rawEdmx) throws Exception;
+	
+	Map<String, String> addNamespaces(String endpointsFile, int threads) throws Exception;
+	
+	Map<String, String> refreshNamespace(String namespace) throws Exception;
 	
 	void createEntity(String endpointName, String remoteEntitySetName) throws Exception;
 	
 	void addFieldsMethodsAndRelations(String namespace, String remoteEntity, boolean importAll, boolean importAssociations) throws Exception;
 	
+	/**
+	 * Creates a class annotated with @RooGatewayEntity which only contains the fields of the remote entity set (all 
+	 * fields or only the keys); the OData persistence methods are generated by Roo into the &lt;class&gt;_Roo_Gateway.aj 
+	 * ITD and follow the metadata of the namespace. Associations are not imported.
+	 */
+	void createGatewayEntity(String endpointName, String remoteEntitySetName, boolean importAll) throws Exception;
+	
+	/**
+	 * Generates the classes of all entity sets of a namespace matching the include pattern (all if it is null) which do 
+	 * not have a class yet. The associations between the entity sets are generated as well if requested; the entities 
+	 * are generated in the order of their associations, with up to the given number of classes generated concurrently.
+	 *
+	 * @return the result message per entity set, starting with {@link #ENDPOINT_FAILED_PREFIX} for failed ones
+	 */
+	Map<String, String> createEntities(String namespace, String includePattern, boolean importAll, boolean importAssociations, 
+			int threads) throws Exception;
+	
 	void modifyController(final String remoteEntity) throws Exception;
 
 	void addRemoteFieldInGWClass(String localClassName, String fieldName) throws Exception;
 
+	/**
+	 * Imports the given remote fields (or, with allRemaining, all remote fields which are not in the class yet) with a 
+	 * single write of the class; nothing is changed if one of the fields cannot be imported
+	 *
+	 * @return the names of the imported fields
+	 */
+	List<String> addRemoteFieldsInGWClass(String localClassName, List<String> fieldNames, boolean allRemaining) throws Exception;
+
 	void addLocalFieldInGWClass(String localClassName, String fieldName, JavaType fieldType) throws Exception;
 }
\ No newline at end of file
@@ -16,37 +16,65 @@
 
 package com.sap.research.connectivity.gw;
 
+import static org.springframework.roo.model.RooJavaType.ROO_JPA_ACTIVE_RECORD;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Service;
 import org.springframework.roo.classpath.PhysicalTypeCategory;
 import org.springframework.roo.classpath.PhysicalTypeIdentifier;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
 import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetailsBuilder;
+import org.springframework.roo.classpath.details.FieldMetadata;
+import org.springframework.roo.classpath.details.FieldMetadataBuilder;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
 import org.springframework.roo.file.monitor.event.FileDetails;
+import org.springframework.roo.model.EnumDetails;
+import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
+import org.springframework.roo.project.Dependency;
 import org.springframework.roo.project.LogicalPath;
 import org.springframework.roo.project.Path;
+import org.springframework.roo.process.manager.MutableFile;
 import org.springframework.roo.support.util.XmlUtils;
-import org.w3c.dom.Attr;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
+import org.w3c.dom.Element;
 
+import com.sap.research.connectivity.gw.parsers.AssociationGraph;
+import com.sap.research.connectivity.gw.parsers.EdmxMetadataWriter;
+import com.sap.research.connectivity.gw.parsers.EdmxStreamParser;
 import com.sap.research.connectivity.gw.parsers.JavaSourceField;
 import com.sap.research.connectivity.gw.parsers.JavaSourceFieldBuilder;
 import com.sap.research.connectivity.gw.parsers.JavaSourceFileEditor;
 import com.sap.research.connectivity.gw.parsers.JavaSourceMethod;
 import com.sap.research.connectivity.gw.parsers.JavaSourceMethodBuilder;
+import com.sap.research.connectivity.gw.parsers.MetadataDiff;
+import com.sap.research.connectivity.gw.parsers.MetadataEntitySource;
 import com.sap.research.connectivity.gw.parsers.MetadataXMLParser;
+import com.sap.research.connectivity.gw.parsers.RemoteField;
+import com.sap.research.connectivity.gw.parsers.RemoteFields;
 
 /**
  * Implementation of {@link GwOperations} interface.
@@ -54,7 +82,7 @@ import com.sap.research.connectivity.gw.parsers.MetadataXMLParser;
  * @since 1.1.1
  */
 @Component
-@Service
+@Service({GwOperations.class, GWOperationsUtils.class})
 public class GwOperationsImpl extends GWOperationsUtils implements GwOperations {
 
     /* ------------------------------------------------------------------------------------------------------------------
@@ -97,7 +125,8 @@ public class GwOperationsImpl extends GWOperationsUtils implements GwOperations
 		SortedSet<FileDetails> files = fileManager.findMatchingAntPath(getSubPackagePath(domain) + SEPARATOR + "*.java");
 		for (FileDetails file : files) {
 			InputStream inputStream = fileManager.getInputStream(file.getCanonicalPath());
-			if (IOUtils.toString(inputStream).contains("ODataConnectivity " + GwUtils.GW_CONNECTION_FIELD_NAME)) {
+			String content = IOUtils.toString(inputStream, "UTF-8");
+			if (content.contains("ODataConnectivity " + GwUtils.GW_CONNECTION_FIELD_NAME) || content.contains("@RooGatewayEntity")) {
 				IOUtils.closeQuietly(inputStream);
 				return true;
 			}
@@ -126,106 +155,427 @@ public class GwOperationsImpl extends GWOperationsUtils implements GwOperations
    		addOdataConnectivityClass();
    	}
 	
-	public void addNamespace(String nsName, String url, String user, String pass, String csrfMode, String host, String port, int timeout) throws Exception {
+	public boolean addNamespace(String nsName, String url, String user, String pass, String csrfMode, String host, String port, int timeout, boolean rawEdmx) throws Exception {
+		
+		NamespaceUpdate update = prepareNamespaceUpdate(new GwEndpointDefinition(nsName, url, user, pass, csrfMode, host, port, timeout, rawEdmx));
 		
-		String metadataString = "";
 		try {
-			metadataString = getMetadataString(url, user, pass, host, port, timeout);
+			fetchNamespaceMetadata(update);
 		} catch (Exception e) {
 			throw new Exception(e.getMessage());
 		}
+		
+		return commitNamespaceUpdate(update);
+	}
 
-		if (metadataString.isEmpty())
-			throw new Exception("The specified URL did not return any valid data!");
+	public Map<String, String> addNamespaces(String endpointsFile, int threads) throws Exception {
 		
-		Map<String, String> replacements = new HashMap<String, String>();
-		final String subPackagePath = getSubPackagePath(oDataFolder);
-		final String topLevelPackageName = getTopLevelPackageName();
+		final List<GwEndpointDefinition> endpoints = readEndpointsFile(endpointsFile);
+		final Map<String, String> results = new LinkedHashMap<String, String>();
 		
-		replacements.put("<<PACKAGE>>", "package " + topLevelPackageName + "." + oDataFolder + ";\n");
-		replacements.put("<<NSNAME>>", nsName);
-		replacements.put("<<URL>>", url);
-		replacements.put("<<USER>>", user);
-		replacements.put("<<PASSWORD>>", pass);
+		if (endpoints.isEmpty())
+			return results;
 		
-		if (csrfMode.equals("standard")) {
-			replacements.put("<<CSRF_MODE_GET>>", ".header(\"X-CSRF-Token\", \"Fetch\")");
-			replacements.put("<<CSRF_MODE_SET>>", ".header(\"X-CSRF-Token\", this.xsrfTokenValue).header(\"Cookie\", xsrfCookieName + \"=\" + xsrfCookieValue)");
-		}
-		else {
-			replacements.put("<<CSRF_MODE_GET>>", "");
-			replacements.put("<<CSRF_MODE_SET>>", ".header(\"X-Requested-With\", \"XMLHttpRequest\")");
+		/*
+		 * The metadata of all endpoints is downloaded concurrently, as this is where nearly all of the time is spent. 
+		 * The FileManager is not thread safe, so preparing and writing the files is done on the calling thread only.
+		 */
+		final List<NamespaceUpdate> updates = new ArrayList<NamespaceUpdate>();
+		for (GwEndpointDefinition endpoint : endpoints) {
+			updates.add(prepareNamespaceUpdate(endpoint));
 		}
-
-		if(host == null && port == null){
-
-			replacements.put("<<HOST>>", "");
-			replacements.put("<<PORT>>", "");	
 		
-		} else {
-			
-			replacements.put("<<HOST>>", host);
-			replacements.put("<<PORT>>", port);	
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, updates.size())));
+		try {
+			final List<Future<NamespaceUpdate>> fetches = new ArrayList<Future<NamespaceUpdate>>();
+			for (final NamespaceUpdate update : updates) {
+				fetches.add(executor.submit(new Callable<NamespaceUpdate>() {
+					public NamespaceUpdate call() throws Exception {
+						fetchNamespaceMetadata(update);
+						return update;
+					}
+				}));
+			}
 			
+			for (int i = 0; i < updates.size(); i++) {
+				final String nsName = updates.get(i).endpoint.getName();
+				try {
+					NamespaceUpdate update = fetches.get(i).get();
+					if (commitNamespaceUpdate(update))
+						results.put(nsName, "Metadata retrieved, please check the " + nsName + "_metadata.xml file for available entities and fields.");
+					else
+						results.put(nsName, "Metadata unchanged, " + nsName + "_metadata.xml has not been modified.");
+				} catch (ExecutionException e) {
+					results.put(nsName, ENDPOINT_FAILED_PREFIX + e.getCause().getMessage());
+				} catch (Exception e) {
+					results.put(nsName, ENDPOINT_FAILED_PREFIX + e.getMessage());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		return results;
+	}
+	
+	private List<GwEndpointDefinition> readEndpointsFile(String endpointsFile) throws Exception {
+		final File file = new File(endpointsFile);
+		if (!file.isFile())
+			throw new Exception("The endpoints file \"" + endpointsFile + "\" does not exist.");
+		
+		final List<GwEndpointDefinition> endpoints = new ArrayList<GwEndpointDefinition>();
+		final Set<String> names = new HashSet<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				// Skip empty lines, comments and the optional header line
+				if (line.isEmpty() || line.startsWith("#") || (endpoints.isEmpty() && line.toLowerCase().startsWith("name,")))
+					continue;
+				
+				GwEndpointDefinition endpoint;
+				try {
+					endpoint = GwEndpointDefinition.fromCsvLine(line);
+				} catch (IllegalArgumentException e) {
+					throw new Exception("Line " + lineNumber + " of " + endpointsFile + ": " + e.getMessage());
+				}
+				if (!names.add(endpoint.getName()))
+					throw new Exception("Line " + lineNumber + " of " + endpointsFile + ": the endpoint \"" + endpoint.getName() + "\" is defined more than once.");
+				endpoints.add(endpoint);
+			}
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+		return endpoints;
+	}
+	
+	/*
+	 * An endpoint definition passes three steps: it is prepared (paths, cache) and committed (files) through the 
+	 * FileManager, in between its metadata is fetched without touching the FileManager, which allows doing this step 
+	 * on another thread.
+	 */
+	private static class NamespaceUpdate {
+		GwEndpointDefinition endpoint;
+		String subPackagePath;
+		String cacheFile;
+		boolean metadataFileExists;
+		MetadataCache cache;
+		String metadataString;
+		String edmxString;
+		MetadataTimings timings;
+	}
+	
+	private NamespaceUpdate prepareNamespaceUpdate(GwEndpointDefinition endpoint) {
+		NamespaceUpdate update = new NamespaceUpdate();
+		update.endpoint = endpoint;
+		update.timings = new MetadataTimings(endpoint.getName(), endpoint.getUrl());
+		update.subPackagePath = getSubPackagePath(oDataFolder);
+		update.cacheFile = update.subPackagePath + SEPARATOR + endpoint.getName() + MetadataCache.CACHE_FILE_SUFFIX;
+		update.metadataFileExists = fileManager.exists(update.subPackagePath + SEPARATOR + endpoint.getName() + "_metadata.xml");
+		
+		/*
+		 * For an already defined endpoint we only download the metadata if it changed on the server (or if the raw EDMX 
+		 * is requested but has not been stored yet)
+		 */
+		boolean storedMetadataComplete = update.metadataFileExists 
+				&& (!endpoint.isRawEdmx() || fileManager.exists(update.subPackagePath + SEPARATOR + endpoint.getName() + EDMX_FILE_SUFFIX));
+		update.cache = storedMetadataComplete ? MetadataCache.load(fileManager, update.cacheFile) : new MetadataCache();
+		return update;
+	}
+	
+	private void fetchNamespaceMetadata(NamespaceUpdate update) throws Exception {
+		GwEndpointDefinition endpoint = update.endpoint;
+		update.metadataString = getMetadataStringIfModified(endpoint.getUrl(), endpoint.getUser(), endpoint.getPassword(), 
+				endpoint.getProxyHost(), endpoint.getProxyPort(), endpoint.getTimeout(), update.cache, endpoint.isRawEdmx(), update.timings);
+		
+		/*
+		 * The EDMX is read with the addon's own parser and turned into the reduced document here, so that this is done in 
+		 * parallel as well when several endpoints are defined at once
+		 */
+		if (update.metadataString != null && EdmxStreamParser.isEdmx(update.metadataString)) {
+			long start = System.nanoTime();
+			update.edmxString = update.metadataString;
+			update.metadataString = new EdmxMetadataWriter(EdmxStreamParser.parse(update.edmxString)).write();
+			update.timings.end("edmx parse", start, MetadataTimings.utf8Length(update.edmxString));
 		}
+	}
+	
+	private boolean commitNamespaceUpdate(NamespaceUpdate update) throws Exception {
+		
+		final GwEndpointDefinition endpoint = update.endpoint;
+		final String nsName = endpoint.getName();
+		final String metadataString = update.metadataString;
+		final MetadataCache cache = update.cache;
+		
+		if (metadataString != null && metadataString.isEmpty())
+			throw new Exception("The specified URL did not return any valid data!");
+		
+		boolean metadataChanged = false;
+		if (metadataString != null) {
+			// With the raw EDMX, also changes of facets or annotations count
+			String contentHash = MetadataCache.hash(update.edmxString != null ? update.edmxString : metadataString);
+			String storedHash = cache.getContentHash();
+			if (storedHash == null && update.metadataFileExists)
+				// No cache yet (e.g. on the first refresh after an upgrade), the stored file tells whether the metadata changed
+				storedHash = hashStoredFile(update.subPackagePath + SEPARATOR + nsName + (update.edmxString != null ? EDMX_FILE_SUFFIX : "_metadata.xml"));
+			metadataChanged = !(update.metadataFileExists && contentHash.equals(storedHash));
+			cache.setContentHash(contentHash);
+		}
+		
+		Map<String, String> replacements = new HashMap<String, String>();
+		final String topLevelPackageName = getTopLevelPackageName();
+		
+		replacements.put("PACKAGE", "package " + topLevelPackageName + "." + oDataFolder + ";\n");
+		replacements.put("NSNAME", nsName);
+		replacements.put("URL", endpoint.getUrl());
+		replacements.put("USER", endpoint.getUser());
+		replacements.put("PASSWORD", endpoint.getPassword());
+		
+		// Selects the CSRF_STANDARD sections of the template for the headers of the requests
+		replacements.put("CSRF_STANDARD", String.valueOf(endpoint.getCsrfMode().equals("standard")));
+
+		// A proxy host may be given without a port and vice versa, so each of them defaults to empty on its own
+		replacements.put("HOST", endpoint.getProxyHost() == null ? "" : endpoint.getProxyHost());
+		replacements.put("PORT", endpoint.getProxyPort() == null ? "" : endpoint.getProxyPort());
 	
 		GwUtils.createClassFileFromTemplate(topLevelPackageName, 
-											subPackagePath, 
+											update.subPackagePath, 
 											"ODataNS_template.java", 
 											nsName + ".java", 
 											replacements, 
 											fileManager, 
 											getClass());
 		
-		GwUtils.createFileFromString(subPackagePath, 
-									nsName + "_metadata.xml", 
-									metadataString, 
-									fileManager);
+		long start = System.nanoTime();
+		if (metadataChanged) {
+			/*
+			 * Keep the metadata the existing entities were generated from, until "gateway refresh" has applied the changes
+			 */
+			final String previousMetadataFile = update.subPackagePath + SEPARATOR + nsName + PREVIOUS_METADATA_SUFFIX;
+			if (update.metadataFileExists && !fileManager.exists(previousMetadataFile) && !getGatewayEntitiesOfNamespace(nsName).isEmpty()) {
+				InputStream currentMetadata = fileManager.getInputStream(update.subPackagePath + SEPARATOR + nsName + "_metadata.xml");
+				try {
+					GwUtils.createFileFromString(update.subPackagePath, 
+												nsName + PREVIOUS_METADATA_SUFFIX, 
+												IOUtils.toString(currentMetadata, "UTF-8"), 
+												fileManager);
+				} finally {
+					IOUtils.closeQuietly(currentMetadata);
+				}
+				metadataModelService.invalidate(previousMetadataFile);
+			}
+			
+			GwUtils.createFileFromString(update.subPackagePath, 
+										nsName + "_metadata.xml", 
+										metadataString, 
+										fileManager);
+			metadataModelService.invalidate(getMetadataFile(nsName));
+			
+			final String edmxFile = update.subPackagePath + SEPARATOR + nsName + EDMX_FILE_SUFFIX;
+			if (update.edmxString != null)
+				GwUtils.createFileFromString(update.subPackagePath, nsName + EDMX_FILE_SUFFIX, update.edmxString, fileManager);
+			else if (fileManager.exists(edmxFile))
+				// Would not match the new metadata anymore
+				fileManager.delete(edmxFile);
+			update.timings.end("write files", start, MetadataTimings.utf8Length(metadataString) + MetadataTimings.utf8Length(update.edmxString));
+		}
+		
+		start = System.nanoTime();
+		// The index records the content hash of the stored cache
+		cache.store(fileManager, update.cacheFile);
+		updateMetadataIndex(nsName);
+		update.timings.end("index", start, 0);
+		
+		update.timings.setStatus(metadataChanged ? "modified" : "unchanged");
+		reportTimings(update.timings, nsName);
+		
+		return metadataChanged;
+	}
+
+	/*
+	 * Returns the hash (see MetadataCache) of a stored metadata file, null if it does not exist
+	 */
+	private String hashStoredFile(String file) throws IOException {
+		if (!fileManager.exists(file))
+			return null;
+		InputStream inputStream = fileManager.getInputStream(file);
+		try {
+			return MetadataCache.hash(IOUtils.toString(inputStream, "UTF-8"));
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
 	}
 
+	private void reportTimings(MetadataTimings timings, String nsName) {
+		log.info("Timings of " + nsName + ": " + timings.format());
+		try {
+			timings.appendToTimingsFile();
+		} catch (IOException e) {
+			log.warning("The timings could not be written to " + System.getProperty(MetadataTimings.TIMINGS_FILE_PROPERTY) + ": " + e.getMessage());
+		}
+	}
+
+	public Map<String, String> refreshNamespace(final String namespace) throws Exception {
+		
+		final String subPackagePath = getSubPackagePath(oDataFolder);
+		final String metadataFile = subPackagePath + SEPARATOR + namespace + "_metadata.xml";
+		final String previousMetadataFile = subPackagePath + SEPARATOR + namespace + PREVIOUS_METADATA_SUFFIX;
+		final Map<String, String> results = new LinkedHashMap<String, String>();
+		
+		if (!fileManager.exists(metadataFile))
+			throw new Exception("Namespace \"" + namespace + "\" does not exist or is corrupted. Please specify a valid namespace.");
+		
+		// Nothing changed since the entities have been generated
+		if (!fileManager.exists(previousMetadataFile))
+			return results;
+		
+		MetadataDiff diff = new MetadataDiff(metadataModelService.getEntities(previousMetadataFile), metadataModelService.getEntities(metadataFile));
+		Set<String> gatewayEntities = getGatewayEntitiesOfNamespace(namespace);
+		boolean failed = false;
+		
+		for (Map.Entry<String, MetadataDiff.EntityChanges> changedEntity : diff.getChangedEntities().entrySet()) {
+			final String remoteEntity = changedEntity.getKey();
+			if (!gatewayEntities.contains(remoteEntity))
+				continue;
+			
+			try {
+				results.put(remoteEntity, refreshEntity(remoteEntity, changedEntity.getValue()));
+			} catch (Exception e) {
+				results.put(remoteEntity, ENDPOINT_FAILED_PREFIX + e.getMessage());
+				failed = true;
+			}
+		}
+		
+		for (String removedEntity : diff.getRemovedEntities()) {
+			if (gatewayEntities.contains(removedEntity)) {
+				results.put(removedEntity, ENDPOINT_FAILED_PREFIX + "The entity set does not exist anymore in the Gateway service, " +
+						"the class has to be removed manually.");
+				failed = true;
+			}
+		}
+		
+		/*
+		 * The snapshot is only dropped once all changes have been applied, so that a failed refresh can be repeated
+		 */
+		if (!failed) {
+			fileManager.delete(previousMetadataFile);
+			metadataModelService.invalidate(previousMetadataFile);
+		}
+		
+		return results;
+	}
+	
+	private String refreshEntity(String remoteEntity, MetadataDiff.EntityChanges changes) throws Exception {
+		
+		if (changes.isKeysChanged())
+			throw new Exception("The keys of the entity set changed, please generate the entity again with the \"gateway entity\" command.");
+		
+		JavaSourceFileEditor entityClassFile = getJavaFileEditor(domain, remoteEntity);
+		StringBuilder result = new StringBuilder();
+		
+		/*
+		 * The generated association code is spread over several persistence methods, we do not try to take it apart. This 
+		 * is checked before anything is changed, so that the class is left as it is.
+		 */
+		for (String navigation : changes.getRemovedRelationships().keySet()) {
+			if (entityClassFile.fieldExists(navigation))
+				throw new Exception("The association \"" + navigation + "\" changed or has been removed. " +
+						"Please generate the entity again with the \"gateway entity\" command.");
+		}
+		
+		/*
+		 * New fields are only added to classes which have been generated with all the remote fields, removed (or retyped) 
+		 * fields are only dropped where they were imported
+		 */
+		boolean importedAll = true;
+		for (RemoteField oldField : changes.getOldFields()) {
+			if (!entityClassFile.fieldExists(oldField.getLocalName())) {
+				importedAll = false;
+				break;
+			}
+		}
+		
+		Set<String> removedFields = new HashSet<String>();
+		for (RemoteField field : changes.getRemovedFields()) {
+			if (removeRemoteFieldInGWJavaFile(entityClassFile, field)) {
+				removeRemoteFieldInPersistenceMethods(entityClassFile, field);
+				removedFields.add(field.getRemoteName());
+			}
+		}
+		
+		int addedFields = 0, retypedFields = 0;
+		RemoteFields fieldsToAdd = new RemoteFields();
+		for (RemoteField field : changes.getAddedFields()) {
+			// A field whose type changed has been removed above and is added again with its new type
+			boolean retyped = removedFields.contains(field.getRemoteName());
+			if ((importedAll || retyped) && !entityClassFile.fieldExists(field.getLocalName())) {
+				addRemoteFieldInGWJavaFile(entityClassFile, field);
+				fieldsToAdd.add(field);
+				if (retyped)
+					retypedFields++;
+				else
+					addedFields++;
+			}
+		}
+		addRemoteFieldsInPersistenceMethods(entityClassFile, fieldsToAdd);
+		result.append(addedFields).append(" field(s) added, ")
+			.append(removedFields.size() - retypedFields).append(" removed, ")
+			.append(retypedFields).append(" changed");
+		
+		/*
+		 * Associations are only added to classes which have been generated with associations
+		 */
+		boolean importedAssociations = false;
+		for (String navigation : changes.getOldRelationships().keySet()) {
+			if (entityClassFile.fieldExists(navigation)) {
+				importedAssociations = true;
+				break;
+			}
+		}
+		if (importedAssociations && !changes.getAddedRelationships().isEmpty()) {
+			Map<String, String[]> addedRelationships = new LinkedHashMap<String, String[]>(changes.getAddedRelationships());
+			addedRelationships.keySet().removeAll(changes.getRemovedRelationships().keySet());
+			addRelationships(addedRelationships, remoteEntity, entityClassFile);
+			result.append(", ").append(addedRelationships.size()).append(" association(s) added");
+		}
+		
+		entityClassFile.makeFile();
+		
+		return result.append(".").toString();
+	}
+	
+	/*
+	 * The classes of the domain package whose connectivity field is an instance of the given namespace class. Only the 
+	 * files which mention ODataConnectivity at all are parsed.
+	 */
+	private Set<String> getGatewayEntitiesOfNamespace(String namespace) throws IOException {
+		Set<String> entities = new HashSet<String>();
+		SortedSet<FileDetails> files = fileManager.findMatchingAntPath(getSubPackagePath(domain) + SEPARATOR + "*.java");
+		for (FileDetails file : files) {
+			InputStream inputStream = fileManager.getInputStream(file.getCanonicalPath());
+			try {
+				if (!IOUtils.toString(inputStream, "UTF-8").contains("ODataConnectivity"))
+					continue;
+			} finally {
+				IOUtils.closeQuietly(inputStream);
+			}
+			
+			JavaSourceFileEditor entityClassFile = new JavaSourceFileEditor(fileManager.updateFile(file.getCanonicalPath()));
+			if (namespace.equals(GwUtils.getNamespaceFromFields(entityClassFile.getGlobalFieldList())))
+				entities.add(entityClassFile.CLASS_NAME);
+		}
+		return entities;
+	}
 	
     public void createEntity(final String endpointName, final String remoteEntitySetName) throws Exception {
 
-    	final String subPackagePath = getSubPackagePath(oDataFolder);
-    
-    	// Verify if the endpoint and remote entity set are valid
-    	if (!fileManager.exists(subPackagePath + SEPARATOR + endpointName + "_metadata.xml")) {
-    		throw new Exception("Namespace \"" + endpointName + "\" does not exist or is corrupted. Please specify a valid namespace.");
-    	}
-    	else {
-    		InputStream metaDataIs = fileManager.getInputStream(subPackagePath + SEPARATOR + endpointName +"_metadata.xml");
-    		Document doc = XmlUtils.getDocumentBuilder().parse(metaDataIs);
-    		NodeList nodeList = doc.getElementsByTagName("entity");
-    		boolean remoteEntityExists = false;
-    		for (int i = 0; i < nodeList.getLength(); i++){
-    			Attr attr = (Attr) nodeList.item(i).getAttributes().getNamedItem("name");
-    			if (attr.getValue().toString().equals(remoteEntitySetName)) {
-    				remoteEntityExists = true;
-    				break;
-    			}
-    		}
-    		
-    		if (!remoteEntityExists) {
-    			throw new Exception("Remote entity set \"" + remoteEntitySetName + "\" does not exist. Please specify a valid remote entity.");
-    		}
-    	}
+    	checkRemoteEntitySet(endpointName, remoteEntitySetName);
     	
     //  Create entity class and add JPA Annotations.
-    	int modifier = Modifier.PUBLIC;
-    	
-    	String localEntityPath = typeLocationService.getTopLevelPackageForModule(projectOperations.getFocusedModule()) + 
-    			                 "." + domain +
-    			                 "." + remoteEntitySetName; 
-    	
-        JavaType localEntity = new JavaType(localEntityPath);
-    	
-        final String declaredByMetadataId = PhysicalTypeIdentifier
-                .createIdentifier(localEntity,
-                        pathResolver.getFocusedPath(Path.SRC_MAIN_JAVA));    	
-    	
-        final ClassOrInterfaceTypeDetailsBuilder cidBuilder = new ClassOrInterfaceTypeDetailsBuilder(
-                declaredByMetadataId, modifier, localEntity,
-                PhysicalTypeCategory.CLASS);
+        final ClassOrInterfaceTypeDetailsBuilder cidBuilder = getEntityClassBuilder(remoteEntitySetName);
         
         final List<AnnotationMetadataBuilder> annotationBuilder = new ArrayList<AnnotationMetadataBuilder>();
         
@@ -240,21 +590,177 @@ public class GwOperationsImpl extends GWOperationsUtils implements GwOperations
         typeManagementService.createOrUpdateTypeOnDisk(cidBuilder.build());
     }
     
+    public void createGatewayEntity(final String endpointName, final String remoteEntitySetName, final boolean importAll) throws Exception {
+    	
+    	checkRemoteEntitySet(endpointName, remoteEntitySetName);
+    	
+    	MetadataXMLParser xmlParser = getMetadataParser(endpointName, remoteEntitySetName);
+    	xmlParser.parse();
+    	
+        final ClassOrInterfaceTypeDetailsBuilder cidBuilder = getEntityClassBuilder(remoteEntitySetName);
+        final String declaredByMetadataId = cidBuilder.getDeclaredByMetadataId();
+        
+        final List<AnnotationMetadataBuilder> annotationBuilder = new ArrayList<AnnotationMetadataBuilder>();
+        annotationBuilder.add(ROO_JAVA_BEAN_BUILDER);
+        annotationBuilder.add(ROO_TO_STRING_BUILDER);
+        
+        // The persistence methods of the Roo_Jpa_ActiveRecord ITD would conflict with the ones of the Roo_Gateway ITD
+        final AnnotationMetadataBuilder activeRecordBuilder = new AnnotationMetadataBuilder(ROO_JPA_ACTIVE_RECORD);
+        for (String methodAttribute : new String[] {"persistMethod", "mergeMethod", "removeMethod", "countMethod", 
+        		"findAllMethod", "findMethod", "findEntriesMethod"}) {
+        	activeRecordBuilder.addStringAttribute(methodAttribute, "");
+        }
+        annotationBuilder.add(activeRecordBuilder);
+        
+        final AnnotationMetadataBuilder gatewayEntityBuilder = new AnnotationMetadataBuilder(GwEntityAnnotationValues.ROO_GATEWAY_ENTITY);
+        gatewayEntityBuilder.addStringAttribute("namespace", endpointName);
+        gatewayEntityBuilder.addStringAttribute("remoteEntitySet", remoteEntitySetName);
+        annotationBuilder.add(gatewayEntityBuilder);
+        
+        cidBuilder.setAnnotations(annotationBuilder);
+        
+    //  Add the id, the keys and (if requested) the other fields; their getters and setters are generated by Roo
+        RemoteFields fields = new RemoteFields();
+        fields.add(new RemoteField("Id", "Id", "String", true));
+        fields.addAll(xmlParser.getKeys());
+        if (importAll)
+        	fields.addAll(xmlParser.getFields());
+        
+        for (RemoteField field : fields) {
+        	cidBuilder.addField(getGatewayFieldBuilder(declaredByMetadataId, field));
+        }
+        
+        typeManagementService.createOrUpdateTypeOnDisk(cidBuilder.build());
+        
+    //  The class refers to the annotation of the addon
+        List<Dependency> dependencies = new ArrayList<Dependency>();
+        for (Element dependencyElement : XmlUtils.findElements("/configuration/itd/dependencies/dependency", XmlUtils.getConfiguration(getClass()))) {
+            dependencies.add(new Dependency(dependencyElement));
+        }
+        projectOperations.addDependencies("", dependencies);
+    }
+    
+    /*
+     * Verifies that the namespace exists and contains the remote entity set
+     */
+    private void checkRemoteEntitySet(final String endpointName, final String remoteEntitySetName) throws Exception {
+    	if (!fileManager.exists(getMetadataFile(endpointName))) {
+    		throw new Exception("Namespace \"" + endpointName + "\" does not exist or is corrupted. Please specify a valid namespace.");
+    	}
+    	else {
+    		if (!metadataModelService.getEntityNames(getMetadataFile(endpointName)).contains(remoteEntitySetName)) {
+    			throw new Exception("Remote entity set \"" + remoteEntitySetName + "\" does not exist. Please specify a valid remote entity.");
+    		}
+    	}
+    }
+    
+    /*
+     * Returns the builder of the public domain class of a remote entity set, without annotations and members
+     */
+    private ClassOrInterfaceTypeDetailsBuilder getEntityClassBuilder(final String remoteEntitySetName) {
+        JavaType localEntity = getEntityClassType(remoteEntitySetName);
+    	
+        final String declaredByMetadataId = PhysicalTypeIdentifier
+                .createIdentifier(localEntity,
+                        pathResolver.getFocusedPath(Path.SRC_MAIN_JAVA));    	
+    	
+        return new ClassOrInterfaceTypeDetailsBuilder(declaredByMetadataId, Modifier.PUBLIC, localEntity, 
+        		PhysicalTypeCategory.CLASS);
+    }
+    
+    private JavaType getEntityClassType(final String localClassName) {
+    	return new JavaType(typeLocationService.getTopLevelPackageForModule(projectOperations.getFocusedModule()) + 
+    			"." + domain + "." + localClassName);
+    }
+    
+    /*
+     * Returns the details of a domain class annotated with @RooGatewayEntity, null for the classes which contain their 
+     * persistence methods themselves
+     */
+    private ClassOrInterfaceTypeDetails getGatewayEntityDetails(final String localClassName) {
+    	ClassOrInterfaceTypeDetails details = typeLocationService.getTypeDetails(getEntityClassType(localClassName));
+    	if (details == null || !new GwEntityAnnotationValues(details).isAnnotationFound())
+    		return null;
+    	return details;
+    }
+    
+    /*
+     * Returns the builder of a field of a class annotated with @RooGatewayEntity, with the JPA annotations of its type
+     */
+    private static FieldMetadataBuilder getGatewayFieldBuilder(final String declaredByMetadataId, final RemoteField field) {
+    	final List<AnnotationMetadataBuilder> fieldAnnotations = new ArrayList<AnnotationMetadataBuilder>();
+    	if (field.getLocalName().equals("Id")) {
+    		fieldAnnotations.add(new AnnotationMetadataBuilder(new JavaType("javax.persistence.Id")));
+    		AnnotationMetadataBuilder columnBuilder = new AnnotationMetadataBuilder(new JavaType("javax.persistence.Column"));
+    		columnBuilder.addStringAttribute("name", "id");
+    		fieldAnnotations.add(columnBuilder);
+    	}
+    	else if (GwUtils.odataToJavaType(field.getType()).equals("Date")) {
+    		AnnotationMetadataBuilder temporalBuilder = new AnnotationMetadataBuilder(new JavaType("javax.persistence.Temporal"));
+    		temporalBuilder.addEnumAttribute("value", new EnumDetails(new JavaType("javax.persistence.TemporalType"), 
+    				new JavaSymbolName("TIMESTAMP")));
+    		fieldAnnotations.add(temporalBuilder);
+    		AnnotationMetadataBuilder dateTimeFormatBuilder = new AnnotationMetadataBuilder(
+    				new JavaType("org.springframework.format.annotation.DateTimeFormat"));
+    		dateTimeFormatBuilder.addStringAttribute("style", "M-");
+    		fieldAnnotations.add(dateTimeFormatBuilder);
+    	}
+    	return new FieldMetadataBuilder(declaredByMetadataId, Modifier.PRIVATE, fieldAnnotations, 
+    			new JavaSymbolName(field.getLocalName()), toJavaType(GwUtils.odataToJavaType(field.getType())));
+    }
+    
+    /*
+     * Maps the Java type names returned by GwUtils.odataToJavaType to Roo types
+     */
+    private static JavaType toJavaType(String javaType) {
+    	if (javaType.equals("byte"))
+    		return JavaType.BYTE_PRIMITIVE;
+    	if (javaType.equals("short"))
+    		return JavaType.SHORT_PRIMITIVE;
+    	if (javaType.equals("int"))
+    		return JavaType.INT_PRIMITIVE;
+    	if (javaType.equals("long"))
+    		return JavaType.LONG_PRIMITIVE;
+    	if (javaType.equals("float"))
+    		return JavaType.FLOAT_PRIMITIVE;
+    	if (javaType.equals("double"))
+    		return JavaType.DOUBLE_PRIMITIVE;
+    	if (javaType.equals("boolean"))
+    		return JavaType.BOOLEAN_PRIMITIVE;
+    	if (javaType.equals("Date"))
+    		return new JavaType("java.util.Date");
+    	return JavaType.STRING;
+    }
+    
     public void addFieldsMethodsAndRelations(final String namespace, String remoteEntity, boolean importAll, boolean importAssociations) throws Exception{
     	
     //   Extract fields and keys from Metadata XML
-		 Map<String[], String> fields = new HashMap<String[], String>();
-		 Map<String[], String> keys = new HashMap<String[], String>();
-		 Map<String[], String> allFields = new HashMap<String[], String>();
-		  
-		 MetadataXMLParser xmlParser = getXMLParser(namespace, remoteEntity);
+		 MetadataXMLParser xmlParser = getMetadataParser(namespace, remoteEntity);
 		 xmlParser.parse();
 		 
 	//   Get handler for File Editor to edit the entity file  
          JavaSourceFileEditor entityClassFile = getJavaFileEditor(domain, remoteEntity); 
- 		 
+         
+         Set<String> associatedClasses = importAssociations ? getExistingDomainClasses(xmlParser.getRelationships(), remoteEntity) : null;
+         addFieldsMethodsAndRelations(entityClassFile, xmlParser, namespace, remoteEntity, getTopLevelPackageName(), importAll, associatedClasses);
+		 
+         entityClassFile.makeFile();
+//       throw new Exception(entityClassFile.getFileContent());
+    }
+    
+    /*
+     * Generates the content of an entity class without using the Roo services, so that it can run for several entities 
+     * at once; the relationships to the given associated classes are added, none if associatedClasses is null
+     */
+    private void addFieldsMethodsAndRelations(JavaSourceFileEditor entityClassFile, MetadataXMLParser xmlParser, String namespace, 
+    		String remoteEntity, String topLevelPackageName, boolean importAll, Set<String> associatedClasses) throws Exception {
+    	
+		 RemoteFields fields = new RemoteFields();
+		 RemoteFields keys = new RemoteFields();
+		 RemoteFields allFields = new RemoteFields();
+		 
  	//   Add Imports 
- 		 addImports(entityClassFile, namespace);
+ 		 addImports(entityClassFile, namespace, topLevelPackageName);
  		 
 		 if (importAll)
 			 fields = xmlParser.getFields();
@@ -272,49 +778,129 @@ public class GwOperationsImpl extends GWOperationsUtils implements GwOperations
          entityClassFile.addGlobalField(odc); 
          
     //   Add Fields and corresponding getter/setters methods to the Entity Class
-         Map<String[], String> keysIncludingId = new HashMap<String[], String>();
+         RemoteFields keysIncludingId = new RemoteFields();
          // Include id as a key(type String)
-         String[] idKeyName = {"Id", "Id"}; 
-         keysIncludingId.put(idKeyName, "String");
-         keysIncludingId.putAll(keys);
+         keysIncludingId.add(new RemoteField("Id", "Id", "String", true));
+         keysIncludingId.addAll(keys);
          
          addGatewayFields(keysIncludingId, fields, entityClassFile); 
 
     //   Add Persistence Methods
     // Send all the fields (keys plus fields)
-         allFields.putAll(keys);
-         allFields.putAll(fields);
+         allFields.addAll(keys);
+         allFields.addAll(fields);
          addPersistenceMethods(allFields, entityClassFile, remoteEntity, keys);
          
     //  Add relationships
-         if (importAssociations) {
-        	 Map<String, String[]> relationships = new HashMap<String, String[]>();
-    		 relationships = xmlParser.getRelationships();
-    		 addRelationships(relationships, remoteEntity, entityClassFile);
+         if (associatedClasses != null) {
+        	 Map<String, String[]> relationships = xmlParser.getRelationships();
+    		 addRelationships(relationships, remoteEntity, entityClassFile, associatedClasses);
          }
-		 
-         entityClassFile.makeFile();
-//       throw new Exception(entityClassFile.getFileContent());
+   }
+   
+   public Map<String, String> createEntities(final String namespace, String includePattern, final boolean importAll, 
+		   final boolean importAssociations, int threads) throws Exception {
+	   
+	   final String metadataFile = getMetadataFile(namespace);
+	   final Map<String, String> results = new LinkedHashMap<String, String>();
+	   
+	   if (!fileManager.exists(metadataFile))
+		   throw new Exception("Namespace \"" + namespace + "\" does not exist or is corrupted. Please specify a valid namespace.");
+	   
+	   /*
+	    * Entity sets which already have a class are left to "gateway refresh" and "gateway field", but can be associated 
+	    * with the generated ones
+	    */
+	   final String domainPath = getSubPackagePath(domain);
+	   final Pattern include = includePattern == null ? null : GwUtils.wildcardPattern(includePattern);
+	   final MetadataEntitySource entities = metadataModelService.getEntities(metadataFile);
+	   final Map<String, MetadataXMLParser> parsers = new LinkedHashMap<String, MetadataXMLParser>();
+	   final AssociationGraph graph = new AssociationGraph();
+	   for (String remoteEntity : entities.getEntityNames()) {
+		   if (include != null && !include.matcher(remoteEntity).matches())
+			   continue;
+		   if (fileManager.exists(domainPath + SEPARATOR + remoteEntity + ".java")) {
+			   results.put(remoteEntity, "The class exists already and has not been generated again.");
+			   continue;
+		   }
+		   MetadataXMLParser xmlParser = new MetadataXMLParser(entities, remoteEntity);
+		   xmlParser.parse();
+		   parsers.put(remoteEntity, xmlParser);
+		   graph.addEntity(remoteEntity, xmlParser.getRelationships());
+	   }
+	   
+	   if (parsers.isEmpty())
+		   return results;
+	   
+	   final Set<String> associatedClasses = new HashSet<String>();
+	   if (importAssociations) {
+		   for (Map.Entry<String, MetadataXMLParser> parser : parsers.entrySet()) {
+			   associatedClasses.addAll(getExistingDomainClasses(parser.getValue().getRelationships(), parser.getKey()));
+		   }
+	   }
+	   final String topLevelPackageName = getTopLevelPackageName();
+	   
+	   /*
+	    * The entities are generated level by level, so that the classes an entity is associated with exist when its 
+	    * relationships are added. Within a level the classes are generated concurrently; the FileManager is not thread 
+	    * safe, so the class files are created, read and written on the calling thread only. An entity whose generation 
+	    * failed is not associated with by the entities of the following levels.
+	    */
+	   List<List<String>> levels = graph.getLevels();
+	   ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+	   try {
+		   for (int level = 0; level < levels.size(); level++) {
+			   final List<String> levelEntities = new ArrayList<String>();
+			   final List<MutableFile> classFiles = new ArrayList<MutableFile>();
+			   for (String remoteEntity : levels.get(level)) {
+				   try {
+					   createEntity(namespace, remoteEntity);
+					   classFiles.add(fileManager.updateFile(domainPath + SEPARATOR + remoteEntity + ".java"));
+					   levelEntities.add(remoteEntity);
+					   associatedClasses.add(remoteEntity);
+				   } catch (Exception e) {
+					   results.put(remoteEntity, ENDPOINT_FAILED_PREFIX + e.getMessage());
+				   }
+			   }
+			   
+			   final Set<String> levelAssociatedClasses = importAssociations ? new HashSet<String>(associatedClasses) : null;
+			   final List<JavaSourceFileEditor> editors = new ArrayList<JavaSourceFileEditor>();
+			   final List<Callable<String>> generations = new ArrayList<Callable<String>>();
+			   for (int i = 0; i < levelEntities.size(); i++) {
+				   final String remoteEntity = levelEntities.get(i);
+				   final JavaSourceFileEditor entityClassFile = new JavaSourceFileEditor(classFiles.get(i));
+				   editors.add(entityClassFile);
+				   generations.add(new Callable<String>() {
+					   public String call() throws Exception {
+						   addFieldsMethodsAndRelations(entityClassFile, parsers.get(remoteEntity), namespace, remoteEntity, 
+								   topLevelPackageName, importAll, levelAssociatedClasses);
+						   return entityClassFile.renderFile();
+					   }
+				   });
+			   }
+			   
+			   List<Future<String>> contents = pool.invokeAll(generations);
+			   for (int i = 0; i < levelEntities.size(); i++) {
+				   final String remoteEntity = levelEntities.get(i);
+				   try {
+					   editors.get(i).writeFile(contents.get(i).get());
+					   results.put(remoteEntity, "Generated (level " + (level + 1) + " of " + levels.size() + ").");
+				   } catch (ExecutionException e) {
+					   results.put(remoteEntity, ENDPOINT_FAILED_PREFIX + e.getCause().getMessage());
+					   associatedClasses.remove(remoteEntity);
+				   } catch (Exception e) {
+					   results.put(remoteEntity, ENDPOINT_FAILED_PREFIX + e.getMessage());
+					   associatedClasses.remove(remoteEntity);
+				   }
+			   }
+		   }
+	   } finally {
+		   pool.shutdownNow();
+	   }
+	   
+	   return results;
    }
 
-	private MetadataXMLParser getXMLParser(final String namespace, String remoteEntity) throws IllegalStateException {
-		 String metaDataPath = getSubPackagePath(oDataFolder);
-		 String metaDataFile = metaDataPath + SEPARATOR + namespace +"_metadata.xml";
-		  
-		 InputStream metaDataIs = fileManager.getInputStream(metaDataFile);
-		  
-		 Document doc;
-		  
-		 try {
-			  doc = XmlUtils.getDocumentBuilder().parse(metaDataIs);
-		 } catch (Exception ex) {
-			  throw new IllegalStateException(ex);
-		 }         
-         
-		 MetadataXMLParser xmlParser = new MetadataXMLParser(doc, remoteEntity);
-		return xmlParser;
-	}
-    
    public void modifyController(final String remoteEntity) throws Exception{
 	
 	   //  Get handler for File Editor to edit the entity file  
@@ -340,26 +926,120 @@ public class GwOperationsImpl extends GWOperationsUtils implements GwOperations
    }
     
    public void addRemoteFieldInGWClass(String localClassName, String fieldName) throws Exception {
-	   //   Get handler for File Editor to edit (and search) the entity file  
+	   addRemoteFieldsInGWClass(localClassName, Collections.singletonList(fieldName), false);
+   }
+   
+   public List<String> addRemoteFieldsInGWClass(String localClassName, List<String> fieldNames, boolean allRemaining) throws Exception {
+	   // The persistence methods of an annotated class are in its Roo_Gateway ITD, which follows the fields of the class
+	   ClassOrInterfaceTypeDetails gatewayEntity = getGatewayEntityDetails(localClassName);
+	   if (gatewayEntity != null)
+		   return addRemoteFieldsInGatewayEntity(gatewayEntity, fieldNames, allRemaining);
+	   
+	   //   Get handler for File Editor to edit (and search) the entity file, the class is parsed and written once for all fields  
        JavaSourceFileEditor entityClassFile = getJavaFileEditor(domain, localClassName); 
-
-	   Map.Entry<String[], String> fieldObj = getValidatedField(localClassName, fieldName, entityClassFile);
+       RemoteFields remoteFields = getFieldsOfRemoteEntity(localClassName, GwUtils.getNamespaceFromClass(entityClassFile));
        
-       if (fieldObj == null)
-    	   throw new Exception("The name \"" + fieldName + "\" is not a valid name. Please choose a name from the provided list.");
-
-       addRemoteFieldInGWJavaFile(entityClassFile, fieldObj);
-	   addRemoteFieldInPersistenceMethods(entityClassFile, fieldObj);
+       Set<String> declaredFields = new HashSet<String>();
+       for (JavaSourceField field : entityClassFile.getGlobalFieldList()) {
+    	   declaredFields.add(field.getFieldName());
+       }
+       RemoteFields fieldsToImport = selectFieldsToImport(localClassName, remoteFields, declaredFields, fieldNames, allRemaining);
+       if (fieldsToImport.isEmpty())
+    	   return new ArrayList<String>();
+       
+       for (RemoteField field : fieldsToImport) {
+    	   addRemoteFieldInGWJavaFile(entityClassFile, field);
+       }
+	   addRemoteFieldsInPersistenceMethods(entityClassFile, fieldsToImport);
 	   
        entityClassFile.makeFile();
+       return new ArrayList<String>(fieldsToImport.getRemoteNames());
+   }
+   
+   /*
+    * Adds the fields to the class through the Roo type management; the class changes, so Roo asks the 
+    * GwEntityMetadataProvider for a new ITD, which includes the fields in the persistence methods
+    */
+   private List<String> addRemoteFieldsInGatewayEntity(ClassOrInterfaceTypeDetails gatewayEntity, List<String> fieldNames, 
+		   boolean allRemaining) throws Exception {
+	   GwEntityAnnotationValues annotationValues = new GwEntityAnnotationValues(gatewayEntity);
+	   String localClassName = gatewayEntity.getName().getSimpleTypeName();
+	   RemoteFields remoteFields = getFieldsOfRemoteEntity(annotationValues.getRemoteEntitySet(), annotationValues.getNamespace());
+	   
+	   Set<String> declaredFields = new HashSet<String>();
+	   for (FieldMetadata field : gatewayEntity.getDeclaredFields()) {
+		   declaredFields.add(field.getFieldName().getSymbolName());
+	   }
+	   RemoteFields fieldsToImport = selectFieldsToImport(localClassName, remoteFields, declaredFields, fieldNames, allRemaining);
+	   if (fieldsToImport.isEmpty())
+		   return new ArrayList<String>();
+	   
+	   ClassOrInterfaceTypeDetailsBuilder cidBuilder = new ClassOrInterfaceTypeDetailsBuilder(gatewayEntity);
+	   for (RemoteField field : fieldsToImport) {
+		   cidBuilder.addField(getGatewayFieldBuilder(gatewayEntity.getDeclaredByMetadataId(), field));
+	   }
+	   typeManagementService.createOrUpdateTypeOnDisk(cidBuilder.build());
+	   return new ArrayList<String>(fieldsToImport.getRemoteNames());
+   }
+   
+   /*
+    * A local field is only persisted by JPA, the ITD does not refer to it
+    */
+   private void addLocalFieldInGatewayEntity(ClassOrInterfaceTypeDetails gatewayEntity, String fieldName, JavaType fieldType) throws Exception {
+	   GwEntityAnnotationValues annotationValues = new GwEntityAnnotationValues(gatewayEntity);
+	   String localClassName = gatewayEntity.getName().getSimpleTypeName();
+	   for (FieldMetadata field : gatewayEntity.getDeclaredFields()) {
+		   if (field.getFieldName().getSymbolName().equals(fieldName))
+			   throw new Exception("Field \"" + fieldName + "\" already exists in java class file " + localClassName);
+	   }
+	   if (getFieldsOfRemoteEntity(annotationValues.getRemoteEntitySet(), annotationValues.getNamespace()).get(fieldName) != null)
+		   throw new Exception("The name \"" + fieldName + "\" is a valid name for a remote field. In order to reduce confusions, " +
+		   		"please choose another name for your local field.");
+	   
+	   ClassOrInterfaceTypeDetailsBuilder cidBuilder = new ClassOrInterfaceTypeDetailsBuilder(gatewayEntity);
+	   cidBuilder.addField(new FieldMetadataBuilder(gatewayEntity.getDeclaredByMetadataId(), Modifier.PRIVATE, 
+			   new ArrayList<AnnotationMetadataBuilder>(), new JavaSymbolName(fieldName), fieldType));
+	   typeManagementService.createOrUpdateTypeOnDisk(cidBuilder.build());
+   }
+   
+   /*
+    * Returns the remote fields to import: the requested ones, or all the ones which are not declared yet. All names are 
+    * checked before the class is changed.
+    */
+   private static RemoteFields selectFieldsToImport(String localClassName, RemoteFields remoteFields, Set<String> declaredFields, 
+		   List<String> fieldNames, boolean allRemaining) throws Exception {
+       RemoteFields fieldsToImport = new RemoteFields();
+       if (allRemaining) {
+    	   for (RemoteField field : remoteFields) {
+    		   if (!declaredFields.contains(field.getLocalName()))
+    			   fieldsToImport.add(field);
+    	   }
+       }
+       else {
+    	   for (String fieldName : fieldNames) {
+    		   RemoteField fieldObj = remoteFields.get(fieldName);
+    		   if (declaredFields.contains(fieldName) || (fieldObj != null && declaredFields.contains(fieldObj.getLocalName())))
+    			   throw new Exception("Field \"" + fieldName + "\" already exists in java class file " + localClassName);
+    		   if (fieldObj == null)
+    			   throw new Exception("The name \"" + fieldName + "\" is not a valid name. Please choose a name from the provided list.");
+    		   fieldsToImport.add(fieldObj);
+    	   }
+       }
+       return fieldsToImport;
    }
 
    
    public void addLocalFieldInGWClass(String localClassName, String fieldName, JavaType fieldType) throws Exception {
+	   ClassOrInterfaceTypeDetails gatewayEntity = getGatewayEntityDetails(localClassName);
+	   if (gatewayEntity != null) {
+		   addLocalFieldInGatewayEntity(gatewayEntity, fieldName, fieldType);
+		   return;
+	   }
+	   
 	//   Get handler for File Editor to edit (and search) the entity file  
        JavaSourceFileEditor entityClassFile = getJavaFileEditor(domain, localClassName); 
 
-	   Map.Entry<String[], String> fieldObj = getValidatedField(localClassName, fieldName, entityClassFile);
+	   RemoteField fieldObj = getValidatedField(localClassName, fieldName, entityClassFile);
        
        if (fieldObj != null)
     	   throw new Exception("The name \"" + fieldName + "\" is a valid name for a remote field. In order to reduce confusions, " +
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.sap.research.connectivity.gw;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.commons.io.IOUtils;
+import org.springframework.roo.support.util.FileUtils;
+
+/**
+ * A template of a generated file, parsed once into literal text, placeholders and conditional sections:
+ * <ul>
+ * <li><code>&lt;&lt;NAME&gt;&gt;</code> is replaced by the value of NAME</li>
+ * <li><code>&lt;&lt;#NAME&gt;&gt;</code> ... <code>&lt;&lt;/NAME&gt;&gt;</code> is kept if the value of NAME is "true"</li>
+ * <li><code>&lt;&lt;^NAME&gt;&gt;</code> ... <code>&lt;&lt;/NAME&gt;&gt;</code> is kept if it is not</li>
+ * </ul>
+ * A section tag alone on its line is removed together with the line, so that sections can enclose whole lines.
+ * Templates loaded from a bundle are cached per class loader of the bundle; rendering does not change a template, so
+ * it can be rendered by several threads at once.
+ */
+public class GwTemplate {
+
+	private static final String TAG_START = "<<";
+	private static final String TAG_END = ">>";
+
+	private static final Map<ClassLoader, Map<String, GwTemplate>> CACHE = new WeakHashMap<ClassLoader, Map<String, GwTemplate>>();
+
+	private final List<Segment> segments;
+	private final int literalLength;
+
+	private GwTemplate(List<Segment> segments, int literalLength) {
+		this.segments = segments;
+		this.literalLength = literalLength;
+	}
+
+	/**
+	 * Returns the parsed template resource of the given class, reading and parsing it on first use only
+	 */
+	public static GwTemplate load(Class<?> loadingClass, String templateFileName) {
+		ClassLoader classLoader = loadingClass.getClassLoader();
+		String key = loadingClass.getName() + "/" + templateFileName;
+		synchronized (CACHE) {
+			Map<String, GwTemplate> bundleTemplates = CACHE.get(classLoader);
+			if (bundleTemplates == null) {
+				bundleTemplates = new HashMap<String, GwTemplate>();
+				CACHE.put(classLoader, bundleTemplates);
+			}
+			GwTemplate template = bundleTemplates.get(key);
+			if (template == null) {
+				template = parse(readTemplate(loadingClass, templateFileName));
+				bundleTemplates.put(key, template);
+			}
+			return template;
+		}
+	}
+
+	private static String readTemplate(Class<?> loadingClass, String templateFileName) {
+		InputStream inputStream = null;
+		try {
+			inputStream = FileUtils.getInputStream(loadingClass, templateFileName);
+			return IOUtils.toString(inputStream, "UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException if a section is not closed or a closing tag does not match its section
+	 */
+	public static GwTemplate parse(String text) throws IllegalArgumentException {
+		List<List<Segment>> open = new ArrayList<List<Segment>>();
+		List<Section> openSections = new ArrayList<Section>();
+		List<Segment> current = new ArrayList<Segment>();
+		List<Segment> root = current;
+		int literalLength = 0;
+
+		int position = 0;
+		while (position < text.length()) {
+			int tagStart = text.indexOf(TAG_START, position);
+			int tagEnd = tagStart < 0 ? -1 : text.indexOf(TAG_END, tagStart + TAG_START.length());
+			if (tagEnd < 0) {
+				current.add(new Literal(text.substring(position)));
+				literalLength += text.length() - position;
+				break;
+			}
+
+			String tag = text.substring(tagStart + TAG_START.length(), tagEnd);
+			int next = tagEnd + TAG_END.length();
+			boolean isSectionTag = tag.startsWith("#") || tag.startsWith("^") || tag.startsWith("/");
+
+			// A section tag alone on its line takes the line with it
+			int literalEnd = tagStart;
+			if (isSectionTag) {
+				int lineStart = tagStart;
+				while (lineStart > position && isBlank(text.charAt(lineStart - 1)))
+					lineStart--;
+				int lineEnd = next;
+				while (lineEnd < text.length() && isBlank(text.charAt(lineEnd)))
+					lineEnd++;
+				boolean startsLine = lineStart == 0 || text.charAt(lineStart - 1) == '\n';
+				boolean endsLine = lineEnd == text.length() || text.charAt(lineEnd) == '\n' || text.charAt(lineEnd) == '\r';
+				if (startsLine && endsLine && lineStart >= position) {
+					literalEnd = lineStart;
+					next = text.startsWith("\r\n", lineEnd) ? lineEnd + 2 : Math.min(text.length(), lineEnd + 1);
+				}
+			}
+
+			if (literalEnd > position) {
+				current.add(new Literal(text.substring(position, literalEnd)));
+				literalLength += literalEnd - position;
+			}
+
+			if (tag.startsWith("#") || tag.startsWith("^")) {
+				Section section = new Section(tag.substring(1), tag.startsWith("^"));
+				current.add(section);
+				open.add(current);
+				openSections.add(section);
+				current = section.segments;
+			}
+			else if (tag.startsWith("/")) {
+				if (openSections.isEmpty() || !openSections.get(openSections.size() - 1).name.equals(tag.substring(1)))
+					throw new IllegalArgumentException("Unexpected " + TAG_START + tag + TAG_END + " in template");
+				openSections.remove(openSections.size() - 1);
+				current = open.remove(open.size() - 1);
+			}
+			else {
+				current.add(new Placeholder(tag));
+			}
+			position = next;
+		}
+
+		if (!openSections.isEmpty())
+			throw new IllegalArgumentException("Section " + openSections.get(openSections.size() - 1).name + " is not closed in template");
+		return new GwTemplate(root, literalLength);
+	}
+
+	private static boolean isBlank(char c) {
+		return c == ' ' || c == '\t';
+	}
+
+	/**
+	 * Renders the template with the given values, in one pass
+	 *
+	 * @throws IllegalArgumentException if there is no value for a placeholder
+	 */
+	public String render(Map<String, String> values) throws IllegalArgumentException {
+		int valuesLength = 0;
+		for (String value : values.values()) {
+			if (value != null)
+				valuesLength += value.length();
+		}
+		StringBuilder result = new StringBuilder(literalLength + valuesLength);
+		render(segments, values, result);
+		return result.toString();
+	}
+
+	private static void render(List<Segment> segments, Map<String, String> values, StringBuilder result) {
+		for (Segment segment : segments) {
+			if (segment instanceof Literal) {
+				result.append(((Literal) segment).text);
+			}
+			else if (segment instanceof Placeholder) {
+				String value = values.get(((Placeholder) segment).name);
+				if (value == null)
+					throw new IllegalArgumentException("No value for " + TAG_START + ((Placeholder) segment).name + TAG_END + " in template");
+				result.append(value);
+			}
+			else {
+				Section section = (Section) segment;
+				if (Boolean.parseBoolean(values.get(section.name)) != section.inverted)
+					render(section.segments, values, result);
+			}
+		}
+	}
+
+	private interface Segment {
+	}
+
+	private static class Literal implements Segment {
+		final String text;
+
+		Literal(String text) {
+			this.text = text;
+		}
+	}
+
+	private static class Placeholder implements Segment {
+		final String name;
+
+		Placeholder(String name) {
+			this.name = name;
+		}
+	}
+
+	private static class Section implements Segment {
+		final String name;
+		final boolean inverted;
+		final List<Segment> segments = new ArrayList<Segment>();
+
+		Section(String name, boolean inverted) {
+			this.name = name;
+			this.inverted = inverted;
+		}
+	}
+}
@@ -20,10 +20,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -37,51 +41,113 @@ import com.sap.research.connectivity.gw.parsers.JavaSourceFileEditor;
 
 public class GwUtils {
 
+	private static final Logger log = Logger.getLogger(GwUtils.class.getName());
+
 	public static final char SEPARATOR = File.separatorChar;
 	
 	public static final String GW_CONNECTION_FIELD_NAME = "odc";
 	
-	public static void createClassFileFromTemplate(String packageName, String subFolder, String templateFileName, String targetFileName, 
+	/*
+	 * The namespace attribute of the @RooGatewayEntity annotation of a class whose persistence methods are in an ITD
+	 */
+	private static final Pattern GATEWAY_ENTITY_NAMESPACE = 
+			Pattern.compile("@(?:[\\w.]+\\.)?RooGatewayEntity\\s*\\([^)]*\\bnamespace\\s*=\\s*\"([^\"]*)\"");
+	
+	/*
+	 * The standalone metadata retriever application, which should be present in user home (regardless of OS)
+	 */
+	public static final String METADATA_RETRIEVER_JAR = "appToRetrieveOdataMetadata.jar";
+	
+	public static String getMetadataRetrieverJarPath() {
+		return System.getProperty("user.home") + SEPARATOR + METADATA_RETRIEVER_JAR;
+	}
+	
+	/*
+	 * Renders the template with the given values, see GwTemplate for its placeholders and sections. Returns false if 
+	 * the target file already had the content of the template, see createFileFromString()
+	 */
+	public static boolean createClassFileFromTemplate(String packageName, String subFolder, String templateFileName, String targetFileName, 
 			Map<String, String> replacements, FileManager fileManager, Class<?> loadingClass) {
-		InputStream inputStream = null;
-	    OutputStream outputStream = null;
-	    String targetFile = subFolder + SEPARATOR + targetFileName;
-        MutableFile mutableFile = fileManager.exists(targetFile) ? fileManager.updateFile(targetFile) : fileManager.createFile(targetFile);
-        try {
-            inputStream = FileUtils.getInputStream(loadingClass, templateFileName);
-            outputStream =  mutableFile.getOutputStream();
-            String inputStreamString = IOUtils.toString(inputStream);
-            
-            for (Map.Entry<String, String> entry : replacements.entrySet()) {
-            	inputStreamString = inputStreamString.replace(entry.getKey(), entry.getValue());
-            }
-            //System.out.println(inputStreamString);
-            inputStream = IOUtils.toInputStream(inputStreamString);
-            IOUtils.copy(inputStream, outputStream);
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
-        } finally {
-            IOUtils.closeQuietly(inputStream);
-            IOUtils.closeQuietly(outputStream);
-        }
+		String content = GwTemplate.load(loadingClass, templateFileName).render(replacements);
+        return createFileFromString(subFolder, targetFileName, content, fileManager);
 	}
 	
-	public static void createFileFromString(String subFolder, String targetFileName, String content, FileManager fileManager) {
-		InputStream inputStream = null;
-	    OutputStream outputStream = null;
+	/*
+	 * Writes the content into the target file, unless the file already contains it: every write makes Roo's file monitor, 
+	 * the metadata of the ITDs and the IDE process the file again, so rerunning a command must not touch files it does 
+	 * not change. Unchanged files are reported as such in the shell and false is returned for them.
+	 */
+	public static boolean createFileFromString(String subFolder, String targetFileName, String content, FileManager fileManager) {
 	    String targetFile = subFolder + SEPARATOR + targetFileName;
+	    byte[] contentBytes;
+	    try {
+	    	contentBytes = content.getBytes("UTF-8");
+	    } catch (UnsupportedEncodingException e) {
+	    	throw new IllegalStateException(e);
+	    }
+	    if (fileManager.exists(targetFile) && hasContent(targetFile, contentBytes, fileManager)) {
+	    	log.info("Unchanged " + targetFile);
+	    	return false;
+	    }
+	    
         MutableFile mutableFile = fileManager.exists(targetFile) ? fileManager.updateFile(targetFile) : fileManager.createFile(targetFile);
+	    OutputStream outputStream = null;
         try {
-    		inputStream = IOUtils.toInputStream(content);
     		outputStream =  mutableFile.getOutputStream();
-        	//System.out.println(inputStreamString);
-    		IOUtils.copy(inputStream, outputStream);
+    		outputStream.write(contentBytes);
         } catch (IOException e) {
             throw new IllegalStateException(e);
         } finally {
-            IOUtils.closeQuietly(inputStream);
             IOUtils.closeQuietly(outputStream);
         }
+        return true;
+	}
+	
+	/*
+	 * Compares the file, as read through the FileManager, with the given content; reading stops at the first difference
+	 */
+	private static boolean hasContent(String file, byte[] content, FileManager fileManager) {
+		InputStream inputStream = fileManager.getInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int position = 0;
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				if (position + read > content.length)
+					return false;
+				for (int i = 0; i < read; i++) {
+					if (buffer[i] != content[position + i])
+						return false;
+				}
+				position += read;
+			}
+			return position == content.length;
+		} catch (IOException e) {
+			// Written again
+			return false;
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
+	}
+	
+	/*
+	 * Pattern matching names against a wildcard pattern, where * stands for any characters and ? for a single one
+	 */
+	public static Pattern wildcardPattern(String wildcards) {
+		StringBuilder regex = new StringBuilder();
+		int literalStart = 0;
+		for (int i = 0; i < wildcards.length(); i++) {
+			char c = wildcards.charAt(i);
+			if (c == '*' || c == '?') {
+				if (i > literalStart)
+					regex.append(Pattern.quote(wildcards.substring(literalStart, i)));
+				regex.append(c == '*' ? ".*" : ".");
+				literalStart = i + 1;
+			}
+		}
+		if (wildcards.length() > literalStart)
+			regex.append(Pattern.quote(wildcards.substring(literalStart)));
+		return Pattern.compile(regex.toString());
 	}
 	
 	public static String getInflectorPlural(final String term, final Locale locale) {
@@ -183,16 +249,38 @@ public class GwUtils {
 	}	
 	
 	public static String getNamespaceFromClass(JavaSourceFileEditor entityClassFile) {
+		String nameSpace = getNamespaceFromFields(entityClassFile.getGlobalFieldList());
+		if (nameSpace.isEmpty())
+			nameSpace = getNamespaceFromAnnotations(entityClassFile.getClassDeclaration());
+		return nameSpace;
+	}
+	
+	/*
+	 * Returns the namespace of the @RooGatewayEntity annotation among the given annotations (or class header), an empty 
+	 * string if there is none
+	 */
+	public static String getNamespaceFromAnnotations(String annotations) {
+		if (annotations == null)
+			return "";
+		Matcher matcher = GATEWAY_ENTITY_NAMESPACE.matcher(annotations);
+		return matcher.find() ? matcher.group(1) : "";
+	}
+	
+	/*
+	 * Returns the namespace of the connectivity field (new <namespace>()) among the given fields of a class, an empty 
+	 * string if there is none or if it is not initialized that way
+	 */
+	public static String getNamespaceFromFields(List<JavaSourceField> globalFieldList) {
 		String nameSpace = "";
-		ArrayList<JavaSourceField> globalFieldList = entityClassFile.getGlobalFieldList();
 
     	for(JavaSourceField globalField : globalFieldList){
     		if(globalField.getFieldName().equals(GW_CONNECTION_FIELD_NAME)){
-    			String nameSpaceValue = globalField.getFieldValue();
-    			String[] splitNameSpaceValue = nameSpaceValue.split(" ");
-    			int len = splitNameSpaceValue.length;
-    			String nameSpaceInter = splitNameSpaceValue[len-1];
-    			nameSpace = nameSpaceInter.substring(0, nameSpaceInter.length() - 2);  			
+    			// The value is rendered by the parser, e.g. "new NS()"
+    			String nameSpaceValue = globalField.getFieldValue().trim();
+    			if (nameSpaceValue.startsWith("new ") && nameSpaceValue.endsWith("()")) {
+    				String nameSpaceClass = nameSpaceValue.substring("new ".length(), nameSpaceValue.length() - 2).trim();
+    				nameSpace = nameSpaceClass.substring(nameSpaceClass.lastIndexOf('.') + 1);
+    			}
     			break;
     		}
     	}
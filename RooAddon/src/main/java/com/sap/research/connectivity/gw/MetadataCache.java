@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.springframework.roo.process.manager.FileManager;
+import org.springframework.roo.process.manager.MutableFile;
+
+/**
+ * Validators of a stored <ns>_metadata.xml file, kept in <ns>_metadata.cache next to it: the ETag and Last-Modified
+ * headers sent by the Gateway service, the service URL they belong to and a hash of the stored metadata. They are used
+ * to refresh an endpoint with a conditional request and to skip rewriting the metadata file when nothing changed.
+ */
+public class MetadataCache {
+
+	public static final String CACHE_FILE_SUFFIX = "_metadata.cache";
+
+	private static final String URL = "url";
+	private static final String ETAG = "etag";
+	private static final String LAST_MODIFIED = "lastModified";
+	private static final String CONTENT_HASH = "contentHash";
+
+	private final Properties properties = new Properties();
+	private boolean changed;
+
+	public static MetadataCache load(FileManager fileManager, String cacheFile) {
+		MetadataCache cache = new MetadataCache();
+		if (fileManager.exists(cacheFile))
+			cache.read(fileManager.getInputStream(cacheFile));
+		return cache;
+	}
+
+	/*
+	 * Reads the cache file without the FileManager, for readers which may run on another thread than the shell
+	 */
+	public static MetadataCache load(File cacheFile) {
+		MetadataCache cache = new MetadataCache();
+		if (cacheFile.isFile()) {
+			try {
+				cache.read(new FileInputStream(cacheFile));
+			} catch (FileNotFoundException e) {
+				// Deleted in between, same as no cache
+			}
+		}
+		return cache;
+	}
+
+	private void read(InputStream inputStream) {
+		try {
+			properties.load(inputStream);
+		} catch (IOException e) {
+			// A corrupted cache only means that the metadata is downloaded and written again
+			properties.clear();
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
+	}
+
+	/*
+	 * Writes the cache file, but only if one of the values changed since it was loaded.
+	 */
+	public void store(FileManager fileManager, String cacheFile) {
+		if (!changed && fileManager.exists(cacheFile))
+			return;
+
+		MutableFile mutableFile = fileManager.exists(cacheFile) ? fileManager.updateFile(cacheFile) : fileManager.createFile(cacheFile);
+		OutputStream outputStream = mutableFile.getOutputStream();
+		try {
+			properties.store(outputStream, "Generated by the SAP NetWeaver Gateway Connectivity Addon. Do not edit.");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			IOUtils.closeQuietly(outputStream);
+		}
+		changed = false;
+	}
+
+	/*
+	 * The validators are only meaningful for the service they were received from.
+	 */
+	public String getEtag(String url) {
+		return url.equals(properties.getProperty(URL)) ? properties.getProperty(ETAG) : null;
+	}
+
+	public String getLastModified(String url) {
+		return url.equals(properties.getProperty(URL)) ? properties.getProperty(LAST_MODIFIED) : null;
+	}
+
+	public String getContentHash() {
+		return properties.getProperty(CONTENT_HASH);
+	}
+
+	public void setValidators(String url, String etag, String lastModified) {
+		setProperty(URL, url);
+		setProperty(ETAG, etag);
+		setProperty(LAST_MODIFIED, lastModified);
+	}
+
+	public void setContentHash(String contentHash) {
+		setProperty(CONTENT_HASH, contentHash);
+	}
+
+	private void setProperty(String key, String value) {
+		String currentValue = properties.getProperty(key);
+		if (value == null) {
+			if (currentValue != null) {
+				properties.remove(key);
+				changed = true;
+			}
+		} else if (!value.equals(currentValue)) {
+			properties.setProperty(key, value);
+			changed = true;
+		}
+	}
+
+	public static String hash(String content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(content.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+				hex.append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import java.util.List;
+
+import com.sap.research.connectivity.gw.parsers.MetadataEntitySource;
+import com.sap.research.connectivity.gw.parsers.MetadataIndex;
+import com.sap.research.connectivity.gw.parsers.MetadataModel;
+
+/**
+ * Keeps the parsed metadata of the namespaces of the project in memory, so that commands and shell completions do not
+ * read and parse the same <ns>_metadata.xml file again and again. An entry is dropped as soon as Roo reports a change
+ * of the metadata file or of its index, and it is not used anymore if the file on disk differs from the one it was read
+ * from (e.g. after a change done outside of Roo while the file monitor was not running).
+ *
+ * The returned models are shared between all callers.
+ */
+public interface MetadataModelService {
+
+	/**
+	 * Returns the entities of the given metadata file (an absolute path to a <ns>_metadata.xml file or to a previous version 
+	 * of it)
+	 *
+	 * @throws IllegalStateException if the file cannot be read or parsed
+	 */
+	MetadataModel getModel(String metadataFile) throws IllegalStateException;
+
+	/**
+	 * Returns the entities of the given metadata file without parsing all of it if possible: its index if it is up to 
+	 * date, the model if it is in memory anyway, and otherwise a memory-mapped view of the file which only parses the 
+	 * entities asked for
+	 *
+	 * @throws IllegalStateException if the file cannot be read
+	 */
+	MetadataEntitySource getEntities(String metadataFile) throws IllegalStateException;
+
+	/**
+	 * Returns the index of the given metadata file, or null if there is none or if it does not match the file anymore
+	 */
+	MetadataIndex getIndex(String metadataFile);
+
+	/**
+	 * Returns the names of the entity types of the given metadata file, in document order
+	 *
+	 * @throws IllegalStateException if the file cannot be read or parsed
+	 */
+	List<String> getEntityNames(String metadataFile) throws IllegalStateException;
+
+	/**
+	 * Drops everything kept for the given metadata file; to be called after writing it or its index
+	 */
+	void invalidate(String metadataFile);
+}
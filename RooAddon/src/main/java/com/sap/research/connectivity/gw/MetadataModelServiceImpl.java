@@ -0,0 +1,246 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Service;
+import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.file.monitor.event.FileEvent;
+import org.springframework.roo.file.monitor.event.FileEventListener;
+import org.springframework.roo.support.util.XmlUtils;
+import org.w3c.dom.Document;
+
+import com.sap.research.connectivity.gw.parsers.MetadataEntitySource;
+import com.sap.research.connectivity.gw.parsers.MetadataFileMap;
+import com.sap.research.connectivity.gw.parsers.MetadataIndex;
+import com.sap.research.connectivity.gw.parsers.MetadataModel;
+
+/**
+ * Default {@link MetadataModelService}. The DOM of a metadata file is only used to build its model; the models are softly
+ * referenced, so that the metadata of large services does not stay in memory if the Roo JVM runs short of it. The
+ * entity names, the index and the mapped file are kept until the file changes.
+ */
+@Component
+@Service
+public class MetadataModelServiceImpl implements MetadataModelService, FileEventListener {
+
+	private static final String METADATA_FILE_SUFFIX = "_metadata.xml";
+
+	private static final String PREVIOUS_METADATA_FILE_SUFFIX = "_metadata.previous.xml";
+
+	/*
+	 * Windows does not allow to replace or delete a file while it is mapped, and a mapping is only released by the
+	 * garbage collector; the metadata files are read as a whole there
+	 */
+	private static final boolean MAPPING_SUPPORTED = File.separatorChar != '\\';
+
+	/*
+	 * Entries by canonical path of the metadata file
+	 */
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	protected void activate(ComponentContext context) {
+	}
+
+	protected void deactivate(ComponentContext context) {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public MetadataModel getModel(String metadataFile) throws IllegalStateException {
+		Entry entry = getEntry(metadataFile);
+		synchronized (entry) {
+			MetadataModel model = entry.model == null ? null : entry.model.get();
+			if (model == null) {
+				model = MetadataModel.build(parse(metadataFile));
+				entry.model = new SoftReference<MetadataModel>(model);
+			}
+			return model;
+		}
+	}
+
+	public MetadataEntitySource getEntities(String metadataFile) throws IllegalStateException {
+		MetadataIndex index = getIndex(metadataFile);
+		if (index != null)
+			return index;
+
+		Entry entry = getEntry(metadataFile);
+		synchronized (entry) {
+			MetadataModel model = entry.model == null ? null : entry.model.get();
+			if (model != null)
+				return model;
+
+			if (MAPPING_SUPPORTED && !entry.mapOpened) {
+				try {
+					entry.map = MetadataFileMap.open(new File(metadataFile));
+				} catch (IOException ex) {
+					throw new IllegalStateException(ex);
+				}
+				entry.mapOpened = true;
+			}
+			if (entry.map != null)
+				return entry.map;
+		}
+		// Not mapped, or not in an encoding the mapped file can be scanned in
+		return getModel(metadataFile);
+	}
+
+	public MetadataIndex getIndex(String metadataFile) {
+		if (!metadataFile.endsWith(METADATA_FILE_SUFFIX))
+			return null;
+
+		Entry entry = getEntry(metadataFile);
+		File indexFile = new File(getIndexFile(metadataFile));
+		synchronized (entry) {
+			// A missing or outdated index is remembered as well, until the index file changes
+			if (!entry.indexRead || entry.indexLastModified != indexFile.lastModified() || entry.indexLength != indexFile.length()) {
+				entry.index = MetadataIndex.open(indexFile, new File(metadataFile), getContentHash(metadataFile));
+				entry.indexLastModified = indexFile.lastModified();
+				entry.indexLength = indexFile.length();
+				entry.indexRead = true;
+			}
+			return entry.index;
+		}
+	}
+
+	/*
+	 * The content hash of a metadata file, as stored in the cache file of its namespace; null if there is none
+	 */
+	private static String getContentHash(String metadataFile) {
+		String cacheFile = metadataFile.substring(0, metadataFile.length() - METADATA_FILE_SUFFIX.length()) + MetadataCache.CACHE_FILE_SUFFIX;
+		return MetadataCache.load(new File(cacheFile)).getContentHash();
+	}
+
+	public List<String> getEntityNames(String metadataFile) throws IllegalStateException {
+		Entry entry = getEntry(metadataFile);
+		synchronized (entry) {
+			if (entry.entityNames != null)
+				return entry.entityNames;
+		}
+
+		List<String> entityNames;
+		try {
+			entityNames = new ArrayList<String>(getEntities(metadataFile).getEntityNames());
+		} catch (IOException ex) {
+			throw new IllegalStateException(ex);
+		}
+
+		synchronized (entry) {
+			entry.entityNames = Collections.unmodifiableList(entityNames);
+			return entry.entityNames;
+		}
+	}
+
+	public void invalidate(String metadataFile) {
+		synchronized (entries) {
+			entries.remove(getCanonicalPath(metadataFile));
+		}
+	}
+
+	/*
+	 * Drops the entries of metadata files (and of the metadata files of index and cache files) changed in the project
+	 */
+	public void onFileEvent(FileEvent fileEvent) {
+		invalidateChangedFile(fileEvent.getFileDetails().getCanonicalPath());
+		if (fileEvent.getPreviousName() != null)
+			invalidateChangedFile(fileEvent.getPreviousName());
+	}
+
+	private void invalidateChangedFile(String path) {
+		if (path.endsWith(MetadataIndex.INDEX_FILE_SUFFIX))
+			invalidate(path.substring(0, path.length() - MetadataIndex.INDEX_FILE_SUFFIX.length()) + METADATA_FILE_SUFFIX);
+		else if (path.endsWith(MetadataCache.CACHE_FILE_SUFFIX))
+			invalidate(path.substring(0, path.length() - MetadataCache.CACHE_FILE_SUFFIX.length()) + METADATA_FILE_SUFFIX);
+		else if (path.endsWith(METADATA_FILE_SUFFIX) || path.endsWith(PREVIOUS_METADATA_FILE_SUFFIX))
+			invalidate(path);
+	}
+
+	/*
+	 * Returns the entry of the given file, a new one if the file has been changed since the entry was created
+	 */
+	private Entry getEntry(String metadataFile) {
+		File file = new File(metadataFile);
+		String path = getCanonicalPath(metadataFile);
+		synchronized (entries) {
+			Entry entry = entries.get(path);
+			if (entry == null || entry.lastModified != file.lastModified() || entry.length != file.length()) {
+				entry = new Entry(file.lastModified(), file.length());
+				entries.put(path, entry);
+			}
+			return entry;
+		}
+	}
+
+	/*
+	 * Reads the file with java.io, as the completion index calls this service from its background thread, where the
+	 * FileManager must not be used
+	 */
+	private Document parse(String metadataFile) throws IllegalStateException {
+		InputStream metaDataIs = null;
+		try {
+			metaDataIs = new FileInputStream(metadataFile);
+			return XmlUtils.getDocumentBuilder().parse(metaDataIs);
+		} catch (Exception ex) {
+			throw new IllegalStateException(ex);
+		} finally {
+			IOUtils.closeQuietly(metaDataIs);
+		}
+	}
+
+	private static String getIndexFile(String metadataFile) {
+		return metadataFile.substring(0, metadataFile.length() - METADATA_FILE_SUFFIX.length()) + MetadataIndex.INDEX_FILE_SUFFIX;
+	}
+
+	private static String getCanonicalPath(String path) {
+		try {
+			return new File(path).getCanonicalPath();
+		} catch (IOException e) {
+			return new File(path).getAbsolutePath();
+		}
+	}
+
+	private static class Entry {
+		final long lastModified;
+		final long length;
+		SoftReference<MetadataModel> model;
+		List<String> entityNames;
+		MetadataFileMap map;
+		boolean mapOpened;
+		MetadataIndex index;
+		boolean indexRead;
+		long indexLastModified;
+		long indexLength;
+
+		Entry(long lastModified, long length) {
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Service;
+import org.osgi.service.component.ComponentContext;
+
+/**
+ * Calls the metadata retriever application inside the Roo JVM, instead of forking a new JVM for every
+ * "gateway define odata_endpoint" command. The retriever jar is loaded once in its own class loader (so that its
+ * odata4j / Jersey libraries do not clash with the ones of the OSGi container) and reused across commands.
+ * The class loader is only rebuilt when the jar in the user home changes.
+ *
+ * If the retriever cannot (or, with -Dgw.metadata.outOfProcess=true, must not) run in-process, requests are sent to a
+ * {@link MetadataRetrieverWorker} process, which is started once and reused as well.
+ */
+@Component
+@Service
+public class MetadataRetrieverClient {
+
+	private Logger log = Logger.getLogger(getClass().getName());
+
+	private static final String RETRIEVER_CLASS = "com.sap.research.connectivity.gw.MetadataRetriever";
+
+	private static final String RETRIEVER_METHOD = "retrieveMetadata";
+
+	private static final String CONDITIONAL_RETRIEVER_METHOD = "retrieveMetadataIfModified";
+
+	private static final String RAW_RETRIEVER_METHOD = "retrieveRawMetadata";
+
+	private static final String RAW_CONDITIONAL_RETRIEVER_METHOD = "retrieveRawMetadataIfModified";
+
+	/*
+	 * Set to true to always run the retriever in a separate JVM (the worker), e.g. if it conflicts with the Roo JVM
+	 */
+	public static final String OUT_OF_PROCESS_PROPERTY = "gw.metadata.outOfProcess";
+
+	/*
+	 * Keys and values of the map returned by the conditional retrieval (see MetadataRetriever in the retriever application)
+	 */
+	public static final String RESULT_STATUS = "status";
+	public static final String RESULT_CONTENT = "content";
+	public static final String RESULT_ETAG = "etag";
+	public static final String RESULT_LAST_MODIFIED = "lastModified";
+	public static final String RESULT_TIMINGS = "timings";
+	public static final String STATUS_NOT_MODIFIED = "notModified";
+
+	private ClassLoader retrieverClassLoader;
+	private Method retrieveMethod;
+	private Method conditionalRetrieveMethod;
+	private Method rawRetrieveMethod;
+	private Method rawConditionalRetrieveMethod;
+	private long loadedJarTimestamp;
+
+	/*
+	 * Set when the retriever jar cannot be used in-process (e.g. an older version without the library entry point),
+	 * so that we do not try again for the same jar.
+	 */
+	private boolean inProcessDisabled;
+
+	private ExecutorService executor;
+
+	private MetadataRetrieverWorker worker;
+	private long workerJarTimestamp;
+
+	/*
+	 * Set when the worker could not be started or used for the current jar (e.g. a version without daemon mode)
+	 */
+	private boolean workerDisabled;
+
+	protected void activate(ComponentContext context) {
+	}
+
+	protected void deactivate(ComponentContext context) {
+		synchronized (this) {
+			if (executor != null) {
+				executor.shutdownNow();
+				executor = null;
+			}
+			retrieveMethod = null;
+			conditionalRetrieveMethod = null;
+			rawRetrieveMethod = null;
+			rawConditionalRetrieveMethod = null;
+			retrieverClassLoader = null;
+			if (worker != null) {
+				worker.dispose();
+				worker = null;
+			}
+		}
+	}
+
+	/*
+	 * Returns true if the retriever jar exposes the library entry point and can be called in-process.
+	 */
+	public synchronized boolean isInProcessAvailable() {
+		File jar = new File(GwUtils.getMetadataRetrieverJarPath());
+		if (!jar.exists())
+			return false;
+
+		if (jar.lastModified() != loadedJarTimestamp) {
+			retrieveMethod = null;
+			conditionalRetrieveMethod = null;
+			rawRetrieveMethod = null;
+			rawConditionalRetrieveMethod = null;
+			retrieverClassLoader = null;
+			inProcessDisabled = false;
+		}
+
+		if (inProcessDisabled || Boolean.getBoolean(OUT_OF_PROCESS_PROPERTY))
+			return false;
+
+		if (retrieveMethod == null) {
+			try {
+				loadRetriever(jar);
+			} catch (Exception e) {
+				disableInProcess("The metadata retriever could not be loaded in-process (" + e + ")");
+			} catch (LinkageError e) {
+				disableInProcess("The metadata retriever could not be loaded in-process (" + e + ")");
+			}
+		}
+
+		return retrieveMethod != null;
+	}
+
+	private void loadRetriever(File jar) throws Exception {
+		// No parent class loader, so that only the JDK and the classes of the retriever jar are visible
+		URLClassLoader classLoader = new URLClassLoader(new URL[] {jar.toURI().toURL()}, null);
+		Class<?> retrieverClass = classLoader.loadClass(RETRIEVER_CLASS);
+		retrieveMethod = retrieverClass.getMethod(RETRIEVER_METHOD, String.class, String.class, String.class, String.class, String.class);
+		try {
+			conditionalRetrieveMethod = retrieverClass.getMethod(CONDITIONAL_RETRIEVER_METHOD, String.class, String.class, String.class, 
+					String.class, String.class, String.class, String.class);
+		} catch (NoSuchMethodException e) {
+			// Older retriever versions only support unconditional retrieval
+			conditionalRetrieveMethod = null;
+		}
+		try {
+			rawRetrieveMethod = retrieverClass.getMethod(RAW_RETRIEVER_METHOD, String.class, String.class, String.class, String.class, 
+					String.class);
+			rawConditionalRetrieveMethod = retrieverClass.getMethod(RAW_CONDITIONAL_RETRIEVER_METHOD, String.class, String.class, 
+					String.class, String.class, String.class, String.class, String.class);
+		} catch (NoSuchMethodException e) {
+			// Older retriever versions cannot return the EDMX as sent by the server
+			rawRetrieveMethod = null;
+			rawConditionalRetrieveMethod = null;
+		}
+		retrieverClassLoader = classLoader;
+		loadedJarTimestamp = jar.lastModified();
+	}
+
+	private void disableInProcess(String reason) {
+		log.warning(reason + ". Falling back to an external process.");
+		inProcessDisabled = true;
+		retrieveMethod = null;
+		conditionalRetrieveMethod = null;
+		rawRetrieveMethod = null;
+		rawConditionalRetrieveMethod = null;
+		retrieverClassLoader = null;
+		loadedJarTimestamp = new File(GwUtils.getMetadataRetrieverJarPath()).lastModified();
+	}
+
+	/*
+	 * Returns true if the loaded retriever supports conditional requests (see retrieveMetadataIfModified).
+	 */
+	public synchronized boolean isConditionalRetrievalAvailable() {
+		return isInProcessAvailable() && conditionalRetrieveMethod != null;
+	}
+
+	/*
+	 * Returns true if the loaded retriever can return the EDMX document as sent by the server (see the raw parameter below).
+	 */
+	public synchronized boolean isRawRetrievalAvailable() {
+		return isInProcessAvailable() && rawRetrieveMethod != null && rawConditionalRetrieveMethod != null;
+	}
+
+	/*
+	 * Retrieves the metadata in-process, either the reduced document or, with raw set, the EDMX document as sent by the 
+	 * server. Callers should check isInProcessAvailable() (and isRawRetrievalAvailable() for raw) first.
+	 * A LinkageError raised by the retriever disables the in-process mode and is reported as an IllegalStateException,
+	 * so that the caller can fall back to an external process.
+	 */
+	public String retrieveMetadata(String url, String user, String pass, String host, String port, int timeOut, boolean raw) throws Exception {
+		Method method;
+		synchronized (this) {
+			method = raw ? rawRetrieveMethod : retrieveMethod;
+		}
+		return (String) invoke(method, new Object[] {url, user, pass, host, port}, timeOut);
+	}
+
+	/*
+	 * Retrieves the metadata in-process, sending the given validators (may be null) along. The result contains the status
+	 * (RESULT_STATUS), the metadata if it was modified (RESULT_CONTENT) and the new validators. Callers should check 
+	 * isConditionalRetrievalAvailable() (and isRawRetrievalAvailable() for raw) first.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, String> retrieveMetadataIfModified(String url, String user, String pass, String host, String port, 
+			String etag, String lastModified, int timeOut, boolean raw) throws Exception {
+		Method method;
+		synchronized (this) {
+			method = raw ? rawConditionalRetrieveMethod : conditionalRetrieveMethod;
+		}
+		return (Map<String, String>) invoke(method, new Object[] {url, user, pass, host, port, etag, lastModified}, timeOut);
+	}
+
+	/*
+	 * Returns true if the retriever can be used through a worker process, which is the case unless the worker already 
+	 * failed to start or to answer for the current jar.
+	 */
+	public synchronized boolean isWorkerAvailable() {
+		File jar = new File(GwUtils.getMetadataRetrieverJarPath());
+		if (!jar.exists())
+			return false;
+
+		if (jar.lastModified() != workerJarTimestamp) {
+			// A new jar: the running worker is outdated, and the new one may support daemon mode
+			if (worker != null) {
+				worker.dispose();
+				worker = null;
+			}
+			workerDisabled = false;
+			workerJarTimestamp = jar.lastModified();
+		}
+
+		return !workerDisabled;
+	}
+
+	/*
+	 * Returns true if the worker process can return the EDMX document as sent by the server. Starts the worker if needed.
+	 */
+	public boolean isRawWorkerRetrievalAvailable() {
+		MetadataRetrieverWorker currentWorker;
+		synchronized (this) {
+			if (!isWorkerAvailable())
+				return false;
+			currentWorker = getWorker();
+		}
+		return currentWorker.supports(MetadataRetrieverWorker.OP_RETRIEVE_RAW) 
+				&& currentWorker.supports(MetadataRetrieverWorker.OP_RETRIEVE_RAW_IF_MODIFIED);
+	}
+
+	/*
+	 * Retrieves the metadata through the worker process. Callers should check isWorkerAvailable() (and 
+	 * isRawWorkerRetrievalAvailable() for raw) first. If the worker cannot be used, it is disabled for the current jar and 
+	 * an IllegalStateException is thrown, so that the caller can fall back to a one-time external process.
+	 */
+	public String retrieveMetadataFromWorker(String url, String user, String pass, String host, String port, int timeOut, boolean raw) throws Exception {
+		return requestWorker(timeOut, raw ? MetadataRetrieverWorker.OP_RETRIEVE_RAW : MetadataRetrieverWorker.OP_RETRIEVE, 
+				url, user, pass, host, port)[0];
+	}
+
+	/*
+	 * Conditional retrieval through the worker process, same result as retrieveMetadataIfModified()
+	 */
+	public Map<String, String> retrieveMetadataIfModifiedFromWorker(String url, String user, String pass, String host, String port, 
+			String etag, String lastModified, int timeOut, boolean raw) throws Exception {
+		String[] values = requestWorker(timeOut, raw ? MetadataRetrieverWorker.OP_RETRIEVE_RAW_IF_MODIFIED : MetadataRetrieverWorker.OP_RETRIEVE_IF_MODIFIED, 
+				url, user, pass, host, port, etag, lastModified);
+		Map<String, String> result = new HashMap<String, String>();
+		result.put(RESULT_STATUS, values[0]);
+		result.put(RESULT_CONTENT, values[1]);
+		result.put(RESULT_ETAG, values[2]);
+		result.put(RESULT_LAST_MODIFIED, values[3]);
+		// Not sent by daemons without phase timings
+		result.put(RESULT_TIMINGS, values.length > 4 ? values[4] : null);
+		return result;
+	}
+
+	private String[] requestWorker(int timeOut, String... request) throws Exception {
+		MetadataRetrieverWorker currentWorker;
+		synchronized (this) {
+			currentWorker = getWorker();
+		}
+
+		try {
+			return currentWorker.request(timeOut, request);
+		} catch (IllegalStateException e) {
+			synchronized (this) {
+				log.warning(e.getMessage() + ". Falling back to an external process per request.");
+				workerDisabled = true;
+				if (worker == currentWorker) {
+					worker.dispose();
+					worker = null;
+				}
+			}
+			throw e;
+		}
+	}
+
+	private MetadataRetrieverWorker getWorker() {
+		if (worker == null)
+			worker = new MetadataRetrieverWorker(GwUtils.getMetadataRetrieverJarPath());
+		return worker;
+	}
+
+	private Object invoke(final Method method, final Object[] arguments, int timeOut) throws Exception {
+
+		final ClassLoader classLoader;
+		final ExecutorService theExecutor;
+		synchronized (this) {
+			classLoader = retrieverClassLoader;
+			theExecutor = getExecutor();
+		}
+
+		if (method == null || classLoader == null)
+			throw new IllegalStateException("The metadata retriever is not loaded.");
+
+		Callable<Object> call = new Callable<Object>() {
+			public Object call() throws Exception {
+				// Jersey looks up its providers through the context class loader
+				Thread currentThread = Thread.currentThread();
+				ClassLoader previousClassLoader = currentThread.getContextClassLoader();
+				currentThread.setContextClassLoader(classLoader);
+				try {
+					return method.invoke(null, arguments);
+				} catch (InvocationTargetException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof LinkageError) {
+						synchronized (MetadataRetrieverClient.this) {
+							disableInProcess("The metadata retriever failed in-process (" + cause + ")");
+						}
+						throw new IllegalStateException(cause);
+					}
+					if (cause instanceof Exception)
+						throw (Exception) cause;
+					throw e;
+				} finally {
+					currentThread.setContextClassLoader(previousClassLoader);
+				}
+			}
+		};
+
+		Future<Object> futureResultOfCall = theExecutor.submit(call);
+		try {
+			return futureResultOfCall.get(timeOut, TimeUnit.SECONDS);
+		} catch (TimeoutException ex) {
+			futureResultOfCall.cancel(true);
+			throw new TimeoutException("The Gateway Service call timed out. Please try again or check your settings.");
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IllegalStateException)
+				throw (IllegalStateException) ex.getCause();
+			throw new RuntimeException("The Gateway Service call did not complete due to an execution error. " + ex.getCause().getLocalizedMessage());
+		}
+	}
+
+	private ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "gw-metadata-retriever");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+}
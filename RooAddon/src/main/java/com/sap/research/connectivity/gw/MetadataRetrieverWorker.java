@@ -0,0 +1,325 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A metadata retriever JVM started once ("java -jar appToRetrieveOdataMetadata.jar --daemon") and reused for all
+ * requests of the Roo shell session, instead of starting a new JVM per request. See MetadataRetrieverDaemon in the
+ * retriever application for the protocol.
+ *
+ * The process is started on the first request, checked with a ping when it has been idle for a while, and killed and
+ * started again when it died, stopped answering or sent garbage. Requests are sent one at a time.
+ */
+public class MetadataRetrieverWorker {
+
+	private Logger log = Logger.getLogger(getClass().getName());
+
+	static final String DAEMON_ARGUMENT = "--daemon";
+
+	static final String OP_PING = "ping";
+	static final String OP_RETRIEVE = "retrieve";
+	static final String OP_RETRIEVE_IF_MODIFIED = "retrieveIfModified";
+	static final String OP_RETRIEVE_RAW = "retrieveRaw";
+	static final String OP_RETRIEVE_RAW_IF_MODIFIED = "retrieveRawIfModified";
+	static final String OP_SHUTDOWN = "shutdown";
+
+	static final String REPLY_OK = "OK";
+	static final String REPLY_ERROR = "ERROR";
+
+	/*
+	 * Time allowed for starting the JVM and answering the first ping
+	 */
+	private static final int STARTUP_TIMEOUT = 30;
+
+	/*
+	 * A worker idle for longer than this is pinged before it gets a request
+	 */
+	private static final long HEALTH_CHECK_INTERVAL = 60 * 1000L;
+
+	private static final int HEALTH_CHECK_TIMEOUT = 5;
+
+	private final String jarPath;
+
+	private Process process;
+	private DataOutputStream toWorker;
+	private DataInputStream fromWorker;
+	private long lastUsed;
+
+	/*
+	 * Operations listed in the answer to the startup ping; empty for daemons which only know the basic operations
+	 */
+	private Set<String> supportedOperations = Collections.emptySet();
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "gw-metadata-worker");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	public MetadataRetrieverWorker(String jarPath) {
+		this.jarPath = jarPath;
+	}
+
+	/*
+	 * Sends a request to the worker and returns the values of the response (without the leading OK).
+	 * Failures reported by the worker are thrown as an Exception with the worker's message. If the worker cannot be
+	 * reached, it is restarted and the request is sent once more; if that fails too, an IllegalStateException is thrown.
+	 */
+	public synchronized String[] request(int timeOut, String... request) throws Exception {
+		String[] response;
+		try {
+			ensureRunning();
+			response = exchange(timeOut, request);
+		} catch (TimeoutIOException e) {
+			throw new TimeoutException(e.getMessage());
+		} catch (IOException e) {
+			log.warning("The metadata retriever worker stopped responding (" + e.getMessage() + "), restarting it.");
+			stop();
+			try {
+				ensureRunning();
+				response = exchange(timeOut, request);
+			} catch (TimeoutIOException retryException) {
+				throw new TimeoutException(retryException.getMessage());
+			} catch (IOException retryException) {
+				stop();
+				throw new IllegalStateException("The metadata retriever worker could not be used: " + retryException.getMessage(), retryException);
+			}
+		}
+
+		if (response.length == 0)
+			throw new IllegalStateException("The metadata retriever worker sent an empty response.");
+		if (REPLY_ERROR.equals(response[0]))
+			throw new Exception(response.length > 1 ? response[1] : "The metadata retriever worker reported an unknown error.");
+
+		String[] values = new String[response.length - 1];
+		System.arraycopy(response, 1, values, 0, values.length);
+		return values;
+	}
+
+	/*
+	 * Returns true if the worker announced the given operation. Starts the worker if needed; a worker that cannot be
+	 * started does not support anything.
+	 */
+	public synchronized boolean supports(String operation) {
+		try {
+			ensureRunning();
+		} catch (IOException e) {
+			stop();
+			return false;
+		}
+		return supportedOperations.contains(operation);
+	}
+
+	private void ensureRunning() throws IOException {
+		if (process != null && !isAlive(process)) {
+			log.warning("The metadata retriever worker exited, restarting it.");
+			stop();
+		}
+
+		if (process != null && System.currentTimeMillis() - lastUsed > HEALTH_CHECK_INTERVAL) {
+			try {
+				exchange(HEALTH_CHECK_TIMEOUT, OP_PING);
+			} catch (Exception e) {
+				log.warning("The metadata retriever worker did not answer the health check, restarting it.");
+				stop();
+			}
+		}
+
+		if (process == null)
+			start();
+	}
+
+	private void start() throws IOException {
+		Process newProcess = new ProcessBuilder("java", "-jar", jarPath, DAEMON_ARGUMENT).start();
+		drainErrorStream(newProcess);
+
+		process = newProcess;
+		toWorker = new DataOutputStream(new BufferedOutputStream(newProcess.getOutputStream()));
+		fromWorker = new DataInputStream(new BufferedInputStream(newProcess.getInputStream()));
+
+		try {
+			String[] response = exchange(STARTUP_TIMEOUT, OP_PING);
+			supportedOperations = new HashSet<String>(Arrays.asList(response).subList(Math.min(1, response.length), response.length));
+		} catch (IOException e) {
+			// E.g. a retriever version without daemon mode, which exits right away
+			stop();
+			throw new IOException("The metadata retriever worker could not be started (" + e.getMessage() + ")");
+		}
+	}
+
+	/*
+	 * Writes a request and waits for the response. Any failure to communicate (including a timeout, after which the
+	 * stream position is unknown) makes the worker unusable and is reported as an IOException.
+	 */
+	private String[] exchange(int timeOut, String... request) throws IOException {
+		final DataOutputStream out = toWorker;
+		final DataInputStream in = fromWorker;
+		final String[] frame = request;
+
+		Future<String[]> futureResponse = executor.submit(new Callable<String[]>() {
+			public String[] call() throws Exception {
+				writeFrame(out, frame);
+				return readFrame(in);
+			}
+		});
+
+		try {
+			String[] response = futureResponse.get(timeOut, TimeUnit.SECONDS);
+			lastUsed = System.currentTimeMillis();
+			return response;
+		} catch (TimeoutException e) {
+			futureResponse.cancel(true);
+			// The worker is still busy with this request and cannot be reused
+			stop();
+			throw new TimeoutIOException("The Gateway Service call timed out. Please try again or check your settings.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(String.valueOf(e.getCause()));
+		} catch (InterruptedException e) {
+			futureResponse.cancel(true);
+			stop();
+			throw new IOException("Interrupted while waiting for the metadata retriever worker.");
+		}
+	}
+
+	public synchronized void stop() {
+		if (process == null)
+			return;
+
+		try {
+			if (isAlive(process))
+				writeFrame(toWorker, OP_SHUTDOWN);
+		} catch (IOException e) {
+			// The worker is killed below anyway
+		}
+		IOUtils.closeQuietly(toWorker);
+		IOUtils.closeQuietly(fromWorker);
+		process.destroy();
+		process = null;
+		supportedOperations = Collections.emptySet();
+		toWorker = null;
+		fromWorker = null;
+	}
+
+	public synchronized void dispose() {
+		stop();
+		executor.shutdownNow();
+	}
+
+	private static boolean isAlive(Process process) {
+		try {
+			process.exitValue();
+			return false;
+		} catch (IllegalThreadStateException e) {
+			return true;
+		}
+	}
+
+	/*
+	 * The worker's stderr has to be consumed, otherwise it blocks as soon as the pipe buffer is full
+	 */
+	private void drainErrorStream(final Process target) {
+		Thread drainer = new Thread(new Runnable() {
+			public void run() {
+				BufferedReader err = new BufferedReader(new InputStreamReader(target.getErrorStream()));
+				try {
+					String line;
+					while ((line = err.readLine()) != null) {
+						log.log(Level.FINE, line);
+					}
+				} catch (IOException e) {
+					// The worker has been stopped
+				} finally {
+					IOUtils.closeQuietly(err);
+				}
+			}
+		}, "gw-metadata-worker-stderr");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	static String[] readFrame(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		if (count < 0 || count > 64)
+			throw new IOException("Invalid response from the metadata retriever worker");
+
+		String[] frame = new String[count];
+		for (int i = 0; i < count; i++) {
+			int length = in.readInt();
+			if (length < 0) {
+				frame[i] = null;
+				continue;
+			}
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			frame[i] = new String(bytes, "UTF-8");
+		}
+		return frame;
+	}
+
+	static void writeFrame(DataOutputStream out, String... frame) throws IOException {
+		out.writeInt(frame.length);
+		for (String value : frame) {
+			if (value == null) {
+				out.writeInt(-1);
+				continue;
+			}
+			byte[] bytes = value.getBytes("UTF-8");
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		out.flush();
+	}
+
+	/*
+	 * A timeout is not worth a retry with a fresh worker, the Gateway service itself is slow
+	 */
+	static class TimeoutIOException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		TimeoutIOException(String message) {
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Duration and size of the phases of one "gateway define odata_endpoint" run: the phases measured by the retriever
+ * application (connect, response, download, parse, write) and the ones of the addon (retrieval as a whole, EDMX
+ * parsing, file writes, index).
+ *
+ * The phases are reported as one line in the Roo log. If the system property gw.metadata.timingsFile names a file,
+ * a JSON record of the run is appended to it as well, one record per line.
+ */
+public class MetadataTimings {
+
+	public static final String TIMINGS_FILE_PROPERTY = "gw.metadata.timingsFile";
+
+	private final String endpoint;
+	private final String url;
+	private final long started = System.currentTimeMillis();
+	private final List<Phase> phases = new ArrayList<Phase>();
+	private String mode;
+	private String status;
+
+	public MetadataTimings(String endpoint, String url) {
+		this.endpoint = endpoint;
+		this.url = url;
+	}
+
+	/*
+	 * Adds a phase which started at the given System.nanoTime() and ends now
+	 */
+	public synchronized void end(String phase, long startNanos, long bytes) {
+		phases.add(new Phase(phase, (System.nanoTime() - startNanos) / 1000000, bytes));
+	}
+
+	/*
+	 * The number of bytes of the UTF-8 encoding of the given text (as it is stored), without encoding it; 0 for null
+	 */
+	public static long utf8Length(String text) {
+		if (text == null)
+			return 0;
+		long length = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				length++;
+			}
+			else if (c < 0x800) {
+				length += 2;
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+				length += 4;
+				i++;
+			}
+			else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/*
+	 * Adds the phases measured by the retriever application ("name=millis:bytes;..."), ignoring anything malformed
+	 */
+	public synchronized void addRetrieverPhases(String encodedPhases) {
+		if (encodedPhases == null || encodedPhases.isEmpty())
+			return;
+		for (String encodedPhase : encodedPhases.split(";")) {
+			int equals = encodedPhase.indexOf('=');
+			int colon = encodedPhase.lastIndexOf(':');
+			if (equals <= 0 || colon < equals)
+				continue;
+			try {
+				phases.add(new Phase("retriever " + encodedPhase.substring(0, equals), Long.parseLong(encodedPhase.substring(equals + 1, colon)),
+						Long.parseLong(encodedPhase.substring(colon + 1))));
+			} catch (NumberFormatException e) {
+				// Not written by a known retriever version
+			}
+		}
+	}
+
+	/*
+	 * How the retriever was called: in-process, worker or process
+	 */
+	public synchronized void setMode(String mode) {
+		this.mode = mode;
+	}
+
+	/*
+	 * The outcome of the run, e.g. "modified" or "unchanged"
+	 */
+	public synchronized void setStatus(String status) {
+		this.status = status;
+	}
+
+	public synchronized String format() {
+		StringBuilder line = new StringBuilder();
+		for (Phase phase : phases) {
+			if (line.length() > 0)
+				line.append(", ");
+			line.append(phase.name).append(' ').append(phase.millis).append(" ms");
+			if (phase.bytes > 0)
+				line.append(" (").append(formatSize(phase.bytes)).append(')');
+		}
+		line.append(line.length() > 0 ? ", " : "").append("total ").append(System.currentTimeMillis() - started).append(" ms");
+		if (mode != null)
+			line.append(" [").append(mode).append(']');
+		return line.toString();
+	}
+
+	private static String formatSize(long bytes) {
+		if (bytes < 1024)
+			return bytes + " B";
+		if (bytes < 1024 * 1024)
+			return (bytes / 1024) + " KB";
+		return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+	}
+
+	public synchronized String toJson() {
+		SimpleDateFormat timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		timestamp.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		StringBuilder json = new StringBuilder("{");
+		json.append("\"endpoint\":").append(quote(endpoint));
+		json.append(",\"url\":").append(quote(url));
+		json.append(",\"timestamp\":").append(quote(timestamp.format(new Date(started))));
+		json.append(",\"mode\":").append(quote(mode));
+		json.append(",\"status\":").append(quote(status));
+		json.append(",\"totalMs\":").append(System.currentTimeMillis() - started);
+		json.append(",\"phases\":[");
+		for (int i = 0; i < phases.size(); i++) {
+			Phase phase = phases.get(i);
+			json.append(i > 0 ? "," : "").append("{\"name\":").append(quote(phase.name)).append(",\"ms\":").append(phase.millis)
+					.append(",\"bytes\":").append(phase.bytes).append('}');
+		}
+		return json.append("]}").toString();
+	}
+
+	private static String quote(String value) {
+		if (value == null)
+			return "null";
+		StringBuilder quoted = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				quoted.append('\\').append(c);
+			else if (c < 0x20)
+				quoted.append(String.format("\\u%04x", (int) c));
+			else
+				quoted.append(c);
+		}
+		return quoted.append('"').toString();
+	}
+
+	/*
+	 * Appends the JSON record to the file named by gw.metadata.timingsFile, if set. The file is written directly (not
+	 * through the FileManager), as it usually lies outside of the project.
+	 */
+	public void appendToTimingsFile() throws IOException {
+		String timingsFile = System.getProperty(TIMINGS_FILE_PROPERTY);
+		if (timingsFile == null || timingsFile.isEmpty())
+			return;
+
+		String record = toJson() + "\n";
+		synchronized (MetadataTimings.class) {
+			Writer out = new OutputStreamWriter(new FileOutputStream(new File(timingsFile), true), "UTF-8");
+			try {
+				out.write(record);
+			} finally {
+				IOUtils.closeQuietly(out);
+			}
+		}
+	}
+
+	private static class Phase {
+		final String name;
+		final long millis;
+		final long bytes;
+
+		Phase(String name, long millis, long bytes) {
+			this.name = name;
+			this.millis = millis;
+			this.bytes = bytes;
+		}
+	}
+}
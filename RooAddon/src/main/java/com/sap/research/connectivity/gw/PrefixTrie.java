@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Set of words which returns the words starting with a prefix without looking at the other ones. Prefixes are
+ * matched case-insensitively, as the Roo shell does when it filters completions; the words are returned as added, in
+ * alphabetical order.
+ */
+public class PrefixTrie {
+
+	private final Node root = new Node();
+	private int size;
+
+	public synchronized void add(String word) {
+		Node node = root;
+		for (char c : normalize(word).toCharArray()) {
+			Node child = node.children.get(c);
+			if (child == null) {
+				child = new Node();
+				node.children.put(c, child);
+			}
+			node = child;
+		}
+		if (node.words.add(word))
+			size++;
+	}
+
+	public synchronized boolean remove(String word) {
+		if (!remove(root, normalize(word), 0, word))
+			return false;
+		size--;
+		return true;
+	}
+
+	private static boolean remove(Node node, String key, int depth, String word) {
+		if (depth == key.length())
+			return node.words.remove(word);
+
+		Node child = node.children.get(key.charAt(depth));
+		if (child == null || !remove(child, key, depth + 1, word))
+			return false;
+		if (child.words.isEmpty() && child.children.isEmpty())
+			node.children.remove(key.charAt(depth));
+		return true;
+	}
+
+	public synchronized boolean contains(String word) {
+		Node node = find(normalize(word));
+		return node != null && node.words.contains(word);
+	}
+
+	/**
+	 * Returns the words starting with the given prefix (all words for an empty or null prefix)
+	 */
+	public synchronized List<String> getWords(String prefix) {
+		List<String> words = new ArrayList<String>();
+		Node node = find(normalize(prefix == null ? "" : prefix));
+		if (node != null)
+			collect(node, words);
+		return words;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	private Node find(String key) {
+		Node node = root;
+		for (int i = 0; i < key.length() && node != null; i++) {
+			node = node.children.get(key.charAt(i));
+		}
+		return node;
+	}
+
+	private static void collect(Node node, List<String> words) {
+		words.addAll(node.words);
+		for (Node child : node.children.values()) {
+			collect(child, words);
+		}
+	}
+
+	private static String normalize(String word) {
+		return word.toLowerCase(Locale.ENGLISH);
+	}
+
+	private static class Node {
+		final Map<Character, Node> children = new TreeMap<Character, Node>();
+		final Set<String> words = new TreeSet<String>();
+	}
+}
@@ -16,28 +16,24 @@
 
 package com.sap.research.connectivity.gw.converters;
 
-import java.io.File;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.springframework.roo.shell.Completion;
 import org.springframework.roo.shell.Converter;
 import org.springframework.roo.shell.MethodTarget;
-import org.springframework.roo.file.monitor.event.FileDetails;
 
+import com.sap.research.connectivity.gw.CompletionIndexService;
 import com.sap.research.connectivity.gw.GWOperationsUtils;
 import com.sap.research.connectivity.gw.GwEntityClass;
-import com.sap.research.connectivity.gw.GwUtils;
-import com.sap.research.connectivity.gw.parsers.JavaSourceFileEditor;
 
 @Component
 @Service
 
 public class GwEntityClassConverter extends GWOperationsUtils implements Converter<GwEntityClass> {
 	
-	private static final char SEPARATOR = File.separatorChar;
+	@Reference private CompletionIndexService completionIndexService;
 
 	public GwEntityClass convertFromText(String value, Class<?> targetType,
 			String optionContext) {
@@ -48,26 +44,11 @@ public class GwEntityClassConverter extends GWOperationsUtils implements Convert
 			Class<?> targetType, String existingData, String optionContext,
 			MethodTarget target) {
 
-        //Retrieve all the .java files using provided option context (sub package folder)
-		SortedSet<FileDetails> files = new TreeSet<FileDetails>();
+        //Include only the domain classes which have gateway connectivity, as kept by the completion index
 		if (!optionContext.isEmpty()) {
-			files = fileManager.findMatchingAntPath(getSubPackagePath(optionContext) + SEPARATOR + "*.java");
-		}
-
-        //Iterate through each class and include only those classes which have gateway connectivity for auto completion
-		for (FileDetails f : files) {
-			
-			String filePath = f.getCanonicalPath();
-			String entityClass = filePath.substring(filePath.lastIndexOf(SEPARATOR) + 1, filePath.length());
-			
-			String entityName = entityClass.substring(0, entityClass.indexOf(".java"));
-
-			JavaSourceFileEditor entityClassFile = getJavaFileEditor("domain", entityName); 
-			
-			String nameSpace = GwUtils.getNamespaceFromClass(entityClassFile);
-			
-			if(!nameSpace.isEmpty())
-				completions.add(new Completion(entityName));			
+			for (String entityName : completionIndexService.getConnectedClasses(existingData)) {
+				completions.add(new Completion(entityName));
+			}
 		}
 
         return false;
@@ -17,20 +17,19 @@
 package com.sap.research.connectivity.gw.converters;
 
 import java.util.List;
-import java.util.Map;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.springframework.roo.shell.Completion;
 import org.springframework.roo.shell.Converter;
 import org.springframework.roo.shell.MethodTarget;
 
+import com.sap.research.connectivity.gw.CompletionIndexService;
 import com.sap.research.connectivity.gw.GWOperationsUtils;
 import com.sap.research.connectivity.gw.GwField;
-import com.sap.research.connectivity.gw.GwUtils;
-import com.sap.research.connectivity.gw.parsers.JavaSourceFileEditor;
 
 @Component
 @Service
@@ -38,6 +37,8 @@ public class GwFieldConverter extends GWOperationsUtils implements Converter<GwF
 
     private Logger log = Logger.getLogger(getClass().getName());
     
+    @Reference private CompletionIndexService completionIndexService;
+    
     public GwField convertFromText(final String value, final Class<?> requiredType, final String optionContext) {
         if (StringUtils.isBlank(value)) {
             return null;
@@ -68,36 +69,23 @@ public class GwFieldConverter extends GWOperationsUtils implements Converter<GwF
     		return true;
     	}
     	
-    	//Derive used namespace from the Class
-    	JavaSourceFileEditor entityClassFile = null;
-    	try {
-    		 	entityClassFile = getJavaFileEditor("domain", entityClassName, false);
-    	} catch (Exception e) {
-    		log.severe("The class \"" + entityClassName + "\" is not a valid class for connecting to a NW Gateway service. Please choose a valid class.");
-    		return true;
-    	}
-    	
-    	if (entityClassFile == null) {
+    	//Derive used namespace from the Class, as kept by the completion index
+    	if (completionIndexService.getNamespace(entityClassName) == null) {
     		log.severe("The class \"" + entityClassName + "\" is not a valid class for connecting to a NW Gateway service. Please choose a valid class.");
     		return true;
     	}
     	
-    	String nameSpace = GwUtils.getNamespaceFromClass(entityClassFile);
-    	
-        //Derive already used fields in the Class    	
-    	List<String> includedFieldsInClass = GwUtils.getFieldsIncludedInClass(entityClassFile);
-    	
-    	if (nameSpace.isEmpty()) {
-    		log.severe("The class \"" + entityClassName + "\" is not a valid class for connecting to a NW Gateway service. Please choose a valid class.");
+    	//Offer the remote fields which are not yet included in the Class
+    	List<String> fieldNames;
+    	try {
+    		fieldNames = completionIndexService.getImportableFields(entityClassName, existingData);
+    	} catch (Exception e) {
+    		log.severe(e.getMessage());
     		return true;
     	}
-    	
-    	//Retrieve the field list from metadata xml
-    	Map<String[], String> fields = getFieldsOfRemoteEntity(entityClassName, nameSpace);
 		
-		for(Map.Entry<String[], String> field : fields.entrySet()){
-			if(!includedFieldsInClass.contains(field.getKey()[1]))
-				completions.add(new Completion(field.getKey()[0]));
+		for(String fieldName : fieldNames){
+			completions.add(new Completion(fieldName));
 		}
     	
 		return false;
@@ -16,22 +16,18 @@
 
 package com.sap.research.connectivity.gw.converters;
 
-import java.io.InputStream;
 import java.util.List;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.springframework.roo.shell.Completion;
 import org.springframework.roo.shell.Converter;
 import org.springframework.roo.shell.MethodTarget;
-import org.springframework.roo.support.util.XmlUtils;
-import org.w3c.dom.Attr;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
+import com.sap.research.connectivity.gw.CompletionIndexService;
 import com.sap.research.connectivity.gw.GWOperationsUtils;
 import com.sap.research.connectivity.gw.GwRemoteEntity;
 
@@ -43,6 +39,8 @@ public class GwRemoteEntityConverter extends GWOperationsUtils implements Conver
 	
     private Logger log = Logger.getLogger(getClass().getName());
     
+    @Reference private CompletionIndexService completionIndexService;
+    
     public GwRemoteEntity convertFromText(final String value,
             final Class<?> requiredType, final String optionContext) {
         if (StringUtils.isBlank(value)) {
@@ -75,31 +73,18 @@ public class GwRemoteEntityConverter extends GWOperationsUtils implements Conver
     		return true;
     	}
     	
-//      Obtain the available entity sets from the gateway name space
-    	String metaDataPath = getSubPackagePath(oDataFolder);
-    	String metaDataFile = metaDataPath + SEPARATOR + namespaceValue +"_metadata.xml";
-    	
-		Document doc;
-		  
-		try{
-			InputStream metaDataIs = fileManager.getInputStream(metaDataFile);
-			doc = XmlUtils.getDocumentBuilder().parse(metaDataIs);
-		} catch (Exception ex){
-			  //throw new IllegalStateException(ex);
-			log.severe("Namespace \"" + namespaceValue + "\" does not exist or is corrupted. Please specify a valid namespace.");
+//      Obtain the available entity sets from the gateway name space, from the completion index
+    	List<String> entityNames;
+    	try {
+    		entityNames = completionIndexService.getEntityNames(namespaceValue, existingData);
+    	} catch (Exception ex) {
+    		log.severe("Namespace \"" + namespaceValue + "\" does not exist or is corrupted. Please specify a valid namespace.");
     		return true;
-		}        
-		 
-		NodeList nodeList = doc.getElementsByTagName("entity"); 
-		 
-	    for (int i = 0; i < nodeList.getLength(); i++){
-			  
-		  Node node = nodeList.item(i);
-		  Attr attr = (Attr) node.getAttributes().getNamedItem("name");
-		  
-		  completions.add(new Completion(attr.getValue().toString()));
-		
-	    }		 
+    	}
+    	
+    	for (String entityName : entityNames) {
+    		completions.add(new Completion(entityName));
+    	}
     	
     	return false;
     	
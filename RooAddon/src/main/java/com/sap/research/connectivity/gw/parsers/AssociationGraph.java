@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.sap.research.connectivity.gw.parsers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * The associations between the entity sets of a namespace which are generated together: an entity set is associated
+ * with the entity sets its navigation properties lead to, as far as they have been added to the graph as well.
+ *
+ * getLevels() orders the entity sets for the generation, so that the classes an entity set is associated with are
+ * created in an earlier level or in the same one. Entity sets associated with each other in a cycle (e.g. the two ends
+ * of a bidirectional association) end up in the same level; each level is as early as possible.
+ */
+public class AssociationGraph {
+
+	/*
+	 * Entity set to the entity sets it is associated with, in the order the entity sets were added
+	 */
+	private final Map<String, Set<String>> associations = new LinkedHashMap<String, Set<String>>();
+
+	/*
+	 * Adds an entity set with its relationships, as returned by MetadataXMLParser.getRelationships()
+	 */
+	public void addEntity(String entityName, Map<String, String[]> relationships) {
+		Set<String> associatedEntities = new LinkedHashSet<String>();
+		for (String[] relationship : relationships.values()) {
+			associatedEntities.add(getAssociatedEntity(entityName, relationship));
+		}
+		associations.put(entityName, associatedEntities);
+	}
+
+	/*
+	 * Returns the entity set at the other end of a relationship ({from_entity, from_entity_multiplicity, to_entity,
+	 * to_entity_multiplicity}) of the given entity set
+	 */
+	public static String getAssociatedEntity(String entityName, String[] relationship) {
+		return relationship[0].equals(entityName) ? relationship[2] : relationship[0];
+	}
+
+	/*
+	 * Returns the entity sets of the graph the given one is associated with, without itself
+	 */
+	public Set<String> getAssociatedEntities(String entityName) {
+		Set<String> associatedEntities = new LinkedHashSet<String>();
+		for (String associatedEntity : associations.get(entityName)) {
+			if (!associatedEntity.equals(entityName) && associations.containsKey(associatedEntity))
+				associatedEntities.add(associatedEntity);
+		}
+		return associatedEntities;
+	}
+
+	/*
+	 * Returns the entity sets level by level, each level in the order the entity sets were added
+	 */
+	public List<List<String>> getLevels() {
+		/*
+		 * The cycles are the strongly connected components of the graph (Tarjan's algorithm). A component is completed
+		 * only after the components it leads to, so its level can be computed from theirs right away.
+		 */
+		Tarjan tarjan = new Tarjan();
+		for (String entityName : associations.keySet()) {
+			if (!tarjan.index.containsKey(entityName))
+				tarjan.visit(entityName);
+		}
+
+		Map<String, Integer> levelOfEntity = new HashMap<String, Integer>();
+		int levelCount = 0;
+		for (List<String> component : tarjan.components) {
+			int level = 0;
+			for (String entityName : component) {
+				for (String associatedEntity : getAssociatedEntities(entityName)) {
+					Integer associatedLevel = levelOfEntity.get(associatedEntity);
+					// Entity sets of the same component are not assigned yet
+					if (associatedLevel != null)
+						level = Math.max(level, associatedLevel + 1);
+				}
+			}
+			for (String entityName : component) {
+				levelOfEntity.put(entityName, level);
+			}
+			levelCount = Math.max(levelCount, level + 1);
+		}
+
+		List<List<String>> levels = new ArrayList<List<String>>();
+		for (int i = 0; i < levelCount; i++) {
+			levels.add(new ArrayList<String>());
+		}
+		for (String entityName : associations.keySet()) {
+			levels.get(levelOfEntity.get(entityName)).add(entityName);
+		}
+		return levels;
+	}
+
+	private class Tarjan {
+		final Map<String, Integer> index = new HashMap<String, Integer>();
+		final Map<String, Integer> lowLink = new HashMap<String, Integer>();
+		final List<String> stack = new ArrayList<String>();
+		final Set<String> onStack = new LinkedHashSet<String>();
+		final List<List<String>> components = new ArrayList<List<String>>();
+
+		void visit(String entityName) {
+			index.put(entityName, index.size());
+			lowLink.put(entityName, index.get(entityName));
+			stack.add(entityName);
+			onStack.add(entityName);
+
+			for (String associatedEntity : getAssociatedEntities(entityName)) {
+				if (!index.containsKey(associatedEntity)) {
+					visit(associatedEntity);
+					lowLink.put(entityName, Math.min(lowLink.get(entityName), lowLink.get(associatedEntity)));
+				}
+				else if (onStack.contains(associatedEntity)) {
+					lowLink.put(entityName, Math.min(lowLink.get(entityName), index.get(associatedEntity)));
+				}
+			}
+
+			if (lowLink.get(entityName).equals(index.get(entityName))) {
+				List<String> component = new ArrayList<String>();
+				String member;
+				do {
+					member = stack.remove(stack.size() - 1);
+					onStack.remove(member);
+					component.add(member);
+				} while (!member.equals(entityName));
+				Collections.reverse(component);
+				components.add(component);
+			}
+		}
+	}
+}
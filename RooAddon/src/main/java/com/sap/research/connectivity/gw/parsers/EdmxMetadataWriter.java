@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import java.io.StringWriter;
+import java.util.List;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/*
+ * Writes the reduced <ns>_metadata.xml document from an EdmxModel. The output is the same as the one of the metadata
+ * retriever application (see MetadataStreamWriter there), so that the other commands do not need to know whether the
+ * raw EDMX has been captured.
+ */
+public class EdmxMetadataWriter {
+
+	private static final String NEW_LINE = "\n";
+	private static final String INDENT = "  ";
+
+	private final EdmxModel model;
+	private XMLStreamWriter xml;
+
+	public EdmxMetadataWriter(EdmxModel model) {
+		this.model = model;
+	}
+
+	public String write() throws Exception {
+		StringWriter out = new StringWriter();
+		xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+
+		xml.writeStartDocument("UTF-8", "1.0");
+		xml.writeCharacters(NEW_LINE);
+		xml.writeStartElement("entities");
+
+		for (EdmxModel.EntitySet entitySet : model.getEntitySets()) {
+			EdmxModel.EntityType entityType = model.getEntityType(entitySet.getEntityType());
+			if (entityType == null)
+				throw new Exception("The entity type " + entitySet.getEntityType() + " of the entity set " + entitySet.getName() + " is not defined.");
+			writeEntity(entitySet, entityType);
+		}
+
+		newLine(0);
+		xml.writeEndElement();
+		xml.writeCharacters(NEW_LINE);
+		xml.writeEndDocument();
+		xml.close();
+		return out.toString();
+	}
+
+	private void writeEntity(EdmxModel.EntitySet entitySet, EdmxModel.EntityType entityType) throws Exception {
+		newLine(1);
+		xml.writeStartElement("entity");
+		xml.writeAttribute("name", entitySet.getName());
+
+		List<String> keys = model.getAllKeys(entityType);
+
+		for (EdmxModel.Property property : model.getAllProperties(entityType)) {
+			newLine(2);
+			xml.writeStartElement("entityfield");
+
+			String remoteFieldType = property.getType();
+			remoteFieldType = (remoteFieldType.toLowerCase().startsWith("edm.")) ? remoteFieldType.substring(4) : model.resolve(remoteFieldType);
+
+			writeTextElement(3, "fieldname", property.getName());
+			writeTextElement(3, "fieldtype", remoteFieldType);
+			writeTextElement(3, "key", keys.contains(property.getName()) ? "true" : "false");
+			writeTextElement(3, "nullable", property.isNullable() ? "true" : "false");
+			writeFacet(3, "maxlength", property.getMaxLength());
+			writeFacet(3, "precision", property.getPrecision());
+			writeFacet(3, "scale", property.getScale());
+
+			newLine(2);
+			xml.writeEndElement();
+		}
+
+		for (EdmxModel.NavigationProperty navProp : model.getAllNavigationProperties(entityType)) {
+			EdmxModel.Association association = model.getAssociation(navProp.getRelationship());
+			if (association == null || association.getEnds().size() != 2)
+				throw new Exception("The association " + navProp.getRelationship() + " of " + entityType.getName() + "." + navProp.getName() + " is not defined.");
+
+			newLine(2);
+			xml.writeStartElement("navproperty");
+
+			writeTextElement(3, "relationship_id", association.getName());
+			writeTextElement(3, "navpath", navProp.getName());
+			writeAssociationEnd(3, "end1", association.getEnds().get(0));
+			writeAssociationEnd(3, "end2", association.getEnds().get(1));
+
+			newLine(2);
+			xml.writeEndElement();
+		}
+
+		newLine(1);
+		xml.writeEndElement();
+	}
+
+	private void writeAssociationEnd(int level, String elementName, EdmxModel.AssociationEnd end) throws XMLStreamException {
+		// Only the simple name of the entity type is written, as done by the retriever application
+		String type = model.resolve(end.getType());
+		newLine(level);
+		xml.writeStartElement(elementName);
+		xml.writeAttribute("multiplicity", end.getMultiplicity());
+		xml.writeCharacters(type.substring(type.lastIndexOf('.') + 1));
+		xml.writeEndElement();
+	}
+
+	/*
+	 * Facets which are not given in the EDMX are left out
+	 */
+	private void writeFacet(int level, String elementName, String value) throws XMLStreamException {
+		if (value != null)
+			writeTextElement(level, elementName, value);
+	}
+
+	private void writeTextElement(int level, String elementName, String text) throws XMLStreamException {
+		newLine(level);
+		xml.writeStartElement(elementName);
+		xml.writeCharacters(text);
+		xml.writeEndElement();
+	}
+
+	private void newLine(int level) throws XMLStreamException {
+		xml.writeCharacters(NEW_LINE);
+		for (int i = 0; i < level; i++) {
+			xml.writeCharacters(INDENT);
+		}
+	}
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The addon's own model of an EDMX ($metadata) document, as read by EdmxStreamParser. Unlike the reduced
+ * <ns>_metadata.xml document, which only has the Nullable, MaxLength, Precision and Scale facets of the properties, it
+ * keeps all facets and annotations (e.g. sap:label) of every element as attributes, and the complex types.
+ *
+ * Types are registered under their namespace qualified name ("Namespace.Name"); references using a schema alias are
+ * resolved with resolve().
+ */
+public class EdmxModel {
+
+	private final Map<String, String> aliases = new HashMap<String, String>();
+	private final Map<String, EntityType> entityTypes = new LinkedHashMap<String, EntityType>();
+	private final Map<String, ComplexType> complexTypes = new LinkedHashMap<String, ComplexType>();
+	private final Map<String, Association> associations = new LinkedHashMap<String, Association>();
+	private final List<EntitySet> entitySets = new ArrayList<EntitySet>();
+
+	void addAlias(String alias, String namespace) {
+		aliases.put(alias, namespace);
+	}
+
+	void addEntityType(EntityType entityType) {
+		entityTypes.put(entityType.getQualifiedName(), entityType);
+	}
+
+	void addComplexType(ComplexType complexType) {
+		complexTypes.put(complexType.getQualifiedName(), complexType);
+	}
+
+	void addAssociation(Association association) {
+		associations.put(association.getQualifiedName(), association);
+	}
+
+	void addEntitySet(EntitySet entitySet) {
+		entitySets.add(entitySet);
+	}
+
+	/*
+	 * Replaces a leading schema alias of a qualified name by the namespace it stands for
+	 */
+	public String resolve(String qualifiedName) {
+		if (qualifiedName == null)
+			return null;
+		int dot = qualifiedName.lastIndexOf('.');
+		if (dot < 0)
+			return qualifiedName;
+		String namespace = aliases.get(qualifiedName.substring(0, dot));
+		return namespace == null ? qualifiedName : namespace + qualifiedName.substring(dot);
+	}
+
+	public List<EntitySet> getEntitySets() {
+		return Collections.unmodifiableList(entitySets);
+	}
+
+	public EntitySet getEntitySet(String name) {
+		for (EntitySet entitySet : entitySets) {
+			if (entitySet.getName().equals(name))
+				return entitySet;
+		}
+		return null;
+	}
+
+	public EntityType getEntityType(String qualifiedName) {
+		return entityTypes.get(resolve(qualifiedName));
+	}
+
+	public ComplexType getComplexType(String qualifiedName) {
+		return complexTypes.get(resolve(qualifiedName));
+	}
+
+	public Association getAssociation(String qualifiedName) {
+		return associations.get(resolve(qualifiedName));
+	}
+
+	public Map<String, EntityType> getEntityTypes() {
+		return Collections.unmodifiableMap(entityTypes);
+	}
+
+	public Map<String, ComplexType> getComplexTypes() {
+		return Collections.unmodifiableMap(complexTypes);
+	}
+
+	/*
+	 * The properties of an entity type including the inherited ones, base type properties first
+	 */
+	public List<Property> getAllProperties(EntityType entityType) {
+		List<Property> properties = new ArrayList<Property>();
+		EntityType baseType = getEntityType(entityType.getBaseType());
+		if (baseType != null && baseType != entityType)
+			properties.addAll(getAllProperties(baseType));
+		properties.addAll(entityType.getProperties());
+		return properties;
+	}
+
+	/*
+	 * The key property names of an entity type; derived types inherit the key of their base type
+	 */
+	public List<String> getAllKeys(EntityType entityType) {
+		EntityType baseType = getEntityType(entityType.getBaseType());
+		if (entityType.getKeys().isEmpty() && baseType != null && baseType != entityType)
+			return getAllKeys(baseType);
+		return entityType.getKeys();
+	}
+
+	public List<NavigationProperty> getAllNavigationProperties(EntityType entityType) {
+		List<NavigationProperty> navigationProperties = new ArrayList<NavigationProperty>();
+		EntityType baseType = getEntityType(entityType.getBaseType());
+		if (baseType != null && baseType != entityType)
+			navigationProperties.addAll(getAllNavigationProperties(baseType));
+		navigationProperties.addAll(entityType.getNavigationProperties());
+		return navigationProperties;
+	}
+
+	/*
+	 * Common part of all model elements: the name and every attribute of the XML element, by qualified name
+	 * (e.g. "Nullable", "sap:label")
+	 */
+	public static abstract class Element {
+
+		private final String name;
+		private final Map<String, String> attributes;
+
+		Element(String name, Map<String, String> attributes) {
+			this.name = name;
+			this.attributes = attributes;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getAttribute(String qualifiedName) {
+			return attributes.get(qualifiedName);
+		}
+
+		public Map<String, String> getAttributes() {
+			return Collections.unmodifiableMap(attributes);
+		}
+	}
+
+	public static abstract class StructuredType extends Element {
+
+		private final String namespace;
+		private final List<Property> properties = new ArrayList<Property>();
+
+		StructuredType(String namespace, String name, Map<String, String> attributes) {
+			super(name, attributes);
+			this.namespace = namespace;
+		}
+
+		public String getNamespace() {
+			return namespace;
+		}
+
+		public String getQualifiedName() {
+			return namespace + "." + getName();
+		}
+
+		public String getBaseType() {
+			return getAttribute("BaseType");
+		}
+
+		/*
+		 * The properties declared by this type, without the inherited ones
+		 */
+		public List<Property> getProperties() {
+			return properties;
+		}
+	}
+
+	public static class EntityType extends StructuredType {
+
+		private final List<String> keys = new ArrayList<String>();
+		private final List<NavigationProperty> navigationProperties = new ArrayList<NavigationProperty>();
+
+		EntityType(String namespace, String name, Map<String, String> attributes) {
+			super(namespace, name, attributes);
+		}
+
+		public List<String> getKeys() {
+			return keys;
+		}
+
+		public List<NavigationProperty> getNavigationProperties() {
+			return navigationProperties;
+		}
+	}
+
+	public static class ComplexType extends StructuredType {
+
+		ComplexType(String namespace, String name, Map<String, String> attributes) {
+			super(namespace, name, attributes);
+		}
+	}
+
+	public static class Property extends Element {
+
+		Property(String name, Map<String, String> attributes) {
+			super(name, attributes);
+		}
+
+		/*
+		 * The type as written in the document, e.g. "Edm.String" or a (possibly alias) qualified complex type name
+		 */
+		public String getType() {
+			return getAttribute("Type");
+		}
+
+		public boolean isNullable() {
+			return !"false".equals(getAttribute("Nullable"));
+		}
+
+		public String getMaxLength() {
+			return getAttribute("MaxLength");
+		}
+
+		public String getPrecision() {
+			return getAttribute("Precision");
+		}
+
+		public String getScale() {
+			return getAttribute("Scale");
+		}
+	}
+
+	public static class NavigationProperty extends Element {
+
+		NavigationProperty(String name, Map<String, String> attributes) {
+			super(name, attributes);
+		}
+
+		public String getRelationship() {
+			return getAttribute("Relationship");
+		}
+
+		public String getFromRole() {
+			return getAttribute("FromRole");
+		}
+
+		public String getToRole() {
+			return getAttribute("ToRole");
+		}
+	}
+
+	public static class Association extends Element {
+
+		private final String namespace;
+		private final List<AssociationEnd> ends = new ArrayList<AssociationEnd>();
+
+		Association(String namespace, String name, Map<String, String> attributes) {
+			super(name, attributes);
+			this.namespace = namespace;
+		}
+
+		public String getQualifiedName() {
+			return namespace + "." + getName();
+		}
+
+		public List<AssociationEnd> getEnds() {
+			return ends;
+		}
+	}
+
+	public static class AssociationEnd extends Element {
+
+		AssociationEnd(String role, Map<String, String> attributes) {
+			super(role, attributes);
+		}
+
+		public String getRole() {
+			return getName();
+		}
+
+		public String getType() {
+			return getAttribute("Type");
+		}
+
+		public String getMultiplicity() {
+			return getAttribute("Multiplicity");
+		}
+	}
+
+	public static class EntitySet extends Element {
+
+		private final String container;
+
+		EntitySet(String container, String name, Map<String, String> attributes) {
+			super(name, attributes);
+			this.container = container;
+		}
+
+		public String getContainer() {
+			return container;
+		}
+
+		public String getEntityType() {
+			return getAttribute("EntityType");
+		}
+	}
+}
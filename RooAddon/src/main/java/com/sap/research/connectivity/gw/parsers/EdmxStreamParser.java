@@ -0,0 +1,218 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/*
+ * Reads an EDMX ($metadata) document in a single pass with a StAX XMLStreamReader into an EdmxModel. Only the elements
+ * the addon needs are looked at (entity, complex and association types, entity sets); everything else, including
+ * documentation and function imports, is skipped without being materialized.
+ *
+ * Elements are matched by their local name, so that all EDM schema versions (and their namespaces) are accepted.
+ */
+public class EdmxStreamParser {
+
+	private static final XMLInputFactory FACTORY = createFactory();
+
+	private final XMLStreamReader xml;
+	private final EdmxModel model = new EdmxModel();
+
+	private EdmxStreamParser(Reader in) throws XMLStreamException {
+		synchronized (FACTORY) {
+			xml = FACTORY.createXMLStreamReader(in);
+		}
+	}
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		// The document comes from a remote server, no DTDs or external entities are resolved
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		return factory;
+	}
+
+	public static EdmxModel parse(String edmx) throws Exception {
+		return parse(new StringReader(edmx));
+	}
+
+	public static EdmxModel parse(Reader in) throws Exception {
+		EdmxStreamParser parser = new EdmxStreamParser(in);
+		try {
+			parser.parseDocument();
+		} catch (XMLStreamException e) {
+			throw new Exception("The EDMX document could not be parsed: " + e.getMessage());
+		} finally {
+			parser.xml.close();
+		}
+		return parser.model;
+	}
+
+	/*
+	 * Returns true if the given content is an EDMX document (and not e.g. a reduced <ns>_metadata.xml document), judging
+	 * by the name of its root element.
+	 */
+	public static boolean isEdmx(String content) {
+		if (content == null)
+			return false;
+		XMLStreamReader reader = null;
+		try {
+			synchronized (FACTORY) {
+				reader = FACTORY.createXMLStreamReader(new StringReader(content));
+			}
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT)
+					return "Edmx".equals(reader.getLocalName());
+			}
+			return false;
+		} catch (XMLStreamException e) {
+			return false;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					// Only read from a string
+				}
+			}
+		}
+	}
+
+	private void parseDocument() throws XMLStreamException {
+		while (xml.hasNext()) {
+			if (xml.next() == XMLStreamConstants.START_ELEMENT && "Schema".equals(xml.getLocalName()))
+				parseSchema();
+		}
+	}
+
+	private void parseSchema() throws XMLStreamException {
+		String namespace = xml.getAttributeValue(null, "Namespace");
+		String alias = xml.getAttributeValue(null, "Alias");
+		if (alias != null)
+			model.addAlias(alias, namespace);
+
+		while (nextChildElement()) {
+			String element = xml.getLocalName();
+			if ("EntityType".equals(element)) {
+				parseEntityType(namespace);
+			}
+			else if ("ComplexType".equals(element)) {
+				EdmxModel.ComplexType complexType = new EdmxModel.ComplexType(namespace, xml.getAttributeValue(null, "Name"), readAttributes());
+				while (nextChildElement()) {
+					if ("Property".equals(xml.getLocalName()))
+						complexType.getProperties().add(new EdmxModel.Property(xml.getAttributeValue(null, "Name"), readAttributes()));
+					skipElement();
+				}
+				model.addComplexType(complexType);
+			}
+			else if ("Association".equals(element)) {
+				EdmxModel.Association association = new EdmxModel.Association(namespace, xml.getAttributeValue(null, "Name"), readAttributes());
+				while (nextChildElement()) {
+					if ("End".equals(xml.getLocalName()))
+						association.getEnds().add(new EdmxModel.AssociationEnd(xml.getAttributeValue(null, "Role"), readAttributes()));
+					skipElement();
+				}
+				model.addAssociation(association);
+			}
+			else if ("EntityContainer".equals(element)) {
+				String container = xml.getAttributeValue(null, "Name");
+				while (nextChildElement()) {
+					if ("EntitySet".equals(xml.getLocalName()))
+						model.addEntitySet(new EdmxModel.EntitySet(container, xml.getAttributeValue(null, "Name"), readAttributes()));
+					skipElement();
+				}
+			}
+			else {
+				skipElement();
+			}
+		}
+	}
+
+	private void parseEntityType(String namespace) throws XMLStreamException {
+		EdmxModel.EntityType entityType = new EdmxModel.EntityType(namespace, xml.getAttributeValue(null, "Name"), readAttributes());
+		while (nextChildElement()) {
+			String element = xml.getLocalName();
+			if ("Key".equals(element)) {
+				while (nextChildElement()) {
+					if ("PropertyRef".equals(xml.getLocalName()))
+						entityType.getKeys().add(xml.getAttributeValue(null, "Name"));
+					skipElement();
+				}
+			}
+			else if ("Property".equals(element)) {
+				entityType.getProperties().add(new EdmxModel.Property(xml.getAttributeValue(null, "Name"), readAttributes()));
+				skipElement();
+			}
+			else if ("NavigationProperty".equals(element)) {
+				entityType.getNavigationProperties().add(new EdmxModel.NavigationProperty(xml.getAttributeValue(null, "Name"), readAttributes()));
+				skipElement();
+			}
+			else {
+				skipElement();
+			}
+		}
+		model.addEntityType(entityType);
+	}
+
+	/*
+	 * Advances to the next child element of the current element and returns true, or to the end of the current element
+	 * and returns false.
+	 */
+	private boolean nextChildElement() throws XMLStreamException {
+		while (xml.hasNext()) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				return true;
+			if (event == XMLStreamConstants.END_ELEMENT)
+				return false;
+		}
+		return false;
+	}
+
+	/*
+	 * Advances to the end of the current element, skipping all of its content
+	 */
+	private void skipElement() throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0 && xml.hasNext()) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+		}
+	}
+
+	private Map<String, String> readAttributes() {
+		Map<String, String> attributes = new LinkedHashMap<String, String>();
+		for (int i = 0; i < xml.getAttributeCount(); i++) {
+			String prefix = xml.getAttributePrefix(i);
+			String name = prefix == null || prefix.isEmpty() ? xml.getAttributeLocalName(i) : prefix + ":" + xml.getAttributeLocalName(i);
+			attributes.put(name, xml.getAttributeValue(i));
+		}
+		return attributes;
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.sap.research.connectivity.gw.parsers;
+
+/*
+ * Writes generated Java code line by line into a single buffer, indenting every line with tabs according to the
+ * blocks it is nested in. Blocks are opened and closed with the begin.../end... methods, e.g.
+ *
+ *     code.beginFor("OEntity item : items").line("count++;").endBlock();
+ *
+ * Code which is inserted in front of an existing, already indented statement starts in the middle of that line
+ * (see continuingLine()) and ends with the indentation of the statement (see indentation()).
+ */
+public class JavaCodeEmitter {
+
+	private static final char INDENT = '\t';
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private final StringBuilder code;
+	private int level;
+	private boolean lineStarted;
+
+	/*
+	 * Code whose lines start at the given indentation level
+	 */
+	public JavaCodeEmitter(int level) {
+		this(level, DEFAULT_CAPACITY);
+	}
+
+	/*
+	 * As JavaCodeEmitter(level), with a buffer of the given initial capacity, for code whose size is known in advance
+	 */
+	public JavaCodeEmitter(int level, int capacity) {
+		this.code = new StringBuilder(capacity);
+		this.level = level;
+	}
+
+	/*
+	 * Code whose first line continues a line which is already indented at the given level
+	 */
+	public static JavaCodeEmitter continuingLine(int level) {
+		JavaCodeEmitter emitter = new JavaCodeEmitter(level);
+		emitter.lineStarted = true;
+		return emitter;
+	}
+
+	/*
+	 * Appends the parts to the current line, indenting the line first if it is a new one
+	 */
+	public JavaCodeEmitter append(String... parts) {
+		if (!lineStarted)
+			indentation();
+		for (String part : parts) {
+			code.append(part);
+		}
+		return this;
+	}
+
+	/*
+	 * Appends the parts and ends the line; without parts, writes a line containing only the indentation
+	 */
+	public JavaCodeEmitter line(String... parts) {
+		append(parts);
+		code.append('\n');
+		lineStarted = false;
+		return this;
+	}
+
+	/*
+	 * Writes an empty line, without indentation
+	 */
+	public JavaCodeEmitter blankLine() {
+		code.append('\n');
+		lineStarted = false;
+		return this;
+	}
+
+	/*
+	 * Writes the indentation of the current level, e.g. for the statement the code is inserted in front of
+	 */
+	public JavaCodeEmitter indentation() {
+		for (int i = 0; i < level; i++) {
+			code.append(INDENT);
+		}
+		lineStarted = true;
+		return this;
+	}
+
+	public JavaCodeEmitter indent() {
+		level++;
+		return this;
+	}
+
+	public JavaCodeEmitter outdent() {
+		if (level == 0)
+			throw new IllegalStateException("Cannot outdent code at level 0");
+		level--;
+		return this;
+	}
+
+	/*
+	 * Writes "<header> {" and indents the following lines
+	 */
+	public JavaCodeEmitter beginBlock(String... header) {
+		append(header);
+		return line(" {").indent();
+	}
+
+	/*
+	 * Closes the current block and opens the next one on the same line, as in "} else {"
+	 */
+	public JavaCodeEmitter nextBlock(String... header) {
+		outdent().append("} ");
+		return beginBlock(header);
+	}
+
+	public JavaCodeEmitter endBlock() {
+		return endBlock("");
+	}
+
+	/*
+	 * Closes the current block, with the given text after the closing brace (e.g. ";")
+	 */
+	public JavaCodeEmitter endBlock(String suffix) {
+		return outdent().line("}", suffix);
+	}
+
+	public JavaCodeEmitter beginIf(String... condition) {
+		return beginBlock(concat("if (", condition, ")"));
+	}
+
+	public JavaCodeEmitter beginElse() {
+		return nextBlock("else");
+	}
+
+	public JavaCodeEmitter beginFor(String... loop) {
+		return beginBlock(concat("for (", loop, ")"));
+	}
+
+	public JavaCodeEmitter beginTry() {
+		return beginBlock("try");
+	}
+
+	public JavaCodeEmitter beginCatch(String... exception) {
+		return nextBlock(concat("catch (", exception, ")"));
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public int length() {
+		return code.length();
+	}
+
+	public String toString() {
+		return code.toString();
+	}
+
+	private static String[] concat(String prefix, String[] parts, String suffix) {
+		String[] all = new String[parts.length + 2];
+		all[0] = prefix;
+		System.arraycopy(parts, 0, all, 1, parts.length);
+		all[all.length - 1] = suffix;
+		return all;
+	}
+}
@@ -16,7 +16,6 @@
 
 package com.sap.research.connectivity.gw.parsers;
 
-import japa.parser.JavaParser;
 import japa.parser.ParseException;
 import japa.parser.ast.CompilationUnit;
 import japa.parser.ast.ImportDeclaration;
@@ -25,19 +24,31 @@ import japa.parser.ast.body.FieldDeclaration;
 import japa.parser.ast.body.MethodDeclaration;
 import japa.parser.ast.body.TypeDeclaration;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
 
 import org.apache.commons.io.IOUtils;
 import org.springframework.roo.process.manager.MutableFile;
 
+/*
+ * In-memory model of a .java file: the file is read once when the editor is created, all changes are done on the lists 
+ * of imports, fields and methods, and the file is written once by makeFile(), only if its content changed.
+ */
 public class JavaSourceFileEditor implements JavaSourceFileEditorInterface {
 
 	private static final char SEPARATOR = File.separatorChar;
+	
+	private Logger log = Logger.getLogger(getClass().getName());
     
     /*
      * The name of the class (we suppose that we are editing a .java file containing a class having the same name as the file name)
@@ -50,10 +61,28 @@ public class JavaSourceFileEditor implements JavaSourceFileEditorInterface {
     
 	private MutableFile sourceFile;
 	
+	/*
+	 * The content of the file when the editor was created
+	 */
+	private String fileContent;
+	
+	/*
+	 * The class as renderFile() returns it before any change, which differs from fileContent where the parser does not 
+	 * keep the formatting (e.g. the indentation of method bodies, or chained calls joined into one line)
+	 */
+	private String unchangedContent;
+	
 	private ArrayList<JavaSourceField> globalFieldList;
 	private ArrayList<JavaSourceMethod> globalMethodList;
 	private ArrayList<String> importList;
 	
+	/*
+	 * The first method of each signature (see JavaSourceMethod.getSignature()) and the first field of each name, kept in 
+	 * sync with the lists above; the lists must therefore only be changed through the editor
+	 */
+	private Map<String, JavaSourceMethod> methodsBySignature;
+	private Map<String, JavaSourceField> fieldsByName;
+	
 	/*
 	 * Needed by the JAVA Parser class, so we can get already existing content in the file
 	 */
@@ -69,11 +98,15 @@ public class JavaSourceFileEditor implements JavaSourceFileEditorInterface {
 		importList = new ArrayList<String>();
 		globalFieldList = new ArrayList<JavaSourceField>();
 		globalMethodList = new ArrayList<JavaSourceMethod>();
+		methodsBySignature = new HashMap<String, JavaSourceMethod>();
+		fieldsByName = new HashMap<String, JavaSourceField>();
+		
+		fileContent = readFileContent();
 		
 		/*
 		 * Here we parse the java file and get the already existing imports, methods and fields
 		 */
-		if (!sourceFile.toString().isEmpty())
+		if (!fileContent.isEmpty())
 			initJavaParser();
 	}
 	
@@ -82,12 +115,15 @@ public class JavaSourceFileEditor implements JavaSourceFileEditorInterface {
 	 * @see com.sap.research.connectivity.JavaSourceFileEditorInterface#initJavaParser()
 	 */
 	public void initJavaParser() {
-        // creates an input stream for the file to be parsed
-        InputStream inputStream = sourceFile.getInputStream();
+        // creates an input stream for the content read when the editor was created
+        InputStream inputStream = null;
 
         try {
             // parse the file
-        	compilationUnit = JavaParser.parse(inputStream);
+        	inputStream = new ByteArrayInputStream(fileContent.getBytes("UTF-8"));
+        	compilationUnit = JavaSourceParserUtils.parse(inputStream, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+        	throw new IllegalStateException(e);
         } catch (ParseException e) {
         	System.out.println("Java Parser could not be initialized!");
         	e.printStackTrace();
@@ -98,6 +134,7 @@ public class JavaSourceFileEditor implements JavaSourceFileEditorInterface {
         
         initImports();
         initVarsAndMethods();
+        unchangedContent = renderFile();
     }
 
 
@@ -124,14 +161,14 @@ public class JavaSourceFileEditor implements JavaSourceFileEditorInterface {
                 if (member instanceof MethodDeclaration) {
                 	MethodDeclaration method = (MethodDeclaration) member;
                     JavaSourceMethod methodTranslated = new JavaSourceMethod(method);
-                    globalMethodList.add(methodTranslated);
+                    appendMethod(methodTranslated);
                 }
                 else
                 //We are dealing with fields
                 if (member instanceof FieldDeclaration) {
                 	FieldDeclaration field = (FieldDeclaration) member;
                 	JavaSourceField fieldTranslated = new JavaSourceField(field);
-                	globalFieldList.add(fieldTranslated);
+                	appendField(fieldTranslated);
                 }
             }
         }
@@ -146,7 +183,7 @@ public class JavaSourceFileEditor implements JavaSourceFileEditorInterface {
 		if (fieldExists(field.getFieldName()))
 			return false;
 		
-		globalFieldList.add(field);
+		appendField(field);
 		return true;
 	}
 	
@@ -157,15 +194,20 @@ public class JavaSourceFileEditor implements JavaSourceFileEditorInterface {
 		
 		JavaSourceField currentVariable = fieldExists(field);
 		if (currentVariable != null) {
-			if (!overwrite)
-				return;
-			else {
-					currentVariable = field;
-					return;
+			if (overwrite) {
+				globalFieldList.set(globalFieldList.indexOf(currentVariable), field);
+				fieldsByName.put(field.getFieldName(), field);
 			}
+			return;
 		}
 		
+		appendField(field);
+	}
+	
+	private void appendField(JavaSourceField field) {
 		globalFieldList.add(field);
+		if (!fieldsByName.containsKey(field.getFieldName()))
+			fieldsByName.put(field.getFieldName(), field);
 	}
 	
 
@@ -193,49 +235,69 @@ public class JavaSourceFileEditor implements JavaSourceFileEditorInterface {
 		addMethod(method, true);
 	}
 	
+	/*
+	 * Adds the method at the end of the class, or replaces an existing method with the same signature in place if 
+	 * overwrite is true; nothing is written before makeFile()
+	 */
 	public void addMethod(JavaSourceMethod method, boolean overwrite) {
-		JavaSourceMethod currentMethod = null;
-		StringBuffer fileContent;
-		if ((currentMethod = getMethod(method)) != null) {
-			if (!overwrite)
-				return;
-			else {
-				fileContent = new StringBuffer(getFileContent());
-				if (fileContent.equals(""))
-					return;
-			
-				replaceMethod(currentMethod, method, fileContent);
-			}
+		JavaSourceMethod currentMethod = getMethod(method);
+		if (currentMethod == null) {
+			appendMethod(method);
 		}
-		else {
-			fileContent = new StringBuffer(getFileContent());
-			if (fileContent.equals(""))
-				return;
-
-			insertMethod(method, fileContent);
+		else if (overwrite) {
+			globalMethodList.set(globalMethodList.indexOf(currentMethod), method);
+			methodsBySignature.put(method.getSignature(), method);
 		}
 	}
+	
+	private void appendMethod(JavaSourceMethod method) {
+		globalMethodList.add(method);
+		String signature = method.getSignature();
+		if (!methodsBySignature.containsKey(signature))
+			methodsBySignature.put(signature, method);
+	}
 
 
-	private void insertMethod(JavaSourceMethod method, StringBuffer fileContent) {
-		//We insert just before the end of the class
-		try {
-			fileContent.insert(fileContent.lastIndexOf("}"), method.METHOD_STRING);
-			globalMethodList.add(method);
-		} catch (Exception e) {
-			e.printStackTrace();
+	/*
+	 * Removes the field with the given name, returns false if there is no such field
+	 */
+	public boolean removeGlobalField(String fieldName) {
+		JavaSourceField field = fieldsByName.remove(fieldName);
+		if (field == null)
+			return false;
+		
+		globalFieldList.remove(field);
+		// A class might (wrongly) declare a field twice, the next one is found from now on
+		for (JavaSourceField remainingField : globalFieldList) {
+			if (remainingField.getFieldName().equals(fieldName)) {
+				fieldsByName.put(fieldName, remainingField);
+				break;
+			}
 		}
+		return true;
 	}
-
-
-	private void replaceMethod(JavaSourceMethod currentMethod, JavaSourceMethod newMethod, StringBuffer fileContent) {
-		try {
-			currentMethod = newMethod;
-		} catch (Exception e) {
-			e.printStackTrace();
+	
+	/*
+	 * Removes all methods with the given name (regardless of their parameters), returns false if there is no such method
+	 */
+	public boolean removeMethod(String methodName) {
+		boolean removed = false;
+		for (Iterator<JavaSourceMethod> it = globalMethodList.iterator(); it.hasNext();) {
+			if (it.next().getMethodName().equals(methodName)) {
+				it.remove();
+				removed = true;
+			}
+		}
+		if (removed) {
+			for (Iterator<JavaSourceMethod> it = methodsBySignature.values().iterator(); it.hasNext();) {
+				if (it.next().getMethodName().equals(methodName))
+					it.remove();
+			}
 		}
+		return removed;
 	}
 	
+
 	/* (non-Javadoc)
 	 * @see com.sap.research.connectivity.JavaSourceFileEditorInterface#getSourceFile()
 	 */
@@ -264,67 +326,49 @@ public class JavaSourceFileEditor implements JavaSourceFileEditorInterface {
 		return importList;
 	}
     
+    /*
+     * Returns the header of the class: its annotations and declaration, without {
+     */
+    public String getClassDeclaration() {
+    	return classDeclaration;
+    }
+    
+	/*
+	 * Returns the method of the class with the same signature as the given one, or null
+	 */
 	public JavaSourceMethod getMethod(JavaSourceMethod method) {
-		
-		for (JavaSourceMethod existingMethod : globalMethodList)
-		{
-			if (existingMethod.getReturnType().equals(method.getReturnType()) 
-					&& existingMethod.getMethodName().equals(method.getMethodName())
-					&& existingMethod.getParameters().containsAll(method.getParameters())
-					&& method.getParameters().containsAll(existingMethod.getParameters()))
-				return existingMethod;
-		}
-		
-		return null;
+		return methodsBySignature.get(method.getSignature());
 	}
 
-	private List<String> getFileLines() {
+	private String readFileContent() {
 		InputStream inputStream = sourceFile.getInputStream();
-		List<String> lines = null;
+		String content = "";
 		try {
-			lines = IOUtils.readLines(inputStream);
+			content = IOUtils.toString(inputStream, "UTF-8");
 		} catch (IOException e) {
-			System.out.println("Could not read the lines of the class file");
 			e.printStackTrace();
 		} finally {
 			IOUtils.closeQuietly(inputStream);
 		}
-			
-		return lines;
+		
+		return content;
 	}
 
 	/* (non-Javadoc)
 	 * @see com.sap.research.connectivity.JavaSourceFileEditorInterface#getFileContent()
 	 */
 	public String getFileContent() {
-		InputStream inputStream = sourceFile.getInputStream();
-		String fileContent = "";
-		try {
-			fileContent = IOUtils.toString(inputStream);
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			IOUtils.closeQuietly(inputStream);
-		}
-		
 		return fileContent;
 	}
 	
 
 	public boolean fieldExists(String fieldName) {
-		for (JavaSourceField existingField : globalFieldList) {
-			if (existingField.getFieldName().equals(fieldName))
-				return true;
-		}
-		return false;
+		return fieldsByName.containsKey(fieldName);
 	}
 	
 	public JavaSourceField fieldExists(JavaSourceField field) {
-		for (JavaSourceField existingField : globalFieldList) {
-			if (existingField.equals(field))
-				return existingField;
-		}
-		return null;
+		JavaSourceField existingField = fieldsByName.get(field.getFieldName());
+		return existingField != null && existingField.equals(field) ? existingField : null;
 	}
 	
 	
@@ -335,7 +379,7 @@ public class JavaSourceFileEditor implements JavaSourceFileEditorInterface {
 	private void writeContentToFile(String tempContent) throws Exception {
 		OutputStream outputStream = sourceFile.getOutputStream();
 		try {
-			IOUtils.write(tempContent, outputStream);
+			IOUtils.write(tempContent, outputStream, "UTF-8");
 		} catch (IOException e) {
 			e.printStackTrace();
 			throw new Exception("Could not write into output class file");
@@ -345,6 +389,16 @@ public class JavaSourceFileEditor implements JavaSourceFileEditorInterface {
 	}
 	
 	public String makeFile() throws Exception{
+		String newFileContentString = renderFile();
+		writeFile(newFileContentString);
+		return newFileContentString;
+	}
+	
+	/*
+	 * Returns the content of the class without writing it; it does not use the FileManager, so the classes of several 
+	 * editors can be rendered concurrently
+	 */
+	public String renderFile() {
 		StringBuffer newFileContent = new StringBuffer();
 		newFileContent.append(getPackageLine());
 		newFileContent.append("\n\n");
@@ -364,26 +418,36 @@ public class JavaSourceFileEditor implements JavaSourceFileEditorInterface {
 		newFileContent.append("\n");
 		
 		for (JavaSourceMethod globalMethod : globalMethodList) {
-			newFileContent.append(globalMethod.METHOD_STRING);
+			newFileContent.append(globalMethod.getMethodString());
 		}
 		
 		newFileContent.append("\n}");
 		
-		String newFileContentString = newFileContent.toString();
-		writeContentToFile(newFileContentString);
-		
-		return newFileContentString;
+		return newFileContent.toString();
+	}
+	
+	/*
+	 * Writes content returned by renderFile()
+	 */
+	public void writeFile(String newFileContentString) throws Exception {
+		/*
+		 * The content read when the editor was created is what is on disk, so rewriting the same class can be skipped 
+		 * without reading the file again; an unchanged file does not trigger Roo's file monitor and the ITD metadata. 
+		 * Content rendered without any change is only reformatted, which is not worth a write either.
+		 */
+		if (newFileContentString.equals(fileContent) || newFileContentString.equals(unchangedContent)) {
+			log.info("Unchanged " + sourceFile.getCanonicalPath());
+		}
+		else {
+			writeContentToFile(newFileContentString);
+			fileContent = newFileContentString;
+			unchangedContent = newFileContentString;
+		}
 	}
 
 
 	public String getPackageLine() throws Error{
-		List<String> fileLines = getFileLines();
-		//compilationUnit.
-		if (fileLines == null) {
-			throw new Error("Cannot get package name!");
-		}
-        
-		for (String line : fileLines)
+		for (String line : fileContent.split("\r?\n"))
         {
 			if (line.startsWith("package "))
 				return line;
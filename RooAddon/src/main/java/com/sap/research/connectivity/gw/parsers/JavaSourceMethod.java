@@ -19,10 +19,15 @@ package com.sap.research.connectivity.gw.parsers;
 import japa.parser.ast.body.MethodDeclaration;
 
 import java.util.ArrayList;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class JavaSourceMethod {
 	
-	public String METHOD_STRING;
+	/*
+	 * The source of the method, rendered when it is asked for and dropped by every setter
+	 */
+	private String methodString;
 	
 	private String methodName;
 	private String methodPrefix;
@@ -42,12 +47,6 @@ public class JavaSourceMethod {
 		this.annotations = annotations;
 		this.parameters = parameters;
 		this.methodBody = methodBody;
-		
-		try {
-			METHOD_STRING = makeMethod(methodName, methodPrefix, returnType, throwsDeclaration, annotations, parameters, methodBody);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
 	}
 	
 	public JavaSourceMethod(MethodDeclaration method) {
@@ -68,11 +67,7 @@ public class JavaSourceMethod {
 	
 	public void setMethodName(String methodName) {
 		this.methodName = methodName;
-		try {
-			METHOD_STRING = makeMethod(methodName, methodPrefix, returnType, throwsDeclaration, annotations, parameters, methodBody);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		methodString = null;
 	}
 	
 	public String getMethodPrefix() {
@@ -81,11 +76,7 @@ public class JavaSourceMethod {
 	
 	public void setMethodPrefix(String methodPrefix) {
 		this.methodPrefix = methodPrefix;
-		try {
-			METHOD_STRING = makeMethod(methodName, methodPrefix, returnType, throwsDeclaration, annotations, parameters, methodBody);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		methodString = null;
 	}
 	
 	public String getReturnType() {
@@ -94,11 +85,7 @@ public class JavaSourceMethod {
 	
 	public void setReturnType(String returnType) {
 		this.returnType = returnType;
-		try {
-			METHOD_STRING = makeMethod(methodName, methodPrefix, returnType, throwsDeclaration, annotations, parameters, methodBody);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		methodString = null;
 	}
 	
 	public String getThrowsDeclaration() {
@@ -107,11 +94,7 @@ public class JavaSourceMethod {
 	
 	public void setThrowsDeclaration(String throwsDeclaration) {
 		this.throwsDeclaration = throwsDeclaration;
-		try {
-			METHOD_STRING = makeMethod(methodName, methodPrefix, returnType, throwsDeclaration, annotations, parameters, methodBody);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		methodString = null;
 	}
 	
 	public String getAnnotations() {
@@ -120,11 +103,7 @@ public class JavaSourceMethod {
 	
 	public void setAnnotations(String annotations) {
 		this.annotations = annotations;
-		try {
-			METHOD_STRING = makeMethod(methodName, methodPrefix, returnType, throwsDeclaration, annotations, parameters, methodBody);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		methodString = null;
 	}
 	
 	public ArrayList<String> getParameters() {
@@ -133,11 +112,7 @@ public class JavaSourceMethod {
 	
 	public void setParameters(ArrayList<String> parameters) {
 		this.parameters = parameters;
-		try {
-			METHOD_STRING = makeMethod(methodName, methodPrefix, returnType, throwsDeclaration, annotations, parameters, methodBody);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		methodString = null;
 	}
 	
 	public String getMethodBody() {
@@ -146,11 +121,38 @@ public class JavaSourceMethod {
 	
 	public void setMethodBody(String methodBody) {
 		this.methodBody = methodBody;
-		try {
-			METHOD_STRING = makeMethod(methodName, methodPrefix, returnType, throwsDeclaration, annotations, parameters, methodBody);
-		} catch (Exception e) {
-			e.printStackTrace();
+		methodString = null;
+	}
+	
+	/*
+	 * Returns the key by which the methods of a class are told apart: return type, name and parameters, where the order 
+	 * of the parameters does not matter and white space is normalised
+	 */
+	public String getSignature() {
+		Set<String> normalisedParameters = new TreeSet<String>();
+		for (String parameter : parameters) {
+			normalisedParameters.add(normaliseWhitespace(parameter));
+		}
+		return normaliseWhitespace(returnType) + " " + methodName + normalisedParameters;
+	}
+	
+	private static String normaliseWhitespace(String text) {
+		return text.trim().replaceAll("\\s+", " ");
+	}
+	
+	/*
+	 * Returns the source of the method, or an empty string if the method cannot be rendered (e.g. has no name)
+	 */
+	public String getMethodString() {
+		if (methodString == null) {
+			try {
+				methodString = makeMethod(methodName, methodPrefix, returnType, throwsDeclaration, annotations, parameters, methodBody);
+			} catch (Exception e) {
+				e.printStackTrace();
+				return "";
+			}
 		}
+		return methodString;
 	}
 	
 	public String makeMethod(String methodName, String methodPrefix, String returnType, String throwsDeclaration, String annotations, 
@@ -168,12 +170,12 @@ public class JavaSourceMethod {
 		if (!returnType.isEmpty())
 			returnType += " ";
 		
-		String parameterString = "";
+		StringBuilder parameterString = new StringBuilder();
 		for (String parameter : parameters) {
-			parameterString += parameter + ", ";
+			if (parameterString.length() > 0)
+				parameterString.append(", ");
+			parameterString.append(parameter);
 		}
-		if (!parameterString.isEmpty())
-			parameterString = parameterString.substring(0, parameterString.lastIndexOf(','));
 		
 		if (!throwsDeclaration.isEmpty())
 			throwsDeclaration += " ";
@@ -16,9 +16,13 @@
 
 package com.sap.research.connectivity.gw.parsers;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import japa.parser.JavaParser;
+import japa.parser.ParseException;
+import japa.parser.ast.CompilationUnit;
 import japa.parser.ast.body.ModifierSet;
 import japa.parser.ast.body.Parameter;
 import japa.parser.ast.body.VariableDeclarator;
@@ -27,6 +31,23 @@ import japa.parser.ast.expr.NameExpr;
 
 public final class JavaSourceParserUtils {
 
+	/*
+	 * JavaParser reuses a single static parser unless told otherwise; with a parser of its own per call, the shell 
+	 * commands, the completion index in the background and the generation of several entities at once can parse 
+	 * classes concurrently
+	 */
+	static {
+		JavaParser.setCacheParser(false);
+	}
+
+	public static CompilationUnit parse(InputStream inputStream) throws ParseException {
+		return JavaParser.parse(inputStream);
+	}
+
+	public static CompilationUnit parse(InputStream inputStream, String encoding) throws ParseException {
+		return JavaParser.parse(inputStream, encoding);
+	}
+
 	public static String translateModifiers(int modifiers) {
 		String returnString = "";
         if (ModifierSet.isPrivate(modifiers)) {
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.w3c.dom.Document;
+
+/*
+ * Compares two versions of a stored <ns>_metadata.xml document and collects, per entity set, the fields and
+ * navigation properties which have been added or removed. A field whose type changed is reported as removed (old type)
+ * and added (new type).
+ */
+public class MetadataDiff {
+
+	private final Set<String> addedEntities = new LinkedHashSet<String>();
+	private final Set<String> removedEntities = new LinkedHashSet<String>();
+	private final Map<String, EntityChanges> changedEntities = new LinkedHashMap<String, EntityChanges>();
+
+	public MetadataDiff(Document oldDocument, Document newDocument) throws Exception {
+		this(MetadataModel.build(oldDocument), MetadataModel.build(newDocument));
+	}
+
+	public MetadataDiff(MetadataEntitySource oldMetadata, MetadataEntitySource newMetadata) throws Exception {
+		Set<String> oldEntities = oldMetadata.getEntityNames();
+		Set<String> newEntities = newMetadata.getEntityNames();
+
+		for (String entity : newEntities) {
+			if (!oldEntities.contains(entity))
+				addedEntities.add(entity);
+		}
+
+		for (String entity : oldEntities) {
+			if (!newEntities.contains(entity)) {
+				removedEntities.add(entity);
+				continue;
+			}
+
+			MetadataXMLParser oldParser = new MetadataXMLParser(oldMetadata, entity);
+			oldParser.parse();
+			MetadataXMLParser newParser = new MetadataXMLParser(newMetadata, entity);
+			newParser.parse();
+
+			EntityChanges changes = new EntityChanges(oldParser, newParser);
+			if (!changes.isEmpty())
+				changedEntities.put(entity, changes);
+		}
+	}
+
+	public boolean isEmpty() {
+		return addedEntities.isEmpty() && removedEntities.isEmpty() && changedEntities.isEmpty();
+	}
+
+	public Set<String> getAddedEntities() {
+		return addedEntities;
+	}
+
+	public Set<String> getRemovedEntities() {
+		return removedEntities;
+	}
+
+	public Map<String, EntityChanges> getChangedEntities() {
+		return changedEntities;
+	}
+
+	public static class EntityChanges {
+
+		/*
+		 * Same representation as in MetadataXMLParser, in the order of the metadata files
+		 */
+		private final RemoteFields oldFields;
+		private final RemoteFields addedFields = new RemoteFields();
+		private final RemoteFields removedFields = new RemoteFields();
+		private final boolean keysChanged;
+
+		private final Map<String, String[]> oldRelationships;
+		private final Map<String, String[]> addedRelationships = new LinkedHashMap<String, String[]>();
+		private final Map<String, String[]> removedRelationships = new LinkedHashMap<String, String[]>();
+
+		EntityChanges(MetadataXMLParser oldParser, MetadataXMLParser newParser) {
+			oldFields = oldParser.getFields();
+			keysChanged = !sameTypes(oldParser.getKeys(), newParser.getKeys());
+
+			for (RemoteField field : newParser.getFields()) {
+				RemoteField oldField = oldParser.getFields().get(field.getRemoteName());
+				if (oldField == null || !field.getType().equals(oldField.getType()))
+					addedFields.add(field);
+			}
+			for (RemoteField field : oldParser.getFields()) {
+				RemoteField newField = newParser.getFields().get(field.getRemoteName());
+				if (newField == null || !field.getType().equals(newField.getType()))
+					removedFields.add(field);
+			}
+
+			oldRelationships = oldParser.getRelationships();
+			Map<String, String[]> newRelationships = newParser.getRelationships();
+
+			for (Map.Entry<String, String[]> relationship : newRelationships.entrySet()) {
+				String[] oldRelationship = oldRelationships.get(relationship.getKey());
+				if (oldRelationship == null || !Arrays.equals(oldRelationship, relationship.getValue()))
+					addedRelationships.put(relationship.getKey(), relationship.getValue());
+			}
+			for (Map.Entry<String, String[]> relationship : oldRelationships.entrySet()) {
+				String[] newRelationship = newRelationships.get(relationship.getKey());
+				if (newRelationship == null || !Arrays.equals(newRelationship, relationship.getValue()))
+					removedRelationships.put(relationship.getKey(), relationship.getValue());
+			}
+		}
+
+		/*
+		 * True if both contain the same remote names with the same types
+		 */
+		private static boolean sameTypes(RemoteFields fields, RemoteFields otherFields) {
+			if (fields.size() != otherFields.size())
+				return false;
+			for (RemoteField field : fields) {
+				RemoteField otherField = otherFields.get(field.getRemoteName());
+				if (otherField == null || !field.getType().equals(otherField.getType()))
+					return false;
+			}
+			return true;
+		}
+
+		public boolean isEmpty() {
+			return !keysChanged && addedFields.isEmpty() && removedFields.isEmpty() && addedRelationships.isEmpty()
+					&& removedRelationships.isEmpty();
+		}
+
+		public RemoteFields getOldFields() {
+			return oldFields;
+		}
+
+		public RemoteFields getAddedFields() {
+			return addedFields;
+		}
+
+		public RemoteFields getRemovedFields() {
+			return removedFields;
+		}
+
+		public boolean isKeysChanged() {
+			return keysChanged;
+		}
+
+		public Map<String, String[]> getOldRelationships() {
+			return oldRelationships;
+		}
+
+		public Map<String, String[]> getAddedRelationships() {
+			return addedRelationships;
+		}
+
+		public Map<String, String[]> getRemovedRelationships() {
+			return removedRelationships;
+		}
+	}
+}
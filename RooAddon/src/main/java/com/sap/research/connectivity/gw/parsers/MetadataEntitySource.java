@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import java.io.IOException;
+import java.util.Set;
+
+/*
+ * The entities of a stored <ns>_metadata.xml file, whichever way they are read: from a DOM of the whole file
+ * (MetadataModel), from its binary index (MetadataIndex) or entity by entity from the mapped file (MetadataFileMap).
+ */
+public interface MetadataEntitySource {
+
+	/*
+	 * The entity names, in document order
+	 */
+	Set<String> getEntityNames() throws IOException;
+
+	boolean hasEntity(String entityName) throws IOException;
+
+	/*
+	 * Returns the fields and navigation properties of an entity, or null if the metadata does not contain it
+	 */
+	MetadataIndex.Entity getEntity(String entityName) throws IOException;
+}
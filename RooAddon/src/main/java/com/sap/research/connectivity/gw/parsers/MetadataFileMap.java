@@ -0,0 +1,324 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.xml.sax.InputSource;
+
+/*
+ * Read-only view of a stored <ns>_metadata.xml file which does not hold a DOM of the whole document. The file is
+ * memory-mapped; on first access a directory from entity name to the byte range of its <entity> element is built by
+ * scanning the bytes for the entity tags, and afterwards only the element of a requested entity is parsed.
+ *
+ * Scanning the bytes for tags requires an ASCII-compatible encoding; open() returns null for files in another
+ * encoding, which then have to be read as a whole. As with MetadataModel the first entity of a name wins.
+ *
+ * The mapping lives as long as this object is referenced, so a MetadataFileMap must not be kept once the file has
+ * been changed.
+ */
+public class MetadataFileMap implements MetadataEntitySource {
+
+	private static final Pattern ENCODING = Pattern.compile("^<\\?xml[^>]*\\sencoding\\s*=\\s*[\"']([A-Za-z0-9._-]+)[\"']");
+	private static final Pattern NAME = Pattern.compile("\\sname\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+
+	private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+
+	private final ByteBuffer buffer;
+	private final String encoding;
+
+	/*
+	 * Entity name to {start, end} of its element, built on first access
+	 */
+	private Map<String, int[]> directory;
+
+	private MetadataFileMap(ByteBuffer buffer, String encoding) {
+		this.buffer = buffer;
+		this.encoding = encoding;
+	}
+
+	/*
+	 * Maps the given metadata file, returns null if it cannot be scanned for its entities (see above)
+	 */
+	public static MetadataFileMap open(File metadataFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(metadataFile, "r");
+		MappedByteBuffer buffer;
+		try {
+			if (file.length() > Integer.MAX_VALUE)
+				return null;
+			// The mapping stays valid after the channel is closed
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			file.close();
+		}
+
+		String encoding = getEncoding(buffer);
+		return encoding == null ? null : new MetadataFileMap(buffer, encoding);
+	}
+
+	public synchronized Set<String> getEntityNames() throws IOException {
+		return Collections.unmodifiableSet(getDirectory().keySet());
+	}
+
+	public synchronized boolean hasEntity(String entityName) throws IOException {
+		return getDirectory().containsKey(entityName);
+	}
+
+	/*
+	 * Parses the element of the given entity only, returns null if the file does not contain it
+	 */
+	public MetadataIndex.Entity getEntity(String entityName) throws IOException {
+		int[] range;
+		synchronized (this) {
+			range = getDirectory().get(entityName);
+		}
+		if (range == null)
+			return null;
+
+		byte[] element = new byte[range[1] - range[0]];
+		ByteBuffer view = buffer.duplicate();
+		view.position(range[0]);
+		view.get(element);
+
+		InputSource source = new InputSource(new ByteArrayInputStream(element));
+		source.setEncoding(encoding);
+		try {
+			return MetadataModel.readEntity(newDocumentBuilder().parse(source).getDocumentElement());
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("The entity " + entityName + " cannot be read: " + e.getMessage(), e);
+		}
+	}
+
+	private Map<String, int[]> getDirectory() throws IOException {
+		if (directory == null)
+			directory = scan();
+		return directory;
+	}
+
+	/*
+	 * Finds the start and end of every <entity> element. Comments, CDATA sections and processing instructions are
+	 * skipped, so that tags inside of them are not taken for entities.
+	 */
+	private Map<String, int[]> scan() throws IOException {
+		Map<String, int[]> entities = new LinkedHashMap<String, int[]>();
+		int limit = buffer.limit();
+		int entityStart = -1;
+		String entityName = null;
+
+		for (int i = 0; i < limit; i++) {
+			if (buffer.get(i) != '<')
+				continue;
+
+			if (startsWith(i, "<!--")) {
+				i = skipTo(i + 4, "-->");
+			}
+			else if (startsWith(i, "<![CDATA[")) {
+				i = skipTo(i + 9, "]]>");
+			}
+			else if (startsWith(i, "<?") || startsWith(i, "<!")) {
+				i = skipTo(i + 2, ">");
+			}
+			else if (entityStart < 0 && isTag(i + 1, "entity")) {
+				int tagEnd = findTagEnd(i);
+				entityName = getName(i, tagEnd);
+				if (buffer.get(tagEnd - 1) == '/') {
+					// <entity name="..."/>
+					addEntity(entities, entityName, i, tagEnd + 1);
+				}
+				else {
+					entityStart = i;
+				}
+				i = tagEnd;
+			}
+			else if (entityStart >= 0 && startsWith(i, "</") && isTag(i + 2, "entity")) {
+				int tagEnd = findTagEnd(i);
+				addEntity(entities, entityName, entityStart, tagEnd + 1);
+				entityStart = -1;
+				i = tagEnd;
+			}
+		}
+
+		if (entityStart >= 0)
+			throw new IOException("The metadata file ends inside of the entity " + entityName + ".");
+		return entities;
+	}
+
+	private static void addEntity(Map<String, int[]> entities, String entityName, int start, int end) {
+		if (!entities.containsKey(entityName))
+			entities.put(entityName, new int[] {start, end});
+	}
+
+	private boolean startsWith(int position, String prefix) {
+		if (position + prefix.length() > buffer.limit())
+			return false;
+		for (int i = 0; i < prefix.length(); i++) {
+			if (buffer.get(position + i) != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Whether the tag name at the given position is the given one (and not only starts with it)
+	 */
+	private boolean isTag(int position, String tagName) {
+		if (!startsWith(position, tagName) || position + tagName.length() >= buffer.limit())
+			return false;
+		byte next = buffer.get(position + tagName.length());
+		return next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\r' || next == '\n';
+	}
+
+	/*
+	 * Returns the position of the last character of the given string, searching from the given position
+	 */
+	private int skipTo(int position, String end) throws IOException {
+		for (int i = position; i < buffer.limit(); i++) {
+			if (startsWith(i, end))
+				return i + end.length() - 1;
+		}
+		throw new IOException("The metadata file ends before \"" + end + "\".");
+	}
+
+	/*
+	 * Returns the position of the '>' closing the tag starting at the given position, '>' in attribute values is skipped
+	 */
+	private int findTagEnd(int position) throws IOException {
+		byte quote = 0;
+		for (int i = position; i < buffer.limit(); i++) {
+			byte b = buffer.get(i);
+			if (quote != 0) {
+				if (b == quote)
+					quote = 0;
+			}
+			else if (b == '"' || b == '\'') {
+				quote = b;
+			}
+			else if (b == '>') {
+				return i;
+			}
+		}
+		throw new IOException("The metadata file ends inside of a tag.");
+	}
+
+	private String getName(int tagStart, int tagEnd) throws IOException {
+		byte[] tag = new byte[tagEnd - tagStart];
+		ByteBuffer view = buffer.duplicate();
+		view.position(tagStart);
+		view.get(tag);
+
+		Matcher matcher = NAME.matcher(new String(tag, encoding));
+		if (!matcher.find())
+			return "";
+		return unescape(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+	}
+
+	/*
+	 * Replaces the predefined entities and character references of an attribute value
+	 */
+	private static String unescape(String value) {
+		if (value.indexOf('&') < 0)
+			return value.trim();
+
+		StringBuilder result = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			int end = c == '&' ? value.indexOf(';', i) : -1;
+			if (end < 0) {
+				result.append(c);
+				continue;
+			}
+			String reference = value.substring(i + 1, end);
+			if (reference.equals("lt"))
+				result.append('<');
+			else if (reference.equals("gt"))
+				result.append('>');
+			else if (reference.equals("amp"))
+				result.append('&');
+			else if (reference.equals("quot"))
+				result.append('"');
+			else if (reference.equals("apos"))
+				result.append('\'');
+			else if (reference.startsWith("#x") && reference.matches("#x[0-9A-Fa-f]{1,6}"))
+				result.appendCodePoint(Integer.parseInt(reference.substring(2), 16));
+			else if (reference.matches("#[0-9]{1,7}"))
+				result.appendCodePoint(Integer.parseInt(reference.substring(1)));
+			else
+				result.append(value, i, end + 1);
+			i = end;
+		}
+		return result.toString().trim();
+	}
+
+	/*
+	 * Returns the encoding of the XML declaration (UTF-8 if there is none), or null if the file is not in an
+	 * ASCII-compatible encoding
+	 */
+	private static String getEncoding(ByteBuffer buffer) {
+		if (buffer.limit() >= 2) {
+			int first = buffer.get(0) & 0xFF;
+			int second = buffer.get(1) & 0xFF;
+			if ((first == 0xFE && second == 0xFF) || (first == 0xFF && second == 0xFE) || first == 0 || second == 0)
+				return null;
+		}
+
+		byte[] declaration = new byte[Math.min(buffer.limit(), 200)];
+		ByteBuffer view = buffer.duplicate();
+		view.position(0);
+		view.get(declaration);
+		String start = new String(declaration, Charset.forName("ISO-8859-1"));
+		if (start.startsWith("\u00EF\u00BB\u00BF"))
+			start = start.substring(3);
+
+		Matcher matcher = ENCODING.matcher(start);
+		if (!matcher.find())
+			return "UTF-8";
+		String encoding = matcher.group(1);
+		try {
+			// The tags are searched as ASCII bytes
+			String markup = "</entity name='&;'>";
+			return Arrays.equals(markup.getBytes(encoding), markup.getBytes("US-ASCII")) ? encoding : null;
+		} catch (UnsupportedEncodingException e) {
+			return null;
+		}
+	}
+
+	private static DocumentBuilder newDocumentBuilder() throws Exception {
+		synchronized (DOCUMENT_BUILDER_FACTORY) {
+			return DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+		}
+	}
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.w3c.dom.Document;
+
+/*
+ * Compact binary index of a stored <ns>_metadata.xml file, written next to it as <ns>_metadata.idx. The XML file stays
+ * the source of truth; the index records the modification time, the size and the content hash (as stored in the
+ * MetadataCache of the namespace) of the XML it was built from and is ignored as soon as one of them does not match
+ * anymore. The hash catches rewrites of the same size within the time granularity of the file system.
+ *
+ * Layout (all values written with DataOutputStream, strings as int length followed by their UTF-8 bytes):
+ *
+ *   int    magic "GWMI"
+ *   short  format version
+ *   long   last modified time of the XML file
+ *   long   length of the XML file
+ *   string content hash
+ *   int    length of the header block
+ *   header block:
+ *     int    number of strings, followed by the strings (all names, types and multiplicities, each stored once)
+ *     int    number of entities, followed by (name, record offset, record length) per entity
+ *   records, one per entity:
+ *     int    number of fields, followed by (name, type, key flag, number of facets, (facet name, facet value) per
+ *            facet) per field
+ *     int    number of navigation properties, followed by (navpath, relationship id, end1 type, end1 multiplicity,
+ *            end2 type, end2 multiplicity) per navigation property
+ *
+ * Names are stored as indexes into the string table. Opening an index only reads the header block; the record of an
+ * entity is read on request with a single seek.
+ */
+public class MetadataIndex implements MetadataEntitySource {
+
+	public static final String INDEX_FILE_SUFFIX = "_metadata.idx";
+
+	private static final int MAGIC = 0x47574D49;
+	private static final short VERSION = 3;
+
+	/*
+	 * magic + version + last modified + length, followed by the content hash and the header length
+	 */
+	private static final int PREAMBLE_LENGTH = 4 + 2 + 8 + 8;
+
+	private final File indexFile;
+	private final String[] strings;
+	private final Map<String, int[]> directory;
+	private final long recordsStart;
+
+	private MetadataIndex(File indexFile, String[] strings, Map<String, int[]> directory, long recordsStart) {
+		this.indexFile = indexFile;
+		this.strings = strings;
+		this.directory = directory;
+		this.recordsStart = recordsStart;
+	}
+
+	/*
+	 * Opens the index of the given metadata file, returns null if there is no index, if it is outdated or unreadable, or
+	 * if the content hash of the metadata file is not known
+	 */
+	public static MetadataIndex open(File indexFile, File metadataFile, String contentHash) {
+		if (!indexFile.isFile() || !metadataFile.isFile() || contentHash == null)
+			return null;
+
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(indexFile, "r");
+			if (file.readInt() != MAGIC || file.readShort() != VERSION || file.readLong() != metadataFile.lastModified()
+					|| file.readLong() != metadataFile.length() || !contentHash.equals(readString(file, file.length())))
+				return null;
+
+			int headerLength = file.readInt();
+			if (headerLength < 0 || headerLength > file.length())
+				return null;
+			long recordsStart = file.getFilePointer() + headerLength;
+			byte[] header = new byte[headerLength];
+			file.readFully(header);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+
+			String[] strings = new String[in.readInt()];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = readString(in, header.length);
+			}
+
+			int entityCount = in.readInt();
+			Map<String, int[]> directory = new LinkedHashMap<String, int[]>(entityCount * 2);
+			for (int i = 0; i < entityCount; i++) {
+				directory.put(strings[in.readInt()], new int[] {in.readInt(), in.readInt()});
+			}
+
+			return new MetadataIndex(indexFile, strings, directory, recordsStart);
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// A truncated or otherwise corrupted index is simply not used
+			return null;
+		} finally {
+			closeQuietly(file);
+		}
+	}
+
+	public Set<String> getEntityNames() {
+		return Collections.unmodifiableSet(directory.keySet());
+	}
+
+	public boolean hasEntity(String entityName) {
+		return directory.containsKey(entityName);
+	}
+
+	/*
+	 * Returns the fields and navigation properties of an entity, or null if the index does not contain it
+	 */
+	public Entity getEntity(String entityName) throws IOException {
+		int[] location = directory.get(entityName);
+		if (location == null)
+			return null;
+
+		byte[] record = new byte[location[1]];
+		RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+		try {
+			file.seek(recordsStart + location[0]);
+			file.readFully(record);
+		} finally {
+			closeQuietly(file);
+		}
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		Entity entity = new Entity(entityName);
+		int fieldCount = in.readInt();
+		for (int i = 0; i < fieldCount; i++) {
+			String[] field = new String[3];
+			field[0] = strings[in.readInt()];
+			field[1] = strings[in.readInt()];
+			field[2] = in.readBoolean() ? "true" : "false";
+			int facetValues = in.readShort() * 2;
+			if (facetValues > 0) {
+				String[] fieldWithFacets = new String[field.length + facetValues];
+				System.arraycopy(field, 0, fieldWithFacets, 0, field.length);
+				for (int j = field.length; j < fieldWithFacets.length; j++) {
+					fieldWithFacets[j] = strings[in.readInt()];
+				}
+				field = fieldWithFacets;
+			}
+			entity.addField(field);
+		}
+		int navPropertyCount = in.readInt();
+		for (int i = 0; i < navPropertyCount; i++) {
+			String[] navProperty = new String[6];
+			for (int j = 0; j < navProperty.length; j++) {
+				navProperty[j] = strings[in.readInt()];
+			}
+			entity.addNavProperty(navProperty);
+		}
+		return entity;
+	}
+
+	/*
+	 * Builds the index of a parsed metadata document; the modification time, length and content hash of the XML file are
+	 * stored to detect later changes of the XML.
+	 */
+	public static byte[] build(Document metadataDocument, long metadataLastModified, long metadataLength, String contentHash)
+			throws IOException {
+		return build(MetadataModel.build(metadataDocument), metadataLastModified, metadataLength, contentHash);
+	}
+
+	public static byte[] build(MetadataEntitySource metadata, long metadataLastModified, long metadataLength, String contentHash)
+			throws IOException {
+		Map<String, Integer> stringTable = new LinkedHashMap<String, Integer>();
+		Map<Integer, byte[]> records = new LinkedHashMap<Integer, byte[]>();
+
+		for (String entityName : metadata.getEntityNames()) {
+			Entity entity = metadata.getEntity(entityName);
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(record);
+
+			out.writeInt(entity.getFields().size());
+			for (String[] field : entity.getFields()) {
+				out.writeInt(intern(stringTable, field[0]));
+				out.writeInt(intern(stringTable, field[1]));
+				out.writeBoolean("true".equals(field[2]));
+				out.writeShort((field.length - 3) / 2);
+				for (int i = 3; i < field.length; i++) {
+					out.writeInt(intern(stringTable, field[i]));
+				}
+			}
+
+			out.writeInt(entity.getNavProperties().size());
+			for (String[] navProperty : entity.getNavProperties()) {
+				for (String value : navProperty) {
+					out.writeInt(intern(stringTable, value));
+				}
+			}
+
+			out.flush();
+			records.put(intern(stringTable, entityName), record.toByteArray());
+		}
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream headerOut = new DataOutputStream(header);
+		headerOut.writeInt(stringTable.size());
+		for (String string : stringTable.keySet()) {
+			writeString(headerOut, string);
+		}
+		headerOut.writeInt(records.size());
+		int offset = 0;
+		for (Map.Entry<Integer, byte[]> record : records.entrySet()) {
+			headerOut.writeInt(record.getKey());
+			headerOut.writeInt(offset);
+			headerOut.writeInt(record.getValue().length);
+			offset += record.getValue().length;
+		}
+		headerOut.flush();
+
+		ByteArrayOutputStream index = new ByteArrayOutputStream(PREAMBLE_LENGTH + 4 + contentHash.length() + 4 + header.size() + offset);
+		DataOutputStream out = new DataOutputStream(index);
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeLong(metadataLastModified);
+		out.writeLong(metadataLength);
+		writeString(out, contentHash);
+		out.writeInt(header.size());
+		header.writeTo(out);
+		for (byte[] record : records.values()) {
+			out.write(record);
+		}
+		out.flush();
+		return index.toByteArray();
+	}
+
+	private static int intern(Map<String, Integer> stringTable, String string) {
+		String value = string == null ? "" : string.trim();
+		Integer index = stringTable.get(value);
+		if (index == null) {
+			index = stringTable.size();
+			stringTable.put(value, index);
+		}
+		return index;
+	}
+
+	/*
+	 * DataOutput.writeUTF() is limited to strings of 64 KB, e.g. long facet values would not fit
+	 */
+	private static void writeString(DataOutput out, String string) throws IOException {
+		byte[] bytes = string.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/*
+	 * Reads a string written by writeString(), the length is checked against the number of bytes which can be left
+	 */
+	private static String readString(DataInput in, long available) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > available)
+			throw new IOException("Invalid string length " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static void closeQuietly(RandomAccessFile file) {
+		if (file == null)
+			return;
+		try {
+			file.close();
+		} catch (IOException e) {
+			// Nothing to do, the file has only been read
+		}
+	}
+
+	/*
+	 * The fields ({name, type, "true"/"false" for key, facet name, facet value, ...}) and navigation properties ({navpath, relationship id,
+	 * end1 type, end1 multiplicity, end2 type, end2 multiplicity}) of one entity, in document order, and tables to look
+	 * them up by name.
+	 */
+	public static class Entity {
+
+		private final String name;
+		private final List<String[]> fields = new ArrayList<String[]>();
+		private final List<String[]> keys = new ArrayList<String[]>();
+		private final List<String[]> navProperties = new ArrayList<String[]>();
+		private final Map<String, String[]> fieldsByName = new HashMap<String, String[]>();
+		private final Map<String, String[]> navPropertiesByPath = new HashMap<String, String[]>();
+
+		Entity(String name) {
+			this.name = name;
+		}
+
+		void addField(String[] field) {
+			fields.add(field);
+			if ("true".equals(field[2]))
+				keys.add(field);
+			fieldsByName.put(field[0], field);
+		}
+
+		void addNavProperty(String[] navProperty) {
+			navProperties.add(navProperty);
+			navPropertiesByPath.put(navProperty[0], navProperty);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public List<String[]> getFields() {
+			return fields;
+		}
+
+		/*
+		 * The key fields, in document order
+		 */
+		public List<String[]> getKeys() {
+			return keys;
+		}
+
+		public List<String[]> getNavProperties() {
+			return navProperties;
+		}
+
+		/*
+		 * Returns the field with the given remote name, or null
+		 */
+		public String[] getField(String fieldName) {
+			return fieldsByName.get(fieldName);
+		}
+
+		/*
+		 * Returns the navigation property with the given navpath, or null
+		 */
+		public String[] getNavProperty(String navPath) {
+			return navPropertiesByPath.get(navPath);
+		}
+	}
+}
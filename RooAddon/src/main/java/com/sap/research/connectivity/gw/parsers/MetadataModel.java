@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/*
+ * The entities of a parsed <ns>_metadata.xml document, read in a single pass: a table from entity name to entity, and
+ * per entity the fields, keys and navigation properties, in the same form as the records of a MetadataIndex. Looking
+ * up an entity, a field or a navigation property does not search the document anymore.
+ *
+ * Only the direct children of the entity, entityfield and navproperty elements are read; values are trimmed. Other
+ * children of an entityfield element than fieldname, fieldtype and key are kept as facets of the field.
+ */
+public class MetadataModel implements MetadataEntitySource {
+
+	private final Map<String, MetadataIndex.Entity> entities = new LinkedHashMap<String, MetadataIndex.Entity>();
+
+	private MetadataModel() {
+	}
+
+	public static MetadataModel build(Document metadataDocument) {
+		MetadataModel model = new MetadataModel();
+		NodeList entityNodes = metadataDocument.getElementsByTagName("entity");
+		for (int i = 0; i < entityNodes.getLength(); i++) {
+			MetadataIndex.Entity entity = readEntity((Element) entityNodes.item(i));
+
+			// As with getElementsByTagName before, the first entity of a name wins
+			if (!model.entities.containsKey(entity.getName()))
+				model.entities.put(entity.getName(), entity);
+		}
+		return model;
+	}
+
+	/*
+	 * The entity names, in document order
+	 */
+	public Set<String> getEntityNames() {
+		return Collections.unmodifiableSet(entities.keySet());
+	}
+
+	public boolean hasEntity(String entityName) {
+		return entities.containsKey(entityName);
+	}
+
+	/*
+	 * Returns the fields and navigation properties of an entity, or null if the document does not contain it
+	 */
+	public MetadataIndex.Entity getEntity(String entityName) {
+		return entities.get(entityName);
+	}
+
+	/*
+	 * Reads the fields and navigation properties of one entity element
+	 */
+	static MetadataIndex.Entity readEntity(Element entityNode) {
+		MetadataIndex.Entity entity = new MetadataIndex.Entity(entityNode.getAttribute("name"));
+		for (Node child = entityNode.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() != Node.ELEMENT_NODE)
+				continue;
+			if ("entityfield".equals(child.getNodeName()))
+				entity.addField(readField((Element) child));
+			else if ("navproperty".equals(child.getNodeName()))
+				entity.addNavProperty(readNavProperty((Element) child));
+		}
+		return entity;
+	}
+
+	/*
+	 * {name, type, "true"/"false" for key, facet name, facet value, ...}
+	 */
+	private static String[] readField(Element fieldNode) {
+		String[] field = {"", "", "false"};
+		List<String> facets = new ArrayList<String>();
+		for (Node child = fieldNode.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() != Node.ELEMENT_NODE)
+				continue;
+			String name = child.getNodeName();
+			if ("fieldname".equals(name)) {
+				field[0] = child.getTextContent().trim();
+			}
+			else if ("fieldtype".equals(name)) {
+				field[1] = child.getTextContent().trim();
+			}
+			else if ("key".equals(name)) {
+				field[2] = "true".equals(child.getTextContent().trim()) ? "true" : "false";
+			}
+			else {
+				facets.add(name);
+				facets.add(child.getTextContent().trim());
+			}
+		}
+		if (facets.isEmpty())
+			return field;
+
+		String[] fieldWithFacets = new String[field.length + facets.size()];
+		System.arraycopy(field, 0, fieldWithFacets, 0, field.length);
+		for (int i = 0; i < facets.size(); i++) {
+			fieldWithFacets[field.length + i] = facets.get(i);
+		}
+		return fieldWithFacets;
+	}
+
+	/*
+	 * {navpath, relationship id, end1 type, end1 multiplicity, end2 type, end2 multiplicity}
+	 */
+	private static String[] readNavProperty(Element navNode) {
+		String[] navProperty = {"", "", "", "", "", ""};
+		for (Node child = navNode.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() != Node.ELEMENT_NODE)
+				continue;
+			String name = child.getNodeName();
+			if ("navpath".equals(name)) {
+				navProperty[0] = child.getTextContent().trim();
+			}
+			else if ("relationship_id".equals(name)) {
+				navProperty[1] = child.getTextContent().trim();
+			}
+			else if ("end1".equals(name)) {
+				navProperty[2] = child.getTextContent().trim();
+				navProperty[3] = ((Element) child).getAttribute("multiplicity").trim();
+			}
+			else if ("end2".equals(name)) {
+				navProperty[4] = child.getTextContent().trim();
+				navProperty[5] = ((Element) child).getAttribute("multiplicity").trim();
+			}
+		}
+		return navProperty;
+	}
+}
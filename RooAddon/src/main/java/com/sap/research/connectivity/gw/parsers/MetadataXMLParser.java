@@ -17,14 +17,10 @@
 package com.sap.research.connectivity.gw.parsers;
 
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
-import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import org.springframework.roo.model.ReservedWords;
 
@@ -33,100 +29,68 @@ public class MetadataXMLParser {
     /**
      * Get hold of a JDK Logger
      */
-	Document doc;
+	MetadataEntitySource entities;
 	String remoteEntity;
 	
 	/*
-	 * We use array in the value, to keep the original name (from the remote system), because we might change it locally 
-	 * (for cases like "id", "user", etc.) 
+	 * The fields keep the original name (from the remote system), because we might change it locally (for cases like "id", 
+	 * "user", etc.), and are in the order of the metadata file
 	 */
-	Map<String[], String> fields = new HashMap<String[], String>();
-	Map<String[], String> keys = new HashMap<String[], String>();
+	RemoteFields fields = new RemoteFields();
+	RemoteFields keys = new RemoteFields();
 	
 	/*
 	 * The relation properties.
 	 * Key = field name on which to make relationship (navbar is the property exposed by OData)
 	 * Value = array of strings in this order: from_entity, from_entity_multiplicity, to_entity, to_entity_multiplicity
 	 */
-	Map<String, String[]> relationships = new HashMap<String, String[]>();
+	Map<String, String[]> relationships = new LinkedHashMap<String, String[]>();
 	
 
 	public MetadataXMLParser(Document document, String remoteEntity){
 
-		this.doc = document;
+		this(MetadataModel.build(document), remoteEntity);
+	
+	}
+	
+	/*
+	 * Reads the entity from the entity table of an already parsed metadata document, from the binary index of the 
+	 * metadata file or from the mapped file; a source can be shared by the parsers of all its entities
+	 */
+	public MetadataXMLParser(MetadataEntitySource entities, String remoteEntity){
+
+		this.entities = entities;
 		this.remoteEntity = remoteEntity;
 	
 	}
 	
 	public void parse() throws Exception{
 		
-	  NodeList nodeList = doc.getElementsByTagName("entity");
-	  Element remoteEntityEle = getRemoteEntityNode(nodeList);
-	  
-	  if (remoteEntityEle == null)
-		  throw new Exception("There is no entity with name "+ remoteEntity);
-	  
-	  getFieldsOfEntityNode(remoteEntityEle);
-	  getRelationsOfEntityNode(remoteEntityEle);
-	}
-
-	private void getRelationsOfEntityNode(Element remoteEntityEle) throws Exception {
-		  NodeList relationNodes = remoteEntityEle.getElementsByTagName("navproperty");
-		  for (int i = 0; i < relationNodes.getLength(); i++){
-			  Element relationNode = (Element)relationNodes.item(i);
-			  
-			  //String relationshipId = getTextValue(relationNode,"relationship_id");
-			  String relationField = getTextValue(relationNode,"navpath");
-			  
-			  Element relationMultiplicityEnd1Node = getSubNodeByName(relationNode, "end1");
-			  String relationMultiplicityEnd1 = relationMultiplicityEnd1Node.getFirstChild().getNodeValue();
-			  String relationMultiplicityEnd1Attr = getNodeAttributeValue(relationMultiplicityEnd1Node, "multiplicity");
-			  
-			  Element relationMultiplicityEnd2Node = getSubNodeByName(relationNode, "end2");
-			  String relationMultiplicityEnd2 = relationMultiplicityEnd2Node.getFirstChild().getNodeValue();
-			  String relationMultiplicityEnd2Attr = getNodeAttributeValue(relationMultiplicityEnd2Node, "multiplicity");
-			  
-			  String[] relationProperties = {relationMultiplicityEnd1, relationMultiplicityEnd1Attr, relationMultiplicityEnd2, relationMultiplicityEnd2Attr}; 
-			  relationships.put(relationField, relationProperties);
-		  }
-	}
-
-	private void getFieldsOfEntityNode(Element remoteEntityEle) {
-		NodeList fieldList = remoteEntityEle.getElementsByTagName("entityfield");
-		    
-		  for (int i = 0; i < fieldList.getLength(); i++){
-			  
-			  Element field = (Element)fieldList.item(i);
-			  
-			  String fieldName = getTextValue(field,"fieldname");
-			  String fieldType = getTextValue(field,"fieldtype");
-			  String key       = getTextValue(field, "key");
-			  
-			  if (key.equals("true")){
-				  keys.put(processRemoteField(fieldName), fieldType);
-			  }else {
-				  fields.put(processRemoteField(fieldName), fieldType);  
-			  }
-		  }
-	}
-
-	private Element getRemoteEntityNode(NodeList nodeList) {
-		for (int i = 0; i < nodeList.getLength(); i++){
-			  
-			  Node node = nodeList.item(i);
-			  Attr attr = (Attr) node.getAttributes().getNamedItem("name");
-			  
-			  if(remoteEntity.equals(attr.getValue().toString()))
-				   return (Element)node;
-		  }
-		return null;
+		MetadataIndex.Entity entity = entities.getEntity(remoteEntity);
+		
+		if (entity == null)
+			throw new Exception("There is no entity with name "+ remoteEntity);
+		
+		for (String[] field : entity.getFields()) {
+			RemoteField remoteField = new RemoteField(field[0], getLocalFieldName(field[0]), field[1], field[2].equals("true"), 
+					getFacets(field));
+			if (remoteField.isKey())
+				keys.add(remoteField);
+			else
+				fields.add(remoteField);
+		}
+		
+		for (String[] navProperty : entity.getNavProperties()) {
+			String[] relationProperties = {navProperty[2], navProperty[3], navProperty[4], navProperty[5]};
+			relationships.put(navProperty[0], relationProperties);
+		}
 	}
 	
-	public Map<String[], String> getFields() {
+	public RemoteFields getFields() {
 		return fields;
 	}
 
-	public Map<String[], String> getKeys() {
+	public RemoteFields getKeys() {
 		return keys;
 	}	
 	
@@ -134,32 +98,15 @@ public class MetadataXMLParser {
 		return relationships;
 	}
 
-	private String getTextValue(Element ele, String tagName) {
-		String textVal = null;
-		NodeList nl = ele.getElementsByTagName(tagName);
-		if(nl != null && nl.getLength() > 0) {
-			Element el = (Element)nl.item(0);
-			textVal = el.getFirstChild().getNodeValue();
+	private static Map<String, String> getFacets(String[] field) {
+		Map<String, String> facets = new LinkedHashMap<String, String>();
+		for (int i = 3; i + 1 < field.length; i += 2) {
+			facets.put(field[i], field[i + 1]);
 		}
-		return textVal;
-	}	
-	
-	private Element getSubNodeByName(Element ele, String tagName) {
-		NodeList nl = ele.getElementsByTagName(tagName);
-		if(nl != null && nl.getLength() > 0) {
-			return (Element)nl.item(0);
-		}
-		return null;
-	}
-	
-	private String getNodeAttributeValue(Element ele, String attributeName) throws Exception {
-		return ((Attr) ele.getAttributes().getNamedItem(attributeName)).getValue().toString();
+		return facets;
 	}
 	
-	private String[] processRemoteField(String remoteFieldName) {
-		String[] returnArray = new String[2];
-		returnArray[0] = remoteFieldName;
-		returnArray[1] = remoteFieldName;
+	private String getLocalFieldName(String remoteFieldName) {
 		try {
 			ReservedWords.verifyReservedWordsNotPresent(remoteFieldName);
 			
@@ -167,10 +114,10 @@ public class MetadataXMLParser {
 				throw new IllegalStateException("Found a word which has potential dangerous implications ");
 			}
 		} catch (IllegalStateException e) {
-			returnArray[1] = "remote_" + remoteFieldName;
+			return "remote_" + remoteFieldName;
 		}
 		
-		return returnArray;
+		return remoteFieldName;
 	}
 
 }
@@ -0,0 +1,457 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.sap.research.connectivity.gw.parsers;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import japa.parser.ParseException;
+import japa.parser.ast.CompilationUnit;
+import japa.parser.ast.Node;
+import japa.parser.ast.body.VariableDeclarator;
+import japa.parser.ast.expr.Expression;
+import japa.parser.ast.expr.MethodCallExpr;
+import japa.parser.ast.expr.NameExpr;
+import japa.parser.ast.expr.StringLiteralExpr;
+import japa.parser.ast.expr.VariableDeclarationExpr;
+import japa.parser.ast.stmt.BlockStmt;
+import japa.parser.ast.stmt.CatchClause;
+import japa.parser.ast.stmt.ExpressionStmt;
+import japa.parser.ast.stmt.IfStmt;
+import japa.parser.ast.stmt.ReturnStmt;
+import japa.parser.ast.stmt.TryStmt;
+import japa.parser.ast.visitor.VoidVisitorAdapter;
+
+/*
+ * The places of a generated persistence method body at which the gateway commands insert code, located through the
+ * JavaParser AST of the body instead of by searching its text for marker strings. The body is parsed once; every
+ * anchor is an offset into the body text, so that the code can be inserted with a single StringBuffer.insert.
+ *
+ * The anchors are identified by the structure of the generated code (e.g. the statement executing the OData request
+ * of a variable), so they are found regardless of the formatting of the body and of code the user has added around
+ * them. Where the generated code contains an anchor more than once, the outermost one is taken.
+ *
+ * JavaParser counts columns with tab stops of 8, which is undone when the offsets are computed.
+ */
+public class MethodBodyAnchors {
+
+	private static final String WRAPPER_START = "class A { void m() {\n";
+	private static final String WRAPPER_END = "\n}}";
+	private static final int TAB_SIZE = 8;
+
+	private final String methodBody;
+	private final int[] lineStarts;
+
+	/*
+	 * Request variable to the last execute() call on it and the statement containing that call
+	 */
+	private final Map<String, MethodCallExpr> executeCalls = new HashMap<String, MethodCallExpr>();
+	private final Map<String, ExpressionStmt> executeStatements = new HashMap<String, ExpressionStmt>();
+
+	/*
+	 * Collection variable to the outermost <variable>.add(...) statement
+	 */
+	private final Map<String, ExpressionStmt> addStatements = new HashMap<String, ExpressionStmt>();
+	private final Map<String, Integer> addStatementDepths = new HashMap<String, Integer>();
+
+	/*
+	 * Catch parameter to the first try statement catching it, link variable to the first if (<link>.isCollection())
+	 */
+	private final Map<String, TryStmt> tryStatements = new HashMap<String, TryStmt>();
+	private final Map<String, IfStmt> collectionStatements = new HashMap<String, IfStmt>();
+
+	private ReturnStmt returnStatement;
+	private int returnStatementDepth;
+
+	private CompilationUnit compilationUnit;
+
+	private MethodBodyAnchors(String methodBody) {
+		this.methodBody = methodBody;
+
+		List<Integer> starts = new ArrayList<Integer>();
+		starts.add(0);
+		for (int i = 0; i < methodBody.length(); i++) {
+			char c = methodBody.charAt(i);
+			if (c == '\n' || (c == '\r' && (i + 1 == methodBody.length() || methodBody.charAt(i + 1) != '\n')))
+				starts.add(i + 1);
+		}
+		lineStarts = new int[starts.size()];
+		for (int i = 0; i < lineStarts.length; i++) {
+			lineStarts[i] = starts.get(i);
+		}
+	}
+
+	/*
+	 * Parses the body of a method, as returned by JavaSourceMethod.getMethodBody()
+	 *
+	 * @throws IllegalStateException if the body is not valid Java code
+	 */
+	public static MethodBodyAnchors parse(String methodBody) throws IllegalStateException {
+		MethodBodyAnchors anchors = new MethodBodyAnchors(methodBody);
+		CompilationUnit compilationUnit;
+		try {
+			compilationUnit = JavaSourceParserUtils.parse(
+					new ByteArrayInputStream((WRAPPER_START + methodBody + WRAPPER_END).getBytes("UTF-8")), "UTF-8");
+		} catch (ParseException ex) {
+			throw new IllegalStateException("The method body cannot be parsed: " + ex.getMessage(), ex);
+		} catch (UnsupportedEncodingException ex) {
+			throw new IllegalStateException(ex);
+		}
+		compilationUnit.accept(anchors.new AnchorVisitor(), null);
+		anchors.compilationUnit = compilationUnit;
+		return anchors;
+	}
+
+	/*
+	 * Returns the ranges {start, end} of the code generated for a remote field, in the order of the body. These are the
+	 * .properties(OProperties.<type>("<remoteFieldName>", ...)) calls chained on a request, together with the line break in
+	 * front of them, and the statements setting the local field from the remote property, together with their lines. For
+	 * date fields the statements declaring the <field>DT and <field>ConvertedDate variables are included. Code of other
+	 * shapes is not matched, even if it mentions the field.
+	 */
+	public List<int[]> getFieldCodeRanges(String remoteFieldName, String localFieldName) {
+		FieldCodeVisitor visitor = new FieldCodeVisitor(remoteFieldName, localFieldName);
+		compilationUnit.accept(visitor, null);
+		Collections.sort(visitor.ranges, new Comparator<int[]>() {
+			public int compare(int[] range1, int[] range2) {
+				return range1[0] - range2[0];
+			}
+		});
+		return visitor.ranges;
+	}
+
+	/*
+	 * Returns the offset of the "." before the last execute() call on the given request variable (e.g. 
+	 * newEntityRequest.properties(...).execute()), where further calls on the request can be chained; -1 if there is no 
+	 * such call
+	 */
+	public int getExecuteCallOffset(String requestVariable) {
+		MethodCallExpr call = executeCalls.get(requestVariable);
+		if (call == null)
+			return -1;
+		int offset = toOffset(call.getScope().getEndLine(), call.getScope().getEndColumn()) + 1;
+		while (offset < methodBody.length() && Character.isWhitespace(methodBody.charAt(offset))) {
+			offset++;
+		}
+		return checkOffset(offset, ".");
+	}
+
+	/*
+	 * Returns the offset of the statement containing the last execute() call on the given request variable, -1 if there
+	 * is no such call
+	 */
+	public int getExecuteStatementOffset(String requestVariable) {
+		return getBeginOffset(executeStatements.get(requestVariable));
+	}
+
+	/*
+	 * Returns the offset of the outermost <collectionVariable>.add(...) statement, -1 if there is none
+	 */
+	public int getAddStatementOffset(String collectionVariable) {
+		return getBeginOffset(addStatements.get(collectionVariable));
+	}
+
+	/*
+	 * Returns the offset of the outermost return statement, -1 if there is none
+	 */
+	public int getReturnStatementOffset() {
+		return getBeginOffset(returnStatement);
+	}
+
+	/*
+	 * Returns the offset of the closing brace of the try block whose exception is caught as the given parameter, -1 if 
+	 * there is none
+	 */
+	public int getTryBlockEndOffset(String catchParameter) {
+		TryStmt tryStatement = tryStatements.get(catchParameter);
+		if (tryStatement == null)
+			return -1;
+		BlockStmt tryBlock = tryStatement.getTryBlock();
+		return checkOffset(toOffset(tryBlock.getEndLine(), tryBlock.getEndColumn()), "}");
+	}
+
+	/*
+	 * Returns the offset of the line closing the block of if (<linkVariable>.isCollection()) {...}, where statements can 
+	 * be appended to the block; -1 if there is no such block
+	 */
+	public int getCollectionBlockEndOffset(String linkVariable) {
+		IfStmt ifStatement = collectionStatements.get(linkVariable);
+		if (ifStatement == null || !(ifStatement.getThenStmt() instanceof BlockStmt))
+			return -1;
+		BlockStmt block = (BlockStmt) ifStatement.getThenStmt();
+		int offset = checkOffset(toOffset(block.getEndLine(), block.getEndColumn()), "}");
+		while (offset > 0 && methodBody.charAt(offset - 1) != '\n' && methodBody.charAt(offset - 1) != '\r') {
+			if (!Character.isWhitespace(methodBody.charAt(offset - 1)))
+				return -1;
+			offset--;
+		}
+		return offset;
+	}
+
+	/*
+	 * The range of a statement, with its indentation and line break if it is the only code on its line
+	 */
+	private int[] getStatementRange(Node statement) {
+		int start = checkOffset(toOffset(statement.getBeginLine(), statement.getBeginColumn()), null);
+		int end = checkOffset(toOffset(statement.getEndLine(), statement.getEndColumn()), ";") + 1;
+
+		int lineStart = start;
+		while (lineStart > 0 && (methodBody.charAt(lineStart - 1) == ' ' || methodBody.charAt(lineStart - 1) == '\t')) {
+			lineStart--;
+		}
+		int lineEnd = end;
+		while (lineEnd < methodBody.length() && (methodBody.charAt(lineEnd) == ' ' || methodBody.charAt(lineEnd) == '\t')) {
+			lineEnd++;
+		}
+		if ((lineStart == 0 || methodBody.charAt(lineStart - 1) == '\n' || methodBody.charAt(lineStart - 1) == '\r')
+				&& (lineEnd == methodBody.length() || methodBody.charAt(lineEnd) == '\n' || methodBody.charAt(lineEnd) == '\r')) {
+			if (methodBody.startsWith("\r\n", lineEnd))
+				lineEnd += 2;
+			else if (lineEnd < methodBody.length())
+				lineEnd++;
+			return new int[] {lineStart, lineEnd};
+		}
+		return new int[] {start, end};
+	}
+
+	private int getBeginOffset(Node node) {
+		if (node == null)
+			return -1;
+		return checkOffset(toOffset(node.getBeginLine(), node.getBeginColumn()), null);
+	}
+
+	/*
+	 * Offset in the body of a line and column of the parsed wrapper class
+	 */
+	private int toOffset(int line, int column) {
+		int bodyLine = line - 2;
+		if (bodyLine < 0 || bodyLine >= lineStarts.length)
+			throw new IllegalStateException("Position " + line + ":" + column + " is outside the method body");
+
+		int offset = lineStarts[bodyLine];
+		int currentColumn = 1;
+		while (currentColumn < column && offset < methodBody.length()) {
+			if (methodBody.charAt(offset) == '\t')
+				currentColumn = ((currentColumn - 1) / TAB_SIZE + 1) * TAB_SIZE + 1;
+			else
+				currentColumn++;
+			offset++;
+		}
+		if (currentColumn != column)
+			throw new IllegalStateException("Position " + line + ":" + column + " is outside the method body");
+		return offset;
+	}
+
+	/*
+	 * Guards against columns counted differently than above (e.g. after unicode escapes): the offset must point to the
+	 * expected text, or to the first character of a node if no text is given
+	 */
+	private int checkOffset(int offset, String expected) {
+		boolean matches = expected != null ? methodBody.startsWith(expected, offset)
+				: offset < methodBody.length() && !Character.isWhitespace(methodBody.charAt(offset));
+		if (!matches)
+			throw new IllegalStateException("The AST position does not match the method body at offset " + offset);
+		return offset;
+	}
+
+	/*
+	 * Returns the name of the variable a chain of method calls starts with, e.g. a for a.b().c(), or null
+	 */
+	private static String getRootVariable(Expression expression) {
+		while (expression instanceof MethodCallExpr) {
+			expression = ((MethodCallExpr) expression).getScope();
+		}
+		return expression instanceof NameExpr ? ((NameExpr) expression).getName() : null;
+	}
+
+	/*
+	 * Returns whether the expression contains a <entity>.getProperty("<remoteFieldName>") call
+	 */
+	private static boolean readsProperty(Expression expression, final String remoteFieldName) {
+		if (expression == null)
+			return false;
+		final boolean[] found = {false};
+		expression.accept(new VoidVisitorAdapter<Object>() {
+			@Override
+			public void visit(MethodCallExpr n, Object arg) {
+				if ("getProperty".equals(n.getName()) && isStringLiteral(n.getArgs(), remoteFieldName))
+					found[0] = true;
+				super.visit(n, arg);
+			}
+		}, null);
+		return found[0];
+	}
+
+	private static boolean isStringLiteral(List<Expression> args, String value) {
+		return args != null && !args.isEmpty() && args.get(0) instanceof StringLiteralExpr 
+				&& value.equals(((StringLiteralExpr) args.get(0)).getValue());
+	}
+
+	private class FieldCodeVisitor extends VoidVisitorAdapter<Object> {
+
+		private final String remoteFieldName;
+		private final String setterName;
+		private final String dateVariable;
+		private final String convertedDateVariable;
+		private final List<int[]> ranges = new ArrayList<int[]>();
+
+		FieldCodeVisitor(String remoteFieldName, String localFieldName) {
+			this.remoteFieldName = remoteFieldName;
+			this.setterName = "set" + localFieldName.substring(0, 1).toUpperCase() + localFieldName.substring(1);
+			this.dateVariable = localFieldName.toLowerCase() + "DT";
+			this.convertedDateVariable = localFieldName.toLowerCase() + "ConvertedDate";
+		}
+
+		@Override
+		public void visit(ExpressionStmt n, Object arg) {
+			if (isGeneratedStatement(n.getExpression()))
+				ranges.add(getStatementRange(n));
+			else
+				super.visit(n, arg);
+		}
+
+		/*
+		 * <request>.properties(OProperties.<type>("<remoteFieldName>", ...)), the range starts behind the request
+		 */
+		@Override
+		public void visit(MethodCallExpr n, Object arg) {
+			if ("properties".equals(n.getName()) && n.getScope() != null && n.getArgs() != null && n.getArgs().size() == 1
+					&& n.getArgs().get(0) instanceof MethodCallExpr) {
+				MethodCallExpr property = (MethodCallExpr) n.getArgs().get(0);
+				if (property.getScope() instanceof NameExpr && "OProperties".equals(((NameExpr) property.getScope()).getName())
+						&& isStringLiteral(property.getArgs(), remoteFieldName)) {
+					int start = toOffset(n.getScope().getEndLine(), n.getScope().getEndColumn()) + 1;
+					int end = checkOffset(toOffset(n.getEndLine(), n.getEndColumn()), ")") + 1;
+					ranges.add(new int[] {start, end});
+				}
+			}
+			super.visit(n, arg);
+		}
+
+		/*
+		 * <entity>.set<Field>(...getProperty("<remoteFieldName>")...), <entity>.set<Field>(<field>ConvertedDate),
+		 * DateTime <field>DT = ...getProperty("<remoteFieldName>")... and Date <field>ConvertedDate = <field>DT.toDate()
+		 */
+		private boolean isGeneratedStatement(Expression expression) {
+			if (expression instanceof MethodCallExpr) {
+				MethodCallExpr call = (MethodCallExpr) expression;
+				if (!setterName.equals(call.getName()) || call.getArgs() == null || call.getArgs().size() != 1)
+					return false;
+				Expression value = call.getArgs().get(0);
+				return readsProperty(value, remoteFieldName) 
+						|| (value instanceof NameExpr && convertedDateVariable.equals(((NameExpr) value).getName()));
+			}
+			if (expression instanceof VariableDeclarationExpr) {
+				List<VariableDeclarator> variables = ((VariableDeclarationExpr) expression).getVars();
+				if (variables.size() != 1)
+					return false;
+				String name = variables.get(0).getId().getName();
+				Expression init = variables.get(0).getInit();
+				if (dateVariable.equals(name))
+					return readsProperty(init, remoteFieldName);
+				if (convertedDateVariable.equals(name))
+					return init instanceof MethodCallExpr && "toDate".equals(((MethodCallExpr) init).getName())
+							&& ((MethodCallExpr) init).getScope() instanceof NameExpr
+							&& dateVariable.equals(((NameExpr) ((MethodCallExpr) init).getScope()).getName());
+			}
+			return false;
+		}
+	}
+
+	private class AnchorVisitor extends VoidVisitorAdapter<Object> {
+
+		private int depth;
+		private ExpressionStmt statement;
+
+		@Override
+		public void visit(BlockStmt n, Object arg) {
+			depth++;
+			super.visit(n, arg);
+			depth--;
+		}
+
+		@Override
+		public void visit(ExpressionStmt n, Object arg) {
+			Expression expression = n.getExpression();
+			if (expression instanceof MethodCallExpr && "add".equals(((MethodCallExpr) expression).getName())
+					&& ((MethodCallExpr) expression).getScope() instanceof NameExpr) {
+				String collectionVariable = ((NameExpr) ((MethodCallExpr) expression).getScope()).getName();
+				Integer currentDepth = addStatementDepths.get(collectionVariable);
+				if (currentDepth == null || depth < currentDepth) {
+					addStatements.put(collectionVariable, n);
+					addStatementDepths.put(collectionVariable, depth);
+				}
+			}
+
+			ExpressionStmt outerStatement = statement;
+			statement = n;
+			super.visit(n, arg);
+			statement = outerStatement;
+		}
+
+		@Override
+		public void visit(MethodCallExpr n, Object arg) {
+			if ("execute".equals(n.getName()) && n.getScope() != null && statement != null) {
+				String requestVariable = getRootVariable(n.getScope());
+				if (requestVariable != null) {
+					executeCalls.put(requestVariable, n);
+					executeStatements.put(requestVariable, statement);
+				}
+			}
+			super.visit(n, arg);
+		}
+
+		@Override
+		public void visit(ReturnStmt n, Object arg) {
+			if (returnStatement == null || depth < returnStatementDepth) {
+				returnStatement = n;
+				returnStatementDepth = depth;
+			}
+			super.visit(n, arg);
+		}
+
+		@Override
+		public void visit(TryStmt n, Object arg) {
+			if (n.getCatchs() != null) {
+				for (CatchClause catchClause : n.getCatchs()) {
+					String catchParameter = catchClause.getExcept().getId().getName();
+					if (!tryStatements.containsKey(catchParameter))
+						tryStatements.put(catchParameter, n);
+				}
+			}
+			super.visit(n, arg);
+		}
+
+		@Override
+		public void visit(IfStmt n, Object arg) {
+			if (n.getCondition() instanceof MethodCallExpr && "isCollection".equals(((MethodCallExpr) n.getCondition()).getName())
+					&& ((MethodCallExpr) n.getCondition()).getScope() instanceof NameExpr) {
+				String linkVariable = ((NameExpr) ((MethodCallExpr) n.getCondition()).getScope()).getName();
+				if (!collectionStatements.containsKey(linkVariable))
+					collectionStatements.put(linkVariable, n);
+			}
+			super.visit(n, arg);
+		}
+	}
+}
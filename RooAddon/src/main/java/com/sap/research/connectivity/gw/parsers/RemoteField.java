@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * A field of a remote entity: the name in the Gateway service, the name of the generated Java field (which differs for
+ * reserved words, e.g. "remote_user" for "user"), the EDM type as stored in the metadata file (without "Edm."), whether
+ * it belongs to the key and the facets of the property found in the metadata file, if any. Instances are immutable.
+ */
+public final class RemoteField {
+
+	private final String remoteName;
+	private final String localName;
+	private final String type;
+	private final boolean key;
+	private final Map<String, String> facets;
+
+	public RemoteField(String remoteName, String localName, String type, boolean key) {
+		this(remoteName, localName, type, key, null);
+	}
+
+	public RemoteField(String remoteName, String localName, String type, boolean key, Map<String, String> facets) {
+		this.remoteName = remoteName;
+		this.localName = localName;
+		this.type = type;
+		this.key = key;
+		this.facets = facets == null || facets.isEmpty() ? Collections.<String, String>emptyMap()
+				: Collections.unmodifiableMap(new LinkedHashMap<String, String>(facets));
+	}
+
+	public String getRemoteName() {
+		return remoteName;
+	}
+
+	public String getLocalName() {
+		return localName;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public boolean isKey() {
+		return key;
+	}
+
+	public Map<String, String> getFacets() {
+		return facets;
+	}
+
+	/*
+	 * Returns the value of a facet (e.g. "nullable" or "maxlength"), or null if the metadata file does not contain it
+	 */
+	public String getFacet(String name) {
+		return facets.get(name);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof RemoteField))
+			return false;
+		RemoteField other = (RemoteField) obj;
+		return remoteName.equals(other.remoteName) && localName.equals(other.localName) && type.equals(other.type)
+				&& key == other.key && facets.equals(other.facets);
+	}
+
+	@Override
+	public int hashCode() {
+		return remoteName.hashCode() * 31 + type.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return remoteName + (localName.equals(remoteName) ? "" : " (" + localName + ")") + ": " + type + (key ? ", key" : "");
+	}
+}
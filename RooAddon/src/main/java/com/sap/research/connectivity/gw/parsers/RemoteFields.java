@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Remote fields in the order of the metadata file, indexed by remote and by local name. The order is kept when the
+ * fields are copied, so that the code generated from them is the same on every run.
+ *
+ * Adding a field with the remote name of a contained one replaces it at its position.
+ */
+public class RemoteFields implements Iterable<RemoteField> {
+
+	private final Map<String, RemoteField> byRemoteName = new LinkedHashMap<String, RemoteField>();
+	private final Map<String, RemoteField> byLocalName = new HashMap<String, RemoteField>();
+
+	public RemoteFields() {
+	}
+
+	public RemoteFields(RemoteFields fields) {
+		addAll(fields);
+	}
+
+	public void add(RemoteField field) {
+		RemoteField replaced = byRemoteName.put(field.getRemoteName(), field);
+		if (replaced != null)
+			byLocalName.remove(replaced.getLocalName());
+		byLocalName.put(field.getLocalName(), field);
+	}
+
+	public void addAll(RemoteFields fields) {
+		for (RemoteField field : fields) {
+			add(field);
+		}
+	}
+
+	/*
+	 * Returns the field with the given name in the Gateway service, or null
+	 */
+	public RemoteField get(String remoteName) {
+		return byRemoteName.get(remoteName);
+	}
+
+	/*
+	 * Returns the field with the given Java field name, or null
+	 */
+	public RemoteField getByLocalName(String localName) {
+		return byLocalName.get(localName);
+	}
+
+	public boolean contains(String remoteName) {
+		return byRemoteName.containsKey(remoteName);
+	}
+
+	public Set<String> getRemoteNames() {
+		return Collections.unmodifiableSet(byRemoteName.keySet());
+	}
+
+	public int size() {
+		return byRemoteName.size();
+	}
+
+	public boolean isEmpty() {
+		return byRemoteName.isEmpty();
+	}
+
+	public Iterator<RemoteField> iterator() {
+		return Collections.unmodifiableCollection(byRemoteName.values()).iterator();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof RemoteFields && byRemoteName.equals(((RemoteFields) obj).byRemoteName);
+	}
+
+	@Override
+	public int hashCode() {
+		return byRemoteName.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return byRemoteName.values().toString();
+	}
+}
@@ -48,13 +48,20 @@ public class <<NSNAME>> extends ODataConnectivity {
          
          if (request.getMethod().equals("GET")){
 	            request = request
-	            		<<CSRF_MODE_GET>>
+	            		<<#CSRF_STANDARD>>
+	            		.header("X-CSRF-Token", "Fetch")
+	            		<</CSRF_STANDARD>>
 	                   .header("Authorization", "Basic " + encoded);        
 	                        
 	            return request;
          }else {
          	request = request
-		                   <<CSRF_MODE_SET>>
+		                   <<#CSRF_STANDARD>>
+		                   .header("X-CSRF-Token", this.xsrfTokenValue).header("Cookie", xsrfCookieName + "=" + xsrfCookieValue)
+		                   <</CSRF_STANDARD>>
+		                   <<^CSRF_STANDARD>>
+		                   .header("X-Requested-With", "XMLHttpRequest")
+		                   <</CSRF_STANDARD>>
    		                   .header("Authorization", "Basic " + encoded);
 		                             
 		            return request;		            	
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.sap.research.connectivity.gw;
+
+import com.sap.research.connectivity.gw.parsers.RemoteField;
+import com.sap.research.connectivity.gw.parsers.RemoteFields;
+
+/*
+ * Measures the generation of the bodies of the persistence methods of an entity with many properties: persist,
+ * merge, findAll/find<Entity>Entries and find<Entity>, whose code grows with every property.
+ *
+ * "emitter" generates the bodies as "gateway entity" does, with a JavaCodeEmitter writing into one buffer per body;
+ * "concat" accumulates the lines of the same bodies with String +=, as the methods did before.
+ *
+ * Usage (after mvn test-compile): java -cp target/test-classes:<addon jar>:<Roo and javaparser jars>
+ *                 com.sap.research.connectivity.gw.CodeEmitterBenchmark [properties] [iterations]
+ * It is part of the test sources, so that it is not shipped with the addon jar.
+ */
+public class CodeEmitterBenchmark {
+
+	private static final String[] TYPES = {"String", "Int32", "DateTime", "Decimal", "Boolean", "DateTimeOffset"};
+
+	public static void main(String[] args) {
+		int properties = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		GWOperationsUtils generator = new GWOperationsUtils();
+		RemoteFields keys = new RemoteFields();
+		keys.add(new RemoteField("Id", "Id", "String", true));
+		RemoteFields fields = new RemoteFields();
+		for (int i = 0; i < properties; i++) {
+			fields.add(new RemoteField("Property" + i, "property" + i, TYPES[i % TYPES.length], false));
+		}
+		String[] lines = generate(generator, fields, keys).split("\n", -1);
+		System.out.println("Properties: " + properties + ", " + lines.length + " lines of method bodies");
+
+		// Warm up both modes before measuring
+		for (int i = 0; i < 5; i++) {
+			generate(generator, fields, keys);
+			concat(lines);
+		}
+
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			int length = generate(generator, fields, keys).length();
+			report("emitter", System.nanoTime() - start, length);
+
+			start = System.nanoTime();
+			length = concat(lines).length();
+			report("concat ", System.nanoTime() - start, length);
+		}
+	}
+
+	private static String generate(GWOperationsUtils generator, RemoteFields fields, RemoteFields keys) {
+		return generator.getPersistMethodBody(fields, keys, "BenchEntity") 
+				+ generator.getMergeMethodBody(fields, "BenchEntity", keys) 
+				+ generator.getfindAllMethodBody(fields, keys, "BenchEntity") 
+				+ generator.getFindMethodBody(fields, "BenchEntity");
+	}
+
+	private static String concat(String[] lines) {
+		String code = "";
+		for (int i = 0; i < lines.length - 1; i++) {
+			code += lines[i] + "\n";
+		}
+		return code;
+	}
+
+	private static void report(String mode, long time, int length) {
+		System.out.println(mode + ": " + (time / 1000) + " us, " + length + " chars");
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GwEndpointDefinitionTest {
+
+	@Test
+	public void mandatoryValuesOnly() {
+		GwEndpointDefinition endpoint = GwEndpointDefinition.fromCsvLine("NW, http://host:8000/sap/opu/odata/sap/SRV/ ,user,secret");
+		assertEquals("NW", endpoint.getName());
+		assertEquals("http://host:8000/sap/opu/odata/sap/SRV/", endpoint.getUrl());
+		assertEquals("user", endpoint.getUser());
+		assertEquals("secret", endpoint.getPassword());
+		assertEquals(GwEndpointDefinition.DEFAULT_CSRF_MODE, endpoint.getCsrfMode());
+		assertEquals("", endpoint.getProxyHost());
+		assertEquals("", endpoint.getProxyPort());
+		assertEquals(GwEndpointDefinition.DEFAULT_TIMEOUT, endpoint.getTimeout());
+		assertFalse(endpoint.isRawEdmx());
+	}
+
+	@Test
+	public void allValues() {
+		GwEndpointDefinition endpoint = GwEndpointDefinition.fromCsvLine("NW,http://host/,user,secret,none,proxy,8080,60,TRUE");
+		assertEquals("none", endpoint.getCsrfMode());
+		assertEquals("proxy", endpoint.getProxyHost());
+		assertEquals("8080", endpoint.getProxyPort());
+		assertEquals(60, endpoint.getTimeout());
+		assertTrue(endpoint.isRawEdmx());
+	}
+
+	@Test
+	public void emptyOptionalValuesKeepTheDefaults() {
+		GwEndpointDefinition endpoint = GwEndpointDefinition.fromCsvLine("NW,http://host/,user,secret,,,,,");
+		assertEquals(GwEndpointDefinition.DEFAULT_CSRF_MODE, endpoint.getCsrfMode());
+		assertEquals(GwEndpointDefinition.DEFAULT_TIMEOUT, endpoint.getTimeout());
+		assertFalse(endpoint.isRawEdmx());
+	}
+
+	@Test
+	public void quotedValues() {
+		GwEndpointDefinition endpoint = GwEndpointDefinition.fromCsvLine("NW,http://host/,user,\"se,cr\"\"et\"");
+		assertEquals("se,cr\"et", endpoint.getPassword());
+	}
+
+	@Test
+	public void emptyQuotedValue() {
+		GwEndpointDefinition endpoint = GwEndpointDefinition.fromCsvLine("NW,http://host/,\"\",\"\"");
+		assertEquals("", endpoint.getUser());
+		assertEquals("", endpoint.getPassword());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void missingPassword() {
+		GwEndpointDefinition.fromCsvLine("NW,http://host/,user");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidTimeout() {
+		GwEndpointDefinition.fromCsvLine("NW,http://host/,user,secret,standard,,,soon");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidRawEdmx() {
+		GwEndpointDefinition.fromCsvLine("NW,http://host/,user,secret,standard,,,30,yes");
+	}
+}
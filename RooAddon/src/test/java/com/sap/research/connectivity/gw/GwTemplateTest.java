@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class GwTemplateTest {
+
+	@Test
+	public void placeholders() {
+		assertEquals("package com.example;\nclass NS {}", render("package <<PACKAGE>>;\nclass <<NAME>> {}", "PACKAGE", "com.example", "NAME", "NS"));
+		assertEquals("a < b >> c", render("a < b >> c"));
+		assertEquals("<<UNCLOSED", render("<<UNCLOSED"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void missingValue() {
+		render("Hello <<NAME>>", "OTHER", "x");
+	}
+
+	@Test
+	public void sectionsOnTheirOwnLinesAreRemovedWithTheLine() {
+		String template = "first\n"
+				+ "\t<<#CSRF>>  \n"
+				+ "\tcsrf();\n"
+				+ "  <</CSRF>>\n"
+				+ "<<^CSRF>>\n"
+				+ "\tnoCsrf();\n"
+				+ "<</CSRF>>\n"
+				+ "last";
+		assertEquals("first\n\tcsrf();\nlast", render(template, "CSRF", "true"));
+		assertEquals("first\n\tnoCsrf();\nlast", render(template, "CSRF", "false"));
+		assertEquals("first\n\tnoCsrf();\nlast", render(template));
+	}
+
+	@Test
+	public void sectionsWithWindowsLineBreaks() {
+		String template = "first\r\n<<#A>>\r\n\tinner\r\n<</A>>\r\nlast\r\n";
+		assertEquals("first\r\n\tinner\r\nlast\r\n", render(template, "A", "true"));
+		assertEquals("first\r\nlast\r\n", render(template, "A", "false"));
+	}
+
+	@Test
+	public void sectionsInsideOfALineKeepTheLine() {
+		String template = "call(<<#A>>a, <</A>>b);\n  <<^A>>x<</A>>\n";
+		assertEquals("call(a, b);\n  \n", render(template, "A", "true"));
+		assertEquals("call(b);\n  x\n", render(template, "A", "false"));
+	}
+
+	@Test
+	public void sectionTagsAtTheStartAndEndOfTheTemplate() {
+		assertEquals("text\n", render("<<#A>>\ntext\n<</A>>", "A", "true"));
+		assertEquals("", render("<<#A>>\ntext\n<</A>>", "A", "false"));
+	}
+
+	@Test
+	public void placeholderOnALineIsNotRemoved() {
+		assertEquals("a\n\nb", render("a\n<<EMPTY>>\nb", "EMPTY", ""));
+	}
+
+	@Test
+	public void nestedSections() {
+		String template = "<<#A>>\na\n<<^B>>\nnot b\n<</B>>\n<</A>>\nend";
+		assertEquals("a\nnot b\nend", render(template, "A", "true", "B", "false"));
+		assertEquals("a\nend", render(template, "A", "true", "B", "true"));
+		assertEquals("end", render(template, "A", "false", "B", "false"));
+	}
+
+	@Test
+	public void placeholdersOfSkippedSectionsNeedNoValue() {
+		assertEquals("x", render("<<#A>><<MISSING>><</A>>x", "A", "false"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unclosedSection() {
+		GwTemplate.parse("<<#A>>\ntext\n");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void mismatchedClosingTag() {
+		GwTemplate.parse("<<#A>><<#B>><</A>><</B>>");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void closingTagWithoutSection() {
+		GwTemplate.parse("text<</A>>");
+	}
+
+	@Test
+	public void loadedTemplatesAreCached() {
+		GwTemplate template = GwTemplate.load(GwTemplate.class, "ODataNS_template.java");
+		assertSame(template, GwTemplate.load(GwTemplate.class, "ODataNS_template.java"));
+
+		Map<String, String> values = values("PACKAGE", "com.example", "NSNAME", "NS", "URL", "http://host/", "HOST", "host", "PORT", "80",
+				"USER", "user", "PASSWORD", "secret", "CSRF_STANDARD", "true");
+		String content = template.render(values);
+		assertTrue(content.contains("com.example"));
+		assertFalse(content.contains("<<"));
+	}
+
+	private static String render(String template, String... namesAndValues) {
+		return GwTemplate.parse(template).render(values(namesAndValues));
+	}
+
+	private static Map<String, String> values(String... namesAndValues) {
+		Map<String, String> values = new HashMap<String, String>();
+		for (int i = 0; i < namesAndValues.length; i += 2) {
+			values.put(namesAndValues[i], namesAndValues[i + 1]);
+		}
+		return values;
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.springframework.roo.process.manager.MutableFile;
+
+import com.sap.research.connectivity.gw.parsers.JavaSourceFileEditor;
+import com.sap.research.connectivity.gw.parsers.JavaSourceMethod;
+import com.sap.research.connectivity.gw.parsers.RemoteField;
+import com.sap.research.connectivity.gw.parsers.RemoteFields;
+
+/*
+ * Measures the generation of one entity class with many remote fields, the way "gateway entity" and "gateway field"
+ * build it: the persistence methods, then per field its declaration, getter and setter and the changes of the
+ * persistence methods, and finally one write of the class.
+ *
+ * "eager" renders every new or changed method right away, as JavaSourceMethod did before its rendering became lazy;
+ * "lazy" renders each method once, when the class is written.
+ *
+ * Usage (after mvn test-compile): java -cp target/test-classes:<addon jar>:<Roo and javaparser jars>
+ *                 com.sap.research.connectivity.gw.JavaSourceEditorBenchmark [fields] [iterations]
+ * It is part of the test sources, so that it is not shipped with the addon jar.
+ */
+public class JavaSourceEditorBenchmark {
+
+	private static final String[] TYPES = {"String", "Int32", "DateTime", "Decimal", "Boolean"};
+
+	public static void main(String[] args) throws Exception {
+		int fields = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		File classFile = new File(System.getProperty("java.io.tmpdir"), "BenchEntity.java");
+		try {
+			System.out.println("Fields: " + fields);
+
+			// Warm up both modes once before measuring
+			run(classFile, fields, true);
+			run(classFile, fields, false);
+
+			for (int i = 0; i < iterations; i++) {
+				report("eager", run(classFile, fields, true));
+				report("lazy ", run(classFile, fields, false));
+			}
+		} finally {
+			classFile.delete();
+		}
+	}
+
+	private static long[] run(File classFile, int fieldCount, boolean eager) throws Exception {
+		Writer writer = new FileWriter(classFile);
+		try {
+			writer.write("package com.example.domain;\n\nimport javax.persistence.Entity;\n\n@Entity\npublic class BenchEntity {\n}\n");
+		} finally {
+			writer.close();
+		}
+
+		GWOperationsUtils generator = new GWOperationsUtils();
+		RemoteFields keys = new RemoteFields();
+		keys.add(new RemoteField("Id", "Id", "String", true));
+		Map<JavaSourceMethod, String> renderedBodies = new IdentityHashMap<JavaSourceMethod, String>();
+		long renders = 0;
+
+		long start = System.nanoTime();
+		JavaSourceFileEditor editor = new JavaSourceFileEditor(new TempMutableFile(classFile));
+		generator.addPersistenceMethods(new RemoteFields(), editor, "BenchEntity", keys);
+		for (int i = 0; i < fieldCount; i++) {
+			RemoteField field = new RemoteField("Field" + i, "field" + i, TYPES[i % TYPES.length], false);
+			generator.addRemoteFieldInGWJavaFile(editor, field);
+			generator.addRemoteFieldInPersistenceMethods(editor, field);
+			if (eager)
+				renders += renderChangedMethods(editor, renderedBodies);
+		}
+		String content = editor.makeFile();
+		long time = System.nanoTime() - start;
+
+		return new long[] {time, eager ? renders : editor.getGlobalMethodList().size(), content.length()};
+	}
+
+	/*
+	 * Renders the methods which are new or whose body has been replaced since the last call
+	 */
+	private static int renderChangedMethods(JavaSourceFileEditor editor, Map<JavaSourceMethod, String> renderedBodies) {
+		int renders = 0;
+		for (JavaSourceMethod method : editor.getGlobalMethodList()) {
+			if (renderedBodies.get(method) != method.getMethodBody()) {
+				// Rendered without getMethodString(), so that the cache of the method is not filled
+				render(method);
+				renderedBodies.put(method, method.getMethodBody());
+				renders++;
+			}
+		}
+		return renders;
+	}
+
+	private static void report(String mode, long[] result) {
+		System.out.println(mode + ": " + (result[0] / 1000000) + " ms, " + result[1] + " method renderings, " + result[2] + " chars");
+	}
+
+	private static String render(JavaSourceMethod method) {
+		try {
+			return method.makeMethod(method.getMethodName(), method.getMethodPrefix(), method.getReturnType(), method.getThrowsDeclaration(),
+					method.getAnnotations(), method.getParameters(), method.getMethodBody());
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/*
+	 * A MutableFile outside of a Roo project
+	 */
+	private static class TempMutableFile implements MutableFile {
+		private final File file;
+
+		TempMutableFile(File file) {
+			this.file = file;
+		}
+
+		public String getCanonicalPath() {
+			return file.getAbsolutePath();
+		}
+
+		public InputStream getInputStream() {
+			try {
+				return new FileInputStream(file);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		public OutputStream getOutputStream() {
+			try {
+				return new FileOutputStream(file);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		public void setDescriptionOfChange(String message) {
+		}
+	}
+}
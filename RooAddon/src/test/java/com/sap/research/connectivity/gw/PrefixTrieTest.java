@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class PrefixTrieTest {
+
+	@Test
+	public void wordsStartingWithAPrefixInAlphabeticalOrder() {
+		PrefixTrie trie = trie("OrderCollection", "CustomerCollection", "Cust", "customerAddress", "Product");
+		assertEquals(Arrays.asList("Cust", "customerAddress", "CustomerCollection"), trie.getWords("cust"));
+		assertEquals(Arrays.asList("customerAddress", "CustomerCollection"), trie.getWords("CUSTOMER"));
+		assertEquals(Arrays.asList("OrderCollection"), trie.getWords("o"));
+		assertEquals(Collections.<String>emptyList(), trie.getWords("x"));
+		assertEquals(Collections.<String>emptyList(), trie.getWords("CustomerCollections"));
+	}
+
+	@Test
+	public void allWordsForAnEmptyPrefix() {
+		PrefixTrie trie = trie("b", "a", "c");
+		assertEquals(Arrays.asList("a", "b", "c"), trie.getWords(""));
+		assertEquals(Arrays.asList("a", "b", "c"), trie.getWords(null));
+	}
+
+	@Test
+	public void wordsDifferingInCaseAreKept() {
+		PrefixTrie trie = trie("abc", "ABC", "abc");
+		assertEquals(2, trie.size());
+		assertEquals(Arrays.asList("ABC", "abc"), trie.getWords("A"));
+		assertTrue(trie.contains("ABC"));
+		assertFalse(trie.contains("Abc"));
+	}
+
+	@Test
+	public void remove() {
+		PrefixTrie trie = trie("Customer", "CustomerCollection", "Cust");
+		assertTrue(trie.remove("Customer"));
+		assertFalse(trie.remove("Customer"));
+		assertFalse(trie.remove("customer"));
+		assertFalse(trie.remove("Order"));
+		assertEquals(2, trie.size());
+		assertFalse(trie.contains("Customer"));
+		assertEquals(Arrays.asList("Cust", "CustomerCollection"), trie.getWords("c"));
+
+		assertTrue(trie.remove("CustomerCollection"));
+		assertEquals(Collections.<String>emptyList(), trie.getWords("custo"));
+		assertEquals(Arrays.asList("Cust"), trie.getWords(""));
+	}
+
+	@Test
+	public void prefixIsNotAWord() {
+		PrefixTrie trie = trie("Customer");
+		assertFalse(trie.contains("Cust"));
+		assertFalse(trie.remove("Cust"));
+		assertEquals(1, trie.size());
+	}
+
+	private static PrefixTrie trie(String... words) {
+		PrefixTrie trie = new PrefixTrie();
+		for (String word : words) {
+			trie.add(word);
+		}
+		return trie;
+	}
+}
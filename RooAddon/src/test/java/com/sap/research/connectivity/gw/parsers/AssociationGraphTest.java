@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class AssociationGraphTest {
+
+	@Test
+	public void unassociatedEntitiesInOneLevel() {
+		AssociationGraph graph = new AssociationGraph();
+		graph.addEntity("B", relationships());
+		graph.addEntity("A", relationships());
+		assertEquals(levels(level("B", "A")), graph.getLevels());
+	}
+
+	@Test
+	public void chain() {
+		AssociationGraph graph = new AssociationGraph();
+		graph.addEntity("A", relationships("A", "B"));
+		graph.addEntity("B", relationships("B", "C"));
+		graph.addEntity("C", relationships());
+		assertEquals(levels(level("C"), level("B"), level("A")), graph.getLevels());
+	}
+
+	@Test
+	public void relationshipsInBothDirections() {
+		AssociationGraph graph = new AssociationGraph();
+		// The entity set can be at either end of a relationship
+		graph.addEntity("A", relationships("B", "A"));
+		graph.addEntity("B", relationships());
+		assertEquals(levels(level("B"), level("A")), graph.getLevels());
+	}
+
+	@Test
+	public void diamond() {
+		AssociationGraph graph = new AssociationGraph();
+		graph.addEntity("A", relationships("A", "B", "A", "C"));
+		graph.addEntity("B", relationships("B", "D"));
+		graph.addEntity("C", relationships("C", "D"));
+		graph.addEntity("D", relationships());
+		assertEquals(levels(level("D"), level("B", "C"), level("A")), graph.getLevels());
+	}
+
+	@Test
+	public void bidirectionalAssociationInOneLevel() {
+		AssociationGraph graph = new AssociationGraph();
+		graph.addEntity("C", relationships("C", "A"));
+		graph.addEntity("A", relationships("A", "B"));
+		graph.addEntity("B", relationships("B", "A"));
+		assertEquals(levels(level("A", "B"), level("C")), graph.getLevels());
+	}
+
+	@Test
+	public void cycleBetweenOtherLevels() {
+		AssociationGraph graph = new AssociationGraph();
+		graph.addEntity("A", relationships("A", "B"));
+		graph.addEntity("B", relationships("B", "C"));
+		graph.addEntity("C", relationships("C", "D", "C", "B"));
+		graph.addEntity("D", relationships());
+		graph.addEntity("E", relationships("E", "D"));
+		assertEquals(levels(level("D"), level("B", "C", "E"), level("A")), graph.getLevels());
+	}
+
+	@Test
+	public void longCycle() {
+		AssociationGraph graph = new AssociationGraph();
+		graph.addEntity("A", relationships("A", "B"));
+		graph.addEntity("B", relationships("B", "C"));
+		graph.addEntity("C", relationships("C", "A", "C", "D"));
+		graph.addEntity("D", relationships("D", "E"));
+		graph.addEntity("E", relationships("E", "D"));
+		assertEquals(levels(level("D", "E"), level("A", "B", "C")), graph.getLevels());
+	}
+
+	@Test
+	public void selfAssociationsAndEntitiesOutsideOfTheGraphAreIgnored() {
+		AssociationGraph graph = new AssociationGraph();
+		graph.addEntity("A", relationships("A", "A", "A", "Other"));
+		graph.addEntity("B", relationships("B", "A"));
+		assertEquals(new LinkedHashSet<String>(), graph.getAssociatedEntities("A"));
+		assertEquals(new LinkedHashSet<String>(list("A")), graph.getAssociatedEntities("B"));
+		assertEquals(levels(level("A"), level("B")), graph.getLevels());
+	}
+
+	@Test
+	public void emptyGraph() {
+		assertEquals(levels(), new AssociationGraph().getLevels());
+	}
+
+	/*
+	 * Relationships {from_entity, from_entity_multiplicity, to_entity, to_entity_multiplicity} between the given pairs
+	 * of entity sets
+	 */
+	private static Map<String, String[]> relationships(String... ends) {
+		Map<String, String[]> relationships = new LinkedHashMap<String, String[]>();
+		for (int i = 0; i < ends.length; i += 2) {
+			relationships.put(ends[i] + "_" + ends[i + 1], new String[] {ends[i], "1", ends[i + 1], "*"});
+		}
+		return relationships;
+	}
+
+	private static List<String> list(String... entityNames) {
+		return Arrays.asList(entityNames);
+	}
+
+	private static String[] level(String... entityNames) {
+		return entityNames;
+	}
+
+	// The levels are given as arrays, as a varargs parameter of List<String> would be a generic array
+	private static List<List<String>> levels(String[]... levels) {
+		List<List<String>> result = new ArrayList<List<String>>();
+		for (String[] level : levels) {
+			result.add(Arrays.asList(level));
+		}
+		return result;
+	}
+}
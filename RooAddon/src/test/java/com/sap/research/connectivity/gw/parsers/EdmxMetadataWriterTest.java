@@ -0,0 +1,53 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+
+public class EdmxMetadataWriterTest {
+
+	private static final String EDMX = "<edmx:Edmx Version=\"1.0\" xmlns:edmx=\"http://schemas.microsoft.com/ado/2007/06/edmx\">"
+			+ "<edmx:DataServices xmlns:m=\"http://schemas.microsoft.com/ado/2007/08/dataservices/metadata\" m:DataServiceVersion=\"2.0\">"
+			+ "<Schema Namespace=\"ZSALES\" xmlns=\"http://schemas.microsoft.com/ado/2008/09/edm\">"
+			+ "<EntityType Name=\"Product\"><Key><PropertyRef Name=\"Id\"/></Key>"
+			+ "<Property Name=\"Id\" Type=\"Edm.String\" Nullable=\"false\" MaxLength=\"10\"/>"
+			+ "<Property Name=\"Price\" Type=\"Edm.Decimal\" Precision=\"13\" Scale=\"3\"/>"
+			+ "<Property Name=\"Available\" Type=\"Edm.Boolean\" Nullable=\"true\"/>"
+			+ "</EntityType>"
+			+ "<EntityContainer Name=\"ZSALES_Entities\" m:IsDefaultEntityContainer=\"true\">"
+			+ "<EntitySet Name=\"Products\" EntityType=\"ZSALES.Product\"/>"
+			+ "</EntityContainer></Schema></edmx:DataServices></edmx:Edmx>";
+
+	@Test
+	public void facetsAreWrittenAsChildrenOfTheEntityField() throws Exception {
+		String metadata = new EdmxMetadataWriter(EdmxStreamParser.parse(EDMX)).write();
+		MetadataModel model = MetadataModel.build(DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new ByteArrayInputStream(metadata.getBytes("UTF-8"))));
+
+		MetadataIndex.Entity products = model.getEntity("Products");
+		assertArrayEquals(new String[] {"Id", "String", "true", "nullable", "false", "maxlength", "10"}, products.getField("Id"));
+		assertArrayEquals(new String[] {"Price", "Decimal", "false", "nullable", "true", "precision", "13", "scale", "3"},
+				products.getField("Price"));
+		assertArrayEquals(new String[] {"Available", "Boolean", "false", "nullable", "true"}, products.getField("Available"));
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import static com.sap.research.connectivity.gw.parsers.MetadataIndexTest.assertEntityEquals;
+import static com.sap.research.connectivity.gw.parsers.MetadataIndexTest.write;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MetadataFileMapTest {
+
+	private static final String METADATA = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE entities>\n"
+			+ "<entities>\n"
+			+ "  <!-- <entity name=\"Commented\"></entity> -->\n"
+			+ "  <entity name=\"CustomerCollection\">\n"
+			+ "    <entityfield><fieldname>Id</fieldname><fieldtype>String</fieldtype><key>true</key></entityfield>\n"
+			+ "    <entityfield><fieldname>Name</fieldname><fieldtype>String</fieldtype><key>false</key>"
+			+ "<label><![CDATA[</entity> \u00C4nderung]]></label></entityfield>\n"
+			+ "    <navproperty><navpath>Orders</navpath><relationship_id>CustomerOrders</relationship_id>"
+			+ "<end1 multiplicity=\"1\">Customer</end1><end2 multiplicity=\"*\">Order</end2></navproperty>\n"
+			+ "  </entity>\n"
+			+ "  <entity\n    id='2' name='Order&amp;Item&#x41;' title=\"a > b\">\n"
+			+ "    <entityfield><fieldname>Id</fieldname><fieldtype>Int32</fieldtype><key>true</key></entityfield>\n"
+			+ "  </entity >\n"
+			+ "  <entity name=\"EmptyCollection\"/>\n"
+			+ "  <entity name=\"CustomerCollection\">\n"
+			+ "    <entityfield><fieldname>Other</fieldname><fieldtype>String</fieldtype><key>true</key></entityfield>\n"
+			+ "  </entity>\n"
+			+ "</entities>\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsTheSameEntitiesAsTheDocument() throws Exception {
+		MetadataFileMap map = MetadataFileMap.open(newFile(METADATA.getBytes("UTF-8")));
+		assertNotNull(map);
+		MetadataModel model = MetadataModel.build(DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new ByteArrayInputStream(METADATA.getBytes("UTF-8"))));
+
+		assertEquals(Arrays.asList("CustomerCollection", "Order&ItemA", "EmptyCollection"), new ArrayList<String>(map.getEntityNames()));
+		assertEquals(new ArrayList<String>(model.getEntityNames()), new ArrayList<String>(map.getEntityNames()));
+		for (String entityName : model.getEntityNames()) {
+			assertTrue(map.hasEntity(entityName));
+			assertEntityEquals(model.getEntity(entityName), map.getEntity(entityName));
+		}
+	}
+
+	@Test
+	public void skipsCommentsAndCdataSections() throws IOException {
+		MetadataFileMap map = MetadataFileMap.open(newFile(METADATA.getBytes("UTF-8")));
+		assertFalse(map.hasEntity("Commented"));
+		assertNull(map.getEntity("Commented"));
+
+		MetadataIndex.Entity customer = map.getEntity("CustomerCollection");
+		assertArrayEquals(new String[] {"Name", "String", "false", "label", "</entity> \u00C4nderung"}, customer.getField("Name"));
+		assertEquals(1, customer.getNavProperties().size());
+	}
+
+	@Test
+	public void firstEntityOfANameWins() throws IOException {
+		MetadataIndex.Entity customer = MetadataFileMap.open(newFile(METADATA.getBytes("UTF-8"))).getEntity("CustomerCollection");
+		assertNotNull(customer.getField("Id"));
+		assertNull(customer.getField("Other"));
+	}
+
+	@Test
+	public void declaredAsciiCompatibleEncoding() throws IOException {
+		String metadata = METADATA.replace("UTF-8", "ISO-8859-1");
+		MetadataFileMap map = MetadataFileMap.open(newFile(metadata.getBytes("ISO-8859-1")));
+		assertNotNull(map);
+		assertEquals("</entity> \u00C4nderung", map.getEntity("CustomerCollection").getField("Name")[4]);
+	}
+
+	@Test
+	public void fileWithoutDeclarationIsReadAsUtf8() throws IOException {
+		String metadata = METADATA.substring(METADATA.indexOf('\n') + 1);
+		MetadataFileMap map = MetadataFileMap.open(newFile(metadata.getBytes("UTF-8")));
+		assertEquals("</entity> \u00C4nderung", map.getEntity("CustomerCollection").getField("Name")[4]);
+	}
+
+	@Test
+	public void utf16CannotBeScanned() throws IOException {
+		assertNull(MetadataFileMap.open(newFile(METADATA.replace("UTF-8", "UTF-16").getBytes("UTF-16"))));
+		assertNull(MetadataFileMap.open(newFile(METADATA.replace("UTF-8", "UTF-16LE").getBytes("UTF-16LE"))));
+	}
+
+	@Test(expected = IOException.class)
+	public void fileEndingInsideOfAnEntity() throws IOException {
+		String metadata = METADATA.substring(0, METADATA.indexOf("</entity>"));
+		MetadataFileMap.open(newFile(metadata.getBytes("UTF-8"))).getEntityNames();
+	}
+
+	@Test(expected = IOException.class)
+	public void fileEndingInsideOfAComment() throws IOException {
+		String metadata = METADATA.substring(0, METADATA.indexOf("-->"));
+		MetadataFileMap.open(newFile(metadata.getBytes("UTF-8"))).getEntityNames();
+	}
+
+	private File newFile(byte[] content) throws IOException {
+		File file = folder.newFile();
+		write(file, content);
+		return file;
+	}
+}
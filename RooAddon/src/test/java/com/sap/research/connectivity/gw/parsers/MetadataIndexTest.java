@@ -0,0 +1,195 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+
+public class MetadataIndexTest {
+
+	private static final String METADATA = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<entities>\n"
+			+ "  <entity name=\"CustomerCollection\">\n"
+			+ "    <entityfield><fieldname>Id</fieldname><fieldtype>String</fieldtype><key>true</key></entityfield>\n"
+			+ "    <entityfield><fieldname> Name </fieldname><fieldtype>String</fieldtype><key>false</key>"
+			+ "<maxlength>40</maxlength><nullable>false</nullable></entityfield>\n"
+			+ "    <navproperty><navpath>Orders</navpath><relationship_id>CustomerOrders</relationship_id>"
+			+ "<end1 multiplicity=\"1\">Customer</end1><end2 multiplicity=\"*\">Order</end2></navproperty>\n"
+			+ "  </entity>\n"
+			+ "  <entity name=\"OrderCollection\">\n"
+			+ "    <entityfield><fieldname>Id</fieldname><fieldtype>Int32</fieldtype><key>true</key></entityfield>\n"
+			+ "    <entityfield><fieldname>Customer</fieldname><fieldtype>String</fieldtype><key>true</key></entityfield>\n"
+			+ "    <entityfield><fieldname>Date</fieldname><fieldtype>DateTime</fieldtype><key>false</key></entityfield>\n"
+			+ "  </entity>\n"
+			+ "  <entity name=\"EmptyCollection\"/>\n"
+			+ "</entities>\n";
+
+	private static final String HASH = "5d41402abc4b2a76b9719d911017c592ae5f2c39";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File metadataFile;
+	private File indexFile;
+	private MetadataModel model;
+
+	@Before
+	public void writeMetadata() throws Exception {
+		metadataFile = folder.newFile("NS_metadata.xml");
+		write(metadataFile, METADATA.getBytes("UTF-8"));
+		indexFile = new File(folder.getRoot(), "NS" + MetadataIndex.INDEX_FILE_SUFFIX);
+
+		Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new ByteArrayInputStream(METADATA.getBytes("UTF-8")));
+		model = MetadataModel.build(document);
+		write(indexFile, MetadataIndex.build(document, metadataFile.lastModified(), metadataFile.length(), HASH));
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		MetadataIndex index = MetadataIndex.open(indexFile, metadataFile, HASH);
+		assertNotNull(index);
+		assertEquals(new ArrayList<String>(model.getEntityNames()), new ArrayList<String>(index.getEntityNames()));
+
+		for (String entityName : model.getEntityNames()) {
+			assertTrue(index.hasEntity(entityName));
+			assertEntityEquals(model.getEntity(entityName), index.getEntity(entityName));
+		}
+		assertFalse(index.hasEntity("Unknown"));
+		assertNull(index.getEntity("Unknown"));
+	}
+
+	@Test
+	public void fieldsKeysFacetsAndNavigationProperties() throws IOException {
+		MetadataIndex.Entity customer = MetadataIndex.open(indexFile, metadataFile, HASH).getEntity("CustomerCollection");
+
+		assertArrayEquals(new String[] {"Name", "String", "false", "maxlength", "40", "nullable", "false"}, customer.getField("Name"));
+		assertEquals(1, customer.getKeys().size());
+		assertEquals("Id", customer.getKeys().get(0)[0]);
+		assertArrayEquals(new String[] {"Orders", "CustomerOrders", "Customer", "1", "Order", "*"}, customer.getNavProperty("Orders"));
+
+		MetadataIndex.Entity order = MetadataIndex.open(indexFile, metadataFile, HASH).getEntity("OrderCollection");
+		assertEquals(2, order.getKeys().size());
+		assertEquals("Customer", order.getKeys().get(1)[0]);
+		assertTrue(order.getNavProperties().isEmpty());
+	}
+
+	@Test
+	public void changedMetadataFileOutdatesTheIndex() throws IOException {
+		write(metadataFile, (METADATA + "\n").getBytes("UTF-8"));
+		assertNull(MetadataIndex.open(indexFile, metadataFile, HASH));
+	}
+
+	@Test
+	public void truncatedIndexIsNotUsed() throws IOException {
+		byte[] index = MetadataIndex.build(model, metadataFile.lastModified(), metadataFile.length(), HASH);
+		write(indexFile, Arrays.copyOf(index, 40));
+		assertNull(MetadataIndex.open(indexFile, metadataFile, HASH));
+	}
+
+	@Test
+	public void changedContentHashOutdatesTheIndex() {
+		// E.g. the XML has been rewritten with the same length within the time granularity of the file system
+		assertNull(MetadataIndex.open(indexFile, metadataFile, "0" + HASH.substring(1)));
+		assertNull(MetadataIndex.open(indexFile, metadataFile, null));
+	}
+
+	@Test
+	public void stringsLongerThan64KB() throws IOException {
+		StringBuilder longValue = new StringBuilder();
+		while (longValue.length() <= 70000) {
+			longValue.append("\u00E4bc");
+		}
+		MetadataIndex.Entity entity = new MetadataIndex.Entity("LongCollection");
+		entity.addField(new String[] {"Id", "String", "true", "label", longValue.toString()});
+		MetadataEntitySource source = new SingleEntitySource(entity);
+		write(indexFile, MetadataIndex.build(source, metadataFile.lastModified(), metadataFile.length(), HASH));
+
+		assertEquals(longValue.toString(), MetadataIndex.open(indexFile, metadataFile, HASH).getEntity("LongCollection").getField("Id")[4]);
+	}
+
+	@Test
+	public void missingIndex() {
+		assertNull(MetadataIndex.open(new File(folder.getRoot(), "Other" + MetadataIndex.INDEX_FILE_SUFFIX), metadataFile, HASH));
+	}
+
+	private static class SingleEntitySource implements MetadataEntitySource {
+		private final MetadataIndex.Entity entity;
+
+		SingleEntitySource(MetadataIndex.Entity entity) {
+			this.entity = entity;
+		}
+
+		public Set<String> getEntityNames() {
+			return Collections.singleton(entity.getName());
+		}
+
+		public boolean hasEntity(String entityName) {
+			return entity.getName().equals(entityName);
+		}
+
+		public MetadataIndex.Entity getEntity(String entityName) {
+			return hasEntity(entityName) ? entity : null;
+		}
+	}
+
+	static void assertEntityEquals(MetadataIndex.Entity expected, MetadataIndex.Entity actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(toList(expected.getFields()), toList(actual.getFields()));
+		assertEquals(toList(expected.getKeys()), toList(actual.getKeys()));
+		assertEquals(toList(expected.getNavProperties()), toList(actual.getNavProperties()));
+	}
+
+	private static List<List<String>> toList(List<String[]> values) {
+		List<List<String>> list = new ArrayList<List<String>>();
+		for (String[] value : values) {
+			list.add(Arrays.asList(value));
+		}
+		return list;
+	}
+
+	static void write(File file, byte[] content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+}
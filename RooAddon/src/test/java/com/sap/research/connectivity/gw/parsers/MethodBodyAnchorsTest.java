@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class MethodBodyAnchorsTest {
+
+	private static final String BODY = "\tODataConsumer consumer = ODataJerseyConsumer.create(url);\n"
+			+ "\ttry {\n"
+			+ "\t\tOCreateRequest<OEntity> request = consumer.createEntity(\"CustomerCollection\");\n"
+			+ "\t\tOEntity newEntity = request\n"
+			+ "\t\t\t\t.properties(OProperties.string(\"Id\", getId()))\n"
+			+ "\t\t\t\t.properties(OProperties.string(\"Name\", getName()))\n"
+			+ "\t\t\t\t.execute();\n"
+			+ "\t\tfor (OLink link : newEntity.getLinks()) {\n"
+			+ "\t\t\tif (link.isCollection()) {\n"
+			+ "\t\t\t\tresult.add(link);\n"
+			+ "\t\t\t}\n"
+			+ "\t\t\treturn link;\n"
+			+ "\t\t}\n"
+			+ "\t\tresult.add(newEntity);\n"
+			+ "\t} catch (Exception ex) {\n"
+			+ "\t\tex.printStackTrace();\n"
+			+ "\t}\n"
+			+ "\treturn result;";
+
+	@Test
+	public void offsetsOfTabIndentedCode() {
+		assertAnchors(BODY);
+	}
+
+	@Test
+	public void offsetsOfCodeIndentedWithSpacesAndTabs() {
+		// "  \t" ends at the same tab stop as "\t", "\t  " does not
+		assertAnchors(BODY.replace("\n\t\t\t", "\n  \t\t\t").replace("\n\t\t", "\n\t  \t"));
+	}
+
+	@Test
+	public void offsetsOfCodeWithTabsInsideOfLines() {
+		assertAnchors(BODY.replace(" = ", "\t=\t").replace("request\n", "request \t\n"));
+	}
+
+	@Test
+	public void offsetsWithWindowsLineBreaks() {
+		assertAnchors(BODY.replace("\n", "\r\n"));
+	}
+
+	@Test
+	public void outermostReturnAndAddStatements() {
+		MethodBodyAnchors anchors = MethodBodyAnchors.parse(BODY);
+		assertEquals(BODY.indexOf("return result;"), anchors.getReturnStatementOffset());
+		assertEquals(BODY.indexOf("result.add(newEntity);"), anchors.getAddStatementOffset("result"));
+	}
+
+	@Test
+	public void missingAnchors() {
+		MethodBodyAnchors anchors = MethodBodyAnchors.parse("\tint i = 0;\n\ti++;");
+		assertEquals(-1, anchors.getExecuteCallOffset("request"));
+		assertEquals(-1, anchors.getExecuteStatementOffset("request"));
+		assertEquals(-1, anchors.getAddStatementOffset("result"));
+		assertEquals(-1, anchors.getReturnStatementOffset());
+		assertEquals(-1, anchors.getTryBlockEndOffset("ex"));
+		assertEquals(-1, anchors.getCollectionBlockEndOffset("link"));
+		assertTrue(anchors.getFieldCodeRanges("Id", "id").isEmpty());
+	}
+
+	@Test
+	public void collectionBlockClosedOnTheSameLine() {
+		MethodBodyAnchors anchors = MethodBodyAnchors.parse("\tif (link.isCollection()) { result.add(link); }");
+		assertEquals(-1, anchors.getCollectionBlockEndOffset("link"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void invalidBody() {
+		MethodBodyAnchors.parse("\tint i = ;");
+	}
+
+	@Test
+	public void fieldCodeRanges() {
+		String body = "\tOEntity newEntity = request\n"
+				+ "\t\t\t\t.properties(OProperties.string(\"Id\", getId()))\n"
+				+ "\t\t\t\t.properties(OProperties.datetime(\"Changed\", new LocalDateTime(getChanged()))).execute();\n"
+				+ "\tremote_user = newEntity.getProperty(\"user\").getValue();\n"
+				+ "\tDateTime changedDT = (DateTime) newEntity.getProperty(\"Changed\").getValue();\n"
+				+ "\tDate changedConvertedDate = changedDT.toDate();\n"
+				+ "\tentity.setChanged(changedConvertedDate); log(\"Changed\");\n"
+				+ "\tentity.setId((String) newEntity.getProperty(\"Id\").getValue());\n"
+				+ "\tlog(newEntity.getProperty(\"Changed\"));";
+		String expected = "\tOEntity newEntity = request\n"
+				+ "\t\t\t\t.properties(OProperties.string(\"Id\", getId())).execute();\n"
+				+ "\tremote_user = newEntity.getProperty(\"user\").getValue();\n"
+				+ "\t log(\"Changed\");\n"
+				+ "\tentity.setId((String) newEntity.getProperty(\"Id\").getValue());\n"
+				+ "\tlog(newEntity.getProperty(\"Changed\"));";
+
+		List<int[]> ranges = MethodBodyAnchors.parse(body).getFieldCodeRanges("Changed", "changed");
+		assertEquals(4, ranges.size());
+		assertEquals(expected, remove(body, ranges));
+		assertEquals(expected.replace("\n", "\r\n"), remove(body.replace("\n", "\r\n"),
+				MethodBodyAnchors.parse(body.replace("\n", "\r\n")).getFieldCodeRanges("Changed", "changed")));
+	}
+
+	@Test
+	public void fieldCodeRangesOfARenamedLocalField() {
+		String body = "\tentity.setRemote_user((String) newEntity.getProperty(\"user\").getValue());\n"
+				+ "\tentity.setId((String) newEntity.getProperty(\"Id\").getValue());";
+		List<int[]> ranges = MethodBodyAnchors.parse(body).getFieldCodeRanges("user", "remote_user");
+		assertEquals("\tentity.setId((String) newEntity.getProperty(\"Id\").getValue());", remove(body, ranges));
+		assertTrue(MethodBodyAnchors.parse(body).getFieldCodeRanges("user", "user").isEmpty());
+	}
+
+	/*
+	 * Checks every anchor against the offset of the text it has to point to
+	 */
+	private static void assertAnchors(String body) {
+		MethodBodyAnchors anchors = MethodBodyAnchors.parse(body);
+		int execute = body.indexOf(".execute()");
+		assertEquals(execute, anchors.getExecuteCallOffset("request"));
+		assertEquals(body.indexOf("OEntity newEntity"), anchors.getExecuteStatementOffset("request"));
+		assertEquals(body.indexOf("result.add(newEntity)"), anchors.getAddStatementOffset("result"));
+		assertEquals(body.indexOf("return result"), anchors.getReturnStatementOffset());
+		assertEquals(body.lastIndexOf('}', body.indexOf("catch")), anchors.getTryBlockEndOffset("ex"));
+
+		int collectionBlockEnd = body.indexOf('}', body.indexOf("result.add(link)"));
+		while (body.charAt(collectionBlockEnd - 1) != '\n') {
+			collectionBlockEnd--;
+		}
+		assertEquals(collectionBlockEnd, anchors.getCollectionBlockEndOffset("link"));
+
+		int nameStart = body.indexOf("OProperties.string(\"Name\"") - ".properties(".length();
+		while (Character.isWhitespace(body.charAt(nameStart - 1))) {
+			nameStart--;
+		}
+		List<int[]> ranges = anchors.getFieldCodeRanges("Name", "name");
+		assertEquals(1, ranges.size());
+		assertEquals(nameStart, ranges.get(0)[0]);
+		assertEquals(body.indexOf("getName()))") + "getName()))".length(), ranges.get(0)[1]);
+	}
+
+	private static String remove(String body, List<int[]> ranges) {
+		StringBuilder result = new StringBuilder(body);
+		for (int i = ranges.size() - 1; i >= 0; i--) {
+			result.delete(ranges.get(i)[0], ranges.get(i)[1]);
+		}
+		return result.toString();
+	}
+}
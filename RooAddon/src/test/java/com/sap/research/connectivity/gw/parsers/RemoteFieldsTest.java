@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sap.research.connectivity.gw.parsers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RemoteFieldsTest {
+
+	private static final RemoteField ID = new RemoteField("Id", "Id", "String", true);
+	private static final RemoteField USER = new RemoteField("user", "remote_user", "String", false);
+	private static final RemoteField DATE = new RemoteField("Date", "Date", "DateTime", false);
+
+	@Test
+	public void keepsTheOrderOfAddition() {
+		RemoteFields fields = fields(DATE, ID, USER);
+		assertEquals(Arrays.asList(DATE, ID, USER), toList(fields));
+		assertEquals(Arrays.asList("Date", "Id", "user"), new ArrayList<String>(fields.getRemoteNames()));
+		assertEquals(3, fields.size());
+		assertFalse(fields.isEmpty());
+	}
+
+	@Test
+	public void looksUpByRemoteAndLocalName() {
+		RemoteFields fields = fields(ID, USER);
+		assertSame(USER, fields.get("user"));
+		assertSame(USER, fields.getByLocalName("remote_user"));
+		assertTrue(fields.contains("user"));
+		assertFalse(fields.contains("remote_user"));
+		assertNull(fields.get("remote_user"));
+		assertNull(fields.getByLocalName("user"));
+	}
+
+	@Test
+	public void replacesAFieldAtItsPosition() {
+		RemoteField renamedUser = new RemoteField("user", "remote_user2", "String", false);
+		RemoteFields fields = fields(ID, USER, DATE);
+		fields.add(renamedUser);
+
+		assertEquals(Arrays.asList(ID, renamedUser, DATE), toList(fields));
+		assertSame(renamedUser, fields.getByLocalName("remote_user2"));
+		assertNull(fields.getByLocalName("remote_user"));
+		assertEquals(3, fields.size());
+	}
+
+	@Test
+	public void copyIsIndependentAndEqual() {
+		RemoteFields fields = fields(ID, USER);
+		RemoteFields copy = new RemoteFields(fields);
+		assertEquals(fields, copy);
+		assertEquals(fields.hashCode(), copy.hashCode());
+		assertEquals(toList(fields), toList(copy));
+
+		copy.add(DATE);
+		assertFalse(fields.equals(copy));
+		assertFalse(fields.contains("Date"));
+	}
+
+	@Test
+	public void equalityDependsOnTheFields() {
+		assertEquals(fields(ID, USER), fields(ID, USER));
+		assertFalse(fields(ID, USER).equals(fields(ID, new RemoteField("user", "remote_user", "String", true))));
+		assertTrue(new RemoteFields().isEmpty());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void iteratorIsReadOnly() {
+		Iterator<RemoteField> iterator = fields(ID).iterator();
+		iterator.next();
+		iterator.remove();
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void remoteNamesAreReadOnly() {
+		fields(ID).getRemoteNames().clear();
+	}
+
+	private static RemoteFields fields(RemoteField... values) {
+		RemoteFields fields = new RemoteFields();
+		for (RemoteField field : values) {
+			fields.add(field);
+		}
+		return fields;
+	}
+
+	private static List<RemoteField> toList(RemoteFields fields) {
+		List<RemoteField> list = new ArrayList<RemoteField>();
+		for (RemoteField field : fields) {
+			list.add(field);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.sap.research.connectivity.gw.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a domain class connected to a remote entity set of a Gateway namespace whose OData persistence methods are
+ * maintained by the addon in an AspectJ ITD (&lt;class&gt;_Roo_Gateway.aj) instead of in the class itself.
+ *
+ * The annotation is only read from the source code by the addon; projects depend on this artifact, not on the addon.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.SOURCE)
+public @interface RooGatewayEntity {
+
+	/**
+	 * The namespace (endpoint) the class is connected to
+	 */
+	String namespace();
+
+	/**
+	 * The remote entity set the class is connected to; the class must have the same name
+	 */
+	String remoteEntitySet();
+}